@@ -0,0 +1,37 @@
+package com.example.android.products.benchmark;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs {@link ProviderBenchmark} from Gradle. It takes long on the larger catalogs, so the plain
+ * connectedAndroidTest leaves it out; pass -Pbenchmark to run only this, after which the build
+ * copies {@link ProviderBenchmark#RESULTS_FILE} from the app's external files directory, which
+ * adb can read without run-as, to app/build/benchmark.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProviderBenchmarkTest {
+
+    @Test
+    public void runProviderBenchmark() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        File resultsDir = context.getExternalFilesDir(null);
+        assertNotNull("External storage is not available", resultsDir);
+        File results = new File(resultsDir, ProviderBenchmark.RESULTS_FILE);
+        results.delete();
+
+        Log.i(ProviderBenchmark.LOG_TAG, new ProviderBenchmark(context, resultsDir).run());
+
+        assertTrue(results.length() > 0);
+    }
+}
@@ -0,0 +1,220 @@
+package com.example.android.products.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+
+import com.example.android.products.data.ProductContract.InventoryStatsEntry;
+import com.example.android.products.data.ProductContract.ProductEntry;
+import com.example.android.products.data.ProductContract.StockMovementEntry;
+import com.example.android.products.data.ProductContract.SupplierEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Upgrades a database of every older version to the latest one and checks that it ends up with
+ * the same schema as a new database, and that the products written at version 1 survived every
+ * step: prices converted to cents, suppliers split out, counters and the stock movement ledger
+ * seeded, and IDs of deleted rows still never reused after the table rebuilds.
+ */
+@RunWith(Parameterized.class)
+public class ProductMigrationsTest {
+
+    private static final String UPGRADED_DATABASE = "migration_test_upgraded.db";
+    private static final String CREATED_DATABASE = "migration_test_created.db";
+
+    /**
+     * The products table as version 1 shipped it, before any migration
+     */
+    private static final String SQL_CREATE_VERSION_1 = "CREATE TABLE products ("
+            + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + "name TEXT NOT NULL, "
+            + "price FLOAT, "
+            + "quantity INTEGER NOT NULL, "
+            + "supplier TEXT NOT NULL, "
+            + "phone TEXT NOT NULL);";
+
+    @Parameterized.Parameters(name = "from version {0}")
+    public static List<Object[]> versions() {
+        List<Object[]> versions = new ArrayList<>();
+        for (int version = 1; version < ProductMigrations.getLatestVersion(); version++) {
+            versions.add(new Object[]{version});
+        }
+        return versions;
+    }
+
+    private final int mVersion;
+    private Context mContext;
+    private ProductDbHelper mUpgraded;
+    private ProductDbHelper mCreated;
+
+    public ProductMigrationsTest(int version) {
+        mVersion = version;
+    }
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(UPGRADED_DATABASE);
+        mContext.deleteDatabase(CREATED_DATABASE);
+    }
+
+    @After
+    public void tearDown() {
+        if (mUpgraded != null) {
+            mUpgraded.close();
+        }
+        if (mCreated != null) {
+            mCreated.close();
+        }
+        mContext.deleteDatabase(UPGRADED_DATABASE);
+        mContext.deleteDatabase(CREATED_DATABASE);
+    }
+
+    @Test
+    public void upgradeMatchesNewDatabase() {
+        createDatabase(mVersion);
+
+        mUpgraded = new ProductDbHelper(mContext, UPGRADED_DATABASE, ProductDbHelper.Tuning.DEFAULT);
+        SQLiteDatabase upgraded = mUpgraded.getWritableDatabase();
+        mCreated = new ProductDbHelper(mContext, CREATED_DATABASE, ProductDbHelper.Tuning.DEFAULT);
+        SQLiteDatabase created = mCreated.getWritableDatabase();
+
+        assertEquals(ProductMigrations.getLatestVersion(), upgraded.getVersion());
+        assertEquals(readSchema(created), readSchema(upgraded));
+        assertEquals("ok", DatabaseUtils.stringForQuery(upgraded, "PRAGMA integrity_check", null));
+        assertNoRows(upgraded, "PRAGMA foreign_key_check");
+    }
+
+    @Test
+    public void upgradeKeepsProducts() {
+        createDatabase(mVersion);
+
+        mUpgraded = new ProductDbHelper(mContext, UPGRADED_DATABASE, ProductDbHelper.Tuning.DEFAULT);
+        SQLiteDatabase db = mUpgraded.getWritableDatabase();
+
+        Cursor cursor = db.query(ProductEntry.VIEW_NAME, new String[]{ProductEntry._ID,
+                        ProductEntry.COLUMN_PRODUCT_NAME, ProductEntry.COLUMN_PRODUCT_PRICE,
+                        ProductEntry.COLUMN_PRODUCT_QUANTITY, ProductEntry.COLUMN_SUPPLIER_NAME,
+                        ProductEntry.COLUMN_SUPPlIER_PHONE},
+                null, null, null, null, ProductEntry._ID);
+        try {
+            assertEquals(3, cursor.getCount());
+            assertProduct(cursor, 1, "Widget", 125, 3, "Acme", "555-0100");
+            assertProduct(cursor, 2, "Gadget", 0, 0, "Acme", "555-0100");
+            assertProduct(cursor, 3, "Bolt", 10, 40, "Bolts Inc", "555-0199");
+        } finally {
+            cursor.close();
+        }
+
+        assertEquals(2, DatabaseUtils.queryNumEntries(db, SupplierEntry.TABLE_NAME));
+        assertEquals(3, DatabaseUtils.longForQuery(db, "SELECT COUNT(DISTINCT "
+                + ProductEntry.COLUMN_SYNC_ID + ") FROM " + ProductEntry.TABLE_NAME, null));
+
+        // Counters of the whole catalog
+        assertEquals("3|43|775|1", DatabaseUtils.stringForQuery(db, "SELECT "
+                + InventoryStatsEntry.COLUMN_PRODUCT_COUNT + " || '|' || "
+                + InventoryStatsEntry.COLUMN_TOTAL_QUANTITY + " || '|' || "
+                + InventoryStatsEntry.COLUMN_STOCK_VALUE + " || '|' || "
+                + InventoryStatsEntry.COLUMN_OUT_OF_STOCK_COUNT + " FROM " + InventoryStatsEntry.TABLE_NAME
+                + " WHERE " + InventoryStatsEntry.COLUMN_SCOPE_ID + " = " + InventoryStatsEntry.SCOPE_ALL, null));
+
+        // The quantity of every product is the sum of its movements
+        assertNoRows(db, "SELECT " + ProductEntry._ID + " FROM " + ProductEntry.TABLE_NAME + " p WHERE "
+                + ProductEntry.COLUMN_PRODUCT_QUANTITY + " != (SELECT IFNULL(SUM("
+                + StockMovementEntry.COLUMN_DELTA + "), 0) FROM " + StockMovementEntry.TABLE_NAME
+                + " WHERE " + StockMovementEntry.COLUMN_PRODUCT_ID + " = p." + ProductEntry._ID + ")");
+
+        // Supplier names are searchable
+        assertEquals(3, DatabaseUtils.longForQuery(db, "SELECT docid FROM " + ProductEntry.FTS_TABLE_NAME
+                + " WHERE " + ProductEntry.FTS_TABLE_NAME + " MATCH 'bolts'", null));
+
+        // The product deleted at version 1 had ID 4, which the rebuilt table must not hand out again
+        db.execSQL("INSERT INTO " + ProductEntry.TABLE_NAME + " (" + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                + ProductEntry.COLUMN_PRODUCT_PRICE + ", " + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", "
+                + ProductEntry.COLUMN_SUPPLIER_ID + ") VALUES ('Nut', 5, 1, 1)");
+        assertEquals(5, DatabaseUtils.longForQuery(db, "SELECT MAX(" + ProductEntry._ID + ") FROM "
+                + ProductEntry.TABLE_NAME, null));
+    }
+
+    /**
+     * Write the version 1 catalog, bring it to the given version and close it, as an older
+     * version of the app would have left it.
+     */
+    private void createDatabase(int version) {
+        SQLiteDatabase db = mContext.openOrCreateDatabase(UPGRADED_DATABASE, Context.MODE_PRIVATE, null);
+        try {
+            db.execSQL(SQL_CREATE_VERSION_1);
+            String insert = "INSERT INTO products (name, price, quantity, supplier, phone) VALUES ";
+            db.execSQL(insert + "('Widget', 1.25, 3, 'Acme', '555-0100')");
+            db.execSQL(insert + "('Gadget', NULL, 0, 'Acme', '555-0100')");
+            db.execSQL(insert + "('Bolt', 0.1, 40, 'Bolts Inc', '555-0199')");
+            db.execSQL(insert + "('Removed', 2.0, 1, 'Acme', '555-0100')");
+            db.execSQL("DELETE FROM products WHERE name = 'Removed'");
+
+            for (ProductMigrations.Migration migration : ProductMigrations.getMigrations(1, version)) {
+                db.beginTransaction();
+                try {
+                    migration.migrate(db);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+            db.setVersion(version);
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Return the SQL of every table, index, view and trigger by name.
+     */
+    private static Map<String, String> readSchema(SQLiteDatabase db) {
+        Map<String, String> schema = new TreeMap<>();
+        Cursor cursor = db.rawQuery("SELECT name, sql FROM sqlite_master WHERE sql IS NOT NULL", null);
+        try {
+            while (cursor.moveToNext()) {
+                schema.put(cursor.getString(0), cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return schema;
+    }
+
+    private static void assertNoRows(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            assertFalse(sql, cursor.moveToFirst());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void assertProduct(Cursor cursor, long id, String name, long priceCents, int quantity,
+                                      String supplier, String phone) {
+        assertTrue(cursor.moveToNext());
+        assertEquals(id, cursor.getLong(0));
+        assertEquals(name, cursor.getString(1));
+        assertEquals(priceCents, cursor.getLong(2));
+        assertEquals(quantity, cursor.getInt(3));
+        assertEquals(supplier, cursor.getString(4));
+        assertEquals(phone, cursor.getString(5));
+    }
+}
@@ -0,0 +1,261 @@
+package com.example.android.products.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.pm.ProviderInfo;
+import android.database.Cursor;
+import android.database.DatabaseErrorHandler;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.mock.MockContentResolver;
+
+import com.example.android.products.data.ProductContract.ProductEntry;
+import com.example.android.products.data.ProductContract.StockMovementEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Queues quantity changes of the same product on a {@link ProductWriter} whose writes only start
+ * when the test runs them, so they are coalesced, and checks that every change still has the
+ * result it would have had on its own: a sale without stock is rejected even if a restock queued
+ * behind it would have covered it. Sales and adjustments are never coalesced with each other,
+ * so the stock movements keep their reasons.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductWriterTest {
+
+    private static final String DATABASE_PREFIX = "writer_test_";
+
+    private TestContext mContext;
+    private ProductProvider mProvider;
+    private ProductWriter mWriter;
+    private final List<Runnable> mQueued = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        mContext = new TestContext(InstrumentationRegistry.getTargetContext());
+        mContext.deleteDatabase(ProductDbHelper.DATABASE_NAME);
+        ProviderInfo info = new ProviderInfo();
+        info.authority = ProductContract.CONTENT_AUTHORITY;
+        mProvider = new ProductProvider();
+        mProvider.attachInfo(mContext, info);
+        mContext.mResolver.addProvider(ProductContract.CONTENT_AUTHORITY, mProvider);
+        mWriter = new ProductWriter(mContext.mResolver, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                mQueued.add(command);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+        mContext.deleteDatabase(ProductDbHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void rejectedSaleStaysRejectedWhenARestockIsQueuedBehindIt() throws Exception {
+        long id = insert(0);
+
+        Results results = new Results(2);
+        mWriter.adjustQuantity(id, -1, results.callback(0));
+        mWriter.adjustQuantity(id, 5, results.callback(1));
+        runQueued();
+
+        assertEquals(Arrays.asList(-1L, 5L), results.await());
+        assertEquals(5, queryQuantity(id));
+        assertEquals(Arrays.asList(5L), queryMovementDeltas(id));
+    }
+
+    @Test
+    public void coalescedChangesApplyInOrder() throws Exception {
+        long id = insert(1);
+
+        Results results = new Results(4);
+        mWriter.adjustQuantity(id, 2, results.callback(0));
+        mWriter.adjustQuantity(id, -1, results.callback(1));
+        mWriter.adjustQuantity(id, -3, results.callback(2));
+        mWriter.adjustQuantity(id, -2, results.callback(3));
+        runQueued();
+
+        assertEquals(Arrays.asList(3L, 2L, -1L, 0L), results.await());
+        assertEquals(0, queryQuantity(id));
+        assertEquals(Arrays.asList(-2L, -1L, 2L, 1L), queryMovementDeltas(id));
+    }
+
+    @Test
+    public void salesAndAdjustmentsKeepTheirReasons() throws Exception {
+        long id = insert(3);
+
+        Results results = new Results(4);
+        mWriter.sell(id, 1, results.callback(0));
+        mWriter.sell(id, 1, results.callback(1));
+        mWriter.adjustQuantity(id, 4, results.callback(2));
+        mWriter.sell(id, 2, results.callback(3));
+        runQueued(3);
+
+        assertEquals(Arrays.asList(2L, 1L, 5L, 3L), results.await());
+        assertEquals(Arrays.asList(StockMovementEntry.REASON_SALE, StockMovementEntry.REASON_ADJUSTMENT,
+                StockMovementEntry.REASON_SALE, StockMovementEntry.REASON_SALE,
+                StockMovementEntry.REASON_INITIAL), queryMovementReasons(id));
+    }
+
+    /**
+     * Run the writes queued so far, which all coalesced into one
+     */
+    private void runQueued() {
+        runQueued(1);
+    }
+
+    /**
+     * Run the writes queued so far, in order, after checking how many there are
+     */
+    private void runQueued(int count) {
+        assertEquals(count, mQueued.size());
+        while (!mQueued.isEmpty()) {
+            mQueued.remove(0).run();
+        }
+    }
+
+    private long insert(int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, "Widget");
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 100);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+        values.put(ProductEntry.COLUMN_SUPPLIER_NAME, "Acme");
+        values.put(ProductEntry.COLUMN_SUPPlIER_PHONE, "555-0100");
+        return ContentUris.parseId(mContext.mResolver.insert(ProductEntry.CONTENT_URI, values));
+    }
+
+    private long queryQuantity(long id) {
+        Cursor cursor = mContext.mResolver.query(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id),
+                new String[]{ProductEntry.COLUMN_PRODUCT_QUANTITY}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return the deltas of the stock movements of a product, newest first
+     */
+    private List<Long> queryMovementDeltas(long id) {
+        Cursor cursor = mContext.mResolver.query(StockMovementEntry.buildProductUri(id),
+                new String[]{StockMovementEntry.COLUMN_DELTA}, null, null, null);
+        List<Long> deltas = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                deltas.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return deltas;
+    }
+
+    /**
+     * @return the reasons of the stock movements of a product, newest first
+     */
+    private List<Integer> queryMovementReasons(long id) {
+        Cursor cursor = mContext.mResolver.query(StockMovementEntry.buildProductUri(id),
+                new String[]{StockMovementEntry.COLUMN_REASON}, null, null, null);
+        List<Integer> reasons = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                reasons.add(cursor.getInt(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return reasons;
+    }
+
+    /**
+     * Collects what the callbacks of a number of writes received on the main thread.
+     */
+    private static final class Results {
+
+        private final Long[] mResults;
+        private final CountDownLatch mDone;
+
+        Results(int count) {
+            mResults = new Long[count];
+            mDone = new CountDownLatch(count);
+        }
+
+        ProductWriter.Callback<Long> callback(final int index) {
+            return new ProductWriter.Callback<Long>() {
+                @Override
+                public void onComplete(Long result) {
+                    mResults[index] = result;
+                    mDone.countDown();
+                }
+            };
+        }
+
+        List<Long> await() throws InterruptedException {
+            assertTrue(mDone.await(5, TimeUnit.SECONDS));
+            return Arrays.asList(mResults);
+        }
+    }
+
+    /**
+     * Context whose databases are kept apart from the app's own, and whose resolver only knows
+     * the provider under test.
+     */
+    private static final class TestContext extends ContextWrapper {
+
+        final MockContentResolver mResolver = new MockContentResolver();
+
+        TestContext(Context base) {
+            super(base);
+        }
+
+        @Override
+        public ContentResolver getContentResolver() {
+            return mResolver;
+        }
+
+        @Override
+        public File getDatabasePath(String name) {
+            return super.getDatabasePath(DATABASE_PREFIX + name);
+        }
+
+        @Override
+        public SQLiteDatabase openOrCreateDatabase(String name, int mode, SQLiteDatabase.CursorFactory factory) {
+            return super.openOrCreateDatabase(DATABASE_PREFIX + name, mode, factory);
+        }
+
+        @Override
+        public SQLiteDatabase openOrCreateDatabase(String name, int mode, SQLiteDatabase.CursorFactory factory,
+                                                   DatabaseErrorHandler errorHandler) {
+            return super.openOrCreateDatabase(DATABASE_PREFIX + name, mode, factory, errorHandler);
+        }
+
+        @Override
+        public boolean deleteDatabase(String name) {
+            return super.deleteDatabase(DATABASE_PREFIX + name);
+        }
+    }
+}
@@ -0,0 +1,431 @@
+package com.example.android.products.sync;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.pm.ProviderInfo;
+import android.database.Cursor;
+import android.database.DatabaseErrorHandler;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.mock.MockContentResolver;
+
+import com.example.android.products.data.ProductContract;
+import com.example.android.products.data.ProductContract.ProductEntry;
+import com.example.android.products.data.ProductDbHelper;
+import com.example.android.products.data.ProductProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Syncs two devices through a {@link FakeSyncServer}, each a {@link ProductProvider} over its own
+ * scratch database, and checks that conflicting changes leave both with the same catalog: edits
+ * of the same column after the later one was pushed and dropped from the journal, sales of the
+ * last unit on both devices, a restore from a snapshot, and deletes against updates. Syncs that
+ * lose the connection partway must pick up where they stopped without sending or applying a
+ * change twice.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SyncEngineTest {
+
+    private static final String SNAPSHOT_FILE = "sync_test.snapshot";
+
+    private Context mContext;
+    private FakeSyncServer mServer;
+    private Device mFirst;
+    private Device mSecond;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mServer = new FakeSyncServer();
+        mFirst = new Device(mContext, "sync_test_first_", mServer);
+        mSecond = new Device(mContext, "sync_test_second_", mServer);
+    }
+
+    @After
+    public void tearDown() {
+        mFirst.close();
+        mSecond.close();
+        new File(mContext.getCacheDir(), SNAPSHOT_FILE).delete();
+    }
+
+    @Test
+    public void laterEditWinsAfterItWasPushed() throws Exception {
+        long widget = mFirst.insert("Widget", 100, 5);
+        mFirst.sync();
+        mSecond.sync();
+
+        mFirst.setPrice(widget, 150);
+        mFirst.sync();
+        // Make sure the second edit is later
+        Thread.sleep(10);
+        // The second device pushes its edit, which leaves its journal, before it pulls the
+        // earlier one
+        mSecond.setPrice(mSecond.findProduct("Widget"), 200);
+        mSecond.sync();
+        mFirst.sync();
+
+        assertEquals(Collections.singletonList("Widget|200|5"), mFirst.readCatalog());
+        assertEquals(mFirst.readCatalog(), mSecond.readCatalog());
+    }
+
+    @Test
+    public void quantityDeltasAddUpInAnyOrder() throws Exception {
+        long widget = mFirst.insert("Widget", 100, 1);
+        mFirst.sync();
+        mSecond.sync();
+
+        // Both devices sell the last unit, and the second one restocks before it hears of the
+        // first sale, so the devices get the deltas in different orders
+        long secondWidget = mSecond.findProduct("Widget");
+        mFirst.sell(widget);
+        mSecond.sell(secondWidget);
+        mSecond.adjustQuantity(secondWidget, 3);
+        mFirst.sync();
+        mSecond.sync();
+        mFirst.sync();
+
+        assertEquals(Collections.singletonList("Widget|100|2"), mFirst.readCatalog());
+        assertEquals(mFirst.readCatalog(), mSecond.readCatalog());
+    }
+
+    @Test
+    public void restoreReachesOtherDevices() throws Exception {
+        long widget = mFirst.insert("Widget", 100, 5);
+        long gadget = mFirst.insert("Gadget", 200, 1);
+        mFirst.sync();
+        mSecond.sync();
+        File snapshot = new File(mContext.getCacheDir(), SNAPSHOT_FILE);
+        mFirst.writeSnapshot(snapshot);
+
+        mFirst.setPrice(widget, 150);
+        mFirst.sell(widget);
+        mFirst.delete(gadget);
+        mFirst.insert("Bolt", 10, 40);
+        mFirst.sync();
+        mSecond.sync();
+
+        // The deleted gadget comes back as a new product
+        mFirst.restoreSnapshot(snapshot);
+        mFirst.sync();
+        mSecond.sync();
+
+        assertEquals(Arrays.asList("Gadget|200|1", "Widget|100|5"), mFirst.readCatalog());
+        assertEquals(mFirst.readCatalog(), mSecond.readCatalog());
+    }
+
+    @Test
+    public void deleteWinsOverConcurrentUpdate() throws Exception {
+        long widget = mFirst.insert("Widget", 100, 5);
+        long gadget = mFirst.insert("Gadget", 200, 1);
+        mFirst.sync();
+        mSecond.sync();
+
+        // The widget's delete reaches the server before the update, the gadget's after it
+        mFirst.delete(widget);
+        mFirst.sync();
+        long secondWidget = mSecond.findProduct("Widget");
+        mSecond.setPrice(secondWidget, 150);
+        mSecond.sell(secondWidget);
+        long secondGadget = mSecond.findProduct("Gadget");
+        mSecond.setPrice(secondGadget, 250);
+        mSecond.adjustQuantity(secondGadget, 4);
+        mSecond.sync();
+        mFirst.delete(gadget);
+        mFirst.sync();
+        mSecond.sync();
+
+        assertEquals(Collections.<String>emptyList(), mFirst.readCatalog());
+        assertEquals(mFirst.readCatalog(), mSecond.readCatalog());
+    }
+
+    @Test
+    public void pushResumesAfterLostAcknowledgement() throws Exception {
+        InterruptedServer server = new InterruptedServer(mServer);
+        Device first = new Device(mContext, "sync_test_interrupted_", server);
+        try {
+            long widget = first.insert("Widget", 100, 0);
+            // More changes than fit in one batch, so the push stops partway
+            for (int i = 0; i < SyncEngine.BATCH_SIZE + 50; i++) {
+                first.adjustQuantity(widget, 1);
+            }
+
+            // The first batch goes through, the server stores the second, but the device never
+            // hears so and sends it again
+            server.losePush(2);
+            try {
+                first.sync();
+                fail("Sync should have lost the connection");
+            } catch (IOException expected) {
+            }
+            mServer.setOffline(false);
+            first.sync();
+            mSecond.sync();
+
+            assertEquals(Collections.singletonList("Widget|100|" + (SyncEngine.BATCH_SIZE + 50)),
+                    mSecond.readCatalog());
+            assertEquals(first.readCatalog(), mSecond.readCatalog());
+        } finally {
+            first.close();
+        }
+    }
+
+    @Test
+    public void pullResumesAfterLostConnection() throws Exception {
+        long widget = mFirst.insert("Widget", 100, 0);
+        for (int i = 0; i < SyncEngine.BATCH_SIZE + 50; i++) {
+            mFirst.adjustQuantity(widget, 1);
+        }
+        mFirst.sync();
+
+        InterruptedServer server = new InterruptedServer(mServer);
+        Device second = new Device(mContext, "sync_test_interrupted_", server);
+        try {
+            // The first batch is applied, the second never arrives
+            server.losePull(2);
+            try {
+                second.sync();
+                fail("Sync should have lost the connection");
+            } catch (IOException expected) {
+            }
+            mServer.setOffline(false);
+            second.sync();
+
+            assertEquals(Collections.singletonList("Widget|100|" + (SyncEngine.BATCH_SIZE + 50)),
+                    second.readCatalog());
+            assertEquals(mFirst.readCatalog(), second.readCatalog());
+        } finally {
+            second.close();
+        }
+    }
+
+    /**
+     * Connection to a server that is lost at a chosen request: a push after the server stored
+     * the changes, so the device never learns they were acknowledged, or a pull before it reaches
+     * the server. The server is then offline until the test brings it back.
+     */
+    private static final class InterruptedServer implements SyncServer {
+
+        private final FakeSyncServer mServer;
+        private int mPushesUntilLost;
+        private int mPullsUntilLost;
+
+        InterruptedServer(FakeSyncServer server) {
+            mServer = server;
+        }
+
+        /**
+         * Lose the connection at the given push, counting from 1
+         */
+        void losePush(int push) {
+            mPushesUntilLost = push;
+        }
+
+        /**
+         * Lose the connection at the given pull, counting from 1
+         */
+        void losePull(int pull) {
+            mPullsUntilLost = pull;
+        }
+
+        @Override
+        public long push(String deviceId, List<ProductChange> changes) throws IOException {
+            long acknowledged = mServer.push(deviceId, changes);
+            if (--mPushesUntilLost == 0) {
+                mServer.setOffline(true);
+                throw new IOException("Connection lost before the acknowledgement");
+            }
+            return acknowledged;
+        }
+
+        @Override
+        public Batch pull(String deviceId, long sinceVersion, int limit) throws IOException {
+            if (--mPullsUntilLost == 0) {
+                mServer.setOffline(true);
+            }
+            return mServer.pull(deviceId, sinceVersion, limit);
+        }
+    }
+
+    /**
+     * A device with its own database, which its sync engine reaches through a resolver of its own
+     * the way it reaches the app's provider.
+     */
+    private static final class Device {
+
+        private final DeviceContext mContext;
+        private final ProductProvider mProvider;
+        private final SyncEngine mEngine;
+
+        Device(Context base, String prefix, SyncServer server) {
+            mContext = new DeviceContext(base, prefix);
+            mContext.deleteDatabase(ProductDbHelper.DATABASE_NAME);
+            ProviderInfo info = new ProviderInfo();
+            info.authority = ProductContract.CONTENT_AUTHORITY;
+            mProvider = new ProductProvider();
+            mProvider.attachInfo(mContext, info);
+            mContext.mResolver.addProvider(ProductContract.CONTENT_AUTHORITY, mProvider);
+            mEngine = new SyncEngine(mContext, server);
+        }
+
+        void sync() throws IOException {
+            mEngine.sync();
+        }
+
+        long insert(String name, long priceCents, int quantity) {
+            ContentValues values = new ContentValues();
+            values.put(ProductEntry.COLUMN_PRODUCT_NAME, name);
+            values.put(ProductEntry.COLUMN_PRODUCT_PRICE, priceCents);
+            values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+            values.put(ProductEntry.COLUMN_SUPPLIER_NAME, "Acme");
+            values.put(ProductEntry.COLUMN_SUPPlIER_PHONE, "555-0100");
+            return ContentUris.parseId(mContext.mResolver.insert(ProductEntry.CONTENT_URI, values));
+        }
+
+        void setPrice(long id, long priceCents) {
+            ContentValues values = new ContentValues();
+            values.put(ProductEntry.COLUMN_PRODUCT_PRICE, priceCents);
+            assertEquals(1, mContext.mResolver.update(productUri(id), values, null, null));
+        }
+
+        void sell(long id) {
+            mContext.mResolver.call(ProductEntry.CONTENT_URI, ProductEntry.METHOD_SELL,
+                    String.valueOf(id), null);
+        }
+
+        void adjustQuantity(long id, int delta) {
+            Bundle extras = new Bundle();
+            extras.putInt(ProductEntry.EXTRA_DELTA, delta);
+            mContext.mResolver.call(ProductEntry.CONTENT_URI, ProductEntry.METHOD_ADJUST_QUANTITY,
+                    String.valueOf(id), extras);
+        }
+
+        void delete(long id) {
+            assertEquals(1, mContext.mResolver.delete(productUri(id), null, null));
+        }
+
+        long findProduct(String name) {
+            Cursor cursor = mContext.mResolver.query(ProductEntry.CONTENT_URI, new String[]{ProductEntry._ID},
+                    ProductEntry.COLUMN_PRODUCT_NAME + "=?", new String[]{name}, null);
+            try {
+                assertEquals(1, cursor.getCount());
+                cursor.moveToFirst();
+                return cursor.getLong(0);
+            } finally {
+                cursor.close();
+            }
+        }
+
+        /**
+         * @return name, price and quantity of every product, by name
+         */
+        List<String> readCatalog() {
+            Cursor cursor = mContext.mResolver.query(ProductEntry.CONTENT_URI, new String[]{
+                            ProductEntry.COLUMN_PRODUCT_NAME, ProductEntry.COLUMN_PRODUCT_PRICE,
+                            ProductEntry.COLUMN_PRODUCT_QUANTITY},
+                    null, null, ProductEntry.COLUMN_PRODUCT_NAME);
+            List<String> products = new ArrayList<>();
+            try {
+                while (cursor.moveToNext()) {
+                    products.add(cursor.getString(0) + "|" + cursor.getLong(1) + "|" + cursor.getLong(2));
+                }
+            } finally {
+                cursor.close();
+            }
+            return products;
+        }
+
+        void writeSnapshot(File file) throws IOException {
+            ParcelFileDescriptor fd = ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_WRITE
+                    | ParcelFileDescriptor.MODE_CREATE | ParcelFileDescriptor.MODE_TRUNCATE);
+            try {
+                Bundle extras = new Bundle();
+                extras.putParcelable(ProductEntry.EXTRA_FILE_DESCRIPTOR, fd);
+                mContext.mResolver.call(ProductEntry.CONTENT_URI, ProductEntry.METHOD_WRITE_SNAPSHOT, null, extras);
+            } finally {
+                fd.close();
+            }
+        }
+
+        void restoreSnapshot(File file) throws IOException {
+            ParcelFileDescriptor fd = ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+            try {
+                Bundle extras = new Bundle();
+                extras.putParcelable(ProductEntry.EXTRA_FILE_DESCRIPTOR, fd);
+                mContext.mResolver.call(ProductEntry.CONTENT_URI, ProductEntry.METHOD_RESTORE_SNAPSHOT, null, extras);
+            } finally {
+                fd.close();
+            }
+        }
+
+        void close() {
+            mProvider.shutdown();
+            mContext.deleteDatabase(ProductDbHelper.DATABASE_NAME);
+        }
+
+        private static Uri productUri(long id) {
+            return ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id);
+        }
+    }
+
+    /**
+     * Context of a device: database names get a prefix, so each device has its own, and the
+     * resolver only knows the device's provider.
+     */
+    private static final class DeviceContext extends ContextWrapper {
+
+        final MockContentResolver mResolver = new MockContentResolver();
+        private final String mPrefix;
+
+        DeviceContext(Context base, String prefix) {
+            super(base);
+            mPrefix = prefix;
+        }
+
+        @Override
+        public ContentResolver getContentResolver() {
+            return mResolver;
+        }
+
+        @Override
+        public File getDatabasePath(String name) {
+            return super.getDatabasePath(mPrefix + name);
+        }
+
+        @Override
+        public SQLiteDatabase openOrCreateDatabase(String name, int mode, SQLiteDatabase.CursorFactory factory) {
+            return super.openOrCreateDatabase(mPrefix + name, mode, factory);
+        }
+
+        @Override
+        public SQLiteDatabase openOrCreateDatabase(String name, int mode, SQLiteDatabase.CursorFactory factory,
+                                                   DatabaseErrorHandler errorHandler) {
+            return super.openOrCreateDatabase(mPrefix + name, mode, factory, errorHandler);
+        }
+
+        @Override
+        public boolean deleteDatabase(String name) {
+            return super.deleteDatabase(mPrefix + name);
+        }
+    }
+}
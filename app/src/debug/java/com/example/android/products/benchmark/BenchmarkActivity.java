@@ -0,0 +1,85 @@
+package com.example.android.products.benchmark;
+
+import android.app.Activity;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.util.Log;
+import android.widget.ScrollView;
+import android.widget.TextView;
+
+/**
+ * Debug-only screen that runs the data layer benchmarks on a background thread and shows the
+ * results. The results are also written to the log. Set {@link #EXTRA_SUITE} to run a single
+ * suite, such as {@link #SUITE_PROVIDER} for the provider operations that have JSON results.
+ */
+public class BenchmarkActivity extends Activity {
+
+    public static final String LOG_TAG = BenchmarkActivity.class.getSimpleName();
+
+    /**
+     * Name of the benchmark suite to run, or all of them if missing.
+     * <p>
+     * Type: String
+     */
+    public static final String EXTRA_SUITE = "suite";
+
+    public static final String SUITE_WAL = "wal";
+    public static final String SUITE_RESTORE = "restore";
+    public static final String SUITE_PROVIDER = "provider";
+    public static final String SUITE_STATEMENTS = "statements";
+    public static final String SUITE_LIST = "list";
+
+    private TextView mResultsView;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        mResultsView = new TextView(this);
+        mResultsView.setText("Running benchmarks...");
+        ScrollView scrollView = new ScrollView(this);
+        scrollView.addView(mResultsView);
+        setContentView(scrollView);
+
+        new BenchmarkTask(getIntent().getStringExtra(EXTRA_SUITE)).execute();
+    }
+
+    private class BenchmarkTask extends AsyncTask<Void, Void, String> {
+
+        /**
+         * Suite to run, or null for all of them
+         */
+        private final String mSuite;
+
+        BenchmarkTask(String suite) {
+            mSuite = suite;
+        }
+
+        @Override
+        protected String doInBackground(Void... params) {
+            StringBuilder results = new StringBuilder();
+            if (mSuite == null || SUITE_WAL.equals(mSuite)) {
+                results.append(new WalBenchmark(getApplicationContext()).run()).append("\n");
+            }
+            if (mSuite == null || SUITE_RESTORE.equals(mSuite)) {
+                results.append(new RestoreBenchmark(getApplicationContext()).run()).append("\n");
+            }
+            if (mSuite == null || SUITE_PROVIDER.equals(mSuite)) {
+                results.append(new ProviderBenchmark(getApplicationContext()).run()).append("\n");
+            }
+            if (mSuite == null || SUITE_STATEMENTS.equals(mSuite)) {
+                results.append(new StatementBenchmark(getApplicationContext()).run()).append("\n");
+            }
+            if (mSuite == null || SUITE_LIST.equals(mSuite)) {
+                // Lays out rows on the main thread, so it needs the activity and its theme
+                results.append(new ListUpdateBenchmark(BenchmarkActivity.this).run()).append("\n");
+            }
+            return results.toString();
+        }
+
+        @Override
+        protected void onPostExecute(String results) {
+            Log.i(LOG_TAG, results);
+            mResultsView.setText(results);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.android.products.benchmark;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Collects latency samples in nanoseconds and reports percentiles.
+ */
+class LatencyStats {
+
+    private long[] mSamples;
+    private int mCount;
+    private long mTotalNanos;
+
+    LatencyStats(int expectedSamples) {
+        mSamples = new long[Math.max(expectedSamples, 16)];
+    }
+
+    void add(long nanos) {
+        if (mCount == mSamples.length) {
+            mSamples = Arrays.copyOf(mSamples, mCount * 2);
+        }
+        mSamples[mCount++] = nanos;
+        mTotalNanos += nanos;
+    }
+
+    int count() {
+        return mCount;
+    }
+
+    /**
+     * @param itemsPerSample number of rows or operations each sample covers
+     * @return the items per second over the time of all samples together
+     */
+    double throughput(int itemsPerSample) {
+        return mTotalNanos > 0 ? (double) mCount * itemsPerSample * 1e9 / mTotalNanos : 0;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the latency at the given percentile, in microseconds
+     */
+    double percentileMicros(double percentile) {
+        if (mCount == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(mSamples, mCount);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100.0 * mCount) - 1;
+        return sorted[Math.min(Math.max(index, 0), mCount - 1)] / 1000.0;
+    }
+
+    /**
+     * Return the sample count and percentiles in microseconds, for machine-readable results.
+     */
+    JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("count", mCount);
+        json.put("p50_us", percentileMicros(50));
+        json.put("p90_us", percentileMicros(90));
+        json.put("p99_us", percentileMicros(99));
+        json.put("max_us", percentileMicros(100));
+        return json;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "n=%d p50=%.1fus p90=%.1fus p99=%.1fus max=%.1fus",
+                mCount, percentileMicros(50), percentileMicros(90), percentileMicros(99),
+                percentileMicros(100));
+    }
+}
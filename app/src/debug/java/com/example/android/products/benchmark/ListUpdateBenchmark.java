@@ -0,0 +1,344 @@
+package com.example.android.products.benchmark;
+
+import android.app.Activity;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.support.annotation.NonNull;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.CursorAdapter;
+import android.widget.ListView;
+import android.widget.TextView;
+
+import com.example.android.products.R;
+import com.example.android.products.data.ProductContract.ProductEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures what one change to a product costs the catalog list, the way the catalog screen used
+ * to apply it (a new cursor swapped into a {@link CursorAdapter} on a {@link ListView}, which
+ * rebinds every visible row) and the way it does now (a new list diffed against the current one
+ * off the main thread, and only the changed rows rebound in a {@link RecyclerView}). Each update
+ * sells one unit of a visible product in a window of loaded pages, and the main thread time
+ * covers applying the update and the layout pass that rebinds the rows.
+ * <p>
+ * Both lists are laid out off screen with the app's row layout, so the numbers leave out drawing
+ * and item animations, which are the same either way.
+ */
+class ListUpdateBenchmark {
+
+    /**
+     * Rows loaded in the catalog screen's window of pages
+     */
+    private static final int ROWS = 250;
+    private static final int UPDATES = 200;
+
+    /**
+     * Size of the screen the lists are laid out on, in pixels
+     */
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+
+    private static final String[] COLUMNS = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY};
+
+    private final Activity mActivity;
+
+    /**
+     * @param activity to inflate the rows with its theme and to run on its main thread
+     */
+    ListUpdateBenchmark(Activity activity) {
+        mActivity = activity;
+    }
+
+    /**
+     * Apply the same updates both ways and return a readable report. Must not be called on the
+     * main thread, which it waits for.
+     */
+    String run() {
+        return "Catalog list update, " + UPDATES + " single product changes in " + ROWS + " rows\n"
+                + cursorAdapter() + diffedAdapter();
+    }
+
+    /**
+     * The old way: every change delivers a new cursor, and swapping it in invalidates every row.
+     */
+    private String cursorAdapter() {
+        final ListView listView = new ListView(mActivity);
+        final BenchmarkCursorAdapter adapter = new BenchmarkCursorAdapter(mActivity);
+        final LatencyStats mainThread = new LatencyStats(UPDATES);
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                adapter.swapCursor(newCursor(newItems()));
+                listView.setAdapter(adapter);
+                layout(listView);
+            }
+        });
+
+        List<Item> items = newItems();
+        adapter.mBinds = 0;
+        for (int i = 0; i < UPDATES; i++) {
+            items = sell(items, i);
+            // The loader builds the cursor on its own thread
+            final Cursor cursor = newCursor(items);
+            runOnMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    long start = System.nanoTime();
+                    Cursor old = adapter.swapCursor(cursor);
+                    layout(listView);
+                    mainThread.add(System.nanoTime() - start);
+                    old.close();
+                }
+            });
+        }
+        adapter.getCursor().close();
+        return "cursor adapter, main thread: " + mainThread + ", "
+                + adapter.mBinds / UPDATES + " rows bound per update\n";
+    }
+
+    /**
+     * The new way: every change delivers a new list, which is diffed in the background and only
+     * the changed row is rebound.
+     */
+    private String diffedAdapter() {
+        final RecyclerView recyclerView = new RecyclerView(mActivity);
+        final BenchmarkListAdapter adapter = new BenchmarkListAdapter(mActivity);
+        final LatencyStats background = new LatencyStats(UPDATES);
+        final LatencyStats mainThread = new LatencyStats(UPDATES);
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                recyclerView.setLayoutManager(new LinearLayoutManager(mActivity));
+                recyclerView.setItemAnimator(null);
+                adapter.mItems = newItems();
+                recyclerView.setAdapter(adapter);
+                layout(recyclerView);
+            }
+        });
+
+        List<Item> items = newItems();
+        adapter.mBinds = 0;
+        for (int i = 0; i < UPDATES; i++) {
+            final List<Item> newItems = sell(items, i);
+            long diffStart = System.nanoTime();
+            final DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new ItemDiff(items, newItems));
+            background.add(System.nanoTime() - diffStart);
+            items = newItems;
+            runOnMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    long start = System.nanoTime();
+                    adapter.mItems = newItems;
+                    diff.dispatchUpdatesTo(adapter);
+                    layout(recyclerView);
+                    mainThread.add(System.nanoTime() - start);
+                }
+            });
+        }
+        return "diffed list adapter, main thread: " + mainThread + ", "
+                + adapter.mBinds / UPDATES + " rows bound per update\n"
+                + "diffed list adapter, background diff: " + background + "\n";
+    }
+
+    private static void layout(View view) {
+        view.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+        view.layout(0, 0, WIDTH, HEIGHT);
+    }
+
+    /**
+     * Run the given work on the main thread and wait for it to finish.
+     */
+    private void runOnMainThread(final Runnable work) {
+        final CountDownLatch done = new CountDownLatch(1);
+        mActivity.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    work.run();
+                } finally {
+                    done.countDown();
+                }
+            }
+        });
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static List<Item> newItems() {
+        List<Item> items = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            items.add(new Item(i + 1, "Product " + i, 50));
+        }
+        return items;
+    }
+
+    /**
+     * Return a copy of the list with one unit of a product sold. The products sold are among the
+     * first ten, which are on screen.
+     */
+    private static List<Item> sell(List<Item> items, int update) {
+        List<Item> sold = new ArrayList<>(items);
+        int index = update % 10;
+        Item item = items.get(index);
+        sold.set(index, new Item(item.mId, item.mName, item.mQuantity - 1));
+        return sold;
+    }
+
+    private static Cursor newCursor(List<Item> items) {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS, items.size());
+        for (Item item : items) {
+            cursor.addRow(new Object[]{item.mId, item.mName, item.mQuantity});
+        }
+        return cursor;
+    }
+
+    /**
+     * One row of the list, immutable like the catalog screen's items
+     */
+    private static final class Item {
+
+        final long mId;
+        final String mName;
+        final int mQuantity;
+        final String mQuantityText;
+
+        Item(long id, String name, int quantity) {
+            mId = id;
+            mName = name;
+            mQuantity = quantity;
+            mQuantityText = String.valueOf(quantity);
+        }
+    }
+
+    private static final class ItemDiff extends DiffUtil.Callback {
+
+        private final List<Item> mOldItems;
+        private final List<Item> mNewItems;
+
+        ItemDiff(List<Item> oldItems, List<Item> newItems) {
+            mOldItems = oldItems;
+            mNewItems = newItems;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldItems.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewItems.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldPosition, int newPosition) {
+            return mOldItems.get(oldPosition).mId == mNewItems.get(newPosition).mId;
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldPosition, int newPosition) {
+            Item oldItem = mOldItems.get(oldPosition);
+            Item newItem = mNewItems.get(newPosition);
+            return oldItem.mQuantity == newItem.mQuantity && oldItem.mName.equals(newItem.mName);
+        }
+    }
+
+    /**
+     * Binds rows like the catalog screen's old cursor adapter did, looking up the views and
+     * columns on every bind.
+     */
+    private static final class BenchmarkCursorAdapter extends CursorAdapter {
+
+        int mBinds;
+
+        BenchmarkCursorAdapter(Context context) {
+            super(context, null, 0);
+        }
+
+        @Override
+        public View newView(Context context, Cursor cursor, ViewGroup parent) {
+            return LayoutInflater.from(context).inflate(R.layout.list_item, parent, false);
+        }
+
+        @Override
+        public void bindView(View view, Context context, Cursor cursor) {
+            mBinds++;
+            TextView nameTextView = (TextView) view.findViewById(R.id.name);
+            TextView summaryTextView = (TextView) view.findViewById(R.id.summary);
+            int nameColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_NAME);
+            int quantityColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+            nameTextView.setText(cursor.getString(nameColumnIndex));
+            summaryTextView.setText(cursor.getString(quantityColumnIndex));
+        }
+    }
+
+    /**
+     * Binds rows like the catalog screen's list adapter does, with the views held per row.
+     */
+    private static final class BenchmarkListAdapter
+            extends RecyclerView.Adapter<BenchmarkListAdapter.ViewHolder> {
+
+        private final Context mContext;
+        List<Item> mItems;
+        int mBinds;
+
+        BenchmarkListAdapter(Context context) {
+            mContext = context;
+            setHasStableIds(true);
+        }
+
+        @Override
+        public int getItemCount() {
+            return mItems.size();
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return mItems.get(position).mId;
+        }
+
+        @NonNull
+        @Override
+        public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+            View view = LayoutInflater.from(mContext).inflate(R.layout.list_item, parent, false);
+            return new ViewHolder(view);
+        }
+
+        @Override
+        public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+            mBinds++;
+            Item item = mItems.get(position);
+            holder.mNameTextView.setText(item.mName);
+            holder.mSummaryTextView.setText(item.mQuantityText);
+        }
+
+        static final class ViewHolder extends RecyclerView.ViewHolder {
+
+            final TextView mNameTextView;
+            final TextView mSummaryTextView;
+
+            ViewHolder(View itemView) {
+                super(itemView);
+                mNameTextView = (TextView) itemView.findViewById(R.id.name);
+                mSummaryTextView = (TextView) itemView.findViewById(R.id.summary);
+            }
+        }
+    }
+}
@@ -0,0 +1,366 @@
+package com.example.android.products.benchmark;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.util.Log;
+
+import com.example.android.products.data.ProductContract.ProductEntry;
+import com.example.android.products.data.ProductDbHelper;
+import com.example.android.products.data.ProductMigrations;
+import com.example.android.products.data.ProductProvider;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Measures the throughput and latency of every kind of {@link ProductProvider} operation on
+ * catalogs of 1k, 100k and 1M products: bulk insert, single insert, item query, full scan,
+ * catalog list row scan, search, update, quantity update and delete. Every operation goes
+ * through the provider, so the validation, cache and notifications are part of the numbers, like
+ * they are for the app.
+ * <p>
+ * Besides the readable report, the results are written as JSON to {@link #RESULTS_FILE}, so runs
+ * can be compared to find regressions. From Gradle, ProviderBenchmarkTest runs the suite on the
+ * connected device and copies the results to app/build/benchmark:
+ * <pre>
+ * ./gradlew connectedDebugAndroidTest -Pbenchmark
+ * </pre>
+ * Run from {@link BenchmarkActivity}, the results go to the app's files directory:
+ * <pre>
+ * adb shell run-as com.example.android.products cat files/provider_benchmark.json
+ * </pre>
+ */
+class ProviderBenchmark {
+
+    public static final String LOG_TAG = ProviderBenchmark.class.getSimpleName();
+
+    static final String RESULTS_FILE = "provider_benchmark.json";
+
+    private static final String DATABASE_PREFIX = "benchmark_provider_";
+    private static final int[] CATALOG_SIZES = {1000, 100000, 1000000};
+    private static final int BULK_INSERT_BATCH_SIZE = 500;
+    private static final int SUPPLIERS = 50;
+
+    /**
+     * Number of samples of the single-row operations. Deletes are capped at the catalog size.
+     */
+    private static final int SAMPLES = 1000;
+
+    /**
+     * Number of full scans, each of which reads the whole catalog
+     */
+    private static final int SCANS = 3;
+
+    /**
+     * Number of runs of each search, and the number of results each one asks for, like the
+     * catalog screen does
+     */
+    private static final int SEARCHES = 20;
+    private static final int SEARCH_LIMIT = 100;
+
+    private final File mResultsDir;
+    private final ScratchContext mScratchContext;
+    private final StringBuilder mReport = new StringBuilder();
+    private final JSONArray mResults = new JSONArray();
+
+    ProviderBenchmark(Context context) {
+        this(context, context.getFilesDir());
+    }
+
+    /**
+     * @param resultsDir directory to write {@link #RESULTS_FILE} to
+     */
+    ProviderBenchmark(Context context, File resultsDir) {
+        mResultsDir = resultsDir;
+        mScratchContext = new ScratchContext(context, DATABASE_PREFIX);
+    }
+
+    /**
+     * Run every operation at every catalog size, write the JSON results and return a readable
+     * report.
+     */
+    String run() {
+        mReport.append("Provider operations\n");
+        try {
+            for (int rows : CATALOG_SIZES) {
+                measure(rows);
+            }
+            File file = writeResults();
+            mReport.append("JSON results: ").append(file.getPath()).append("\n");
+        } catch (JSONException | IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            mScratchContext.deleteDatabase(ProductDbHelper.DATABASE_NAME);
+        }
+        return mReport.toString();
+    }
+
+    private void measure(int rows) throws JSONException {
+        mScratchContext.deleteDatabase(ProductDbHelper.DATABASE_NAME);
+        ProductProvider provider = new ProductProvider();
+        provider.attachInfo(mScratchContext, null);
+        try {
+            // Filling the catalog is the bulk insert measurement
+            record("bulk_insert", rows, bulkInsert(provider, rows), BULK_INSERT_BATCH_SIZE);
+
+            Random random = new Random(42);
+            record("insert", rows, insert(provider), 1);
+            record("query_item", rows, queryItems(provider, rows, random), 1);
+            LatencyStats scans = scan(provider);
+            record("full_scan", rows, scans, rows);
+            record("row_scan", rows, scanRows(provider), rows);
+            // Every product matches the first search, part of the catalog the second and only a
+            // few products the third, so the ranking sorts match sets of very different sizes
+            record("search_all", rows, search(provider, "prod"), SEARCH_LIMIT);
+            record("search_supplier", rows, search(provider, "supplier 7"), SEARCH_LIMIT);
+            record("search_name", rows, search(provider, "product 123"), SEARCH_LIMIT);
+            record("update", rows, update(provider, rows, random), 1);
+            record("update_quantity", rows, updateQuantity(provider, rows, random), 1);
+            record("delete", rows, delete(provider, rows), 1);
+        } finally {
+            provider.shutdown();
+        }
+    }
+
+    /**
+     * Add the result of one operation to the report and the JSON results.
+     *
+     * @param itemsPerSample number of rows each sample covers
+     */
+    private void record(String operation, int rows, LatencyStats stats, int itemsPerSample)
+            throws JSONException {
+        double throughput = stats.throughput(itemsPerSample);
+        mReport.append(String.format(Locale.US, "%s @ %d rows: %.0f rows/s, %s\n",
+                operation, rows, throughput, stats));
+
+        JSONObject result = stats.toJson();
+        result.put("operation", operation);
+        result.put("catalog_rows", rows);
+        result.put("rows_per_sample", itemsPerSample);
+        result.put("rows_per_second", throughput);
+        mResults.put(result);
+    }
+
+    /**
+     * Fill the empty catalog through bulk inserts, timing each batch.
+     */
+    private static LatencyStats bulkInsert(ProductProvider provider, int rows) {
+        LatencyStats stats = new LatencyStats(rows / BULK_INSERT_BATCH_SIZE + 1);
+        ContentValues[] batch = new ContentValues[BULK_INSERT_BATCH_SIZE];
+        for (int start = 0; start < rows; start += BULK_INSERT_BATCH_SIZE) {
+            int size = Math.min(BULK_INSERT_BATCH_SIZE, rows - start);
+            if (size != batch.length) {
+                batch = new ContentValues[size];
+            }
+            for (int i = 0; i < size; i++) {
+                batch[i] = newProduct(start + i);
+            }
+            long begin = System.nanoTime();
+            provider.bulkInsert(ProductEntry.CONTENT_URI, batch);
+            stats.add(System.nanoTime() - begin);
+        }
+        return stats;
+    }
+
+    private static LatencyStats insert(ProductProvider provider) {
+        LatencyStats stats = new LatencyStats(SAMPLES);
+        for (int i = 0; i < SAMPLES; i++) {
+            ContentValues values = newProduct(i);
+            long begin = System.nanoTime();
+            provider.insert(ProductEntry.CONTENT_URI, values);
+            stats.add(System.nanoTime() - begin);
+        }
+        return stats;
+    }
+
+    /**
+     * Query random single products and read all of their columns.
+     */
+    private static LatencyStats queryItems(ProductProvider provider, int rows, Random random) {
+        LatencyStats stats = new LatencyStats(SAMPLES);
+        for (int i = 0; i < SAMPLES; i++) {
+            // The bulk insert gave the products IDs 1 to rows
+            Uri uri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, 1 + random.nextInt(rows));
+            long begin = System.nanoTime();
+            Cursor cursor = provider.query(uri, null, null, null, null);
+            try {
+                if (cursor.moveToFirst()) {
+                    for (int column = 0; column < cursor.getColumnCount(); column++) {
+                        cursor.getString(column);
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+            stats.add(System.nanoTime() - begin);
+        }
+        return stats;
+    }
+
+    /**
+     * Read the whole catalog in the order the catalog screen shows it.
+     */
+    private static LatencyStats scan(ProductProvider provider) {
+        String[] projection = {
+                ProductEntry._ID,
+                ProductEntry.COLUMN_PRODUCT_NAME,
+                ProductEntry.COLUMN_PRODUCT_PRICE,
+                ProductEntry.COLUMN_PRODUCT_QUANTITY};
+        LatencyStats stats = new LatencyStats(SCANS);
+        for (int i = 0; i < SCANS; i++) {
+            long begin = System.nanoTime();
+            Cursor cursor = provider.query(ProductEntry.CONTENT_URI, projection, null, null,
+                    ProductEntry.COLUMN_PRODUCT_NAME);
+            try {
+                while (cursor.moveToNext()) {
+                    cursor.getLong(0);
+                    cursor.getString(1);
+                    cursor.getLong(2);
+                    cursor.getLong(3);
+                }
+            } finally {
+                cursor.close();
+            }
+            stats.add(System.nanoTime() - begin);
+        }
+        return stats;
+    }
+
+    /**
+     * Read the whole catalog through the narrow list rows, like the catalog screen does.
+     */
+    private static LatencyStats scanRows(ProductProvider provider) {
+        LatencyStats stats = new LatencyStats(SCANS);
+        for (int i = 0; i < SCANS; i++) {
+            long begin = System.nanoTime();
+            Cursor cursor = provider.query(ProductEntry.ROWS_URI, null, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    cursor.getLong(0);
+                    cursor.getString(1);
+                    cursor.getInt(2);
+                }
+            } finally {
+                cursor.close();
+            }
+            stats.add(System.nanoTime() - begin);
+        }
+        return stats;
+    }
+
+    /**
+     * Run the same search repeatedly and read the ranked results, like the catalog screen does
+     * for each query the user types.
+     */
+    private static LatencyStats search(ProductProvider provider, String query) {
+        LatencyStats stats = new LatencyStats(SEARCHES);
+        Uri uri = ProductEntry.buildSearchUri(query, SEARCH_LIMIT);
+        for (int i = 0; i < SEARCHES; i++) {
+            long begin = System.nanoTime();
+            Cursor cursor = provider.query(uri, null, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    cursor.getLong(0);
+                }
+            } finally {
+                cursor.close();
+            }
+            stats.add(System.nanoTime() - begin);
+        }
+        return stats;
+    }
+
+    /**
+     * Change the price of random single products.
+     */
+    private static LatencyStats update(ProductProvider provider, int rows, Random random) {
+        LatencyStats stats = new LatencyStats(SAMPLES);
+        ContentValues values = new ContentValues();
+        for (int i = 0; i < SAMPLES; i++) {
+            Uri uri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, 1 + random.nextInt(rows));
+            values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 100 + i);
+            long begin = System.nanoTime();
+            provider.update(uri, values, null, null);
+            stats.add(System.nanoTime() - begin);
+        }
+        return stats;
+    }
+
+    /**
+     * Change only the quantity of random single products, like the editor's stock buttons do.
+     */
+    private static LatencyStats updateQuantity(ProductProvider provider, int rows, Random random) {
+        LatencyStats stats = new LatencyStats(SAMPLES);
+        ContentValues values = new ContentValues();
+        for (int i = 0; i < SAMPLES; i++) {
+            Uri uri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, 1 + random.nextInt(rows));
+            values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, i % 100);
+            long begin = System.nanoTime();
+            provider.update(uri, values, null, null);
+            stats.add(System.nanoTime() - begin);
+        }
+        return stats;
+    }
+
+    /**
+     * Delete single products spread evenly over the catalog, each one once.
+     */
+    private static LatencyStats delete(ProductProvider provider, int rows) {
+        int samples = Math.min(SAMPLES, rows);
+        int step = rows / samples;
+        LatencyStats stats = new LatencyStats(samples);
+        for (int i = 0; i < samples; i++) {
+            Uri uri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, 1 + (long) i * step);
+            long begin = System.nanoTime();
+            provider.delete(uri, null, null);
+            stats.add(System.nanoTime() - begin);
+        }
+        return stats;
+    }
+
+    private static ContentValues newProduct(int i) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, "Product " + i);
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 499);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, i % 100);
+        values.put(ProductEntry.COLUMN_SUPPLIER_NAME, "Supplier " + i % SUPPLIERS);
+        values.put(ProductEntry.COLUMN_SUPPlIER_PHONE, "2125555555");
+        return values;
+    }
+
+    /**
+     * Write the results together with what they were measured on, and log them too.
+     */
+    private File writeResults() throws JSONException, IOException {
+        JSONObject json = new JSONObject();
+        json.put("benchmark", "provider");
+        json.put("schema_version", ProductMigrations.getLatestVersion());
+        json.put("device", Build.MANUFACTURER + " " + Build.MODEL);
+        json.put("sdk_int", Build.VERSION.SDK_INT);
+        json.put("timestamp_ms", System.currentTimeMillis());
+        json.put("results", mResults);
+        String text = json.toString(2);
+        Log.i(LOG_TAG, text);
+
+        File file = new File(mResultsDir, RESULTS_FILE);
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(text.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.android.products.benchmark;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+
+import com.example.android.products.data.ProductContract.ProductEntry;
+import com.example.android.products.data.ProductCsv;
+import com.example.android.products.data.ProductDbHelper;
+import com.example.android.products.data.ProductProvider;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Compares the time to restore a large catalog from a CSV export, which goes through batched
+ * inserts, against restoring it from a {@link com.example.android.products.data.ProductSnapshot},
+ * plain and compressed. Every restore goes through a {@link ProductProvider} into an empty
+ * scratch database.
+ */
+class RestoreBenchmark {
+
+    private static final String DATABASE_PREFIX = "benchmark_restore_";
+    private static final int ROWS = 500000;
+
+    private final Context mContext;
+    private final ScratchContext mScratchContext;
+
+    RestoreBenchmark(Context context) {
+        mContext = context;
+        mScratchContext = new ScratchContext(context, DATABASE_PREFIX);
+    }
+
+    /**
+     * Export the catalog in every format, restore it from each and return a readable report.
+     */
+    String run() {
+        File csv = new File(mContext.getCacheDir(), "benchmark_restore.csv");
+        File snapshot = new File(mContext.getCacheDir(), "benchmark_restore.snapshot");
+        File compressed = new File(mContext.getCacheDir(), "benchmark_restore_compressed.snapshot");
+        try {
+            createCatalog();
+            ProductProvider provider = openProvider();
+            try {
+                exportCsv(provider, csv);
+                writeSnapshot(provider, snapshot, false);
+                writeSnapshot(provider, compressed, true);
+            } finally {
+                provider.shutdown();
+            }
+
+            return "Catalog restore, " + ROWS + " rows\n"
+                    + "CSV import: " + report(restoreCsv(csv), csv) + "\n"
+                    + "snapshot: " + report(restoreSnapshot(snapshot), snapshot) + "\n"
+                    + "compressed snapshot: " + report(restoreSnapshot(compressed), compressed) + "\n";
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            mScratchContext.deleteDatabase(ProductDbHelper.DATABASE_NAME);
+            csv.delete();
+            snapshot.delete();
+            compressed.delete();
+        }
+    }
+
+    private static String report(long millis, File file) {
+        long rowsPerSecond = millis > 0 ? ROWS * 1000L / millis : ROWS * 1000L;
+        return millis + " ms (" + rowsPerSecond + " rows/s), file " + file.length() / 1024 + " KB";
+    }
+
+    /**
+     * Fill a fresh scratch database with the catalog to export.
+     */
+    private void createCatalog() {
+        mScratchContext.deleteDatabase(ProductDbHelper.DATABASE_NAME);
+        ProductDbHelper helper = new ProductDbHelper(mScratchContext);
+        try {
+            WalBenchmark.addSuppliers(helper.getWritableDatabase());
+            WalBenchmark.fill(helper.getWritableDatabase(), ROWS);
+        } finally {
+            helper.close();
+        }
+    }
+
+    /**
+     * Create a provider over the scratch database, outside the system like a test would.
+     */
+    private ProductProvider openProvider() {
+        ProductProvider provider = new ProductProvider();
+        provider.attachInfo(mScratchContext, null);
+        return provider;
+    }
+
+    /**
+     * Create a provider over an empty scratch database.
+     */
+    private ProductProvider openEmptyProvider() {
+        mScratchContext.deleteDatabase(ProductDbHelper.DATABASE_NAME);
+        return openProvider();
+    }
+
+    private static void exportCsv(ProductProvider provider, File file) throws IOException {
+        ParcelFileDescriptor pipe = provider.openFile(ProductEntry.CSV_URI, "r");
+        InputStream in = new ParcelFileDescriptor.AutoCloseInputStream(pipe);
+        OutputStream out = new FileOutputStream(file);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+
+    private static void writeSnapshot(ProductProvider provider, File file, boolean compress)
+            throws IOException {
+        ParcelFileDescriptor fd = ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_WRITE
+                | ParcelFileDescriptor.MODE_CREATE | ParcelFileDescriptor.MODE_TRUNCATE);
+        try {
+            Bundle extras = new Bundle();
+            extras.putParcelable(ProductEntry.EXTRA_FILE_DESCRIPTOR, fd);
+            extras.putBoolean(ProductEntry.EXTRA_COMPRESS, compress);
+            provider.call(ProductEntry.METHOD_WRITE_SNAPSHOT, null, extras);
+        } finally {
+            fd.close();
+        }
+    }
+
+    /**
+     * @return the time to import the CSV file into an empty catalog, in milliseconds
+     */
+    private long restoreCsv(File file) throws IOException {
+        final ProductProvider provider = openEmptyProvider();
+        InputStream in = new FileInputStream(file);
+        try {
+            long start = SystemClock.elapsedRealtime();
+            long rows = ProductCsv.importCsv(in, new ProductCsv.RowSink() {
+                @Override
+                public int insert(ContentValues[] batch) {
+                    return provider.bulkInsert(ProductEntry.CONTENT_URI_WITHOUT_NOTIFY, batch);
+                }
+            }, null);
+            long elapsed = SystemClock.elapsedRealtime() - start;
+            checkRows(rows);
+            return elapsed;
+        } finally {
+            in.close();
+            provider.shutdown();
+        }
+    }
+
+    /**
+     * @return the time to restore the snapshot file into an empty catalog, in milliseconds
+     */
+    private long restoreSnapshot(File file) throws IOException {
+        ProductProvider provider = openEmptyProvider();
+        ParcelFileDescriptor fd = ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+        try {
+            Bundle extras = new Bundle();
+            extras.putParcelable(ProductEntry.EXTRA_FILE_DESCRIPTOR, fd);
+            long start = SystemClock.elapsedRealtime();
+            Bundle result = provider.call(ProductEntry.METHOD_RESTORE_SNAPSHOT, null, extras);
+            long elapsed = SystemClock.elapsedRealtime() - start;
+            checkRows(result.getLong(ProductEntry.EXTRA_ROW_COUNT));
+            return elapsed;
+        } finally {
+            fd.close();
+            provider.shutdown();
+        }
+    }
+
+    private static void checkRows(long rows) {
+        if (rows != ROWS) {
+            throw new IllegalStateException("Restored " + rows + " of " + ROWS + " rows");
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.android.products.benchmark;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.database.DatabaseErrorHandler;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.File;
+
+/**
+ * Context that keeps databases apart from the app's own, by adding a prefix to every database
+ * name. Lets a benchmark run the real {@link com.example.android.products.data.ProductProvider}
+ * against a scratch copy of the catalog.
+ */
+class ScratchContext extends ContextWrapper {
+
+    private final String mPrefix;
+
+    ScratchContext(Context base, String prefix) {
+        super(base);
+        mPrefix = prefix;
+    }
+
+    @Override
+    public File getDatabasePath(String name) {
+        return super.getDatabasePath(mPrefix + name);
+    }
+
+    @Override
+    public SQLiteDatabase openOrCreateDatabase(String name, int mode, SQLiteDatabase.CursorFactory factory) {
+        return super.openOrCreateDatabase(mPrefix + name, mode, factory);
+    }
+
+    @Override
+    public SQLiteDatabase openOrCreateDatabase(String name, int mode, SQLiteDatabase.CursorFactory factory,
+                                               DatabaseErrorHandler errorHandler) {
+        return super.openOrCreateDatabase(mPrefix + name, mode, factory, errorHandler);
+    }
+
+    @Override
+    public boolean deleteDatabase(String name) {
+        return super.deleteDatabase(mPrefix + name);
+    }
+}
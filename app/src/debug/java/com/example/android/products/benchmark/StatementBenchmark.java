@@ -0,0 +1,173 @@
+package com.example.android.products.benchmark;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.products.data.ProductContract.ProductEntry;
+import com.example.android.products.data.ProductDbHelper;
+
+import java.util.Random;
+
+/**
+ * Measures the per-call overhead that compiled statement reuse removes from the hot provider
+ * operations, by running each one the way the provider used to (building the SQL or compiling a
+ * statement on every call) and the way it does now (reusing a compiled statement or constant
+ * SQL), against the same scratch catalog.
+ */
+class StatementBenchmark {
+
+    private static final String DATABASE_NAME = "benchmark_statements.db";
+    private static final int ROWS = 20000;
+    private static final int CALLS = 5000;
+
+    private static final String SQL_QUANTITY = "SELECT " + ProductEntry.COLUMN_PRODUCT_QUANTITY
+            + " FROM " + ProductEntry.TABLE_NAME + " WHERE " + ProductEntry._ID + " = ?";
+
+    private static final String SQL_UPDATE_QUANTITY = "UPDATE " + ProductEntry.TABLE_NAME
+            + " SET " + ProductEntry.COLUMN_PRODUCT_QUANTITY + " = ?"
+            + " WHERE " + ProductEntry._ID + " = ? AND " + ProductEntry.COLUMN_DELETED + " = 0";
+
+    private static final String[] ITEM_COLUMNS = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY};
+
+    private static final String SQL_ITEM = "SELECT " + ProductEntry._ID + ", "
+            + ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_PRODUCT_PRICE + ", "
+            + ProductEntry.COLUMN_PRODUCT_QUANTITY + " FROM " + ProductEntry.VIEW_NAME
+            + " WHERE " + ProductEntry._ID + " = ?";
+
+    private final Context mContext;
+
+    StatementBenchmark(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Run every operation both ways and return a readable report.
+     */
+    String run() {
+        mContext.deleteDatabase(DATABASE_NAME);
+        ProductDbHelper helper = new ProductDbHelper(mContext, DATABASE_NAME, ProductDbHelper.Tuning.DEFAULT);
+        try {
+            SQLiteDatabase db = helper.getWritableDatabase();
+            WalBenchmark.addSuppliers(db);
+            WalBenchmark.fill(db, ROWS);
+
+            return "Per-call statement overhead, " + CALLS + " calls on " + ROWS + " rows\n"
+                    + "quantity lookup, compiled per call: " + compiledLookup(db) + "\n"
+                    + "quantity lookup, cached statement: " + cachedLookup(db) + "\n"
+                    + "item query, built per call: " + builtQuery(db) + "\n"
+                    + "item query, constant SQL: " + constantQuery(db) + "\n"
+                    + "quantity update, from ContentValues: " + valuesUpdate(db) + "\n"
+                    + "quantity update, cached statement: " + cachedUpdate(db) + "\n";
+        } finally {
+            helper.close();
+            mContext.deleteDatabase(DATABASE_NAME);
+        }
+    }
+
+    private static LatencyStats compiledLookup(SQLiteDatabase db) {
+        LatencyStats stats = new LatencyStats(CALLS);
+        Random random = new Random(42);
+        for (int i = 0; i < CALLS; i++) {
+            long start = System.nanoTime();
+            SQLiteStatement statement = db.compileStatement(SQL_QUANTITY);
+            try {
+                statement.bindLong(1, 1 + random.nextInt(ROWS));
+                statement.simpleQueryForLong();
+            } finally {
+                statement.close();
+            }
+            stats.add(System.nanoTime() - start);
+        }
+        return stats;
+    }
+
+    private static LatencyStats cachedLookup(SQLiteDatabase db) {
+        LatencyStats stats = new LatencyStats(CALLS);
+        Random random = new Random(42);
+        SQLiteStatement statement = db.compileStatement(SQL_QUANTITY);
+        try {
+            for (int i = 0; i < CALLS; i++) {
+                long start = System.nanoTime();
+                statement.bindLong(1, 1 + random.nextInt(ROWS));
+                statement.simpleQueryForLong();
+                stats.add(System.nanoTime() - start);
+            }
+        } finally {
+            statement.close();
+        }
+        return stats;
+    }
+
+    private static LatencyStats builtQuery(SQLiteDatabase db) {
+        LatencyStats stats = new LatencyStats(CALLS);
+        Random random = new Random(42);
+        for (int i = 0; i < CALLS; i++) {
+            long start = System.nanoTime();
+            Cursor cursor = db.query(ProductEntry.VIEW_NAME, ITEM_COLUMNS, ProductEntry._ID + "=?",
+                    new String[]{String.valueOf(1 + random.nextInt(ROWS))}, null, null, null);
+            try {
+                cursor.moveToFirst();
+            } finally {
+                cursor.close();
+            }
+            stats.add(System.nanoTime() - start);
+        }
+        return stats;
+    }
+
+    private static LatencyStats constantQuery(SQLiteDatabase db) {
+        LatencyStats stats = new LatencyStats(CALLS);
+        Random random = new Random(42);
+        for (int i = 0; i < CALLS; i++) {
+            long start = System.nanoTime();
+            Cursor cursor = db.rawQuery(SQL_ITEM, new String[]{String.valueOf(1 + random.nextInt(ROWS))});
+            try {
+                cursor.moveToFirst();
+            } finally {
+                cursor.close();
+            }
+            stats.add(System.nanoTime() - start);
+        }
+        return stats;
+    }
+
+    private static LatencyStats valuesUpdate(SQLiteDatabase db) {
+        LatencyStats stats = new LatencyStats(CALLS);
+        Random random = new Random(42);
+        for (int i = 0; i < CALLS; i++) {
+            long start = System.nanoTime();
+            ContentValues values = new ContentValues();
+            values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, i % 100);
+            db.update(ProductEntry.TABLE_NAME, values,
+                    ProductEntry._ID + " = ? AND " + ProductEntry.COLUMN_DELETED + " = 0",
+                    new String[]{String.valueOf(1 + random.nextInt(ROWS))});
+            stats.add(System.nanoTime() - start);
+        }
+        return stats;
+    }
+
+    private static LatencyStats cachedUpdate(SQLiteDatabase db) {
+        LatencyStats stats = new LatencyStats(CALLS);
+        Random random = new Random(42);
+        SQLiteStatement statement = db.compileStatement(SQL_UPDATE_QUANTITY);
+        try {
+            for (int i = 0; i < CALLS; i++) {
+                long start = System.nanoTime();
+                statement.bindLong(1, i % 100);
+                statement.bindLong(2, 1 + random.nextInt(ROWS));
+                statement.executeUpdateDelete();
+                stats.add(System.nanoTime() - start);
+            }
+        } finally {
+            statement.close();
+        }
+        return stats;
+    }
+}
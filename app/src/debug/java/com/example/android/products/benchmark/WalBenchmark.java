@@ -0,0 +1,142 @@
+package com.example.android.products.benchmark;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.products.data.ProductContract.ProductEntry;
+import com.example.android.products.data.ProductContract.SupplierEntry;
+import com.example.android.products.data.ProductDbHelper;
+
+import java.util.Random;
+
+/**
+ * Measures the latency of single product reads while another thread keeps writing, once with
+ * the default rollback journal and once with the tuned WAL settings of {@link ProductDbHelper}.
+ */
+class WalBenchmark {
+
+    private static final String DATABASE_NAME = "benchmark_wal.db";
+    private static final int ROWS = 20000;
+    private static final int READS = 2000;
+    private static final int ROWS_PER_WRITE_TRANSACTION = 200;
+    private static final int SUPPLIERS = 50;
+
+    private final Context mContext;
+
+    WalBenchmark(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Run the benchmark with both settings and return a readable report.
+     */
+    String run() {
+        ProductDbHelper.Tuning rollbackJournal = new ProductDbHelper.Tuning(false, "FULL", 2000, 0);
+        return "Read latency while writing, " + ROWS + " rows\n"
+                + "rollback journal: " + measure(rollbackJournal) + "\n"
+                + "WAL (default tuning): " + measure(ProductDbHelper.Tuning.DEFAULT) + "\n";
+    }
+
+    private LatencyStats measure(ProductDbHelper.Tuning tuning) {
+        mContext.deleteDatabase(DATABASE_NAME);
+        ProductDbHelper helper = new ProductDbHelper(mContext, DATABASE_NAME, tuning);
+        final SQLiteDatabase db = helper.getWritableDatabase();
+        try {
+            addSuppliers(db);
+            fill(db, ROWS);
+
+            // Keep a writer busy for as long as the reads run
+            final boolean[] stop = new boolean[1];
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (!isStopped(stop)) {
+                        fill(db, ROWS_PER_WRITE_TRANSACTION);
+                    }
+                }
+            });
+            writer.start();
+
+            LatencyStats stats = new LatencyStats(READS);
+            Random random = new Random(42);
+            String[] args = new String[1];
+            for (int i = 0; i < READS; i++) {
+                args[0] = String.valueOf(1 + random.nextInt(ROWS));
+                long start = System.nanoTime();
+                Cursor cursor = db.rawQuery("SELECT * FROM " + ProductEntry.VIEW_NAME
+                        + " WHERE " + ProductEntry._ID + " = ?", args);
+                try {
+                    cursor.moveToFirst();
+                } finally {
+                    cursor.close();
+                }
+                stats.add(System.nanoTime() - start);
+            }
+
+            synchronized (stop) {
+                stop[0] = true;
+            }
+            writer.join();
+            return stats;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            helper.close();
+            mContext.deleteDatabase(DATABASE_NAME);
+        }
+    }
+
+    private static boolean isStopped(boolean[] stop) {
+        synchronized (stop) {
+            return stop[0];
+        }
+    }
+
+    /**
+     * Add the suppliers that {@link #fill(SQLiteDatabase, int)} refers to.
+     */
+    static void addSuppliers(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < SUPPLIERS; i++) {
+                ContentValues values = new ContentValues();
+                values.put(SupplierEntry.COLUMN_SUPPLIER_NAME, "Supplier " + i);
+                values.put(SupplierEntry.COLUMN_SUPPLIER_PHONE, "2125555555");
+                db.insertOrThrow(SupplierEntry.TABLE_NAME, null, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Insert the given number of products in one transaction, spread over the suppliers added
+     * by {@link #addSuppliers(SQLiteDatabase)}.
+     */
+    static void fill(SQLiteDatabase db, int rows) {
+        SQLiteStatement insert = db.compileStatement("INSERT INTO " + ProductEntry.TABLE_NAME + " ("
+                + ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_PRODUCT_PRICE + ", "
+                + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", " + ProductEntry.COLUMN_SUPPLIER_ID
+                + ") VALUES (?, ?, ?, ?)");
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < rows; i++) {
+                insert.bindString(1, "Product " + i);
+                insert.bindLong(2, 499);
+                insert.bindLong(3, i % 100);
+                // Supplier IDs start at 1
+                insert.bindLong(4, 1 + i % SUPPLIERS);
+                insert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insert.close();
+        }
+    }
+}
@@ -15,44 +15,248 @@
  */
 package com.example.android.products;
 
+import android.annotation.TargetApi;
 import android.app.AlertDialog;
 import android.app.LoaderManager;
+import android.content.ContentResolver;
 import android.content.ContentValues;
-import android.content.CursorLoader;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.design.widget.FloatingActionButton;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.ListView;
+import android.widget.TextView;
+import android.widget.Toast;
 import android.content.ContentUris;
-import android.widget.AdapterView;
 
+import com.example.android.products.data.Prices;
+import com.example.android.products.data.ProductCompaction;
+import com.example.android.products.data.ProductContract.InventoryStatsEntry;
 import com.example.android.products.data.ProductContract.ProductEntry;
+import com.example.android.products.data.ProductCsv;
+import com.example.android.products.data.ProductWriter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Displays list of products that were entered and stored in the app.
  */
-public class CatalogActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
+public class CatalogActivity extends AppCompatActivity
+        implements LoaderManager.LoaderCallbacks<List<CatalogItem>>, ProductListAdapter.OnProductClickListener {
 
     /**
-     * Identifier for the product data loader
+     * Identifier for the loader of the first page of product data. Every page loaded after it
+     * gets the next unused ID above it.
      */
     private static final int PRODUCT_LOADER = 0;
 
     /**
-     * Adapter for the ListView
+     * Identifier for the search results loader. Page loaders use IDs from PRODUCT_LOADER upwards.
+     */
+    private static final int SEARCH_LOADER = -1;
+
+    /**
+     * Identifier for the loader of the catalog totals shown above the list
+     */
+    private static final int SUMMARY_LOADER = -2;
+
+    /**
+     * Number of products loaded per page
+     */
+    private static final int PAGE_SIZE = 50;
+
+    /**
+     * Start loading the next page when the user scrolls this close to the end of the list, or
+     * the previous one this close to its start
+     */
+    private static final int PREFETCH_DISTANCE = 15;
+
+    /**
+     * Maximum number of pages kept loaded. Once the user scrolls further, the pages at the other
+     * end of the window are dropped together with their loaders, so memory use and the number of
+     * loaders that reload on every change stay the same however long the catalog is.
+     */
+    private static final int MAX_PAGES = 5;
+
+    /**
+     * Maximum number of search results shown
+     */
+    private static final int SEARCH_LIMIT = 100;
+
+    /**
+     * How long to wait after the last keystroke before running a search
      */
-    ProductCursorAdapter mCursorAdapter;
+    private static final long SEARCH_DEBOUNCE_MS = 250;
+
+    /**
+     * Request codes for picking the CSV documents to import from and export to
+     */
+    private static final int REQUEST_IMPORT_CSV = 1;
+    private static final int REQUEST_EXPORT_CSV = 2;
+
+    /**
+     * Size of the buffer used to copy the exported CSV into the chosen document
+     */
+    private static final int EXPORT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Loader argument key for the ID of the last row of the previous page
+     */
+    private static final String ARG_AFTER_ID = "after_id";
+
+    /**
+     * Loader argument key for the ID of the first row of the next page, for a page loaded
+     * backwards
+     */
+    private static final String ARG_BEFORE_ID = "before_id";
+
+    /**
+     * One page of the loaded window. A page loaded forwards starts after the last row of the page
+     * before it, and a page loaded backwards ends before the first row of the page after it, so
+     * when a neighbour reloads with different rows the page is restarted from its new boundary.
+     */
+    private static final class Page {
+
+        final int loaderId;
+
+        /**
+         * Loader arguments: {@link #ARG_AFTER_ID}, {@link #ARG_BEFORE_ID}, or null for the first
+         * page of the catalog
+         */
+        Bundle args;
+
+        /**
+         * Loaded rows, or null while the page is loading
+         */
+        List<CatalogItem> items;
+
+        Page(int loaderId, Bundle args) {
+            this.loaderId = loaderId;
+            this.args = args;
+        }
+
+        boolean isBackward() {
+            return args != null && args.containsKey(ARG_BEFORE_ID);
+        }
+    }
+
+    /**
+     * Adapter for the RecyclerView
+     */
+    ProductListAdapter mListAdapter;
+
+    /**
+     * View shown instead of the list when there are no products
+     */
+    private View mEmptyView;
+
+    /**
+     * Header showing the totals over the whole catalog
+     */
+    private TextView mSummaryView;
+
+    /**
+     * Window of loaded pages of product data, in list order, at most {@link #MAX_PAGES} long
+     */
+    private final ArrayList<Page> mPages = new ArrayList<>();
+
+    /**
+     * Loader ID for the next page
+     */
+    private int mNextLoaderId = PRODUCT_LOADER + 1;
+
+    /**
+     * Whether the first page of the window is the start of the catalog, and whether the last
+     * page is its end
+     */
+    private boolean mAtStart = true;
+    private boolean mAtEnd;
+
+    /**
+     * Current search text, or null when the full catalog is shown
+     */
+    private String mSearchQuery;
+
+    /**
+     * Results for {@link #mSearchQuery}, or null while they are loading
+     */
+    private List<CatalogItem> mSearchResults;
+
+    /**
+     * Loads the catalog totals for {@link #mSummaryView}. The totals are counters that the
+     * database keeps up to date, so this reads a single row no matter how many products there are.
+     */
+    private final LoaderManager.LoaderCallbacks<Cursor> mSummaryCallbacks =
+            new LoaderManager.LoaderCallbacks<Cursor>() {
+                @Override
+                public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+                    return new MeteredCursorLoader(CatalogActivity.this, "summary",
+                            InventoryStatsEntry.buildScopeUri(InventoryStatsEntry.SCOPE_ALL),
+                            null, null, null, null);
+                }
+
+                @Override
+                public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
+                    if (cursor == null || !cursor.moveToFirst()) {
+                        mSummaryView.setVisibility(View.GONE);
+                        return;
+                    }
+                    int productCount = cursor.getInt(
+                            cursor.getColumnIndex(InventoryStatsEntry.COLUMN_PRODUCT_COUNT));
+                    long totalQuantity = cursor.getLong(
+                            cursor.getColumnIndex(InventoryStatsEntry.COLUMN_TOTAL_QUANTITY));
+                    long stockValue = cursor.getLong(
+                            cursor.getColumnIndex(InventoryStatsEntry.COLUMN_STOCK_VALUE));
+                    int outOfStockCount = cursor.getInt(
+                            cursor.getColumnIndex(InventoryStatsEntry.COLUMN_OUT_OF_STOCK_COUNT));
+
+                    mSummaryView.setText(getString(R.string.catalog_summary, productCount, totalQuantity,
+                            Prices.formatCents(stockValue), outOfStockCount));
+                    mSummaryView.setVisibility(productCount > 0 ? View.VISIBLE : View.GONE);
+                }
+
+                @Override
+                public void onLoaderReset(Loader<Cursor> loader) {
+                    mSummaryView.setVisibility(View.GONE);
+                }
+            };
+
+    /**
+     * Handler used to debounce search keystrokes
+     */
+    private final Handler mHandler = new Handler();
+
+    /**
+     * Runs the search for {@link #mSearchQuery} once the user stops typing
+     */
+    private final Runnable mSearchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            getLoaderManager().restartLoader(SEARCH_LOADER, null, CatalogActivity.this);
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -69,41 +273,204 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
             }
         });
 
-        // Find the ListView which will be populated with the product data
-        ListView productListView = (ListView) findViewById(R.id.list);
+        // Find the RecyclerView which will be populated with the product data
+        RecyclerView productListView = (RecyclerView) findViewById(R.id.list);
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        productListView.setLayoutManager(layoutManager);
+
+        // Find the empty view, which is only shown when the list has 0 items.
+        mEmptyView = findViewById(R.id.empty_view);
 
-        // Find and set empty view on the ListView, so that it only shows when the list has 0 items.
-        View emptyView = findViewById(R.id.empty_view);
-        productListView.setEmptyView(emptyView);
+        // Find the header with the catalog totals
+        mSummaryView = (TextView) findViewById(R.id.summary);
 
-        // There is no pet data yet (until the loader finishes) so pass in null for the Cursor.
-        mCursorAdapter = new ProductCursorAdapter(this, null);
-        productListView.setAdapter(mCursorAdapter);
+        // There is no product data yet (until the loader finishes), so the adapter starts empty.
+        mListAdapter = new ProductListAdapter(this, this);
+        productListView.setAdapter(mListAdapter);
 
-        // Setup the item click listener
-        productListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        // Fetch the next or previous page as the user scrolls towards either end of what is loaded
+        productListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {
-                // Create new intent to go to {@link EditorActivity}
-                Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                int totalItemCount = layoutManager.getItemCount();
+                if (mSearchQuery != null || totalItemCount == 0) {
+                    return;
+                }
+                if (layoutManager.findLastVisibleItemPosition() >= totalItemCount - PREFETCH_DISTANCE) {
+                    loadNextPage();
+                }
+                if (layoutManager.findFirstVisibleItemPosition() < PREFETCH_DISTANCE) {
+                    loadPreviousPage();
+                }
+            }
+        });
 
-                // Form the content URI that represents the specific product that was clicked on,
-                // by appending the "id" (passed as input to this method) onto the
-                // {@link ProductEntry#CONTENT_URI}.
-                // For example, the URI would be "content://com.example.android.products/products/2"
-                // if the product with ID 2 was clicked on.
-                Uri currentProductUri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id);
+        // Kick off the loader for the first page
+        mPages.add(new Page(PRODUCT_LOADER, null));
+        getLoaderManager().initLoader(PRODUCT_LOADER, null, this);
 
-                // Set the URI on the data field of the intent
-                intent.setData(currentProductUri);
+        // And the one for the totals
+        getLoaderManager().initLoader(SUMMARY_LOADER, null, mSummaryCallbacks);
 
-                // Launch the {@link EditorActivity} to display the data for the current product.
-                startActivity(intent);
+        // Keep the stock movement ledger bounded. Not again when the activity is recreated.
+        if (savedInstanceState == null) {
+            ProductCompaction.schedulePeriodic(this);
+        }
+    }
+
+    /**
+     * Open the editor for the product that was clicked on.
+     */
+    @Override
+    public void onProductClick(long id) {
+        // Create new intent to go to {@link EditorActivity}
+        Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
+
+        // Form the content URI that represents the specific product that was clicked on,
+        // by appending the "id" (passed as input to this method) onto the
+        // {@link ProductEntry#CONTENT_URI}.
+        // For example, the URI would be "content://com.example.android.products/products/2"
+        // if the product with ID 2 was clicked on.
+        Uri currentProductUri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id);
+
+        // Set the URI on the data field of the intent
+        intent.setData(currentProductUri);
+
+        // Launch the {@link EditorActivity} to display the data for the current product.
+        startActivity(intent);
+    }
+
+    /**
+     * Start loading the page after the last loaded one, unless a page is still loading or the
+     * last page is the end of the catalog. Drops the first page if the window is full.
+     */
+    private void loadNextPage() {
+        List<CatalogItem> last = mPages.get(mPages.size() - 1).items;
+        if (mAtEnd || last == null || last.isEmpty()) {
+            return;
+        }
+        Page page = new Page(mNextLoaderId++, pageArgsAfter(last));
+        mPages.add(page);
+        getLoaderManager().restartLoader(page.loaderId, page.args, this);
+        if (mPages.size() > MAX_PAGES) {
+            dropPage(0);
+            mAtStart = false;
+        }
+    }
+
+    /**
+     * Start loading the page before the first loaded one, unless a page is still loading or the
+     * first page is the start of the catalog. Drops the last page if the window is full.
+     */
+    private void loadPreviousPage() {
+        List<CatalogItem> first = mPages.get(0).items;
+        if (mAtStart || first == null || first.isEmpty()) {
+            return;
+        }
+        Page page = new Page(mNextLoaderId++, pageArgsBefore(first));
+        mPages.add(0, page);
+        getLoaderManager().restartLoader(page.loaderId, page.args, this);
+        if (mPages.size() > MAX_PAGES) {
+            dropPage(mPages.size() - 1);
+            mAtEnd = false;
+        }
+    }
+
+    /**
+     * Remove a page from the window and destroy its loader, which frees its rows and stops it
+     * from reloading on changes.
+     */
+    private void dropPage(int index) {
+        Page page = mPages.remove(index);
+        getLoaderManager().destroyLoader(page.loaderId);
+    }
+
+    /**
+     * Return the index in the window of the page with the given loader, or -1 if it was dropped.
+     */
+    private int indexOfPage(int loaderId) {
+        for (int i = 0; i < mPages.size(); i++) {
+            if (mPages.get(i).loaderId == loaderId) {
+                return i;
             }
-        });
+        }
+        return -1;
+    }
 
-        // Kick off the loader
-        getLoaderManager().initLoader(PRODUCT_LOADER, null, this);
+    /**
+     * Build the loader arguments for the page that follows the given page.
+     */
+    private static Bundle pageArgsAfter(List<CatalogItem> page) {
+        CatalogItem last = page.get(page.size() - 1);
+        Bundle args = new Bundle();
+        args.putLong(ARG_AFTER_ID, last.getId());
+        return args;
+    }
+
+    /**
+     * Build the loader arguments for the page that comes before the given page.
+     */
+    private static Bundle pageArgsBefore(List<CatalogItem> page) {
+        Bundle args = new Bundle();
+        args.putLong(ARG_BEFORE_ID, page.get(0).getId());
+        return args;
+    }
+
+    /**
+     * Show the loaded pages in the list. Only pages without gaps between them are shown, so rows
+     * never appear out of order while a page in the middle is reloading. A page still loading at
+     * the start of the window is skipped. While the first results of a search are loading,
+     * whatever the list shows stays in place instead of flashing the empty view.
+     */
+    private void showPages() {
+        List<CatalogItem> items;
+        if (mSearchQuery != null) {
+            if (mSearchResults == null) {
+                return;
+            }
+            items = mSearchResults;
+        } else {
+            items = new ArrayList<>();
+            boolean shown = false;
+            for (Page page : mPages) {
+                if (page.items == null) {
+                    if (shown) {
+                        break;
+                    }
+                    continue;
+                }
+                items.addAll(page.items);
+                shown = true;
+            }
+        }
+        // The adapter diffs the new list against the current one off the main thread
+        mListAdapter.submitList(items);
+        mEmptyView.setVisibility(items.isEmpty() ? View.VISIBLE : View.GONE);
+    }
+
+    /**
+     * Show search results for the given text, or the full catalog if the text is empty. The
+     * search itself only runs once the user has stopped typing for {@link #SEARCH_DEBOUNCE_MS}.
+     */
+    private void setSearchQuery(String query) {
+        mHandler.removeCallbacks(mSearchRunnable);
+        if (query == null || query.trim().isEmpty()) {
+            if (mSearchQuery != null) {
+                mSearchQuery = null;
+                mSearchResults = null;
+                getLoaderManager().destroyLoader(SEARCH_LOADER);
+                showPages();
+            }
+            return;
+        }
+        mSearchQuery = query.trim();
+        mHandler.postDelayed(mSearchRunnable, SEARCH_DEBOUNCE_MS);
+    }
+
+    @Override
+    protected void onDestroy() {
+        mHandler.removeCallbacks(mSearchRunnable);
+        super.onDestroy();
     }
 
     /**
@@ -114,7 +481,7 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         // and Toto's product attributes are the values.
         ContentValues values = new ContentValues();
         values.put(ProductEntry.COLUMN_PRODUCT_NAME, "Toto the wonderdog guidebook");
-        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, "4.99");
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 499);
         values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, "1");
         values.put(ProductEntry.COLUMN_SUPPLIER_NAME, "Barns & Noble");
         values.put(ProductEntry.COLUMN_SUPPlIER_PHONE, "2125555555");
@@ -127,11 +494,160 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
     }
 
     /**
-     * Helper method to delete all products in the database.
+     * Ask the user for a CSV document to import products from.
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private void pickCsvToImport() {
+        Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        // Not every app labels CSV files as text/csv
+        intent.setType("*/*");
+        intent.putExtra(Intent.EXTRA_MIME_TYPES,
+                new String[]{ProductCsv.MIME_TYPE, "text/comma-separated-values", "text/plain"});
+        startActivityForResult(intent, REQUEST_IMPORT_CSV);
+    }
+
+    /**
+     * Ask the user where to save the exported CSV document.
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private void pickCsvToExport() {
+        Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType(ProductCsv.MIME_TYPE);
+        intent.putExtra(Intent.EXTRA_TITLE, getString(R.string.csv_export_file_name));
+        startActivityForResult(intent, REQUEST_EXPORT_CSV);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (resultCode != RESULT_OK || data == null || data.getData() == null) {
+            return;
+        }
+        if (requestCode == REQUEST_IMPORT_CSV) {
+            importCsv(data.getData());
+        } else if (requestCode == REQUEST_EXPORT_CSV) {
+            exportCsv(data.getData());
+        }
+    }
+
+    /**
+     * Import the products in the given CSV document on the writer queue, showing the progress in
+     * the app bar.
+     */
+    private void importCsv(Uri source) {
+        final Context appContext = getApplicationContext();
+        final long startTime = SystemClock.elapsedRealtime();
+        setProgressSubtitle(getString(R.string.csv_import_progress, 0));
+        ProductWriter.getInstance(this).importCsv(source, new ProductCsv.ProgressListener() {
+            @Override
+            public void onProgress(long rows, long elapsedMillis) {
+                setProgressSubtitle(getString(R.string.csv_import_progress, rows));
+            }
+        }, new ProductWriter.Callback<Long>() {
+            @Override
+            public void onComplete(Long rows) {
+                setProgressSubtitle(null);
+                if (rows == null) {
+                    Toast.makeText(appContext, R.string.csv_import_failed, Toast.LENGTH_SHORT).show();
+                    return;
+                }
+                long elapsed = Math.max(SystemClock.elapsedRealtime() - startTime, 1);
+                Toast.makeText(appContext, appContext.getString(R.string.csv_import_successful,
+                        rows, rows * 1000 / elapsed), Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+    /**
+     * Copy the CSV stream of the catalog into the given document on a background thread, showing
+     * the progress in the app bar.
+     */
+    private void exportCsv(final Uri destination) {
+        final ContentResolver resolver = getContentResolver();
+        final Context appContext = getApplicationContext();
+        setProgressSubtitle(getString(R.string.csv_export_progress, 0));
+        new AsyncTask<Void, Long, Boolean>() {
+            private final long mStartTime = SystemClock.elapsedRealtime();
+            private long mBytes;
+
+            @Override
+            protected Boolean doInBackground(Void... params) {
+                InputStream in = null;
+                OutputStream out = null;
+                try {
+                    in = resolver.openInputStream(ProductEntry.CSV_URI);
+                    out = resolver.openOutputStream(destination);
+                    if (in == null || out == null) {
+                        return false;
+                    }
+                    byte[] buffer = new byte[EXPORT_BUFFER_SIZE];
+                    int count;
+                    while ((count = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, count);
+                        mBytes += count;
+                        publishProgress(mBytes);
+                    }
+                    return true;
+                } catch (IOException e) {
+                    Log.e("CatalogActivity", "Failed to export to " + destination, e);
+                    return false;
+                } finally {
+                    closeQuietly(in);
+                    closeQuietly(out);
+                }
+            }
+
+            @Override
+            protected void onProgressUpdate(Long... bytes) {
+                setProgressSubtitle(getString(R.string.csv_export_progress, bytes[0] / 1024));
+            }
+
+            @Override
+            protected void onPostExecute(Boolean success) {
+                setProgressSubtitle(null);
+                if (!success) {
+                    Toast.makeText(appContext, R.string.csv_export_failed, Toast.LENGTH_SHORT).show();
+                    return;
+                }
+                long elapsed = Math.max(SystemClock.elapsedRealtime() - mStartTime, 1);
+                Toast.makeText(appContext, appContext.getString(R.string.csv_export_successful,
+                        mBytes / 1024, mBytes * 1000 / 1024 / elapsed), Toast.LENGTH_SHORT).show();
+            }
+        }.execute();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                Log.w("CatalogActivity", "Failed to close stream", e);
+            }
+        }
+    }
+
+    /**
+     * Show the progress of an import or export under the title, or clear it if null.
+     */
+    private void setProgressSubtitle(String subtitle) {
+        if (getSupportActionBar() != null) {
+            getSupportActionBar().setSubtitle(subtitle);
+        }
+    }
+
+    /**
+     * Helper method to delete all products in the database. The products are only marked as
+     * deleted, off the main thread, and purged later by the compaction job.
      */
     private void deleteAllProducts() {
-        int rowsDeleted = getContentResolver().delete(ProductEntry.CONTENT_URI, null, null);
-        Log.v("CatalogActivity", rowsDeleted + " rows deleted from product database");
+        ProductWriter.getInstance(this).delete(ProductEntry.CONTENT_URI, new ProductWriter.Callback<Integer>() {
+            @Override
+            public void onComplete(Integer rowsDeleted) {
+                Log.v("CatalogActivity", rowsDeleted + " rows deleted from product database");
+            }
+        });
     }
 
     @Override
@@ -139,6 +655,27 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         // Inflate the menu options from the res/menu/menu_catalog.xml file.
         // This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.menu_catalog, menu);
+
+        // Picking documents needs the storage access framework
+        boolean canPickDocuments = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+        menu.findItem(R.id.action_import_csv).setVisible(canPickDocuments);
+        menu.findItem(R.id.action_export_csv).setVisible(canPickDocuments);
+
+        // Search as the user types
+        SearchView searchView = (SearchView) menu.findItem(R.id.action_search).getActionView();
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                setSearchQuery(query);
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                setSearchQuery(newText);
+                return true;
+            }
+        });
         return true;
     }
 
@@ -150,6 +687,13 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
             case R.id.action_insert_dummy_data:
                 insertProduct();
                 return true;
+            // Respond to a click on the CSV menu options
+            case R.id.action_import_csv:
+                pickCsvToImport();
+                return true;
+            case R.id.action_export_csv:
+                pickCsvToExport();
+                return true;
             // Respond to a click on the "Delete all entries" menu option
             case R.id.action_delete_all_entries:
                 showDeleteAllConfirmationDialog();
@@ -160,32 +704,109 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
 
     @NonNull
     @Override
-    public Loader<Cursor> onCreateLoader(int i, @Nullable Bundle args) {
-        // Define a projection that specifies the columns from the table we care about.
-        String[] projection = {
-                ProductEntry._ID,
-                ProductEntry.COLUMN_PRODUCT_NAME,
-                ProductEntry.COLUMN_PRODUCT_QUANTITY};
+    public Loader<List<CatalogItem>> onCreateLoader(int i, @Nullable Bundle args) {
+        if (i == SEARCH_LOADER) {
+            return new CatalogItemLoader(this, ProductEntry.buildSearchUri(mSearchQuery, SEARCH_LIMIT));
+        }
+
+        // Each loader fetches one page of narrow list rows that starts after the last row of
+        // the previous page, or ends before the first row of the next one
+        Uri pageUri;
+        if (args != null && args.containsKey(ARG_BEFORE_ID)) {
+            pageUri = ProductEntry.buildRowsBeforeUri(PAGE_SIZE, args.getLong(ARG_BEFORE_ID));
+        } else {
+            pageUri = ProductEntry.buildRowsUri(PAGE_SIZE, args == null ? 0 : args.getLong(ARG_AFTER_ID));
+        }
 
         // This loader will execute the ContentProvider's query method on a background thread
-        return new CursorLoader(this,   // Parent activity context
-                ProductEntry.CONTENT_URI,   // Provider content URI to query
-                projection,             // Columns to include in the resulting Cursor
-                null,                   // No selection clause
-                null,                   // No selection arguments
-                null);                  // Default sort order
+        return new CatalogItemLoader(this, pageUri);
     }
 
     @Override
-    public void onLoadFinished(@NonNull Loader<Cursor> loader, Cursor data) {
-        // Update {@link ProductCursorAdapter} with this new cursor containing updated product data
-        mCursorAdapter.swapCursor(data);
+    public void onLoadFinished(@NonNull Loader<List<CatalogItem>> loader, List<CatalogItem> data) {
+        if (loader.getId() == SEARCH_LOADER) {
+            mSearchResults = data;
+            showPages();
+            return;
+        }
+
+        int index = indexOfPage(loader.getId());
+        if (index < 0) {
+            // A loader left over from a page that was dropped
+            getLoaderManager().destroyLoader(loader.getId());
+            return;
+        }
+        Page page = mPages.get(index);
+        page.items = data;
+
+        if (data.size() < PAGE_SIZE) {
+            // Nothing comes before a short backward page or after a short forward page, so
+            // drop any pages that used to be there
+            if (page.isBackward()) {
+                while (index > 0) {
+                    dropPage(0);
+                    index--;
+                }
+                mAtStart = true;
+            } else {
+                while (mPages.size() > index + 1) {
+                    dropPage(mPages.size() - 1);
+                }
+                mAtEnd = true;
+            }
+        } else if (index == 0 && page.isBackward()) {
+            mAtStart = false;
+        } else if (index == mPages.size() - 1 && !page.isBackward()) {
+            mAtEnd = false;
+        }
+
+        // Rows were added or removed in this page, so a neighbour that continues from it has to
+        // start from its new boundary row to avoid skipping or repeating rows
+        if (!data.isEmpty()) {
+            if (index + 1 < mPages.size()) {
+                Page next = mPages.get(index + 1);
+                Bundle nextArgs = pageArgsAfter(data);
+                if (next.args != null && !next.isBackward()
+                        && next.args.getLong(ARG_AFTER_ID) != nextArgs.getLong(ARG_AFTER_ID)) {
+                    restartPage(next, nextArgs);
+                }
+            }
+            if (index > 0) {
+                Page previous = mPages.get(index - 1);
+                Bundle previousArgs = pageArgsBefore(data);
+                if (previous.isBackward()
+                        && previous.args.getLong(ARG_BEFORE_ID) != previousArgs.getLong(ARG_BEFORE_ID)) {
+                    restartPage(previous, previousArgs);
+                }
+            }
+        }
+
+        // Update {@link ProductListAdapter} with the pages containing updated product data
+        showPages();
     }
 
     @Override
-    public void onLoaderReset(@NonNull Loader<Cursor> loader) {
+    public void onLoaderReset(@NonNull Loader<List<CatalogItem>> loader) {
         // Callback called when the data needs to be deleted
-        mCursorAdapter.swapCursor(null);
+        if (loader.getId() == SEARCH_LOADER) {
+            mSearchResults = null;
+            showPages();
+            return;
+        }
+        int index = indexOfPage(loader.getId());
+        if (index >= 0) {
+            mPages.get(index).items = null;
+            showPages();
+        }
+    }
+
+    /**
+     * Reload a page from a new boundary row, hiding its stale rows until it has reloaded.
+     */
+    private void restartPage(Page page, Bundle args) {
+        page.args = args;
+        page.items = null;
+        getLoaderManager().restartLoader(page.loaderId, args, this);
     }
 
     /**
@@ -0,0 +1,61 @@
+package com.example.android.products;
+
+import android.text.TextUtils;
+
+/**
+ * Immutable snapshot of one row of the product catalog, as shown in the list.
+ */
+final class CatalogItem {
+
+    private final long mId;
+    private final String mName;
+    private final int mQuantity;
+
+    /**
+     * Quantity formatted for display, built once on the loader thread so binding a row
+     * doesn't allocate
+     */
+    private final String mQuantityText;
+
+    CatalogItem(long id, String name, int quantity) {
+        mId = id;
+        mName = name;
+        mQuantity = quantity;
+        mQuantityText = String.valueOf(quantity);
+    }
+
+    long getId() {
+        return mId;
+    }
+
+    String getName() {
+        return mName;
+    }
+
+    int getQuantity() {
+        return mQuantity;
+    }
+
+    String getQuantityText() {
+        return mQuantityText;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CatalogItem)) {
+            return false;
+        }
+        CatalogItem other = (CatalogItem) o;
+        return mId == other.mId && mQuantity == other.mQuantity && TextUtils.equals(mName, other.mName);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (mId ^ (mId >>> 32));
+        result = 31 * result + (mName != null ? mName.hashCode() : 0);
+        return 31 * result + mQuantity;
+    }
+}
@@ -0,0 +1,174 @@
+package com.example.android.products;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.text.TextUtils;
+
+import com.example.android.products.data.ProductContract;
+import com.example.android.products.data.ProductContract.ProductEntry;
+import com.example.android.products.data.ProviderMetrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Loads a page or search result of the catalog as a list of {@link CatalogItem}s. The cursor is
+ * read and closed on the background thread, so the list can be diffed against the previous one
+ * without holding a cursor open. Reloads when the products table changes, or when one of the
+ * products in the loaded list changes; changes to other single products are ignored.
+ */
+class CatalogItemLoader extends AsyncTaskLoader<List<CatalogItem>> {
+
+    /**
+     * Columns needed to show a product in the catalog, from {@link ProductEntry#ROWS_URI}
+     */
+    private static final String[] ROW_PROJECTION = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_DISPLAY_NAME,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY};
+
+    /**
+     * Columns needed to show a product in the catalog, from {@link ProductEntry#SEARCH_URI}
+     */
+    private static final String[] SEARCH_PROJECTION = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY};
+
+    /**
+     * Provider URI of the page or search to load
+     */
+    private final Uri mUri;
+
+    /**
+     * Observer that reloads the list when the products data changes
+     */
+    private final ContentObserver mObserver = new ContentObserver(new Handler()) {
+        @Override
+        public boolean deliverSelfNotifications() {
+            return true;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            // Called without a URI before API 16, so the change could be anywhere
+            onContentChanged();
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            if (affectsLoadedItems(uri)) {
+                onContentChanged();
+            }
+        }
+    };
+
+    /**
+     * Last loaded list, delivered again when the loader is restarted
+     */
+    private List<CatalogItem> mItems;
+
+    private boolean mObserverRegistered;
+
+    CatalogItemLoader(Context context, Uri uri) {
+        super(context);
+        mUri = uri;
+    }
+
+    /**
+     * Return whether a change notification for the given URI could change the loaded list. A
+     * notification for a single product only matters if that product is in the list.
+     */
+    private boolean affectsLoadedItems(Uri uri) {
+        List<String> segments = uri == null ? null : uri.getPathSegments();
+        if (mItems == null || segments == null || segments.size() != 2
+                || !TextUtils.isDigitsOnly(segments.get(1))) {
+            return true;
+        }
+        long id = Long.parseLong(segments.get(1));
+        for (CatalogItem item : mItems) {
+            if (item.getId() == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public List<CatalogItem> loadInBackground() {
+        long start = System.nanoTime();
+        List<CatalogItem> items = loadItems();
+        ProviderMetrics.getInstance().record("load catalog", System.nanoTime() - start, items.size());
+        return items;
+    }
+
+    private List<CatalogItem> loadItems() {
+        // The columns are in the same order in both projections
+        String[] projection = ProductContract.PATH_ROWS.equals(mUri.getLastPathSegment())
+                ? ROW_PROJECTION : SEARCH_PROJECTION;
+        Cursor cursor = getContext().getContentResolver().query(mUri, projection, null, null, null);
+        if (cursor == null) {
+            return new ArrayList<>();
+        }
+        try {
+            List<CatalogItem> items = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                items.add(new CatalogItem(cursor.getLong(0), cursor.getString(1), cursor.getInt(2)));
+            }
+            // A page loaded backwards comes nearest row first
+            if (mUri.getQueryParameter(ProductEntry.QUERY_PARAMETER_BEFORE_ID) != null) {
+                Collections.reverse(items);
+            }
+            return items;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public void deliverResult(List<CatalogItem> items) {
+        if (isReset()) {
+            return;
+        }
+        mItems = items;
+        if (isStarted()) {
+            super.deliverResult(items);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!mObserverRegistered) {
+            getContext().getContentResolver().registerContentObserver(ProductEntry.CONTENT_URI,
+                    true, mObserver);
+            mObserverRegistered = true;
+        }
+        if (mItems != null) {
+            deliverResult(mItems);
+        }
+        if (takeContentChanged() || mItems == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        mItems = null;
+        if (mObserverRegistered) {
+            getContext().getContentResolver().unregisterContentObserver(mObserver);
+            mObserverRegistered = false;
+        }
+    }
+}
@@ -15,13 +15,17 @@
  */
 package com.example.android.products;
 
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
 import android.support.v4.app.NavUtils;
 import android.support.v7.app.AppCompatActivity;
+import android.text.Editable;
 import android.text.TextUtils;
+import android.text.TextWatcher;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -30,7 +34,6 @@ import android.widget.Button;
 import android.widget.EditText;
 import android.widget.Toast;
 import android.app.LoaderManager;
-import android.content.CursorLoader;
 import android.content.Loader;
 import android.database.Cursor;
 import android.app.AlertDialog;
@@ -38,7 +41,10 @@ import android.content.DialogInterface;
 import android.view.MotionEvent;
 
 
+import com.example.android.products.data.Prices;
 import com.example.android.products.data.ProductContract.ProductEntry;
+import com.example.android.products.data.ProductValidator;
+import com.example.android.products.data.ProductWriter;
 
 /**
  * Allows user to create a new product or edit an existing one.
@@ -105,11 +111,27 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
      */
     private Button mSellProduct;
 
+    /**
+     * Quantity of the existing product as last loaded from the database, or -1 before the first load
+     */
+    private int mLoadedQuantity = -1;
+
     /**
      * Boolean flag that keeps track of whether the product has been edited (true) or not (false)
      */
     private boolean mProductHasChanged = false;
 
+    /**
+     * Whether the user has typed a quantity. The typed quantity is kept until it is saved, so
+     * reloads no longer show the stored one and the +/- buttons change the typed one.
+     */
+    private boolean mQuantityHasChanged = false;
+
+    /**
+     * True while the quantity field shows the stored quantity, so that doesn't count as typing
+     */
+    private boolean mShowingStoredQuantity = false;
+
     /**
      * OnTouchListener that listens for any user touches on a View, implying that they are modifying
      * the view, and we change the mProductHasChanged boolean to true.
@@ -185,49 +207,107 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         mIncrementQuantity.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                int quantity = 0;
-                String quantityText = mQuantityEditText.getText().toString();
-                if (!TextUtils.isEmpty(quantityText)) {
-                    quantity = Integer.parseInt(quantityText);
-                }
-                quantity++;
-                mQuantityEditText.setText(String.valueOf(quantity));
+                changeQuantity(1);
             }
         });
 
         mDecrementQuantity.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                int quantity = 0;
-                String quantityText = mQuantityEditText.getText().toString();
-                if (!TextUtils.isEmpty(quantityText)) {
-                    quantity = Integer.parseInt(quantityText);
-                    if (quantity > 0) {
-                        quantity--;
-                        mQuantityEditText.setText(String.valueOf(quantity));
-                    }
-                } else {
-                    mQuantityEditText.setText(String.valueOf(quantity));
-                }
+                changeQuantity(-1);
             }
         });
 
         // Setup OnTouchListeners on all the input fields, so we can determine if the user
         // has touched or modified them. This will let us know if there are unsaved changes
-        // or not, if the user tries to leave the editor without saving.
+        // or not, if the user tries to leave the editor without saving. The +/- buttons keep
+        // track of that themselves, because they only leave unsaved changes sometimes.
         mNameEditText.setOnTouchListener(mTouchListener);
         mPriceEditText.setOnTouchListener(mTouchListener);
         mQuantityEditText.setOnTouchListener(mTouchListener);
         mSupplierNameEditText.setOnTouchListener(mTouchListener);
         mSupplierPhoneEditText.setOnTouchListener(mTouchListener);
-        mIncrementQuantity.setOnTouchListener(mTouchListener);
-        mDecrementQuantity.setOnTouchListener(mTouchListener);
+
+        mQuantityEditText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                if (!mShowingStoredQuantity) {
+                    mQuantityHasChanged = true;
+                }
+            }
+        });
+    }
+
+    /**
+     * Apply a +/- button press. For an existing product whose quantity the user hasn't typed, it
+     * is stored right away, so it isn't an unsaved change. Otherwise it changes the quantity in
+     * the editor, which is only stored on Save.
+     */
+    private void changeQuantity(int delta) {
+        int quantity = 0;
+        String quantityText = mQuantityEditText.getText().toString();
+        if (!TextUtils.isEmpty(quantityText)) {
+            quantity = Integer.parseInt(quantityText);
+        }
+        if (quantity + delta < 0) {
+            if (TextUtils.isEmpty(quantityText)) {
+                mQuantityEditText.setText(String.valueOf(quantity));
+                mProductHasChanged = true;
+            }
+            return;
+        }
+        quantity += delta;
+
+        if (mCurrentProductUri == null || mQuantityHasChanged) {
+            mQuantityEditText.setText(String.valueOf(quantity));
+            mProductHasChanged = true;
+        } else {
+            showStoredQuantity(String.valueOf(quantity));
+            adjustStoredQuantity(delta);
+        }
+    }
+
+    /**
+     * Show a quantity that is, or is about to be, the stored one.
+     */
+    private void showStoredQuantity(String quantity) {
+        mShowingStoredQuantity = true;
+        mQuantityEditText.setText(quantity);
+        mShowingStoredQuantity = false;
+    }
+
+    /**
+     * Apply a +/- button press to the stored quantity of an existing product. The write runs on
+     * the {@link ProductWriter} thread, and rapid presses are combined into one write.
+     */
+    private void adjustStoredQuantity(int delta) {
+        final Context appContext = getApplicationContext();
+        ProductWriter.getInstance(this).adjustQuantity(ContentUris.parseId(mCurrentProductUri), delta,
+                new ProductWriter.Callback<Long>() {
+                    @Override
+                    public void onComplete(Long quantity) {
+                        if (quantity == null || quantity < 0) {
+                            Toast.makeText(appContext, R.string.editor_update_product_failed,
+                                    Toast.LENGTH_SHORT).show();
+                        }
+                    }
+                });
     }
 
     /**
      * Get user input from editor and save product into database.
+     *
+     * @return false if the input failed validation and the editor should stay open
      */
-    private void saveProduct() {
+    private boolean saveProduct() {
         // Read from input fields
         // Use trim to eliminate leading or trailing white space
         String nameString = mNameEditText.getText().toString().trim();
@@ -235,12 +315,6 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         String quantityString = mQuantityEditText.getText().toString().trim();
         String supplierNameString = mSupplierNameEditText.getText().toString().trim();
         String supplierPhoneString = mSupplierPhoneEditText.getText().toString().trim();
-        // If the quantity is not provided by the user, don't try to parse the string into an
-        // integer value. Use 0 by default.
-        int quantity = 0;
-        if (!TextUtils.isEmpty(quantityString)) {
-            quantity = Integer.parseInt(quantityString);
-        }
 
         // Check if this is supposed to be a new product
         // and check if all the fields in the editor are blank
@@ -248,59 +322,110 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
                 TextUtils.isEmpty(priceString) && TextUtils.isEmpty(quantityString) &&
                 TextUtils.isEmpty(supplierNameString) && TextUtils.isEmpty(supplierPhoneString)) {
             // Since no fields were modified, we can return early without creating a new product.
-            // No need to create ContentValues and no need to do any ContentProvider operations.
-            return;
+            // Nothing needs validating, and the editor can close.
+            return true;
         }
 
+        // If the quantity is not provided by the user, don't try to parse the string into an
+        // integer value. Use 0 by default.
+        int quantity = 0;
+        if (!TextUtils.isEmpty(quantityString)) {
+            quantity = Integer.parseInt(quantityString);
+        }
+
+        // The price is stored in cents. Leave it out if it can't be parsed, so validation
+        // reports it as invalid.
+        long priceCents = Prices.parseCents(priceString);
+
         // Create a ContentValues object where column names are the keys,
         // and product attributes from the editor are the values.
         ContentValues values = new ContentValues();
         values.put(ProductEntry.COLUMN_PRODUCT_NAME, nameString);
-        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, priceString);
+        if (priceCents >= 0) {
+            values.put(ProductEntry.COLUMN_PRODUCT_PRICE, priceCents);
+        }
         values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
         values.put(ProductEntry.COLUMN_SUPPLIER_NAME, supplierNameString);
         values.put(ProductEntry.COLUMN_SUPPlIER_PHONE, supplierPhoneString);
 
+        // Run the same checks as the provider, so the user gets a message for the field to fix
+        int error = ProductValidator.validateInsert(values);
+        if (error != ProductValidator.VALID) {
+            Toast.makeText(this, getValidationMessage(error), Toast.LENGTH_SHORT).show();
+            return false;
+        }
+
+        // The write runs on the writer thread and may finish after this activity, so the
+        // callbacks only use the application context.
+        final Context appContext = getApplicationContext();
+        ProductWriter writer = ProductWriter.getInstance(this);
+
         // Determine if this is a new or existing product by checking if mCurrentProductUri is null or not
         if (mCurrentProductUri == null) {
             // This is a NEW product, so insert a new product into the provider,
             // returning the content URI for the new product.
-            Uri newUri = null;
-            Toast.makeText(this, mNameEditText + " " + mPriceEditText + " " + mQuantityEditText + " " + mSupplierNameEditText + " " + mSupplierPhoneEditText, Toast.LENGTH_SHORT).show();
-            if (TextUtils.isEmpty(mNameEditText.getText().toString()) || TextUtils.isEmpty(mPriceEditText.getText().toString()) ||
-                    TextUtils.isEmpty(mSupplierNameEditText.getText().toString()) || TextUtils.isEmpty(mSupplierPhoneEditText.getText().toString())) {
-                Toast.makeText(this, "Please make sure all fields are filled.", Toast.LENGTH_LONG).show();
-            } else {
-                newUri = getContentResolver().insert(ProductEntry.CONTENT_URI, values);
+            writer.insert(values, new ProductWriter.Callback<Uri>() {
+                @Override
+                public void onComplete(Uri newUri) {
+                    // Show a toast message depending on whether or not the insertion was successful.
+                    if (newUri == null) {
+                        // If the new content URI is null, then there was an error with insertion.
+                        Toast.makeText(appContext, R.string.editor_insert_product_failed,
+                                Toast.LENGTH_SHORT).show();
+                    } else {
+                        // Otherwise, the insertion was successful and we can display a toast.
+                        Toast.makeText(appContext, R.string.editor_insert_product_successful,
+                                Toast.LENGTH_SHORT).show();
+                    }
+                }
+            });
+        } else {
+            // The +/- buttons already stored their changes, so only write the quantity if the
+            // user typed one. That way sales made meanwhile aren't overwritten.
+            if (!mQuantityHasChanged) {
+                values.remove(ProductEntry.COLUMN_PRODUCT_QUANTITY);
             }
 
-            // Show a toast message depending on whether or not the insertion was successful.
-            if (newUri == null) {
-                // If the new content URI is null, then there was an error with insertion.
-                Toast.makeText(this, getString(R.string.editor_insert_product_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the insertion was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_insert_product_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
-        } else {
             // Otherwise this is an EXISTING product, so update the product with content URI: mCurrentProductUri
             // and pass in the new ContentValues. Pass in null for the selection and selection args
             // because mCurrentProductUri will already identify the correct row in the database that
             // we want to modify.
-            int rowsAffected = getContentResolver().update(mCurrentProductUri, values, null, null);
+            writer.update(mCurrentProductUri, values, new ProductWriter.Callback<Integer>() {
+                @Override
+                public void onComplete(Integer rowsAffected) {
+                    // Show a toast message depending on whether or not the update was successful.
+                    if (rowsAffected == null || rowsAffected == 0) {
+                        // If no rows were affected, then there was an error with the update.
+                        Toast.makeText(appContext, R.string.editor_update_product_failed,
+                                Toast.LENGTH_SHORT).show();
+                    } else {
+                        // Otherwise, the update was successful and we can display a toast.
+                        Toast.makeText(appContext, R.string.editor_update_product_successful,
+                                Toast.LENGTH_SHORT).show();
+                    }
+                }
+            });
+        }
+        return true;
+    }
 
-            // Show a toast message depending on whether or not the update was successful.
-            if (rowsAffected == 0) {
-                // If no rows were affected, then there was an error with the update.
-                Toast.makeText(this, getString(R.string.editor_update_product_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the update was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_update_product_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+    /**
+     * Return the message to show for a {@link ProductValidator} error code.
+     */
+    private String getValidationMessage(int error) {
+        switch (error) {
+            case ProductValidator.ERROR_NAME_REQUIRED:
+                return getString(R.string.editor_error_name_required);
+            case ProductValidator.ERROR_INVALID_PRICE:
+                return getString(R.string.editor_error_invalid_price);
+            case ProductValidator.ERROR_INVALID_QUANTITY:
+                return getString(R.string.editor_error_invalid_quantity);
+            case ProductValidator.ERROR_SUPPLIER_REQUIRED:
+                return getString(R.string.editor_error_supplier_required);
+            case ProductValidator.ERROR_PHONE_REQUIRED:
+                return getString(R.string.editor_error_phone_required);
+            default:
+                return getString(R.string.editor_insert_product_failed);
         }
     }
 
@@ -333,13 +458,8 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         switch (item.getItemId()) {
             // Respond to a click on the "Save" menu option
             case R.id.action_save:
-                if (TextUtils.isEmpty(mNameEditText.getText().toString()) || TextUtils.isEmpty(mPriceEditText.getText().toString()) ||
-                        TextUtils.isEmpty(mSupplierNameEditText.getText().toString()) || TextUtils.isEmpty(mSupplierPhoneEditText.getText().toString())) {
-                    Toast.makeText(this, "Please make sure all fields are filled.", Toast.LENGTH_SHORT).show();
-                } else {
-                    // Save product to database
-                    saveProduct();
-                    // Exit activity
+                // Save product to database, and exit the activity unless the input was invalid
+                if (saveProduct()) {
                     finish();
                 }
                 return true;
@@ -414,7 +534,8 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
                 ProductEntry.COLUMN_SUPPLIER_NAME,
                 ProductEntry.COLUMN_SUPPlIER_PHONE};
         // This loader will execute the ContentProvider's query method on a background thread
-        return new CursorLoader(this,   // Parent activity context
+        return new MeteredCursorLoader(this,   // Parent activity context
+                "editor",               // Name of the load metric
                 mCurrentProductUri,         // Query the content URI for the current PRODUCT
                 projection,             // Columns to include in the resulting Cursor
                 null,                   // No selection clause
@@ -441,17 +562,25 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
 
             // Extract out the value from the Cursor for the given column index
             String name = cursor.getString(nameColumnIndex);
-            String price = cursor.getString(priceColumnIndex);
+            String price = Prices.formatCents(cursor.getLong(priceColumnIndex));
             int quantity = cursor.getInt(quantityColumnIndex);
             String supplierName = cursor.getString(supplierNameColumnIndex);
             String supplierPhone = cursor.getString(supplierPhoneColumnIndex);
 
-            // Update the views on the screen with the values from the database
-            mNameEditText.setText(name);
-            mPriceEditText.setText(price);
-            mQuantityEditText.setText(Integer.toString(quantity));
-            mSupplierNameEditText.setText(supplierName);
-            mSupplierPhoneEditText.setText(supplierPhone);
+            // Update the views on the screen with the values from the database. Later reloads
+            // come from quantity changes, so they only refresh the quantity, and only if the
+            // user hasn't typed one, and keep any edits the user has made to the other fields.
+            if (mLoadedQuantity == -1) {
+                mNameEditText.setText(name);
+                mPriceEditText.setText(price);
+                mSupplierNameEditText.setText(supplierName);
+                mSupplierPhoneEditText.setText(supplierPhone);
+                mQuantityHasChanged = false;
+            }
+            if (!mQuantityHasChanged) {
+                showStoredQuantity(Integer.toString(quantity));
+            }
+            mLoadedQuantity = quantity;
         }
     }
 
@@ -460,9 +589,10 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         // If the loader is invalidated, clear out all the data from the input fields.
         mNameEditText.setText("");
         mPriceEditText.setText("");
-        mQuantityEditText.setText("");
+        showStoredQuantity("");
         mSupplierNameEditText.setText("");
         mSupplierPhoneEditText.setText("");
+        mLoadedQuantity = -1;
     }
 
     /**
@@ -0,0 +1,34 @@
+package com.example.android.products;
+
+import android.content.Context;
+import android.content.CursorLoader;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.products.data.ProviderMetrics;
+
+/**
+ * A {@link CursorLoader} that records how long each load takes and how many rows it returns in
+ * the {@link ProviderMetrics}, as "load " followed by the given name. The time covers the
+ * provider call and the first cursor window fill, which is what the screen waits for.
+ */
+class MeteredCursorLoader extends CursorLoader {
+
+    private final String mMetricName;
+
+    MeteredCursorLoader(Context context, String name, Uri uri, String[] projection,
+                        String selection, String[] selectionArgs, String sortOrder) {
+        super(context, uri, projection, selection, selectionArgs, sortOrder);
+        mMetricName = "load " + name;
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        long start = System.nanoTime();
+        Cursor cursor = super.loadInBackground();
+        // The cursor window was filled by the loader already, so counting is free
+        int rows = cursor != null ? cursor.getCount() : 0;
+        ProviderMetrics.getInstance().record(mMetricName, System.nanoTime() - start, rows);
+        return cursor;
+    }
+}
@@ -0,0 +1,183 @@
+package com.example.android.products;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.v7.recyclerview.extensions.ListAdapter;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Button;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import com.example.android.products.data.ProductWriter;
+
+/**
+ * {@link ProductListAdapter} is a {@link RecyclerView} adapter that shows a list of
+ * {@link CatalogItem}s. New lists are diffed against the current one on a background thread,
+ * keyed by product ID, and only the rows that changed are rebound.
+ */
+public class ProductListAdapter extends ListAdapter<CatalogItem, ProductListAdapter.ViewHolder> {
+
+    /**
+     * Callback for clicks on a product row.
+     */
+    interface OnProductClickListener {
+        void onProductClick(long id);
+    }
+
+    /**
+     * Products are the same row if they have the same ID, and unchanged if all shown values match.
+     */
+    private static final DiffUtil.ItemCallback<CatalogItem> DIFF_CALLBACK =
+            new DiffUtil.ItemCallback<CatalogItem>() {
+                @Override
+                public boolean areItemsTheSame(@NonNull CatalogItem oldItem, @NonNull CatalogItem newItem) {
+                    return oldItem.getId() == newItem.getId();
+                }
+
+                @Override
+                public boolean areContentsTheSame(@NonNull CatalogItem oldItem, @NonNull CatalogItem newItem) {
+                    return oldItem.equals(newItem);
+                }
+            };
+
+    private final Context mContext;
+    private final OnProductClickListener mClickListener;
+
+    /**
+     * Shared by every row. Each row view is tagged with its {@link ViewHolder}, which knows the ID
+     * of the product it currently shows, so no listener is allocated per row.
+     */
+    private final View.OnClickListener mRowClickListener = new View.OnClickListener() {
+        @Override
+        public void onClick(View view) {
+            long id = productIdForView(view);
+            if (id != RecyclerView.NO_ID) {
+                mClickListener.onProductClick(id);
+            }
+        }
+    };
+
+    /**
+     * Shows the outcome of a sale.
+     */
+    private final ProductWriter.Callback<Long> mSellCallback = new ProductWriter.Callback<Long>() {
+        @Override
+        public void onComplete(Long quantity) {
+            // Show a toast message depending on whether or not the sale went through.
+            if (quantity == null) {
+                // If there is no result, then there was an error with the update.
+                Toast.makeText(mContext, R.string.editor_update_product_failed,
+                        Toast.LENGTH_SHORT).show();
+            } else if (quantity < 0) {
+                // Not enough stock left to sell
+                Toast.makeText(mContext, "Time to restock", Toast.LENGTH_SHORT).show();
+            } else {
+                // Otherwise, the update was successful and we can display a toast.
+                Toast.makeText(mContext, R.string.editor_update_product_successful,
+                        Toast.LENGTH_SHORT).show();
+            }
+        }
+    };
+
+    /**
+     * Shared by every sell button, see {@link #mRowClickListener}.
+     */
+    private final View.OnClickListener mSellClickListener = new View.OnClickListener() {
+        @Override
+        public void onClick(View view) {
+            long id = productIdForView(view);
+            if (id != RecyclerView.NO_ID) {
+                sellProduct(id);
+            }
+        }
+    };
+
+    /**
+     * Constructs a new {@link ProductListAdapter}.
+     *
+     * @param context       The context
+     * @param clickListener Called when a product row is clicked
+     */
+    ProductListAdapter(Context context, OnProductClickListener clickListener) {
+        super(DIFF_CALLBACK);
+        mContext = context;
+        mClickListener = clickListener;
+        setHasStableIds(true);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return getItem(position).getId();
+    }
+
+    /**
+     * Makes a new blank list item view. No data is set (or bound) to the views yet.
+     */
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        // Inflate a list item view using the layout specified in list_item.xml
+        View view = LayoutInflater.from(mContext).inflate(R.layout.list_item, parent, false);
+        return new ViewHolder(view);
+    }
+
+    /**
+     * Binds the product data at the given position to the list item layout.
+     */
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        CatalogItem item = getItem(position);
+
+        // Update the TextViews with the attributes for the current product
+        holder.mNameTextView.setText(item.getName());
+        holder.mSummaryTextView.setText(item.getQuantityText());
+    }
+
+    /**
+     * Return the ID of the product shown by the row the given view was tagged for, or
+     * {@link RecyclerView#NO_ID} if the row is no longer bound to a product.
+     */
+    private static long productIdForView(View view) {
+        ViewHolder holder = (ViewHolder) view.getTag();
+        if (holder.getAdapterPosition() == RecyclerView.NO_POSITION) {
+            return RecyclerView.NO_ID;
+        }
+        return holder.getItemId();
+    }
+
+    /**
+     * Sell one unit of the given product.
+     */
+    private void sellProduct(long id) {
+        // Let the provider decrement the quantity atomically on the writer thread, instead of
+        // writing back the value that was read when this row was bound.
+        ProductWriter.getInstance(mContext).sell(id, 1, mSellCallback);
+    }
+
+    /**
+     * Holds the views of one list item.
+     */
+    class ViewHolder extends RecyclerView.ViewHolder {
+
+        final TextView mNameTextView;
+        final TextView mSummaryTextView;
+
+        ViewHolder(View itemView) {
+            super(itemView);
+            mNameTextView = (TextView) itemView.findViewById(R.id.name);
+            mSummaryTextView = (TextView) itemView.findViewById(R.id.summary);
+            Button sellButton = (Button) itemView.findViewById(R.id.sell_product_button);
+
+            // Views are found once per holder, and the shared listeners find the product
+            // through the tag
+            itemView.setTag(this);
+            sellButton.setTag(this);
+            itemView.setOnClickListener(mRowClickListener);
+            sellButton.setOnClickListener(mSellClickListener);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.android.products.data;
+
+/**
+ * Thrown by {@link ProductProvider} when the values for a product fail validation. The error code
+ * is one of the {@code ERROR_*} constants of {@link ProductValidator}.
+ */
+public class InvalidProductException extends IllegalArgumentException {
+
+    private final int mError;
+
+    public InvalidProductException(int error) {
+        super("Invalid product values, error " + error);
+        mError = error;
+    }
+
+    /**
+     * @return the {@link ProductValidator} error code
+     */
+    public int getError() {
+        return mError;
+    }
+}
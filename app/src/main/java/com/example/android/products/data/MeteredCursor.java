@@ -0,0 +1,61 @@
+package com.example.android.products.data;
+
+import android.database.CursorWindow;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteQuery;
+
+/**
+ * A database cursor that records into {@link ProviderMetrics} how often and how long it fills
+ * its {@link CursorWindow}, which is where a query actually runs, and how many rows it returned.
+ * A window is filled on the first call to {@link #getCount()}, and again whenever the cursor
+ * moves past the rows it holds.
+ */
+final class MeteredCursor extends SQLiteCursor {
+
+    private final ProviderMetrics mMetrics;
+    private final String mQueryName;
+    private final String mFillName;
+
+    /**
+     * @param match name of the provider URI pattern that was queried
+     */
+    MeteredCursor(SQLiteCursorDriver driver, String editTable, SQLiteQuery query,
+                  ProviderMetrics metrics, String match) {
+        super(driver, editTable, query);
+        mMetrics = metrics;
+        mQueryName = "query " + match;
+        mFillName = "fill " + match;
+    }
+
+    @Override
+    public int getCount() {
+        if (getWindow() != null) {
+            return super.getCount();
+        }
+        // The first window fill also counts all rows
+        long start = System.nanoTime();
+        int count = super.getCount();
+        recordFill(start);
+        mMetrics.addRows(mQueryName, count);
+        return count;
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        CursorWindow window = getWindow();
+        if (window != null && newPosition >= window.getStartPosition()
+                && newPosition < window.getStartPosition() + window.getNumRows()) {
+            return super.onMove(oldPosition, newPosition);
+        }
+        long start = System.nanoTime();
+        boolean moved = super.onMove(oldPosition, newPosition);
+        recordFill(start);
+        return moved;
+    }
+
+    private void recordFill(long start) {
+        CursorWindow window = getWindow();
+        mMetrics.record(mFillName, System.nanoTime() - start, window != null ? window.getNumRows() : 0);
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.android.products.data;
+
+import java.math.BigDecimal;
+
+/**
+ * Converts between the price text users type and see, and the whole number of cents stored in
+ * {@link ProductContract.ProductEntry#COLUMN_PRODUCT_PRICE}. Conversions go through
+ * {@link BigDecimal}, so no rounding error ever reaches the database.
+ */
+public final class Prices {
+
+    /**
+     * Number of decimal places of the currency
+     */
+    private static final int CENTS_SCALE = 2;
+
+    // To prevent someone from accidentally instantiating this class,
+    // give it an empty constructor.
+    private Prices() {
+    }
+
+    /**
+     * Parse a price such as "4.99" or "5" into cents.
+     *
+     * @return the price in cents, or -1 if the text isn't a non-negative amount with at most two
+     * decimal places
+     */
+    public static long parseCents(String price) {
+        if (price == null) {
+            return -1;
+        }
+        try {
+            BigDecimal amount = new BigDecimal(price.trim());
+            if (amount.signum() < 0 || amount.stripTrailingZeros().scale() > CENTS_SCALE) {
+                return -1;
+            }
+            return amount.movePointRight(CENTS_SCALE).longValueExact();
+        } catch (NumberFormatException | ArithmeticException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Format a price in cents for display and editing, e.g. 499 becomes "4.99".
+     */
+    public static String formatCents(long cents) {
+        return BigDecimal.valueOf(cents, CENTS_SCALE).toPlainString();
+    }
+}
@@ -0,0 +1,193 @@
+package com.example.android.products.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.text.TextUtils;
+import android.util.LruCache;
+
+import com.example.android.products.data.ProductContract.ProductEntry;
+
+/**
+ * Bounded least-recently-used cache of single product records, used by {@link ProductProvider}
+ * to answer item URI queries without going to SQLite. A record holds every column of
+ * {@link ProductEntry#VIEW_NAME}, so any projection over those columns can be served from it.
+ * <p>
+ * Records are dropped whenever the provider reports a change. A record read from the database
+ * is only stored if nothing was invalidated while it was being read, so a read racing with a
+ * write can never put an outdated record back into the cache.
+ */
+final class ProductCache {
+
+    /**
+     * Columns of a cached record, in the order they are stored
+     */
+    static final String[] COLUMNS = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductEntry.COLUMN_SUPPLIER_ID,
+            ProductEntry.COLUMN_SUPPLIER_NAME,
+            ProductEntry.COLUMN_SUPPlIER_PHONE};
+
+    /**
+     * Query of a single record, built once so a cache miss doesn't assemble the SQL each time.
+     * The connection keeps the statement compiled, since the SQL is the same for every product.
+     */
+    private static final String SQL_LOAD = "SELECT " + TextUtils.join(", ", COLUMNS)
+            + " FROM " + ProductEntry.VIEW_NAME + " WHERE " + ProductEntry._ID + " = ?";
+
+    private final LruCache<Long, Object[]> mRecords;
+
+    /**
+     * Incremented on every invalidation. Guarded by this.
+     */
+    private int mGeneration;
+
+    /**
+     * @param maxSize maximum number of products to keep
+     */
+    ProductCache(int maxSize) {
+        mRecords = new LruCache<>(maxSize);
+    }
+
+    /**
+     * @return the cached record of the product, or null if it isn't cached
+     */
+    Object[] get(long id) {
+        return mRecords.get(id);
+    }
+
+    /**
+     * @return a token to pass to {@link #put(long, Object[], int)}, taken before reading the
+     * record from the database
+     */
+    synchronized int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Cache a record read from the database, unless the cache was invalidated since
+     * {@link #getGeneration()} returned {@code generation}.
+     */
+    synchronized void put(long id, Object[] record, int generation) {
+        if (generation == mGeneration) {
+            mRecords.put(id, record);
+        }
+    }
+
+    /**
+     * Drop the record of a single product.
+     */
+    synchronized void remove(long id) {
+        mGeneration++;
+        mRecords.remove(id);
+    }
+
+    /**
+     * Drop every record, for changes that may affect any number of products.
+     */
+    synchronized void clear() {
+        mGeneration++;
+        mRecords.evictAll();
+    }
+
+    /**
+     * @return hit, miss and eviction counts and the current and maximum size, keyed by the
+     * {@code EXTRA_CACHE_*} keys of {@link ProductEntry}
+     */
+    Bundle getStats() {
+        Bundle stats = new Bundle();
+        stats.putInt(ProductEntry.EXTRA_CACHE_HITS, mRecords.hitCount());
+        stats.putInt(ProductEntry.EXTRA_CACHE_MISSES, mRecords.missCount());
+        stats.putInt(ProductEntry.EXTRA_CACHE_EVICTIONS, mRecords.evictionCount());
+        stats.putInt(ProductEntry.EXTRA_CACHE_SIZE, mRecords.size());
+        stats.putInt(ProductEntry.EXTRA_CACHE_MAX_SIZE, mRecords.maxSize());
+        return stats;
+    }
+
+    /**
+     * Map a projection to the positions of its columns in a record.
+     *
+     * @return the positions, or null if the projection has a column that isn't cached
+     */
+    static int[] mapProjection(String[] projection) {
+        if (projection == null) {
+            projection = COLUMNS;
+        }
+        int[] positions = new int[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            positions[i] = indexOf(projection[i]);
+            if (positions[i] == -1) {
+                return null;
+            }
+        }
+        return positions;
+    }
+
+    private static int indexOf(String column) {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (COLUMNS[i].equals(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Read the record of a single product from the database.
+     *
+     * @return the record, or null if the product doesn't exist
+     */
+    static Object[] load(SQLiteDatabase database, long id) {
+        Cursor cursor = database.rawQuery(SQL_LOAD, new String[]{String.valueOf(id)});
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            Object[] record = new Object[COLUMNS.length];
+            for (int i = 0; i < record.length; i++) {
+                switch (cursor.getType(i)) {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        record[i] = cursor.getLong(i);
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        record[i] = cursor.getDouble(i);
+                        break;
+                    case Cursor.FIELD_TYPE_STRING:
+                        record[i] = cursor.getString(i);
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        record[i] = cursor.getBlob(i);
+                        break;
+                    default:
+                        record[i] = null;
+                        break;
+                }
+            }
+            return record;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Build a cursor with the given columns of a record, or no rows if the record is null.
+     *
+     * @param projection columns to return, or null for all columns
+     * @param positions  positions of the columns in the record, from {@link #mapProjection(String[])}
+     */
+    static Cursor toCursor(Object[] record, String[] projection, int[] positions) {
+        MatrixCursor cursor = new MatrixCursor(projection != null ? projection : COLUMNS, 1);
+        if (record != null) {
+            Object[] row = new Object[positions.length];
+            for (int i = 0; i < positions.length; i++) {
+                row[i] = record[positions[i]];
+            }
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+}
@@ -0,0 +1,274 @@
+package com.example.android.products.data;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Process;
+import android.util.Log;
+
+import com.example.android.products.data.ProductContract.ProductEntry;
+import com.example.android.products.data.ProductContract.StockMovementEntry;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Rolls up old stock movements, purges deleted products and returns the space they took to the
+ * file system. Deleting a product only marks it with {@link ProductEntry#COLUMN_DELETED}; the
+ * compaction does the expensive part later, in small chunks that each commit on their own so it
+ * never holds the database for long and can stop between any two of them.
+ * <p>
+ * From API 21 the compaction is a {@link ProductCompactionService} job that runs while the device
+ * is idle, once after products are deleted and once a day to keep the movement ledger bounded.
+ * JobScheduler doesn't exist before that, so there it runs on a background thread instead: right
+ * away after products are deleted, and on a start of the app at most once a day.
+ */
+public final class ProductCompaction {
+
+    public static final String LOG_TAG = ProductCompaction.class.getSimpleName();
+
+    static final int JOB_ID = 1;
+    private static final int PERIODIC_JOB_ID = 2;
+
+    /**
+     * How often the periodic compaction runs
+     */
+    private static final long PERIOD_MILLIS = 24 * 60 * 60 * 1000L;
+
+    /**
+     * Preferences that remember when the fallback compaction last got to the end, so the daily
+     * compaction doesn't run on every start of the app before API 21
+     */
+    private static final String PREFS_NAME = "product_compaction";
+    private static final String PREF_LAST_COMPACTED = "last_compacted_millis";
+
+    /**
+     * Number of products whose stock movements are rolled up per transaction
+     */
+    private static final int ROLLUP_CHUNK_SIZE = 500;
+
+    /**
+     * Number of deleted products purged per transaction
+     */
+    private static final int PURGE_CHUNK_SIZE = 500;
+
+    /**
+     * Number of free pages returned to the file system per incremental vacuum
+     */
+    private static final int VACUUM_CHUNK_PAGES = 1024;
+
+    /**
+     * Whether the fallback thread is running, and whether it has to go over the table again
+     * because more products were deleted meanwhile. Guarded by the class.
+     */
+    private static boolean sCompacting;
+    private static boolean sCompactAgain;
+
+    /**
+     * Whether the compaction job is scheduled or running, so deletes don't have to ask the
+     * JobScheduler, and whether it has to be scheduled again once it has finished because more
+     * products were deleted while it ran. Guarded by the class.
+     */
+    private static boolean sJobPending;
+    private static boolean sJobAgain;
+
+    // To prevent someone from accidentally instantiating this class,
+    // give it an empty constructor.
+    private ProductCompaction() {
+    }
+
+    /**
+     * Schedule a compaction for the next time the device is idle. Called after every delete, so
+     * this is free while the job is already scheduled. Deletes while the job runs don't restart
+     * it; it is scheduled once more when it has finished instead.
+     */
+    public static void schedule(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            synchronized (ProductCompaction.class) {
+                if (sJobPending) {
+                    sJobAgain = true;
+                    return;
+                }
+                sJobPending = true;
+            }
+            scheduleJob(context, true);
+        } else {
+            compactInBackground(context.getApplicationContext());
+        }
+    }
+
+    /**
+     * Called by {@link ProductCompactionService} when the compaction job starts.
+     */
+    static void onJobStarted() {
+        synchronized (ProductCompaction.class) {
+            sJobPending = true;
+            sJobAgain = false;
+        }
+    }
+
+    /**
+     * Called by {@link ProductCompactionService} when the compaction job has finished, rather
+     * than been stopped to continue later. Schedules it again if products were deleted while it
+     * ran.
+     */
+    static void onJobFinished(Context context) {
+        synchronized (ProductCompaction.class) {
+            if (!sJobAgain) {
+                sJobPending = false;
+                return;
+            }
+            sJobAgain = false;
+        }
+        // The finished job may still be listed as pending for a moment, so don't look
+        scheduleJob(context, false);
+    }
+
+    /**
+     * @param keepPending whether to leave a job that is already pending alone
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static void scheduleJob(Context context, boolean keepPending) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (keepPending) {
+            // The job is persisted, so it may still be pending from before the app was
+            // restarted. Scheduling it again would push it back, or stop it if it is running.
+            for (JobInfo job : scheduler.getAllPendingJobs()) {
+                if (job.getId() == JOB_ID) {
+                    return;
+                }
+            }
+        }
+        scheduler.schedule(new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, ProductCompactionService.class))
+                .setRequiresDeviceIdle(true)
+                // Tombstones outlive a reboot, so the job has to as well
+                .setPersisted(true)
+                .build());
+    }
+
+    /**
+     * Make sure the daily compaction is scheduled. Called on every start of the app, so a job
+     * that is already pending is left alone rather than pushed back by another period. Before
+     * API 21 the compaction runs right away instead, if it hasn't got to the end for a period.
+     */
+    public static void schedulePeriodic(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            schedulePeriodicJob(context);
+        } else {
+            long lastCompacted = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                    .getLong(PREF_LAST_COMPACTED, 0);
+            long now = System.currentTimeMillis();
+            // A clock that was set back makes it due too, rather than never again
+            if (now - lastCompacted >= PERIOD_MILLIS || now < lastCompacted) {
+                compactInBackground(context.getApplicationContext());
+            }
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static void schedulePeriodicJob(Context context) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo job : scheduler.getAllPendingJobs()) {
+            if (job.getId() == PERIODIC_JOB_ID) {
+                return;
+            }
+        }
+        scheduler.schedule(new JobInfo.Builder(PERIODIC_JOB_ID,
+                new ComponentName(context, ProductCompactionService.class))
+                .setPeriodic(PERIOD_MILLIS)
+                .setRequiresDeviceIdle(true)
+                .setPersisted(true)
+                .build());
+    }
+
+    /**
+     * Run the compaction on a background thread, at most one at a time, and remember when it
+     * last got to the end.
+     */
+    private static void compactInBackground(final Context context) {
+        synchronized (ProductCompaction.class) {
+            sCompactAgain = true;
+            if (sCompacting) {
+                return;
+            }
+            sCompacting = true;
+        }
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                while (true) {
+                    synchronized (ProductCompaction.class) {
+                        if (!sCompactAgain) {
+                            sCompacting = false;
+                            return;
+                        }
+                        sCompactAgain = false;
+                    }
+                    try {
+                        if (compact(context.getContentResolver(), new AtomicBoolean())) {
+                            context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
+                                    .putLong(PREF_LAST_COMPACTED, System.currentTimeMillis())
+                                    .apply();
+                        }
+                    } catch (RuntimeException e) {
+                        Log.e(LOG_TAG, "Compaction failed", e);
+                    }
+                }
+            }
+        }, LOG_TAG).start();
+    }
+
+    /**
+     * Roll up the old stock movements, purge the deleted products, then vacuum the file, one
+     * chunk at a time until there is nothing left to do or {@code stopped} is set. Return true
+     * if it got to the end.
+     */
+    static boolean compact(ContentResolver resolver, AtomicBoolean stopped) {
+        Bundle extras = new Bundle();
+        extras.putInt(ProductEntry.EXTRA_LIMIT, ROLLUP_CHUNK_SIZE);
+        // Every chunk rolls up to the same cutoff
+        extras.putLong(StockMovementEntry.EXTRA_BEFORE,
+                System.currentTimeMillis() - StockMovementEntry.DEFAULT_ROLLUP_AGE_MILLIS);
+        long lastId = 0;
+        do {
+            if (stopped.get()) {
+                return false;
+            }
+            Bundle result = resolver.call(ProductEntry.CONTENT_URI, StockMovementEntry.METHOD_ROLLUP_MOVEMENTS,
+                    lastId > 0 ? String.valueOf(lastId) : null, extras);
+            lastId = result.getLong(StockMovementEntry.EXTRA_LAST_PRODUCT_ID);
+        } while (lastId > 0);
+
+        extras.putInt(ProductEntry.EXTRA_LIMIT, PURGE_CHUNK_SIZE);
+        long purged;
+        do {
+            if (stopped.get()) {
+                return false;
+            }
+            Bundle result = resolver.call(ProductEntry.CONTENT_URI, ProductEntry.METHOD_PURGE_DELETED,
+                    null, extras);
+            purged = result.getLong(ProductEntry.EXTRA_ROW_COUNT);
+        } while (purged == PURGE_CHUNK_SIZE);
+
+        extras.putInt(ProductEntry.EXTRA_LIMIT, VACUUM_CHUNK_PAGES);
+        long freePages = Long.MAX_VALUE;
+        long previous;
+        do {
+            if (stopped.get()) {
+                return false;
+            }
+            previous = freePages;
+            Bundle result = resolver.call(ProductEntry.CONTENT_URI, ProductEntry.METHOD_VACUUM,
+                    null, extras);
+            freePages = result.getLong(ProductEntry.EXTRA_PAGE_COUNT);
+            // Give up if a vacuum frees nothing rather than spinning
+        } while (freePages > 0 && freePages < previous);
+        return true;
+    }
+}
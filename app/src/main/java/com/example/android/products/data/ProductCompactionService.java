@@ -0,0 +1,81 @@
+package com.example.android.products.data;
+
+import android.annotation.TargetApi;
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.os.Build;
+import android.os.Process;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs the {@link ProductCompaction} while the device is idle, and stops it between two chunks
+ * as soon as the device is in use again. Scheduled by {@link ProductCompaction#schedule} and
+ * {@link ProductCompaction#schedulePeriodic}.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class ProductCompactionService extends JobService {
+
+    public static final String LOG_TAG = ProductCompactionService.class.getSimpleName();
+
+    /**
+     * Stop flag of each running job by job ID, since the one-off and the periodic job can run
+     * at the same time. Guarded by itself.
+     */
+    private final SparseArray<AtomicBoolean> mStopFlags = new SparseArray<>();
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        final boolean scheduledJob = params.getJobId() == ProductCompaction.JOB_ID;
+        if (scheduledJob) {
+            ProductCompaction.onJobStarted();
+        }
+        final AtomicBoolean stopped = new AtomicBoolean();
+        synchronized (mStopFlags) {
+            mStopFlags.put(params.getJobId(), stopped);
+        }
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                boolean done = false;
+                try {
+                    done = ProductCompaction.compact(getContentResolver(), stopped);
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Compaction failed", e);
+                }
+                Log.i(LOG_TAG, done ? "Compaction finished" : "Compaction stopped");
+                synchronized (mStopFlags) {
+                    // The job may have been started again after it was stopped
+                    if (mStopFlags.get(params.getJobId()) == stopped) {
+                        mStopFlags.remove(params.getJobId());
+                    }
+                }
+                // A stopped job is rescheduled by onStopJob()
+                if (!stopped.get()) {
+                    jobFinished(params, false);
+                    if (scheduledJob) {
+                        ProductCompaction.onJobFinished(getApplicationContext());
+                    }
+                }
+            }
+        }, LOG_TAG).start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // Stop this job after the current chunk and continue the next time the device is idle.
+        // The other job, if it is running too, carries on.
+        synchronized (mStopFlags) {
+            AtomicBoolean stopped = mStopFlags.get(params.getJobId());
+            if (stopped != null) {
+                stopped.set(true);
+                mStopFlags.remove(params.getJobId());
+            }
+        }
+        return true;
+    }
+}
@@ -16,6 +16,7 @@
 package com.example.android.products.data;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
@@ -44,6 +45,51 @@ public final class ProductContract {
      */
     public static final String PATH_PRODUCTS = "products";
 
+    /**
+     * Path appended to the products path for full-text search, e.g. products/search?q=tolkien
+     */
+    public static final String PATH_SEARCH = "search";
+
+    /**
+     * Path appended to the products or suppliers path for aggregate totals, e.g. products/summary
+     */
+    public static final String PATH_SUMMARY = "summary";
+
+    /**
+     * Path appended to the products path for products that are running out of stock
+     */
+    public static final String PATH_LOW_STOCK = "low_stock";
+
+    /**
+     * Path appended to the products path for the catalog as a CSV file
+     */
+    public static final String PATH_CSV = "csv";
+
+    /**
+     * Path appended to the products path for the narrow rows shown in the catalog list
+     */
+    public static final String PATH_ROWS = "rows";
+
+    /**
+     * Path for looking at supplier data, e.g. suppliers/2/products for the products of a supplier
+     */
+    public static final String PATH_SUPPLIERS = "suppliers";
+
+    /**
+     * Path for looking at the inventory counters, e.g. inventory_stats/0 for the whole catalog
+     */
+    public static final String PATH_INVENTORY_STATS = "inventory_stats";
+
+    /**
+     * Path for looking at the journal of local product changes waiting to be synced
+     */
+    public static final String PATH_CHANGES = "changes";
+
+    /**
+     * Path appended to a single product for its stock movements, e.g. products/3/movements
+     */
+    public static final String PATH_MOVEMENTS = "movements";
+
     // To prevent someone from accidentally instantiating the contract class,
     // give it an empty constructor.
     private ProductContract() {
@@ -61,6 +107,173 @@ public final class ProductContract {
          */
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_PRODUCTS);
 
+        /**
+         * The content URI for full-text search over product and supplier names. Pass the search
+         * text in {@link #QUERY_PARAMETER_QUERY}; matches are returned best first.
+         */
+        public static final Uri SEARCH_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SEARCH);
+
+        /**
+         * The content URI for totals over all products: a single row with
+         * {@link #COLUMN_PRODUCT_COUNT}, {@link #COLUMN_TOTAL_QUANTITY}, {@link #COLUMN_STOCK_VALUE}
+         * and {@link #COLUMN_LOW_STOCK_COUNT}. Takes an optional {@link #QUERY_PARAMETER_THRESHOLD}.
+         */
+        public static final Uri SUMMARY_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SUMMARY);
+
+        /**
+         * The content URI for the products whose quantity is at or below
+         * {@link #QUERY_PARAMETER_THRESHOLD}, lowest quantity first.
+         */
+        public static final Uri LOW_STOCK_URI = Uri.withAppendedPath(CONTENT_URI, PATH_LOW_STOCK);
+
+        /**
+         * Query parameter on {@link #SUMMARY_URI} and {@link #LOW_STOCK_URI} holding the quantity
+         * at or below which a product counts as low on stock. Defaults to
+         * {@link #DEFAULT_LOW_STOCK_THRESHOLD}.
+         */
+        public static final String QUERY_PARAMETER_THRESHOLD = "threshold";
+
+        /**
+         * Quantity at or below which a product is low on stock, unless the URI says otherwise
+         */
+        public static final int DEFAULT_LOW_STOCK_THRESHOLD = 5;
+
+        /**
+         * Build the URI for the products at or below the given quantity.
+         */
+        public static Uri buildLowStockUri(int threshold) {
+            return LOW_STOCK_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_THRESHOLD, String.valueOf(threshold))
+                    .build();
+        }
+
+        /**
+         * The content URI of the whole catalog as a CSV file, streamed as it is read. Open it
+         * with {@link ContentResolver#openInputStream(Uri)}. See {@link ProductCsv} for the format.
+         */
+        public static final Uri CSV_URI = Uri.withAppendedPath(CONTENT_URI, PATH_CSV);
+
+        /**
+         * The content URI of the catalog list rows, ordered by name and then ID. Rows only have
+         * the {@link #_ID}, {@link #COLUMN_DISPLAY_NAME} and {@link #COLUMN_PRODUCT_QUANTITY}
+         * columns, read from a covering index, so a cursor window holds many more of them than of
+         * full products. Takes an optional {@link #QUERY_PARAMETER_LIMIT}, and
+         * {@link #QUERY_PARAMETER_AFTER_ID} to continue after the row with that ID or
+         * {@link #QUERY_PARAMETER_BEFORE_ID} for the rows before it. Use
+         * {@link #buildRowsUri(int, long)} and {@link #buildRowsBeforeUri(int, long)}.
+         */
+        public static final Uri ROWS_URI = Uri.withAppendedPath(CONTENT_URI, PATH_ROWS);
+
+        /**
+         * Maximum length of {@link #COLUMN_DISPLAY_NAME}
+         */
+        public static final int DISPLAY_NAME_LENGTH = 64;
+
+        /**
+         * Query parameter on {@link #CONTENT_URI} for bulk inserts. When "false", the insert sends
+         * no change notification, for callers that insert many batches in a row and notify
+         * {@link #CONTENT_URI} and {@link SupplierEntry#CONTENT_URI} once at the end, like the
+         * CSV import does.
+         */
+        public static final String QUERY_PARAMETER_NOTIFY = "notify";
+
+        /**
+         * {@link #CONTENT_URI} with {@link #QUERY_PARAMETER_NOTIFY} turned off, to bulk insert
+         * one batch of many.
+         */
+        public static final Uri CONTENT_URI_WITHOUT_NOTIFY = CONTENT_URI.buildUpon()
+                .appendQueryParameter(QUERY_PARAMETER_NOTIFY, "false").build();
+
+        /**
+         * Query parameter on {@link #SEARCH_URI} holding the text typed by the user.
+         */
+        public static final String QUERY_PARAMETER_QUERY = "q";
+
+        /**
+         * Query parameter on {@link #CONTENT_URI} that limits the number of rows returned.
+         * Setting it turns the query into a keyset-paginated query ordered by name and then ID.
+         */
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+        /**
+         * Query parameter holding the name of the last row of the previous page.
+         * Must be used together with {@link #QUERY_PARAMETER_AFTER_ID}.
+         */
+        public static final String QUERY_PARAMETER_AFTER_NAME = "after_name";
+
+        /**
+         * Query parameter holding the ID of the last row of the previous page. When used without
+         * {@link #QUERY_PARAMETER_AFTER_NAME} the pages are ordered by ID instead of by name.
+         * On {@link #ROWS_URI} the name of that row is looked up, so the ID is enough on its own.
+         */
+        public static final String QUERY_PARAMETER_AFTER_ID = "after_id";
+
+        /**
+         * Query parameter on {@link #ROWS_URI} holding the ID of the first row of the next page,
+         * to page backwards. The rows that sort right before it are returned nearest first, so
+         * in reverse name order.
+         */
+        public static final String QUERY_PARAMETER_BEFORE_ID = "before_id";
+
+        /**
+         * Build the URI for one page of products ordered by name.
+         *
+         * @param limit     maximum number of rows in the page
+         * @param afterName name of the last row of the previous page, or null for the first page
+         * @param afterId   ID of the last row of the previous page, ignored for the first page
+         */
+        public static Uri buildPageUri(int limit, String afterName, long afterId) {
+            Uri.Builder builder = CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit));
+            if (afterName != null) {
+                builder.appendQueryParameter(QUERY_PARAMETER_AFTER_NAME, afterName)
+                        .appendQueryParameter(QUERY_PARAMETER_AFTER_ID, String.valueOf(afterId));
+            }
+            return builder.build();
+        }
+
+        /**
+         * Build the URI for one page of catalog list rows, see {@link #ROWS_URI}.
+         *
+         * @param limit   maximum number of rows in the page
+         * @param afterId ID of the last row of the previous page, or 0 for the first page
+         */
+        public static Uri buildRowsUri(int limit, long afterId) {
+            Uri.Builder builder = ROWS_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit));
+            if (afterId > 0) {
+                builder.appendQueryParameter(QUERY_PARAMETER_AFTER_ID, String.valueOf(afterId));
+            }
+            return builder.build();
+        }
+
+        /**
+         * Build the URI for the page of catalog list rows that comes right before the given row,
+         * in reverse order, see {@link #QUERY_PARAMETER_BEFORE_ID}.
+         *
+         * @param limit    maximum number of rows in the page
+         * @param beforeId ID of the first row of the next page
+         */
+        public static Uri buildRowsBeforeUri(int limit, long beforeId) {
+            return ROWS_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .appendQueryParameter(QUERY_PARAMETER_BEFORE_ID, String.valueOf(beforeId))
+                    .build();
+        }
+
+        /**
+         * Build the URI that searches product and supplier names for the given text.
+         *
+         * @param query text typed by the user; every word is matched as a prefix
+         * @param limit maximum number of matches to return
+         */
+        public static Uri buildSearchUri(String query, int limit) {
+            return SEARCH_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_QUERY, query)
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
         /**
          * The MIME type of the {@link #CONTENT_URI} for a list of products.
          */
@@ -78,6 +291,20 @@ public final class ProductContract {
          */
         public final static String TABLE_NAME = "products";
 
+        /**
+         * Name of the view that joins every product with its supplier. Queries read from this
+         * view, so {@link #COLUMN_SUPPLIER_NAME} and {@link #COLUMN_SUPPlIER_PHONE} are available
+         * without being stored on each product.
+         */
+        public final static String VIEW_NAME = "product_details";
+
+        /**
+         * Name of the full-text index over product and supplier names. Each row's docid is the
+         * {@link #_ID} of the product it indexes. It is kept in sync by triggers on
+         * {@link #TABLE_NAME}.
+         */
+        public final static String FTS_TABLE_NAME = "products_fts";
+
         /**
          * Unique ID number for the product (only for use in the database table).
          * <p>
@@ -93,32 +320,853 @@ public final class ProductContract {
         public final static String COLUMN_PRODUCT_NAME = "name";
 
         /**
-         * Price of the product.
+         * Price of the product, as a whole number of cents. Use {@link Prices} to convert to and
+         * from the text shown to the user.
          * <p>
-         * Type: FLOAT
+         * Type: INTEGER
          */
         public final static String COLUMN_PRODUCT_PRICE = "price";
 
         /**
-         * Quantity of the product.
+         * Quantity of the product. Local changes never take it below zero, but it can end up
+         * there after a sync, when several devices sold the last units.
          * <p>
          * Type: INTEGER
          */
         public final static String COLUMN_PRODUCT_QUANTITY = "quantity";
 
         /**
-         * Product Supplier Name.
+         * ID of the supplier of the product in {@link SupplierEntry#TABLE_NAME}.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SUPPLIER_ID = "supplier_id";
+
+        /**
+         * Product Supplier Name, read from the supplier. When a product is written with a
+         * supplier name and phone number instead of a {@link #COLUMN_SUPPLIER_ID}, the provider
+         * links it to the supplier with that name and number, adding the supplier if needed.
          * <p>
          * Type: TEXT
          */
         public final static String COLUMN_SUPPLIER_NAME = "supplier";
 
         /**
-         * Product Supplier Phone Number.
+         * Product Supplier Phone Number, read from the supplier. See {@link #COLUMN_SUPPLIER_NAME}.
          * <p>
          * Type: TEXT
          */
         public final static String COLUMN_SUPPlIER_PHONE = "phone";
-    }
-}
 
+        /**
+         * Identity of the product shared with the back office and other devices, 32 hex digits.
+         * Assigned when a product is inserted without one.
+         * <p>
+         * Type: TEXT
+         */
+        public final static String COLUMN_SYNC_ID = "sync_id";
+
+        /**
+         * When the name was last changed, here or on another device, in milliseconds since the
+         * epoch. A remote change of the name is only applied if it's at least as new. Local
+         * changes are stamped later than every change the product has seen, so they win over
+         * those even if the clock of this device is behind. Only exists in {@link #TABLE_NAME}.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_NAME_CHANGED_AT = "name_changed_at";
+
+        /**
+         * When the price was last changed, see {@link #COLUMN_NAME_CHANGED_AT}.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PRICE_CHANGED_AT = "price_changed_at";
+
+        /**
+         * When the supplier, or its name or phone number, was last changed, see
+         * {@link #COLUMN_NAME_CHANGED_AT}.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SUPPLIER_CHANGED_AT = "supplier_changed_at";
+
+        /**
+         * Nonzero if the product was deleted and is waiting to be purged. Deleted products are
+         * never returned by queries, this column only exists in {@link #TABLE_NAME}.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_DELETED = "deleted";
+
+        /**
+         * Name of the product cut to at most {@link #DISPLAY_NAME_LENGTH} characters, in
+         * {@link #ROWS_URI}.
+         * <p>
+         * Type: TEXT
+         */
+        public final static String COLUMN_DISPLAY_NAME = "display_name";
+
+        /**
+         * Number of products, in the summary URIs.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PRODUCT_COUNT = "product_count";
+
+        /**
+         * Sum of the quantities of the products, in the summary URIs.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_TOTAL_QUANTITY = "total_quantity";
+
+        /**
+         * Sum of price times quantity of the products in cents, in the summary URIs.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_STOCK_VALUE = "stock_value";
+
+        /**
+         * Number of products that are low on stock, in {@link #SUMMARY_URI}.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_LOW_STOCK_COUNT = "low_stock_count";
+
+        /**
+         * Provider method that atomically sells stock of a single product. Pass the product ID as
+         * the {@code arg} of {@link ContentResolver#call} and optionally {@link #EXTRA_AMOUNT}.
+         * The quantity is never allowed to drop below zero.
+         * <p>
+         * Pass {@link #EXTRA_AMOUNTS} instead to make several sales in one transaction, like the
+         * deltas of {@link #METHOD_ADJUST_QUANTITY}.
+         */
+        public static final String METHOD_SELL = "sell";
+
+        /**
+         * Provider method that atomically adds {@link #EXTRA_DELTA} to the quantity of a single
+         * product, passed as the {@code arg} of {@link ContentResolver#call}. Negative deltas
+         * are rejected if they would drop the quantity below zero.
+         * <p>
+         * Pass {@link #EXTRA_DELTAS} instead to apply several deltas in one transaction. They are
+         * applied in order, each one accepted or rejected on its own exactly as if it had been
+         * passed alone, and the quantity after each one is returned in {@link #EXTRA_QUANTITIES}.
+         */
+        public static final String METHOD_ADJUST_QUANTITY = "adjust_quantity";
+
+        /**
+         * Number of units to add to the quantity; negative to remove stock.
+         * <p>
+         * Type: int
+         */
+        public static final String EXTRA_DELTA = "delta";
+
+        /**
+         * Deltas to apply one after the other, instead of {@link #EXTRA_DELTA}.
+         * <p>
+         * Type: int[]
+         */
+        public static final String EXTRA_DELTAS = "deltas";
+
+        /**
+         * Number of units to sell. Defaults to 1.
+         * <p>
+         * Type: int
+         */
+        public static final String EXTRA_AMOUNT = "amount";
+
+        /**
+         * Numbers of units of the sales to make one after the other, instead of
+         * {@link #EXTRA_AMOUNT}. The quantity after each one is returned in
+         * {@link #EXTRA_QUANTITIES}.
+         * <p>
+         * Type: int[]
+         */
+        public static final String EXTRA_AMOUNTS = "amounts";
+
+        /**
+         * Quantity of the product after the call, or -1 if there was not enough stock.
+         * <p>
+         * Type: long
+         */
+        public static final String EXTRA_QUANTITY = "quantity";
+
+        /**
+         * Quantity of the product right after each of the {@link #EXTRA_DELTAS} or
+         * {@link #EXTRA_AMOUNTS}, or -1 where there was not enough stock for it.
+         * <p>
+         * Type: long[]
+         */
+        public static final String EXTRA_QUANTITIES = "quantities";
+
+        /**
+         * Provider method that returns the value of the stock on hand, the sum of price times
+         * quantity, in {@link #EXTRA_VALUE_CENTS}. Pass a supplier name as the {@code arg} of
+         * {@link ContentResolver#call} to only count that supplier's products, or null for all.
+         */
+        public static final String METHOD_STOCK_VALUE = "stock_value";
+
+        /**
+         * Value of the stock in cents.
+         * <p>
+         * Type: long
+         */
+        public static final String EXTRA_VALUE_CENTS = "value_cents";
+
+        /**
+         * Provider method that returns the statistics of the in-memory cache of single products,
+         * in the {@code EXTRA_CACHE_*} extras, so the cache size can be tuned.
+         */
+        public static final String METHOD_CACHE_STATS = "cache_stats";
+
+        /**
+         * Number of single product queries answered from the cache.
+         * <p>
+         * Type: int
+         */
+        public static final String EXTRA_CACHE_HITS = "cache_hits";
+
+        /**
+         * Number of single product queries that had to read from the database.
+         * <p>
+         * Type: int
+         */
+        public static final String EXTRA_CACHE_MISSES = "cache_misses";
+
+        /**
+         * Number of products dropped from the cache to make room for others.
+         * <p>
+         * Type: int
+         */
+        public static final String EXTRA_CACHE_EVICTIONS = "cache_evictions";
+
+        /**
+         * Number of products in the cache.
+         * <p>
+         * Type: int
+         */
+        public static final String EXTRA_CACHE_SIZE = "cache_size";
+
+        /**
+         * Maximum number of products in the cache.
+         * <p>
+         * Type: int
+         */
+        public static final String EXTRA_CACHE_MAX_SIZE = "cache_max_size";
+
+        /**
+         * Provider method that writes a {@link ProductSnapshot} of the whole catalog to the file
+         * in {@link #EXTRA_FILE_DESCRIPTOR}, which must be opened for reading and writing. Set
+         * {@link #EXTRA_COMPRESS} to deflate it. Returns the number of products in
+         * {@link #EXTRA_ROW_COUNT}.
+         */
+        public static final String METHOD_WRITE_SNAPSHOT = "write_snapshot";
+
+        /**
+         * Provider method that replaces the whole catalog with the {@link ProductSnapshot} in
+         * {@link #EXTRA_FILE_DESCRIPTOR}. Returns the number of products in
+         * {@link #EXTRA_ROW_COUNT}.
+         */
+        public static final String METHOD_RESTORE_SNAPSHOT = "restore_snapshot";
+
+        /**
+         * File to write a snapshot to or restore it from, read from its current position.
+         * <p>
+         * Type: {@link android.os.ParcelFileDescriptor}
+         */
+        public static final String EXTRA_FILE_DESCRIPTOR = "file_descriptor";
+
+        /**
+         * Whether to compress the snapshot.
+         * <p>
+         * Type: boolean
+         */
+        public static final String EXTRA_COMPRESS = "compress";
+
+        /**
+         * Number of products written or restored.
+         * <p>
+         * Type: long
+         */
+        public static final String EXTRA_ROW_COUNT = "row_count";
+
+        /**
+         * Provider method that purges up to {@link #EXTRA_LIMIT} deleted products for good.
+         * Returns the number purged in {@link #EXTRA_ROW_COUNT}, which is less than the limit
+         * once none are left.
+         */
+        public static final String METHOD_PURGE_DELETED = "purge_deleted";
+
+        /**
+         * Provider method that returns up to {@link #EXTRA_LIMIT} free pages of the database file
+         * to the file system. The first call on an existing database rewrites the whole file to
+         * enable incremental vacuum. Returns the number of pages left free in
+         * {@link #EXTRA_PAGE_COUNT}.
+         */
+        public static final String METHOD_VACUUM = "vacuum";
+
+        /**
+         * Maximum number of rows or pages handled by one call.
+         * <p>
+         * Type: int
+         */
+        public static final String EXTRA_LIMIT = "limit";
+
+        /**
+         * Number of free pages in the database file.
+         * <p>
+         * Type: long
+         */
+        public static final String EXTRA_PAGE_COUNT = "page_count";
+
+        /**
+         * Provider method that returns the metrics of the provider operations since the process
+         * started or the last {@link #METHOD_RESET_METRICS}. The result holds
+         * {@link #EXTRA_METRIC_BUCKETS_US} and one bundle per metric keyed by its name, such as
+         * "query products/#", "fill products" or "notify products". Every metric bundle holds
+         * {@link #EXTRA_METRIC_COUNT} and {@link #EXTRA_METRIC_ROWS}; timed metrics hold the
+         * latency extras too.
+         */
+        public static final String METHOD_METRICS = "metrics";
+
+        /**
+         * Provider method that drops all metrics, to measure from a known point.
+         */
+        public static final String METHOD_RESET_METRICS = "reset_metrics";
+
+        /**
+         * Upper bounds of the latency histogram buckets in microseconds. The histogram has one
+         * more bucket for everything slower.
+         * <p>
+         * Type: long[]
+         */
+        public static final String EXTRA_METRIC_BUCKETS_US = "buckets_us";
+
+        /**
+         * Number of times the operation ran or the event happened.
+         * <p>
+         * Type: long
+         */
+        public static final String EXTRA_METRIC_COUNT = "count";
+
+        /**
+         * Number of rows returned or changed by all runs of the operation.
+         * <p>
+         * Type: long
+         */
+        public static final String EXTRA_METRIC_ROWS = "rows";
+
+        /**
+         * Total time of all runs of the operation in microseconds.
+         * <p>
+         * Type: long
+         */
+        public static final String EXTRA_METRIC_TOTAL_US = "total_us";
+
+        /**
+         * Slowest run of the operation in microseconds.
+         * <p>
+         * Type: long
+         */
+        public static final String EXTRA_METRIC_MAX_US = "max_us";
+
+        /**
+         * Median latency in microseconds, as the upper bound of its histogram bucket.
+         * <p>
+         * Type: long
+         */
+        public static final String EXTRA_METRIC_P50_US = "p50_us";
+
+        /**
+         * 90th percentile latency in microseconds, as the upper bound of its histogram bucket.
+         * <p>
+         * Type: long
+         */
+        public static final String EXTRA_METRIC_P90_US = "p90_us";
+
+        /**
+         * 99th percentile latency in microseconds, as the upper bound of its histogram bucket.
+         * <p>
+         * Type: long
+         */
+        public static final String EXTRA_METRIC_P99_US = "p99_us";
+
+        /**
+         * Number of runs in each latency bucket of {@link #EXTRA_METRIC_BUCKETS_US}.
+         * <p>
+         * Type: long[]
+         */
+        public static final String EXTRA_METRIC_HISTOGRAM = "histogram";
+    }
+
+    /**
+     * Inner class that defines constant values for the suppliers database table.
+     * Each entry in the table represents a single supplier, shared by all of its products.
+     */
+    public static final class SupplierEntry implements BaseColumns {
+
+        /**
+         * The content URI to access the supplier data in the provider
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_SUPPLIERS);
+
+        /**
+         * The content URI for totals per supplier: one row per supplier, ordered by name, with the
+         * supplier's {@link #_ID} and {@link #COLUMN_SUPPLIER_NAME} and the
+         * {@link ProductEntry#COLUMN_PRODUCT_COUNT}, {@link ProductEntry#COLUMN_TOTAL_QUANTITY} and
+         * {@link ProductEntry#COLUMN_STOCK_VALUE} of its products.
+         */
+        public static final Uri SUMMARY_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SUMMARY);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of suppliers.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SUPPLIERS;
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a single supplier.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SUPPLIERS;
+
+        /**
+         * Name of database table for suppliers
+         */
+        public final static String TABLE_NAME = "suppliers";
+
+        /**
+         * Unique ID number for the supplier (only for use in the database table).
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String _ID = BaseColumns._ID;
+
+        /**
+         * Name of the supplier.
+         * <p>
+         * Type: TEXT
+         */
+        public final static String COLUMN_SUPPLIER_NAME = "name";
+
+        /**
+         * Phone number of the supplier. Together with the name it identifies the supplier.
+         * <p>
+         * Type: TEXT
+         */
+        public final static String COLUMN_SUPPLIER_PHONE = "phone";
+
+        /**
+         * Build the URI for the products of a supplier, with the columns of
+         * {@link ProductEntry#VIEW_NAME}.
+         */
+        public static Uri buildProductsUri(long supplierId) {
+            return ContentUris.withAppendedId(CONTENT_URI, supplierId).buildUpon()
+                    .appendPath(PATH_PRODUCTS)
+                    .build();
+        }
+    }
+
+    /**
+     * Inner class that defines constant values for the inventory counters table. The counters are
+     * kept up to date by triggers on every change to the products table, so reading them costs the
+     * same no matter how many products there are. There is one row for the whole catalog,
+     * {@link #SCOPE_ALL}, and one for every supplier, whose scope is the supplier ID.
+     */
+    public static final class InventoryStatsEntry {
+
+        /**
+         * The content URI to access the counters of every scope in the provider
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_INVENTORY_STATS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of counters.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_INVENTORY_STATS;
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for the counters of a single scope.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_INVENTORY_STATS;
+
+        /**
+         * Name of database table for the counters
+         */
+        public final static String TABLE_NAME = "inventory_stats";
+
+        /**
+         * Scope of the counters: {@link #SCOPE_ALL} for the whole catalog, otherwise the ID of
+         * the supplier whose products are counted.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SCOPE_ID = "scope_id";
+
+        /**
+         * Scope of the counters over all products
+         */
+        public static final long SCOPE_ALL = 0;
+
+        /**
+         * Number of products.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PRODUCT_COUNT = ProductEntry.COLUMN_PRODUCT_COUNT;
+
+        /**
+         * Sum of the quantities of the products.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_TOTAL_QUANTITY = ProductEntry.COLUMN_TOTAL_QUANTITY;
+
+        /**
+         * Sum of price times quantity of the products, in cents.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_STOCK_VALUE = ProductEntry.COLUMN_STOCK_VALUE;
+
+        /**
+         * Number of products with a quantity of zero.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_OUT_OF_STOCK_COUNT = "out_of_stock_count";
+
+        /**
+         * Build the URI for the counters of a single scope, {@link #SCOPE_ALL} or a supplier ID.
+         */
+        public static Uri buildScopeUri(long scopeId) {
+            return ContentUris.withAppendedId(CONTENT_URI, scopeId);
+        }
+    }
+
+    /**
+     * Inner class that defines constant values for the change journal. Every insert, update and
+     * delete of a product appends an entry, numbered by an ever increasing {@link #_ID}, so a
+     * sync can send exactly the changes made since the last one the server acknowledged.
+     * Remote changes applied with {@link #METHOD_APPLY_REMOTE_CHANGES} are not journaled again.
+     * <p>
+     * Updates only carry the columns that changed, and quantity changes are journaled as deltas
+     * so that concurrent changes on several devices add up instead of overwriting each other.
+     */
+    public static final class ChangeEntry implements BaseColumns {
+
+        /**
+         * The content URI to read the journal, in {@link #_ID} order
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_CHANGES);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of changes.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CHANGES;
+
+        /**
+         * Name of database table for the journal
+         */
+        public final static String TABLE_NAME = "product_changes";
+
+        /**
+         * Sequence number of the change, increasing and never reused (only for use in the
+         * database table).
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String _ID = BaseColumns._ID;
+
+        /**
+         * {@link ProductEntry#COLUMN_SYNC_ID} of the changed product.
+         * <p>
+         * Type: TEXT
+         */
+        public final static String COLUMN_SYNC_ID = ProductEntry.COLUMN_SYNC_ID;
+
+        /**
+         * What happened to the product: {@link #OPERATION_INSERT}, {@link #OPERATION_UPDATE} or
+         * {@link #OPERATION_DELETE}.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_OPERATION = "operation";
+
+        /**
+         * Possible values for the operation of a change.
+         */
+        public static final int OPERATION_INSERT = 1;
+        public static final int OPERATION_UPDATE = 2;
+        public static final int OPERATION_DELETE = 3;
+
+        /**
+         * New product name, or null if unchanged.
+         * <p>
+         * Type: TEXT
+         */
+        public final static String COLUMN_PRODUCT_NAME = ProductEntry.COLUMN_PRODUCT_NAME;
+
+        /**
+         * New price in cents, or null if unchanged.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PRODUCT_PRICE = ProductEntry.COLUMN_PRODUCT_PRICE;
+
+        /**
+         * Change of the quantity, the whole quantity for an insert, 0 if unchanged.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_QUANTITY_DELTA = "quantity_delta";
+
+        /**
+         * New supplier name, or null if unchanged. Suppliers are synced by name and phone
+         * number, as supplier IDs are local to the device.
+         * <p>
+         * Type: TEXT
+         */
+        public final static String COLUMN_SUPPLIER_NAME = ProductEntry.COLUMN_SUPPLIER_NAME;
+
+        /**
+         * New supplier phone number, set together with {@link #COLUMN_SUPPLIER_NAME}.
+         * <p>
+         * Type: TEXT
+         */
+        public final static String COLUMN_SUPPLIER_PHONE = ProductEntry.COLUMN_SUPPlIER_PHONE;
+
+        /**
+         * When the change was made, in milliseconds since the epoch, and never earlier than
+         * the previous change of the product known to the device that made it. Decides between
+         * conflicting changes of the same column, the last writer wins.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_CHANGED_AT = "changed_at";
+
+        /**
+         * Name of the single-row table that holds the state of the sync (only for use in the
+         * database), with the columns below.
+         */
+        public final static String SYNC_STATE_TABLE_NAME = "sync_state";
+
+        /**
+         * Identity of this device towards the server, 32 hex digits.
+         * <p>
+         * Type: TEXT
+         */
+        public final static String COLUMN_DEVICE_ID = "device_id";
+
+        /**
+         * Sequence number of the last change the server acknowledged.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_LAST_PUSHED = "last_pushed";
+
+        /**
+         * Server version of the last remote change applied.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_LAST_PULLED = "last_pulled";
+
+        /**
+         * 1 while remote changes are being applied, which stops them from being journaled.
+         * Only ever set inside the transaction that applies them.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_APPLYING_REMOTE = "applying_remote";
+
+        /**
+         * Provider method that returns the state of the sync: {@link #EXTRA_DEVICE_ID},
+         * {@link #EXTRA_LAST_PUSHED} and {@link #EXTRA_LAST_PULLED}.
+         */
+        public static final String METHOD_SYNC_STATE = "sync_state";
+
+        /**
+         * Provider method that records that the server has received every change up to the
+         * sequence number given as the {@code arg} of {@link ContentResolver#call}.
+         */
+        public static final String METHOD_ACKNOWLEDGE_CHANGES = "acknowledge_changes";
+
+        /**
+         * Provider method that applies the changes of other devices in {@link #EXTRA_CHANGES}
+         * in a single transaction, and records {@link #EXTRA_LAST_PULLED} with them. Quantity
+         * deltas are added to the local quantity as they are, so they add up to the same
+         * quantity in any order; other columns are only written if they are at least as new as
+         * the last change of the column here, see {@link ProductEntry#COLUMN_NAME_CHANGED_AT}.
+         * Returns the number of changes applied in {@link #EXTRA_CHANGE_COUNT}.
+         */
+        public static final String METHOD_APPLY_REMOTE_CHANGES = "apply_remote_changes";
+
+        /**
+         * Identity of this device towards the server.
+         * <p>
+         * Type: String
+         */
+        public static final String EXTRA_DEVICE_ID = COLUMN_DEVICE_ID;
+
+        /**
+         * Sequence number of the last change the server acknowledged.
+         * <p>
+         * Type: long
+         */
+        public static final String EXTRA_LAST_PUSHED = COLUMN_LAST_PUSHED;
+
+        /**
+         * Server version of the last remote change applied.
+         * <p>
+         * Type: long
+         */
+        public static final String EXTRA_LAST_PULLED = COLUMN_LAST_PULLED;
+
+        /**
+         * Remote changes, with the columns of this class except {@link #_ID}.
+         * <p>
+         * Type: {@link android.content.ContentValues}[]
+         */
+        public static final String EXTRA_CHANGES = "changes";
+
+        /**
+         * Number of remote changes applied.
+         * <p>
+         * Type: int
+         */
+        public static final String EXTRA_CHANGE_COUNT = "change_count";
+    }
+
+    /**
+     * Inner class that defines constant values for the stock movements database table, the
+     * append-only ledger of every quantity change. {@link ProductEntry#COLUMN_PRODUCT_QUANTITY}
+     * is a cached sum: it always equals the sum of the {@link #COLUMN_DELTA} of the movements of
+     * the product, as triggers add a movement in the same statement as every quantity change.
+     * Movements are never written directly.
+     */
+    public static final class StockMovementEntry implements BaseColumns {
+
+        /**
+         * The MIME type of the movements of a product.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_MOVEMENTS;
+
+        /**
+         * Name of database table for the movements
+         */
+        public final static String TABLE_NAME = "stock_movements";
+
+        /**
+         * Unique ID number for the movement, increasing (only for use in the database table).
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String _ID = BaseColumns._ID;
+
+        /**
+         * {@link ProductEntry#_ID} of the product whose quantity changed.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PRODUCT_ID = "product_id";
+
+        /**
+         * Change of the quantity, negative when stock went out.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_DELTA = "delta";
+
+        /**
+         * Why the quantity changed, one of the REASON constants.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_REASON = "reason";
+
+        /**
+         * Possible values for the reason of a movement. A product starts with an initial
+         * movement of its whole quantity. Edits set the quantity in the editor, sales and
+         * adjustments come from {@link ProductEntry#METHOD_SELL} and
+         * {@link ProductEntry#METHOD_ADJUST_QUANTITY}, sync movements from other devices, and a
+         * restore replaces the ledger with one movement per product. A rollup movement stands
+         * for older movements that were folded together.
+         */
+        public static final int REASON_INITIAL = 1;
+        public static final int REASON_EDIT = 2;
+        public static final int REASON_SALE = 3;
+        public static final int REASON_ADJUSTMENT = 4;
+        public static final int REASON_SYNC = 5;
+        public static final int REASON_RESTORE = 6;
+        public static final int REASON_ROLLUP = 7;
+
+        /**
+         * When the quantity changed, in milliseconds since the epoch. For a rollup, the time of
+         * the newest movement it stands for.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_CREATED_AT = "created_at";
+
+        /**
+         * Name of the single-row table holding the {@link #COLUMN_REASON} that the triggers
+         * record for quantity updates (only for use in the database). It is
+         * {@link #REASON_EDIT} except inside the transaction of a sale or adjustment.
+         */
+        public final static String STATE_TABLE_NAME = "stock_movement_state";
+
+        /**
+         * Provider method that folds the movements made before {@link #EXTRA_BEFORE} into one
+         * {@link #REASON_ROLLUP} movement per product, for up to {@link ProductEntry#EXTRA_LIMIT}
+         * products whose ID is above the {@code arg} of {@link ContentResolver#call}, or from the
+         * first product if it is null. Returns {@link #EXTRA_LAST_PRODUCT_ID} and
+         * {@link #EXTRA_MOVEMENT_COUNT}.
+         */
+        public static final String METHOD_ROLLUP_MOVEMENTS = "rollup_movements";
+
+        /**
+         * Movements made before this time are rolled up, in milliseconds since the epoch.
+         * Defaults to {@link #DEFAULT_ROLLUP_AGE_MILLIS} ago.
+         * <p>
+         * Type: long
+         */
+        public static final String EXTRA_BEFORE = "before";
+
+        /**
+         * Age after which movements are rolled up unless {@link #EXTRA_BEFORE} is given, 90 days
+         */
+        public static final long DEFAULT_ROLLUP_AGE_MILLIS = 90L * 24 * 60 * 60 * 1000;
+
+        /**
+         * ID of the last product rolled up, to pass as the {@code arg} of the next call, or 0 if
+         * there are no products left.
+         * <p>
+         * Type: long
+         */
+        public static final String EXTRA_LAST_PRODUCT_ID = "last_product_id";
+
+        /**
+         * Number of movements the rollup removed.
+         * <p>
+         * Type: long
+         */
+        public static final String EXTRA_MOVEMENT_COUNT = "movement_count";
+
+        /**
+         * Build the URI for the movements of a single product, newest first. Takes an optional
+         * {@link ProductEntry#QUERY_PARAMETER_LIMIT}.
+         */
+        public static Uri buildProductUri(long productId) {
+            return ContentUris.withAppendedId(ProductEntry.CONTENT_URI, productId).buildUpon()
+                    .appendPath(PATH_MOVEMENTS)
+                    .build();
+        }
+    }
+}
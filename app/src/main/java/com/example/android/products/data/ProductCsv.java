@@ -0,0 +1,436 @@
+package com.example.android.products.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.SystemClock;
+
+import com.example.android.products.data.ProductContract.ProductEntry;
+import com.example.android.products.data.ProductContract.SupplierEntry;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Streams the product catalog to and from CSV. Both directions hold a fixed amount of data in
+ * memory, a read buffer plus one batch of rows on import and a write buffer on export, so
+ * files of any size can be transferred.
+ * <p>
+ * The file starts with a header row naming the columns {@code name, price, quantity, supplier,
+ * phone} in any order. Prices are written as decimal amounts such as 4.99. Fields that contain
+ * commas, quotes or line breaks are quoted, with quotes doubled, as in RFC 4180.
+ */
+public final class ProductCsv {
+
+    /**
+     * MIME type of the CSV files
+     */
+    public static final String MIME_TYPE = "text/csv";
+
+    /**
+     * Columns of the file, in the order they are exported
+     */
+    static final String[] COLUMNS = {
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductEntry.COLUMN_SUPPLIER_NAME,
+            ProductEntry.COLUMN_SUPPlIER_PHONE};
+
+    /**
+     * Columns of the pages a {@link PageSource} returns: the product ID followed by
+     * {@link #COLUMNS}
+     */
+    static final String[] PAGE_COLUMNS = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductEntry.COLUMN_SUPPLIER_NAME,
+            ProductEntry.COLUMN_SUPPlIER_PHONE};
+
+    /**
+     * Number of rows sent to the provider in a single transaction on import
+     */
+    private static final int IMPORT_BATCH_SIZE = 500;
+
+    /**
+     * Number of rows read from the database in one query on export
+     */
+    private static final int EXPORT_PAGE_SIZE = 1000;
+
+    /**
+     * Number of exported rows between progress reports
+     */
+    private static final int EXPORT_PROGRESS_INTERVAL = 5000;
+
+    /**
+     * Size of the read and write buffers, in chars
+     */
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Receives progress reports during an import or export, and once more when it has finished.
+     */
+    public interface ProgressListener {
+        /**
+         * @param rows          number of rows transferred so far
+         * @param elapsedMillis time since the transfer started
+         */
+        void onProgress(long rows, long elapsedMillis);
+    }
+
+    /**
+     * Receives the batches of imported rows.
+     */
+    public interface RowSink {
+        /**
+         * Insert a batch of products in a single transaction.
+         *
+         * @return the number of products inserted
+         */
+        int insert(ContentValues[] rows);
+    }
+
+    /**
+     * Supplies the exported rows one page at a time.
+     */
+    public interface PageSource {
+        /**
+         * Query the products with an ID above the given one, in ID order.
+         *
+         * @param afterId ID of the last product of the previous page, or 0 for the first page
+         * @param limit   maximum number of products in the page
+         * @return a cursor over {@link #PAGE_COLUMNS}, which the caller closes
+         */
+        Cursor queryPage(long afterId, int limit);
+    }
+
+    // To prevent someone from accidentally instantiating this class,
+    // give it an empty constructor.
+    private ProductCsv() {
+    }
+
+    /**
+     * Read products from a CSV stream and insert them through the provider, in batches of
+     * {@link #IMPORT_BATCH_SIZE} rows that are each inserted in a single transaction. If a row is
+     * invalid the import stops with an {@link IOException}; batches before it stay imported.
+     * <p>
+     * The batches are inserted without change notifications, and observers are notified once
+     * when the import ends, so the catalog isn't reloaded after every batch.
+     *
+     * @param listener notified after every batch, may be null
+     * @return the number of products imported
+     */
+    public static long importCsv(final ContentResolver resolver, InputStream in, ProgressListener listener)
+            throws IOException {
+        final long[] rowsInserted = new long[1];
+        try {
+            return importCsv(in, new RowSink() {
+                @Override
+                public int insert(ContentValues[] rows) {
+                    int inserted = resolver.bulkInsert(ProductEntry.CONTENT_URI_WITHOUT_NOTIFY, rows);
+                    rowsInserted[0] += inserted;
+                    return inserted;
+                }
+            }, listener);
+        } finally {
+            // Also when the import stopped part way, as the batches before stay imported
+            if (rowsInserted[0] > 0) {
+                resolver.notifyChange(ProductEntry.CONTENT_URI, null);
+                resolver.notifyChange(SupplierEntry.CONTENT_URI, null);
+            }
+        }
+    }
+
+    /**
+     * Read products from a CSV stream into the given sink, in batches of {@link #IMPORT_BATCH_SIZE}
+     * rows. See {@link #importCsv(ContentResolver, InputStream, ProgressListener)}.
+     */
+    public static long importCsv(InputStream in, RowSink sink, ProgressListener listener)
+            throws IOException {
+        long startTime = SystemClock.elapsedRealtime();
+        CsvReader reader = new CsvReader(new InputStreamReader(in, UTF_8));
+
+        List<String> header = reader.readRow();
+        if (header == null) {
+            return 0;
+        }
+        int[] positions = mapHeader(header);
+
+        ContentValues[] batch = new ContentValues[IMPORT_BATCH_SIZE];
+        int batchSize = 0;
+        long rowsImported = 0;
+        List<String> row;
+        while ((row = reader.readRow()) != null) {
+            if (row.size() == 1 && row.get(0).isEmpty()) {
+                // Skip blank lines
+                continue;
+            }
+            ContentValues values = toValues(row, positions);
+            int error = ProductValidator.validateInsert(values);
+            if (error != ProductValidator.VALID) {
+                throw new IOException("Invalid product in record " + reader.getRecordNumber()
+                        + " (error " + error + ")");
+            }
+
+            batch[batchSize++] = values;
+            if (batchSize == batch.length) {
+                rowsImported += sink.insert(batch);
+                batchSize = 0;
+                if (listener != null) {
+                    listener.onProgress(rowsImported, SystemClock.elapsedRealtime() - startTime);
+                }
+            }
+        }
+        if (batchSize > 0) {
+            ContentValues[] last = new ContentValues[batchSize];
+            System.arraycopy(batch, 0, last, 0, batchSize);
+            rowsImported += sink.insert(last);
+        }
+        if (listener != null) {
+            listener.onProgress(rowsImported, SystemClock.elapsedRealtime() - startTime);
+        }
+        return rowsImported;
+    }
+
+    /**
+     * Write the products as CSV, reading them from the source in pages of
+     * {@link #EXPORT_PAGE_SIZE} in ID order. Each page is a short query of its own, so the time
+     * per row stays the same however large the catalog is. The stream is flushed but not closed.
+     *
+     * @param listener notified every {@link #EXPORT_PROGRESS_INTERVAL} rows, may be null
+     * @return the number of products exported
+     */
+    public static long exportCsv(PageSource source, OutputStream out, ProgressListener listener)
+            throws IOException {
+        long startTime = SystemClock.elapsedRealtime();
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, UTF_8), BUFFER_SIZE);
+
+        for (int i = 0; i < COLUMNS.length; i++) {
+            writer.write(i == 0 ? "" : ",");
+            writer.write(COLUMNS[i]);
+        }
+        writer.write("\r\n");
+
+        // The columns are in the order of PAGE_COLUMNS: the ID and then the exported columns
+        int priceIndex = 2;
+
+        long rowsExported = 0;
+        long lastId = 0;
+        int pageRows;
+        do {
+            Cursor cursor = source.queryPage(lastId, EXPORT_PAGE_SIZE);
+            try {
+                pageRows = cursor.getCount();
+                while (cursor.moveToNext()) {
+                    lastId = cursor.getLong(0);
+                    for (int i = 1; i < PAGE_COLUMNS.length; i++) {
+                        if (i > 1) {
+                            writer.write(',');
+                        }
+                        if (i == priceIndex) {
+                            writer.write(Prices.formatCents(cursor.getLong(priceIndex)));
+                        } else {
+                            writeField(writer, cursor.getString(i));
+                        }
+                    }
+                    writer.write("\r\n");
+
+                    rowsExported++;
+                    if (listener != null && rowsExported % EXPORT_PROGRESS_INTERVAL == 0) {
+                        listener.onProgress(rowsExported, SystemClock.elapsedRealtime() - startTime);
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        } while (pageRows == EXPORT_PAGE_SIZE);
+        writer.flush();
+        if (listener != null) {
+            listener.onProgress(rowsExported, SystemClock.elapsedRealtime() - startTime);
+        }
+        return rowsExported;
+    }
+
+    /**
+     * Write a single field, quoted if it contains anything that would break the row apart.
+     */
+    private static void writeField(Writer writer, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                writer.write('"');
+            }
+            writer.write(c);
+        }
+        writer.write('"');
+    }
+
+    /**
+     * Find the position of every column in the header row.
+     */
+    private static int[] mapHeader(List<String> header) throws IOException {
+        int[] positions = new int[COLUMNS.length];
+        for (int i = 0; i < COLUMNS.length; i++) {
+            positions[i] = -1;
+            for (int j = 0; j < header.size(); j++) {
+                if (COLUMNS[i].equals(header.get(j).trim().toLowerCase(Locale.US))) {
+                    positions[i] = j;
+                    break;
+                }
+            }
+            if (positions[i] == -1) {
+                throw new IOException("Missing column in CSV header: " + COLUMNS[i]);
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * Convert a row into the values of a new product.
+     */
+    private static ContentValues toValues(List<String> row, int[] positions) {
+        ContentValues values = new ContentValues();
+        for (int i = 0; i < COLUMNS.length; i++) {
+            String value = positions[i] < row.size() ? row.get(positions[i]).trim() : "";
+            if (COLUMNS[i].equals(ProductEntry.COLUMN_PRODUCT_PRICE)) {
+                // An unparseable price is kept as text, so validation reports it
+                long cents = Prices.parseCents(value);
+                if (cents >= 0) {
+                    values.put(COLUMNS[i], cents);
+                } else {
+                    values.put(COLUMNS[i], value);
+                }
+            } else {
+                values.put(COLUMNS[i], value);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Reads CSV records through a fixed-size buffer. The row list is reused between calls.
+     */
+    private static final class CsvReader {
+
+        private final Reader mReader;
+        private final char[] mBuffer = new char[BUFFER_SIZE];
+        private int mPosition;
+        private int mLimit;
+
+        private final StringBuilder mField = new StringBuilder();
+        private final ArrayList<String> mRow = new ArrayList<>();
+        private long mRecordNumber;
+
+        CsvReader(Reader reader) {
+            mReader = reader;
+        }
+
+        /**
+         * @return the number of the last record read, starting at 1 for the header
+         */
+        long getRecordNumber() {
+            return mRecordNumber;
+        }
+
+        /**
+         * Read the next record.
+         *
+         * @return the fields of the record, valid until the next call, or null at the end
+         */
+        List<String> readRow() throws IOException {
+            mRow.clear();
+            mField.setLength(0);
+            boolean inQuotes = false;
+            boolean quoted = false;
+            boolean empty = true;
+
+            while (true) {
+                int c = read();
+                if (c == -1) {
+                    if (inQuotes) {
+                        throw new IOException("Unterminated quoted field in record " + (mRecordNumber + 1));
+                    }
+                    if (empty) {
+                        return null;
+                    }
+                    break;
+                }
+                empty = false;
+
+                if (inQuotes) {
+                    if (c != '"') {
+                        mField.append((char) c);
+                    } else if (peek() == '"') {
+                        // A doubled quote is a literal quote
+                        read();
+                        mField.append('"');
+                    } else {
+                        inQuotes = false;
+                    }
+                } else if (c == '"' && !quoted && mField.length() == 0) {
+                    inQuotes = true;
+                    quoted = true;
+                } else if (c == ',') {
+                    mRow.add(mField.toString());
+                    mField.setLength(0);
+                    quoted = false;
+                } else if (c == '\n') {
+                    break;
+                } else if (c != '\r') {
+                    mField.append((char) c);
+                }
+            }
+
+            mRow.add(mField.toString());
+            mRecordNumber++;
+            return mRow;
+        }
+
+        private int read() throws IOException {
+            int c = peek();
+            if (c != -1) {
+                mPosition++;
+            }
+            return c;
+        }
+
+        private int peek() throws IOException {
+            if (mPosition == mLimit) {
+                mPosition = 0;
+                mLimit = mReader.read(mBuffer, 0, mBuffer.length);
+                if (mLimit <= 0) {
+                    mLimit = 0;
+                    return -1;
+                }
+            }
+            return mBuffer[mPosition];
+        }
+    }
+}
@@ -15,11 +15,26 @@
  */
 package com.example.android.products.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
 
+import com.example.android.products.data.ProductContract.ChangeEntry;
+import com.example.android.products.data.ProductContract.InventoryStatsEntry;
 import com.example.android.products.data.ProductContract.ProductEntry;
+import com.example.android.products.data.ProductContract.StockMovementEntry;
+import com.example.android.products.data.ProductContract.SupplierEntry;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Database helper for Products app. Manages database creation and version management.
@@ -31,12 +46,84 @@ public class ProductDbHelper extends SQLiteOpenHelper {
     /**
      * Name of the database file
      */
-    private static final String DATABASE_NAME = "products.db";
+    public static final String DATABASE_NAME = "products.db";
+
+    /**
+     * Database version. If you change the database schema, add a migration to
+     * {@link ProductMigrations}; the version always follows the newest migration.
+     */
+    private static final int DATABASE_VERSION = ProductMigrations.getLatestVersion();
+
+    /**
+     * Connection settings applied every time the database is opened. The pragmas are set on the
+     * primary connection only, see {@link #applyPragmas(SQLiteDatabase)}.
+     */
+    public static final class Tuning {
+
+        /**
+         * Settings used by the app: write-ahead logging, so catalog reads don't block behind
+         * writes, with NORMAL sync (safe in WAL mode), a 2 MB page cache and 32 MB of mmap I/O.
+         */
+        public static final Tuning DEFAULT = new Tuning(true, "NORMAL", 2048, 32L * 1024 * 1024);
+
+        /**
+         * Whether to use write-ahead logging, which also gives the database a pool of reader
+         * connections that run concurrently with the writer
+         */
+        public final boolean writeAheadLogging;
+
+        /**
+         * Value of PRAGMA synchronous: OFF, NORMAL, FULL or EXTRA
+         */
+        public final String synchronous;
+
+        /**
+         * Page cache size of the primary connection, in KiB
+         */
+        public final int cacheSizeKb;
+
+        /**
+         * Maximum number of bytes of the database file the primary connection accesses through
+         * mmap, 0 to disable
+         */
+        public final long mmapSizeBytes;
+
+        public Tuning(boolean writeAheadLogging, String synchronous, int cacheSizeKb, long mmapSizeBytes) {
+            this.writeAheadLogging = writeAheadLogging;
+            this.synchronous = synchronous;
+            this.cacheSizeKb = cacheSizeKb;
+            this.mmapSizeBytes = mmapSizeBytes;
+        }
+    }
+
+    /**
+     * Writes rows straight into the tables during {@link #bulkLoad(BulkLoader)}.
+     */
+    public interface BulkLoader {
+        /**
+         * Insert the rows of the products and suppliers tables, which are empty when this is
+         * called. Throwing rolls the whole load back.
+         *
+         * @param db the database, inside the load's transaction
+         */
+        void load(SQLiteDatabase db) throws IOException;
+    }
 
     /**
-     * Database version. If you change the database schema, you must increment the database version.
+     * Temporary table that holds the live products during a bulk load, as they were before it
      */
-    private static final int DATABASE_VERSION = 1;
+    private static final String OLD_PRODUCTS_TABLE = "bulk_load_old_products";
+
+    /**
+     * Settings applied when the database is opened
+     */
+    private final Tuning mTuning;
+
+    /**
+     * Set by {@link #onCreate(SQLiteDatabase)} until {@link #onOpen(SQLiteDatabase)} has turned on
+     * incremental vacuum for the new database
+     */
+    private boolean mCreated;
 
     /**
      * Constructs a new instance of {@link ProductDbHelper}.
@@ -44,7 +131,290 @@ public class ProductDbHelper extends SQLiteOpenHelper {
      * @param context of the app
      */
     public ProductDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME, Tuning.DEFAULT);
+    }
+
+    /**
+     * Constructs a helper for a database file other than the app's own, with the given settings.
+     * Used to benchmark settings against scratch databases.
+     *
+     * @param context of the app
+     * @param name    of the database file
+     * @param tuning  connection settings
+     */
+    public ProductDbHelper(Context context, String name, Tuning tuning) {
+        this(context, name, tuning, null);
+    }
+
+    /**
+     * Constructs a helper whose queries create their cursors with the given factory.
+     *
+     * @param context of the app
+     * @param name    of the database file
+     * @param tuning  connection settings
+     * @param factory to create cursors, or null for the default
+     */
+    ProductDbHelper(Context context, String name, Tuning tuning, SQLiteDatabase.CursorFactory factory) {
+        super(context, name, factory, DATABASE_VERSION);
+        mTuning = tuning;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(tuning.writeAheadLogging);
+        }
+    }
+
+    /**
+     * Apply the connection settings before the database is created or upgraded.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        // Products must always refer to an existing supplier
+        db.setForeignKeyConstraintsEnabled(true);
+        applyPragmas(db);
+    }
+
+    /**
+     * onConfigure() doesn't exist before API 16, so apply the settings once the database is open.
+     * A database that was just created gets incremental vacuum here too.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            if (mTuning.writeAheadLogging) {
+                db.enableWriteAheadLogging();
+            }
+            db.execSQL("PRAGMA foreign_keys = ON");
+            applyPragmas(db);
+        }
+        if (mCreated) {
+            mCreated = false;
+            enableIncrementalVacuum(db);
+        }
+    }
+
+    /**
+     * Let the compaction return free pages to the file system in small steps, see
+     * {@link ProductCompaction}. auto_vacuum can only be switched by a VACUUM once the file has
+     * a header, which the WAL setup writes when the connection opens, and not inside the
+     * transaction that onCreate() runs in. Right after creation the tables are still empty, so
+     * that VACUUM only rewrites a few pages, instead of the whole catalog the first time the
+     * compaction runs.
+     */
+    private static void enableIncrementalVacuum(SQLiteDatabase db) {
+        long startTime = SystemClock.elapsedRealtime();
+        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+        db.execSQL("VACUUM");
+        Log.i(LOG_TAG, "Enabled incremental vacuum in "
+                + (SystemClock.elapsedRealtime() - startTime) + " ms");
+    }
+
+    /**
+     * Set the sync mode, page cache size and mmap size of the primary connection, which runs every
+     * write and every query made inside a transaction. The framework opens the reader connections
+     * of the WAL pool itself and offers no hook to configure them, so they keep the platform
+     * defaults. That costs nothing for the sync mode, which only matters to commits, and the
+     * default cache is fine for the short reads of the loaders.
+     */
+    private void applyPragmas(SQLiteDatabase db) {
+        db.execSQL("PRAGMA synchronous = " + mTuning.synchronous);
+        // A negative cache size is in KiB rather than pages
+        db.execSQL("PRAGMA cache_size = -" + mTuning.cacheSizeKb);
+        try {
+            // Returns the new size as a row, so it can't go through execSQL()
+            DatabaseUtils.longForQuery(db, "PRAGMA mmap_size = " + mTuning.mmapSizeBytes, null);
+        } catch (SQLiteDoneException e) {
+            // SQLite before 3.7.17 doesn't support mmap and returns no row
+            Log.i(LOG_TAG, "mmap I/O is not supported by this SQLite version");
+        }
+    }
+
+    /**
+     * Replace the whole catalog in a single transaction, much faster than inserting row by row.
+     * The indexes and triggers of the products and suppliers tables are dropped, the tables are
+     * emptied and filled by the loader, and then the indexes are rebuilt from their original SQL
+     * in one pass each instead of being updated for every row. The search index and the
+     * inventory counters, which the triggers would have maintained, are recomputed at the end,
+     * and the stock movement ledger starts over with one restore movement per product. What the
+     * load changed is journaled like a local edit, see {@link #journalLoad(SQLiteDatabase)}.
+     * <p>
+     * The loader must insert suppliers before the products that refer to them, as foreign keys
+     * are still checked.
+     */
+    public void bulkLoad(BulkLoader loader) throws IOException {
+        SQLiteDatabase db = getWritableDatabase();
+        long startTime = SystemClock.elapsedRealtime();
+        db.beginTransaction();
+        try {
+            rememberProducts(db);
+
+            // Remember the indexes and triggers, to recreate them from their SQL after the load.
+            // Automatic indexes of UNIQUE constraints have no SQL and stay in place.
+            List<String> drops = new ArrayList<>();
+            List<String> schema = new ArrayList<>();
+            Cursor cursor = db.rawQuery("SELECT type, name, sql FROM sqlite_master WHERE tbl_name IN (?, ?)"
+                            + " AND type IN ('index', 'trigger') AND sql IS NOT NULL",
+                    new String[]{ProductEntry.TABLE_NAME, SupplierEntry.TABLE_NAME});
+            try {
+                while (cursor.moveToNext()) {
+                    drops.add("DROP " + cursor.getString(0) + " " + cursor.getString(1));
+                    schema.add(cursor.getString(2));
+                }
+            } finally {
+                cursor.close();
+            }
+            for (String sql : drops) {
+                db.execSQL(sql);
+            }
+
+            // Without triggers SQLite empties the tables without visiting every row. Movements
+            // refer to products, so they go first.
+            db.delete(StockMovementEntry.TABLE_NAME, null, null);
+            db.delete(ProductEntry.TABLE_NAME, null, null);
+            db.delete(SupplierEntry.TABLE_NAME, null, null);
+            db.delete(ProductEntry.FTS_TABLE_NAME, null, null);
+            db.delete(InventoryStatsEntry.TABLE_NAME, null, null);
+
+            loader.load(db);
+            long loadTime = SystemClock.elapsedRealtime();
+
+            // The triggers that assign sync IDs and journal changes were dropped too
+            journalLoad(db);
+
+            for (String sql : schema) {
+                db.execSQL(sql);
+            }
+            db.execSQL("INSERT INTO " + ProductEntry.FTS_TABLE_NAME + " (docid, "
+                    + ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_SUPPLIER_NAME + ")"
+                    + " SELECT " + ProductEntry._ID + ", " + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                    + ProductEntry.COLUMN_SUPPLIER_NAME + " FROM " + ProductEntry.VIEW_NAME);
+            ProductMigrations.seedInventoryStats(db);
+            ProductMigrations.seedStockMovements(db, StockMovementEntry.REASON_RESTORE);
+
+            db.setTransactionSuccessful();
+            Log.i(LOG_TAG, "bulkLoad: loaded in " + (loadTime - startTime) + " ms, indexed in "
+                    + (SystemClock.elapsedRealtime() - loadTime) + " ms");
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Copy the live products, with the name and phone number of their supplier, into a
+     * temporary table before a bulk load empties the tables.
+     */
+    private static void rememberProducts(SQLiteDatabase db) {
+        db.execSQL("CREATE TEMP TABLE " + OLD_PRODUCTS_TABLE + " ("
+                + ProductEntry.COLUMN_SYNC_ID + " TEXT PRIMARY KEY, "
+                + ProductEntry.COLUMN_PRODUCT_NAME + " TEXT, "
+                + ProductEntry.COLUMN_PRODUCT_PRICE + " INTEGER, "
+                + ProductEntry.COLUMN_PRODUCT_QUANTITY + " INTEGER, "
+                + ProductEntry.COLUMN_SUPPLIER_NAME + " TEXT, "
+                + ProductEntry.COLUMN_SUPPlIER_PHONE + " TEXT, "
+                + ProductEntry.COLUMN_NAME_CHANGED_AT + " INTEGER, "
+                + ProductEntry.COLUMN_PRICE_CHANGED_AT + " INTEGER, "
+                + ProductEntry.COLUMN_SUPPLIER_CHANGED_AT + " INTEGER)");
+        db.execSQL("INSERT INTO " + OLD_PRODUCTS_TABLE + " SELECT p." + ProductEntry.COLUMN_SYNC_ID
+                + ", p." + ProductEntry.COLUMN_PRODUCT_NAME + ", p." + ProductEntry.COLUMN_PRODUCT_PRICE
+                + ", p." + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", s." + SupplierEntry.COLUMN_SUPPLIER_NAME
+                + ", s." + SupplierEntry.COLUMN_SUPPLIER_PHONE + ", p." + ProductEntry.COLUMN_NAME_CHANGED_AT
+                + ", p." + ProductEntry.COLUMN_PRICE_CHANGED_AT + ", p." + ProductEntry.COLUMN_SUPPLIER_CHANGED_AT
+                + " FROM " + ProductEntry.TABLE_NAME + " p JOIN " + SupplierEntry.TABLE_NAME + " s ON s."
+                + SupplierEntry._ID + " = p." + ProductEntry.COLUMN_SUPPLIER_ID
+                + " WHERE p." + ProductEntry.COLUMN_DELETED + " = 0");
+    }
+
+    /**
+     * Journal what a bulk load changed, compared to the products remembered by
+     * {@link #rememberProducts(SQLiteDatabase)}, so the server and the other devices follow it:
+     * <ul>
+     * <li>a product that is gone is deleted</li>
+     * <li>a product that wasn't live is inserted with a new sync ID, like the products of
+     * snapshots without sync IDs. If it had a sync ID, the product was deleted, and the delete
+     * wins on every device, so it can only come back as a new product.</li>
+     * <li>a product that was kept is updated with the columns that differ and the change of its
+     * quantity, and those columns are stamped as changed</li>
+     * </ul>
+     * Changes journaled before the load are pushed first, and their quantity deltas are part of
+     * the quantities the load compares against, so the quantities still add up.
+     */
+    private static void journalLoad(SQLiteDatabase db) {
+        String kept = " IN (SELECT " + ProductEntry.COLUMN_SYNC_ID + " FROM " + OLD_PRODUCTS_TABLE + ")";
+        db.execSQL("UPDATE " + ProductEntry.TABLE_NAME + " SET " + ProductEntry.COLUMN_SYNC_ID
+                + " = " + ProductMigrations.SQL_NEW_SYNC_ID + " WHERE " + ProductEntry.COLUMN_SYNC_ID
+                + " IS NULL OR " + ProductEntry.COLUMN_SYNC_ID + " NOT" + kept);
+
+        // One time for the whole load, so the journal and the products agree on it
+        String now = String.valueOf(System.currentTimeMillis());
+        String time = ProductMigrations.changeTime(now, "o");
+        String columns = " (" + ChangeEntry.COLUMN_SYNC_ID + ", " + ChangeEntry.COLUMN_OPERATION + ", "
+                + ChangeEntry.COLUMN_PRODUCT_NAME + ", " + ChangeEntry.COLUMN_PRODUCT_PRICE + ", "
+                + ChangeEntry.COLUMN_QUANTITY_DELTA + ", " + ChangeEntry.COLUMN_SUPPLIER_NAME + ", "
+                + ChangeEntry.COLUMN_SUPPLIER_PHONE + ", " + ChangeEntry.COLUMN_CHANGED_AT + ")";
+        String productsWithSuppliers = " FROM " + ProductEntry.TABLE_NAME + " p JOIN "
+                + SupplierEntry.TABLE_NAME + " s ON s." + SupplierEntry._ID
+                + " = p." + ProductEntry.COLUMN_SUPPLIER_ID;
+        String nameChanged = "p." + ProductEntry.COLUMN_PRODUCT_NAME + " IS NOT o." + ProductEntry.COLUMN_PRODUCT_NAME;
+        String priceChanged = "p." + ProductEntry.COLUMN_PRODUCT_PRICE + " IS NOT o." + ProductEntry.COLUMN_PRODUCT_PRICE;
+        String supplierChanged = "(s." + SupplierEntry.COLUMN_SUPPLIER_NAME + " IS NOT o."
+                + ProductEntry.COLUMN_SUPPLIER_NAME + " OR s." + SupplierEntry.COLUMN_SUPPLIER_PHONE
+                + " IS NOT o." + ProductEntry.COLUMN_SUPPlIER_PHONE + ")";
+
+        db.execSQL("INSERT INTO " + ChangeEntry.TABLE_NAME + " (" + ChangeEntry.COLUMN_SYNC_ID + ", "
+                + ChangeEntry.COLUMN_OPERATION + ", " + ChangeEntry.COLUMN_CHANGED_AT + ") SELECT o."
+                + ProductEntry.COLUMN_SYNC_ID + ", " + ChangeEntry.OPERATION_DELETE + ", " + time
+                + " FROM " + OLD_PRODUCTS_TABLE + " o WHERE o." + ProductEntry.COLUMN_SYNC_ID + " NOT IN (SELECT "
+                + ProductEntry.COLUMN_SYNC_ID + " FROM " + ProductEntry.TABLE_NAME + ")");
+        db.execSQL("INSERT INTO " + ChangeEntry.TABLE_NAME + columns + " SELECT p." + ProductEntry.COLUMN_SYNC_ID
+                + ", " + ChangeEntry.OPERATION_INSERT + ", p." + ProductEntry.COLUMN_PRODUCT_NAME
+                + ", p." + ProductEntry.COLUMN_PRODUCT_PRICE + ", p." + ProductEntry.COLUMN_PRODUCT_QUANTITY
+                + ", s." + SupplierEntry.COLUMN_SUPPLIER_NAME + ", s." + SupplierEntry.COLUMN_SUPPLIER_PHONE
+                + ", " + now + productsWithSuppliers + " WHERE p." + ProductEntry.COLUMN_SYNC_ID + " NOT" + kept
+                + " ORDER BY p." + ProductEntry._ID);
+        db.execSQL("INSERT INTO " + ChangeEntry.TABLE_NAME + columns + " SELECT p." + ProductEntry.COLUMN_SYNC_ID
+                + ", " + ChangeEntry.OPERATION_UPDATE
+                + ", CASE WHEN " + nameChanged + " THEN p." + ProductEntry.COLUMN_PRODUCT_NAME + " END"
+                + ", CASE WHEN " + priceChanged + " THEN p." + ProductEntry.COLUMN_PRODUCT_PRICE + " END"
+                + ", p." + ProductEntry.COLUMN_PRODUCT_QUANTITY + " - o." + ProductEntry.COLUMN_PRODUCT_QUANTITY
+                + ", CASE WHEN " + supplierChanged + " THEN s." + SupplierEntry.COLUMN_SUPPLIER_NAME + " END"
+                + ", CASE WHEN " + supplierChanged + " THEN s." + SupplierEntry.COLUMN_SUPPLIER_PHONE + " END"
+                + ", " + time + productsWithSuppliers + " JOIN " + OLD_PRODUCTS_TABLE + " o ON o."
+                + ProductEntry.COLUMN_SYNC_ID + " = p." + ProductEntry.COLUMN_SYNC_ID
+                + " WHERE " + nameChanged + " OR " + priceChanged + " OR " + supplierChanged
+                + " OR p." + ProductEntry.COLUMN_PRODUCT_QUANTITY + " != o." + ProductEntry.COLUMN_PRODUCT_QUANTITY
+                + " ORDER BY p." + ProductEntry._ID);
+
+        // The same changes, as the times on the products. An UPDATE can't join, so the old
+        // product and the supplier are looked up per row.
+        db.execSQL("UPDATE " + ProductEntry.TABLE_NAME + " SET "
+                + ProductEntry.COLUMN_NAME_CHANGED_AT + " = " + now + ", "
+                + ProductEntry.COLUMN_PRICE_CHANGED_AT + " = " + now + ", "
+                + ProductEntry.COLUMN_SUPPLIER_CHANGED_AT + " = " + now
+                + " WHERE " + ProductEntry.COLUMN_SYNC_ID + " NOT" + kept);
+        String product = ProductEntry.TABLE_NAME + ".";
+        String supplier = "(SELECT %s FROM " + SupplierEntry.TABLE_NAME + " WHERE " + SupplierEntry._ID
+                + " = " + product + ProductEntry.COLUMN_SUPPLIER_ID + ")";
+        db.execSQL("UPDATE " + ProductEntry.TABLE_NAME + " SET "
+                + ProductEntry.COLUMN_NAME_CHANGED_AT + " = " + keptChangeTime(ProductEntry.COLUMN_NAME_CHANGED_AT,
+                product + ProductEntry.COLUMN_PRODUCT_NAME + " IS NOT o." + ProductEntry.COLUMN_PRODUCT_NAME, time) + ", "
+                + ProductEntry.COLUMN_PRICE_CHANGED_AT + " = " + keptChangeTime(ProductEntry.COLUMN_PRICE_CHANGED_AT,
+                product + ProductEntry.COLUMN_PRODUCT_PRICE + " IS NOT o." + ProductEntry.COLUMN_PRODUCT_PRICE, time) + ", "
+                + ProductEntry.COLUMN_SUPPLIER_CHANGED_AT + " = " + keptChangeTime(ProductEntry.COLUMN_SUPPLIER_CHANGED_AT,
+                String.format(supplier, SupplierEntry.COLUMN_SUPPLIER_NAME) + " IS NOT o." + ProductEntry.COLUMN_SUPPLIER_NAME
+                        + " OR " + String.format(supplier, SupplierEntry.COLUMN_SUPPLIER_PHONE)
+                        + " IS NOT o." + ProductEntry.COLUMN_SUPPlIER_PHONE, time)
+                + " WHERE " + ProductEntry.COLUMN_SYNC_ID + kept);
+
+        db.execSQL("DROP TABLE " + OLD_PRODUCTS_TABLE);
+    }
+
+    /**
+     * SQL expression for when a column of a product kept by a bulk load last changed: the time
+     * of the load if the column differs from before, otherwise the time it had.
+     */
+    private static String keptChangeTime(String timeColumn, String changed, String time) {
+        return "(SELECT CASE WHEN " + changed + " THEN " + time + " ELSE o." + timeColumn + " END FROM "
+                + OLD_PRODUCTS_TABLE + " o WHERE o." + ProductEntry.COLUMN_SYNC_ID + " = "
+                + ProductEntry.TABLE_NAME + "." + ProductEntry.COLUMN_SYNC_ID + ")";
     }
 
     /**
@@ -63,6 +433,10 @@ public class ProductDbHelper extends SQLiteOpenHelper {
 
         // Execute the SQL statement
         db.execSQL(SQL_CREATE_PRODUCTS_TABLE);
+
+        // Bring the version 1 schema up to date, so new and upgraded databases end up identical
+        migrate(db, 1, DATABASE_VERSION);
+        mCreated = true;
     }
 
     /**
@@ -70,6 +444,25 @@ public class ProductDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // The database is still at version 1, so there's nothing to do be done here.
+        migrate(db, oldVersion, newVersion);
+    }
+
+    /**
+     * Apply every migration between the two versions in order. Each step runs in its own
+     * transaction and is timed, so a slow migration shows up in the logs.
+     */
+    private static void migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        for (ProductMigrations.Migration migration : ProductMigrations.getMigrations(oldVersion, newVersion)) {
+            long startTime = SystemClock.elapsedRealtime();
+            db.beginTransaction();
+            try {
+                migration.migrate(db);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            Log.i(LOG_TAG, "Migrated to version " + migration.getVersion() + " in "
+                    + (SystemClock.elapsedRealtime() - startTime) + " ms");
+        }
     }
 }
\ No newline at end of file
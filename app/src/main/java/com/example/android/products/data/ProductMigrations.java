@@ -0,0 +1,762 @@
+package com.example.android.products.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.provider.BaseColumns;
+
+import com.example.android.products.data.ProductContract.ChangeEntry;
+import com.example.android.products.data.ProductContract.InventoryStatsEntry;
+import com.example.android.products.data.ProductContract.ProductEntry;
+import com.example.android.products.data.ProductContract.StockMovementEntry;
+import com.example.android.products.data.ProductContract.SupplierEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ordered schema migrations for the products database. Version 1 is the original products table
+ * created by {@link ProductDbHelper#onCreate(SQLiteDatabase)}; every later schema change is a
+ * {@link Migration} that moves the database from the previous version to its own version.
+ */
+public final class ProductMigrations {
+
+    /**
+     * A single step that upgrades the database schema to {@link #getVersion()}.
+     */
+    public static abstract class Migration {
+
+        private final int mVersion;
+
+        Migration(int version) {
+            mVersion = version;
+        }
+
+        /**
+         * @return the database version after this migration has been applied
+         */
+        public int getVersion() {
+            return mVersion;
+        }
+
+        /**
+         * Apply the schema changes. Called inside a transaction by {@link ProductDbHelper}.
+         */
+        public abstract void migrate(SQLiteDatabase db);
+    }
+
+    /**
+     * All migrations, ordered by version. Append new steps to the end and never edit a step that
+     * has already shipped.
+     */
+    private static final Migration[] MIGRATIONS = {
+            // Version 2: indexes for name lookup, supplier grouping and low-stock queries
+            new Migration(2) {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE INDEX products_name_idx ON " + ProductEntry.TABLE_NAME
+                            + " (" + ProductEntry.COLUMN_PRODUCT_NAME + ")");
+                    db.execSQL("CREATE INDEX products_supplier_idx ON " + ProductEntry.TABLE_NAME
+                            + " (" + ProductEntry.COLUMN_SUPPLIER_NAME + ")");
+                    db.execSQL("CREATE INDEX products_quantity_idx ON " + ProductEntry.TABLE_NAME
+                            + " (" + ProductEntry.COLUMN_PRODUCT_QUANTITY + ")");
+                }
+            },
+            // Version 3: full-text index over product and supplier names, kept in sync by triggers
+            new Migration(3) {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE VIRTUAL TABLE " + ProductEntry.FTS_TABLE_NAME + " USING fts4("
+                            + ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_SUPPLIER_NAME + ")");
+                    db.execSQL("INSERT INTO " + ProductEntry.FTS_TABLE_NAME + " (docid, "
+                            + ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_SUPPLIER_NAME + ")"
+                            + " SELECT " + ProductEntry._ID + ", " + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                            + ProductEntry.COLUMN_SUPPLIER_NAME + " FROM " + ProductEntry.TABLE_NAME);
+                    db.execSQL("CREATE TRIGGER products_fts_insert AFTER INSERT ON " + ProductEntry.TABLE_NAME
+                            + " BEGIN INSERT INTO " + ProductEntry.FTS_TABLE_NAME + " (docid, "
+                            + ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_SUPPLIER_NAME + ")"
+                            + " VALUES (new." + ProductEntry._ID + ", new." + ProductEntry.COLUMN_PRODUCT_NAME
+                            + ", new." + ProductEntry.COLUMN_SUPPLIER_NAME + "); END");
+                    db.execSQL("CREATE TRIGGER products_fts_update AFTER UPDATE OF "
+                            + ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_SUPPLIER_NAME
+                            + " ON " + ProductEntry.TABLE_NAME
+                            + " BEGIN UPDATE " + ProductEntry.FTS_TABLE_NAME
+                            + " SET " + ProductEntry.COLUMN_PRODUCT_NAME + " = new." + ProductEntry.COLUMN_PRODUCT_NAME
+                            + ", " + ProductEntry.COLUMN_SUPPLIER_NAME + " = new." + ProductEntry.COLUMN_SUPPLIER_NAME
+                            + " WHERE docid = old." + ProductEntry._ID + "; END");
+                    db.execSQL("CREATE TRIGGER products_fts_delete AFTER DELETE ON " + ProductEntry.TABLE_NAME
+                            + " BEGIN DELETE FROM " + ProductEntry.FTS_TABLE_NAME
+                            + " WHERE docid = old." + ProductEntry._ID + "; END");
+                }
+            },
+            // Version 4: price as a whole number of cents instead of a FLOAT in currency units
+            new Migration(4) {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    String columns = ProductEntry._ID + ", " + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                            + ProductEntry.COLUMN_PRODUCT_PRICE + ", " + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", "
+                            + ProductEntry.COLUMN_SUPPLIER_NAME + ", " + ProductEntry.COLUMN_SUPPlIER_PHONE;
+                    rebuildTable(db, ProductEntry.TABLE_NAME,
+                            ProductEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                                    + ProductEntry.COLUMN_PRODUCT_NAME + " TEXT NOT NULL, "
+                                    + ProductEntry.COLUMN_PRODUCT_PRICE + " INTEGER NOT NULL DEFAULT 0, "
+                                    + ProductEntry.COLUMN_PRODUCT_QUANTITY + " INTEGER NOT NULL, "
+                                    + ProductEntry.COLUMN_SUPPLIER_NAME + " TEXT NOT NULL, "
+                                    + ProductEntry.COLUMN_SUPPlIER_PHONE + " TEXT NOT NULL",
+                            columns,
+                            columns.replace(ProductEntry.COLUMN_PRODUCT_PRICE + ",",
+                                    "IFNULL(CAST(ROUND(" + ProductEntry.COLUMN_PRODUCT_PRICE + " * 100) AS INTEGER), 0),"));
+                }
+            },
+            // Version 5: suppliers in their own table, referenced by products, and a view joining
+            // them back together for queries
+            new Migration(5) {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE " + SupplierEntry.TABLE_NAME + " ("
+                            + SupplierEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + SupplierEntry.COLUMN_SUPPLIER_NAME + " TEXT NOT NULL, "
+                            + SupplierEntry.COLUMN_SUPPLIER_PHONE + " TEXT NOT NULL, "
+                            + "UNIQUE (" + SupplierEntry.COLUMN_SUPPLIER_NAME + ", "
+                            + SupplierEntry.COLUMN_SUPPLIER_PHONE + "))");
+
+                    // One supplier for every distinct name and phone number
+                    db.execSQL("INSERT INTO " + SupplierEntry.TABLE_NAME + " ("
+                            + SupplierEntry.COLUMN_SUPPLIER_NAME + ", " + SupplierEntry.COLUMN_SUPPLIER_PHONE + ")"
+                            + " SELECT DISTINCT " + ProductEntry.COLUMN_SUPPLIER_NAME + ", "
+                            + ProductEntry.COLUMN_SUPPlIER_PHONE + " FROM " + ProductEntry.TABLE_NAME
+                            + " ORDER BY " + ProductEntry.COLUMN_SUPPLIER_NAME + ", " + ProductEntry.COLUMN_SUPPlIER_PHONE);
+
+                    // These refer to the supplier columns, so they are replaced below instead of
+                    // being carried over by the rebuild
+                    db.execSQL("DROP TRIGGER products_fts_insert");
+                    db.execSQL("DROP TRIGGER products_fts_update");
+                    db.execSQL("DROP INDEX products_supplier_idx");
+
+                    String columns = ProductEntry._ID + ", " + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                            + ProductEntry.COLUMN_PRODUCT_PRICE + ", " + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", ";
+                    rebuildTable(db, ProductEntry.TABLE_NAME,
+                            ProductEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                                    + ProductEntry.COLUMN_PRODUCT_NAME + " TEXT NOT NULL, "
+                                    + ProductEntry.COLUMN_PRODUCT_PRICE + " INTEGER NOT NULL DEFAULT 0, "
+                                    + ProductEntry.COLUMN_PRODUCT_QUANTITY + " INTEGER NOT NULL, "
+                                    + ProductEntry.COLUMN_SUPPLIER_ID + " INTEGER NOT NULL REFERENCES "
+                                    + SupplierEntry.TABLE_NAME + " (" + SupplierEntry._ID + ")",
+                            columns + ProductEntry.COLUMN_SUPPLIER_ID,
+                            columns + "(SELECT s." + SupplierEntry._ID + " FROM " + SupplierEntry.TABLE_NAME + " s"
+                                    + " WHERE s." + SupplierEntry.COLUMN_SUPPLIER_NAME + " = "
+                                    + ProductEntry.TABLE_NAME + "." + ProductEntry.COLUMN_SUPPLIER_NAME
+                                    + " AND s." + SupplierEntry.COLUMN_SUPPLIER_PHONE + " = "
+                                    + ProductEntry.TABLE_NAME + "." + ProductEntry.COLUMN_SUPPlIER_PHONE + ")");
+
+                    // Also serves the foreign key, so checks on supplier changes don't scan products
+                    db.execSQL("CREATE INDEX products_supplier_idx ON " + ProductEntry.TABLE_NAME
+                            + " (" + ProductEntry.COLUMN_SUPPLIER_ID + ")");
+
+                    // Keep the supplier names in the full-text index in sync from both tables
+                    String supplierName = "(SELECT " + SupplierEntry.COLUMN_SUPPLIER_NAME + " FROM "
+                            + SupplierEntry.TABLE_NAME + " WHERE " + SupplierEntry._ID
+                            + " = new." + ProductEntry.COLUMN_SUPPLIER_ID + ")";
+                    db.execSQL("CREATE TRIGGER products_fts_insert AFTER INSERT ON " + ProductEntry.TABLE_NAME
+                            + " BEGIN INSERT INTO " + ProductEntry.FTS_TABLE_NAME + " (docid, "
+                            + ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_SUPPLIER_NAME + ")"
+                            + " VALUES (new." + ProductEntry._ID + ", new." + ProductEntry.COLUMN_PRODUCT_NAME
+                            + ", " + supplierName + "); END");
+                    db.execSQL("CREATE TRIGGER products_fts_update AFTER UPDATE OF "
+                            + ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_SUPPLIER_ID
+                            + " ON " + ProductEntry.TABLE_NAME
+                            + " BEGIN UPDATE " + ProductEntry.FTS_TABLE_NAME
+                            + " SET " + ProductEntry.COLUMN_PRODUCT_NAME + " = new." + ProductEntry.COLUMN_PRODUCT_NAME
+                            + ", " + ProductEntry.COLUMN_SUPPLIER_NAME + " = " + supplierName
+                            + " WHERE docid = old." + ProductEntry._ID + "; END");
+                    db.execSQL("CREATE TRIGGER suppliers_fts_update AFTER UPDATE OF "
+                            + SupplierEntry.COLUMN_SUPPLIER_NAME + " ON " + SupplierEntry.TABLE_NAME
+                            + " BEGIN UPDATE " + ProductEntry.FTS_TABLE_NAME
+                            + " SET " + ProductEntry.COLUMN_SUPPLIER_NAME + " = new." + SupplierEntry.COLUMN_SUPPLIER_NAME
+                            + " WHERE docid IN (SELECT " + ProductEntry._ID + " FROM " + ProductEntry.TABLE_NAME
+                            + " WHERE " + ProductEntry.COLUMN_SUPPLIER_ID + " = new." + SupplierEntry._ID + "); END");
+
+                    db.execSQL("CREATE VIEW " + ProductEntry.VIEW_NAME + " AS SELECT "
+                            + "p." + ProductEntry._ID + " AS " + ProductEntry._ID + ", "
+                            + "p." + ProductEntry.COLUMN_PRODUCT_NAME + " AS " + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                            + "p." + ProductEntry.COLUMN_PRODUCT_PRICE + " AS " + ProductEntry.COLUMN_PRODUCT_PRICE + ", "
+                            + "p." + ProductEntry.COLUMN_PRODUCT_QUANTITY + " AS " + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", "
+                            + "p." + ProductEntry.COLUMN_SUPPLIER_ID + " AS " + ProductEntry.COLUMN_SUPPLIER_ID + ", "
+                            + "s." + SupplierEntry.COLUMN_SUPPLIER_NAME + " AS " + ProductEntry.COLUMN_SUPPLIER_NAME + ", "
+                            + "s." + SupplierEntry.COLUMN_SUPPLIER_PHONE + " AS " + ProductEntry.COLUMN_SUPPlIER_PHONE
+                            + " FROM " + ProductEntry.TABLE_NAME + " p LEFT JOIN " + SupplierEntry.TABLE_NAME + " s"
+                            + " ON s." + SupplierEntry._ID + " = p." + ProductEntry.COLUMN_SUPPLIER_ID);
+                }
+            },
+            // Version 6: covering index for per-supplier totals, which also serves the foreign key
+            new Migration(6) {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE INDEX products_supplier_stock_idx ON " + ProductEntry.TABLE_NAME
+                            + " (" + ProductEntry.COLUMN_SUPPLIER_ID + ", " + ProductEntry.COLUMN_PRODUCT_QUANTITY
+                            + ", " + ProductEntry.COLUMN_PRODUCT_PRICE + ")");
+                    db.execSQL("DROP INDEX products_supplier_idx");
+                }
+            },
+            // Version 7: inventory counters for the whole catalog and per supplier, kept up to date
+            // by triggers so reading them never scans the products table
+            new Migration(7) {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE " + InventoryStatsEntry.TABLE_NAME + " ("
+                            + InventoryStatsEntry.COLUMN_SCOPE_ID + " INTEGER PRIMARY KEY, "
+                            + InventoryStatsEntry.COLUMN_PRODUCT_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+                            + InventoryStatsEntry.COLUMN_TOTAL_QUANTITY + " INTEGER NOT NULL DEFAULT 0, "
+                            + InventoryStatsEntry.COLUMN_STOCK_VALUE + " INTEGER NOT NULL DEFAULT 0, "
+                            + InventoryStatsEntry.COLUMN_OUT_OF_STOCK_COUNT + " INTEGER NOT NULL DEFAULT 0)");
+
+                    // Start from the current totals
+                    seedInventoryStats(db);
+
+                    db.execSQL("CREATE TRIGGER inventory_stats_insert AFTER INSERT ON " + ProductEntry.TABLE_NAME
+                            + " BEGIN " + ensureStatsRow("new") + addStats("new", "+") + " END");
+                    db.execSQL("CREATE TRIGGER inventory_stats_delete AFTER DELETE ON " + ProductEntry.TABLE_NAME
+                            + " BEGIN " + addStats("old", "-") + " END");
+                    db.execSQL("CREATE TRIGGER inventory_stats_update AFTER UPDATE OF "
+                            + ProductEntry.COLUMN_PRODUCT_PRICE + ", " + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", "
+                            + ProductEntry.COLUMN_SUPPLIER_ID + " ON " + ProductEntry.TABLE_NAME
+                            + " BEGIN " + addStats("old", "-") + ensureStatsRow("new") + addStats("new", "+") + " END");
+                    db.execSQL("CREATE TRIGGER inventory_stats_supplier_delete AFTER DELETE ON "
+                            + SupplierEntry.TABLE_NAME + " BEGIN DELETE FROM " + InventoryStatsEntry.TABLE_NAME
+                            + " WHERE " + InventoryStatsEntry.COLUMN_SCOPE_ID + " = old." + SupplierEntry._ID + "; END");
+                }
+            },
+            // Version 8: sync identity of products and a journal of local changes to push,
+            // filled by triggers so every write path is covered in the same transaction
+            new Migration(8) {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + ProductEntry.TABLE_NAME + " ADD COLUMN "
+                            + ProductEntry.COLUMN_SYNC_ID + " TEXT");
+                    db.execSQL("UPDATE " + ProductEntry.TABLE_NAME + " SET " + ProductEntry.COLUMN_SYNC_ID
+                            + " = " + SQL_NEW_SYNC_ID);
+                    db.execSQL("CREATE UNIQUE INDEX products_sync_id_idx ON " + ProductEntry.TABLE_NAME
+                            + " (" + ProductEntry.COLUMN_SYNC_ID + ")");
+
+                    db.execSQL("CREATE TABLE " + ChangeEntry.TABLE_NAME + " ("
+                            + ChangeEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + ChangeEntry.COLUMN_SYNC_ID + " TEXT NOT NULL, "
+                            + ChangeEntry.COLUMN_OPERATION + " INTEGER NOT NULL, "
+                            + ChangeEntry.COLUMN_PRODUCT_NAME + " TEXT, "
+                            + ChangeEntry.COLUMN_PRODUCT_PRICE + " INTEGER, "
+                            + ChangeEntry.COLUMN_QUANTITY_DELTA + " INTEGER NOT NULL DEFAULT 0, "
+                            + ChangeEntry.COLUMN_SUPPLIER_NAME + " TEXT, "
+                            + ChangeEntry.COLUMN_SUPPLIER_PHONE + " TEXT, "
+                            + ChangeEntry.COLUMN_CHANGED_AT + " INTEGER NOT NULL)");
+                    // Finds the unpushed changes of a product when remote changes are applied
+                    db.execSQL("CREATE INDEX product_changes_sync_id_idx ON " + ChangeEntry.TABLE_NAME
+                            + " (" + ChangeEntry.COLUMN_SYNC_ID + ")");
+
+                    db.execSQL("CREATE TABLE " + ChangeEntry.SYNC_STATE_TABLE_NAME + " ("
+                            + "_id INTEGER PRIMARY KEY CHECK (_id = 1), "
+                            + ChangeEntry.COLUMN_DEVICE_ID + " TEXT NOT NULL, "
+                            + ChangeEntry.COLUMN_LAST_PUSHED + " INTEGER NOT NULL DEFAULT 0, "
+                            + ChangeEntry.COLUMN_LAST_PULLED + " INTEGER NOT NULL DEFAULT 0, "
+                            + ChangeEntry.COLUMN_APPLYING_REMOTE + " INTEGER NOT NULL DEFAULT 0)");
+                    db.execSQL("INSERT INTO " + ChangeEntry.SYNC_STATE_TABLE_NAME + " (_id, "
+                            + ChangeEntry.COLUMN_DEVICE_ID + ") VALUES (1, " + SQL_NEW_SYNC_ID + ")");
+
+                    String columns = " (" + ChangeEntry.COLUMN_SYNC_ID + ", " + ChangeEntry.COLUMN_OPERATION + ", "
+                            + ChangeEntry.COLUMN_PRODUCT_NAME + ", " + ChangeEntry.COLUMN_PRODUCT_PRICE + ", "
+                            + ChangeEntry.COLUMN_QUANTITY_DELTA + ", " + ChangeEntry.COLUMN_SUPPLIER_NAME + ", "
+                            + ChangeEntry.COLUMN_SUPPLIER_PHONE + ", " + ChangeEntry.COLUMN_CHANGED_AT + ")";
+                    String insertColumns = "p." + ProductEntry.COLUMN_SYNC_ID + ", " + ChangeEntry.OPERATION_INSERT
+                            + ", p." + ProductEntry.COLUMN_PRODUCT_NAME + ", p." + ProductEntry.COLUMN_PRODUCT_PRICE
+                            + ", p." + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", s." + SupplierEntry.COLUMN_SUPPLIER_NAME
+                            + ", s." + SupplierEntry.COLUMN_SUPPLIER_PHONE + ", " + SQL_NOW_MILLIS;
+                    String productsWithSuppliers = " FROM " + ProductEntry.TABLE_NAME + " p JOIN "
+                            + SupplierEntry.TABLE_NAME + " s ON s." + SupplierEntry._ID
+                            + " = p." + ProductEntry.COLUMN_SUPPLIER_ID;
+
+                    // The products that already exist reach the server as inserts on the first sync
+                    db.execSQL("INSERT INTO " + ChangeEntry.TABLE_NAME + columns + " SELECT " + insertColumns
+                            + productsWithSuppliers + " ORDER BY p." + ProductEntry._ID);
+
+                    String local = " WHEN (SELECT " + ChangeEntry.COLUMN_APPLYING_REMOTE + " FROM "
+                            + ChangeEntry.SYNC_STATE_TABLE_NAME + ") = 0";
+                    // New products get their sync ID here, whichever way they were inserted
+                    db.execSQL("CREATE TRIGGER product_changes_insert AFTER INSERT ON " + ProductEntry.TABLE_NAME
+                            + local + " BEGIN UPDATE " + ProductEntry.TABLE_NAME + " SET "
+                            + ProductEntry.COLUMN_SYNC_ID + " = " + SQL_NEW_SYNC_ID + " WHERE " + ProductEntry._ID
+                            + " = new." + ProductEntry._ID + " AND " + ProductEntry.COLUMN_SYNC_ID + " IS NULL; "
+                            + "INSERT INTO " + ChangeEntry.TABLE_NAME + columns + " SELECT " + insertColumns
+                            + productsWithSuppliers + " WHERE p." + ProductEntry._ID + " = new." + ProductEntry._ID
+                            + "; END");
+                    db.execSQL("CREATE TRIGGER product_changes_update AFTER UPDATE OF "
+                            + ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_PRODUCT_PRICE + ", "
+                            + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", " + ProductEntry.COLUMN_SUPPLIER_ID
+                            + " ON " + ProductEntry.TABLE_NAME + local
+                            + " AND (" + changed(ProductEntry.COLUMN_PRODUCT_NAME)
+                            + " OR " + changed(ProductEntry.COLUMN_PRODUCT_PRICE)
+                            + " OR " + changed(ProductEntry.COLUMN_PRODUCT_QUANTITY)
+                            + " OR " + changed(ProductEntry.COLUMN_SUPPLIER_ID) + ")"
+                            + " BEGIN INSERT INTO " + ChangeEntry.TABLE_NAME + columns + " SELECT new."
+                            + ProductEntry.COLUMN_SYNC_ID + ", " + ChangeEntry.OPERATION_UPDATE
+                            + ", " + ifChanged(ProductEntry.COLUMN_PRODUCT_NAME, "new." + ProductEntry.COLUMN_PRODUCT_NAME)
+                            + ", " + ifChanged(ProductEntry.COLUMN_PRODUCT_PRICE, "new." + ProductEntry.COLUMN_PRODUCT_PRICE)
+                            + ", new." + ProductEntry.COLUMN_PRODUCT_QUANTITY + " - old." + ProductEntry.COLUMN_PRODUCT_QUANTITY
+                            + ", " + ifChanged(ProductEntry.COLUMN_SUPPLIER_ID, "s." + SupplierEntry.COLUMN_SUPPLIER_NAME)
+                            + ", " + ifChanged(ProductEntry.COLUMN_SUPPLIER_ID, "s." + SupplierEntry.COLUMN_SUPPLIER_PHONE)
+                            + ", " + SQL_NOW_MILLIS + " FROM " + SupplierEntry.TABLE_NAME + " s WHERE s."
+                            + SupplierEntry._ID + " = new." + ProductEntry.COLUMN_SUPPLIER_ID + "; END");
+                    db.execSQL("CREATE TRIGGER product_changes_delete AFTER DELETE ON " + ProductEntry.TABLE_NAME
+                            + local + " BEGIN INSERT INTO " + ChangeEntry.TABLE_NAME + " ("
+                            + ChangeEntry.COLUMN_SYNC_ID + ", " + ChangeEntry.COLUMN_OPERATION + ", "
+                            + ChangeEntry.COLUMN_CHANGED_AT + ") VALUES (old." + ProductEntry.COLUMN_SYNC_ID + ", "
+                            + ChangeEntry.OPERATION_DELETE + ", " + SQL_NOW_MILLIS + "); END");
+                    // Products are synced with their supplier's name and number, so editing a
+                    // supplier changes every one of its products
+                    db.execSQL("CREATE TRIGGER supplier_changes_update AFTER UPDATE OF "
+                            + SupplierEntry.COLUMN_SUPPLIER_NAME + ", " + SupplierEntry.COLUMN_SUPPLIER_PHONE
+                            + " ON " + SupplierEntry.TABLE_NAME + local
+                            + " BEGIN INSERT INTO " + ChangeEntry.TABLE_NAME + columns + " SELECT "
+                            + ProductEntry.COLUMN_SYNC_ID + ", " + ChangeEntry.OPERATION_UPDATE + ", NULL, NULL, 0, new."
+                            + SupplierEntry.COLUMN_SUPPLIER_NAME + ", new." + SupplierEntry.COLUMN_SUPPLIER_PHONE + ", "
+                            + SQL_NOW_MILLIS + " FROM " + ProductEntry.TABLE_NAME + " WHERE "
+                            + ProductEntry.COLUMN_SUPPLIER_ID + " = new." + SupplierEntry._ID + "; END");
+                }
+
+                /**
+                 * Trigger condition that is true if the column was changed by the update.
+                 */
+                private String changed(String column) {
+                    return "new." + column + " IS NOT old." + column;
+                }
+
+                /**
+                 * Trigger expression for a value that is journaled only if the column changed.
+                 */
+                private String ifChanged(String column, String value) {
+                    return "CASE WHEN " + changed(column) + " THEN " + value + " END";
+                }
+            },
+            // Version 9: deleted products are kept as tombstones until a background compaction
+            // purges them, so deleting is a quick UPDATE. The view and the counters only see
+            // live products, and a product is journaled as deleted when it becomes a tombstone.
+            new Migration(9) {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + ProductEntry.TABLE_NAME + " ADD COLUMN "
+                            + ProductEntry.COLUMN_DELETED + " INTEGER NOT NULL DEFAULT 0");
+
+                    db.execSQL("DROP VIEW " + ProductEntry.VIEW_NAME);
+                    db.execSQL("CREATE VIEW " + ProductEntry.VIEW_NAME + " AS SELECT "
+                            + "p." + ProductEntry._ID + " AS " + ProductEntry._ID + ", "
+                            + "p." + ProductEntry.COLUMN_PRODUCT_NAME + " AS " + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                            + "p." + ProductEntry.COLUMN_PRODUCT_PRICE + " AS " + ProductEntry.COLUMN_PRODUCT_PRICE + ", "
+                            + "p." + ProductEntry.COLUMN_PRODUCT_QUANTITY + " AS " + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", "
+                            + "p." + ProductEntry.COLUMN_SUPPLIER_ID + " AS " + ProductEntry.COLUMN_SUPPLIER_ID + ", "
+                            + "s." + SupplierEntry.COLUMN_SUPPLIER_NAME + " AS " + ProductEntry.COLUMN_SUPPLIER_NAME + ", "
+                            + "s." + SupplierEntry.COLUMN_SUPPLIER_PHONE + " AS " + ProductEntry.COLUMN_SUPPlIER_PHONE
+                            + " FROM " + ProductEntry.TABLE_NAME + " p LEFT JOIN " + SupplierEntry.TABLE_NAME + " s"
+                            + " ON s." + SupplierEntry._ID + " = p." + ProductEntry.COLUMN_SUPPLIER_ID
+                            + " WHERE p." + ProductEntry.COLUMN_DELETED + " = 0");
+
+                    // Per-supplier totals skip tombstones, so the index must still cover them
+                    db.execSQL("DROP INDEX products_supplier_stock_idx");
+                    db.execSQL("CREATE INDEX products_supplier_stock_idx ON " + ProductEntry.TABLE_NAME
+                            + " (" + ProductEntry.COLUMN_SUPPLIER_ID + ", " + ProductEntry.COLUMN_PRODUCT_QUANTITY
+                            + ", " + ProductEntry.COLUMN_PRODUCT_PRICE + ", " + ProductEntry.COLUMN_DELETED + ")");
+
+                    // Tombstones have already left the counters, so purging them or changing
+                    // them must not count them again
+                    String live = " WHEN old." + ProductEntry.COLUMN_DELETED + " = 0";
+                    db.execSQL("DROP TRIGGER inventory_stats_delete");
+                    db.execSQL("DROP TRIGGER inventory_stats_update");
+                    db.execSQL("CREATE TRIGGER inventory_stats_delete AFTER DELETE ON " + ProductEntry.TABLE_NAME
+                            + live + " BEGIN " + addStats("old", "-") + " END");
+                    db.execSQL("CREATE TRIGGER inventory_stats_update AFTER UPDATE OF "
+                            + ProductEntry.COLUMN_PRODUCT_PRICE + ", " + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", "
+                            + ProductEntry.COLUMN_SUPPLIER_ID + " ON " + ProductEntry.TABLE_NAME + live
+                            + " BEGIN " + addStats("old", "-") + ensureStatsRow("new") + addStats("new", "+") + " END");
+                    String softDelete = " AFTER UPDATE OF " + ProductEntry.COLUMN_DELETED + " ON "
+                            + ProductEntry.TABLE_NAME + live + " AND new." + ProductEntry.COLUMN_DELETED + " != 0";
+                    db.execSQL("CREATE TRIGGER inventory_stats_soft_delete" + softDelete
+                            + " BEGIN " + addStats("old", "-") + " END");
+
+                    // The delete reaches the server when the product becomes a tombstone, not
+                    // when the compaction purges it
+                    String local = " AND (SELECT " + ChangeEntry.COLUMN_APPLYING_REMOTE + " FROM "
+                            + ChangeEntry.SYNC_STATE_TABLE_NAME + ") = 0";
+                    String journalDelete = " BEGIN INSERT INTO " + ChangeEntry.TABLE_NAME + " ("
+                            + ChangeEntry.COLUMN_SYNC_ID + ", " + ChangeEntry.COLUMN_OPERATION + ", "
+                            + ChangeEntry.COLUMN_CHANGED_AT + ") VALUES (old." + ProductEntry.COLUMN_SYNC_ID + ", "
+                            + ChangeEntry.OPERATION_DELETE + ", " + SQL_NOW_MILLIS + "); END";
+                    db.execSQL("DROP TRIGGER product_changes_delete");
+                    db.execSQL("CREATE TRIGGER product_changes_delete AFTER DELETE ON " + ProductEntry.TABLE_NAME
+                            + live + local + journalDelete);
+                    db.execSQL("CREATE TRIGGER product_changes_soft_delete" + softDelete + local + journalDelete);
+
+                    // Supplier edits no longer concern the products deleted from it
+                    db.execSQL("DROP TRIGGER supplier_changes_update");
+                    db.execSQL("CREATE TRIGGER supplier_changes_update AFTER UPDATE OF "
+                            + SupplierEntry.COLUMN_SUPPLIER_NAME + ", " + SupplierEntry.COLUMN_SUPPLIER_PHONE
+                            + " ON " + SupplierEntry.TABLE_NAME + " WHEN (SELECT " + ChangeEntry.COLUMN_APPLYING_REMOTE
+                            + " FROM " + ChangeEntry.SYNC_STATE_TABLE_NAME + ") = 0"
+                            + " BEGIN INSERT INTO " + ChangeEntry.TABLE_NAME + " (" + ChangeEntry.COLUMN_SYNC_ID + ", "
+                            + ChangeEntry.COLUMN_OPERATION + ", " + ChangeEntry.COLUMN_PRODUCT_NAME + ", "
+                            + ChangeEntry.COLUMN_PRODUCT_PRICE + ", " + ChangeEntry.COLUMN_QUANTITY_DELTA + ", "
+                            + ChangeEntry.COLUMN_SUPPLIER_NAME + ", " + ChangeEntry.COLUMN_SUPPLIER_PHONE + ", "
+                            + ChangeEntry.COLUMN_CHANGED_AT + ") SELECT "
+                            + ProductEntry.COLUMN_SYNC_ID + ", " + ChangeEntry.OPERATION_UPDATE + ", NULL, NULL, 0, new."
+                            + SupplierEntry.COLUMN_SUPPLIER_NAME + ", new." + SupplierEntry.COLUMN_SUPPLIER_PHONE + ", "
+                            + SQL_NOW_MILLIS + " FROM " + ProductEntry.TABLE_NAME + " WHERE "
+                            + ProductEntry.COLUMN_SUPPLIER_ID + " = new." + SupplierEntry._ID
+                            + " AND " + ProductEntry.COLUMN_DELETED + " = 0; END");
+                }
+            },
+            // Version 10: covering index for the catalog list rows, in list order. The ID is
+            // listed explicitly so rows with equal names are in ID order too.
+            new Migration(10) {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE INDEX products_catalog_row_idx ON " + ProductEntry.TABLE_NAME
+                            + " (" + ProductEntry.COLUMN_DELETED + ", " + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                            + ProductEntry._ID + ", " + ProductEntry.COLUMN_PRODUCT_QUANTITY + ")");
+                }
+            },
+            // Version 11: append-only ledger of quantity changes. Triggers add a movement in the
+            // same statement as every quantity change, so the quantity of a product stays the sum
+            // of its movements. The reason of an update is read from a single-row table that
+            // sales and adjustments set inside their transaction.
+            new Migration(11) {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE " + StockMovementEntry.TABLE_NAME + " ("
+                            + StockMovementEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + StockMovementEntry.COLUMN_PRODUCT_ID + " INTEGER NOT NULL REFERENCES "
+                            + ProductEntry.TABLE_NAME + " (" + ProductEntry._ID + ") ON DELETE CASCADE, "
+                            + StockMovementEntry.COLUMN_DELTA + " INTEGER NOT NULL, "
+                            + StockMovementEntry.COLUMN_REASON + " INTEGER NOT NULL, "
+                            + StockMovementEntry.COLUMN_CREATED_AT + " INTEGER NOT NULL)");
+                    // The history of a product, and the cascade when a tombstone is purged
+                    db.execSQL("CREATE INDEX stock_movements_product_idx ON " + StockMovementEntry.TABLE_NAME
+                            + " (" + StockMovementEntry.COLUMN_PRODUCT_ID + ", "
+                            + StockMovementEntry.COLUMN_CREATED_AT + ")");
+
+                    db.execSQL("CREATE TABLE " + StockMovementEntry.STATE_TABLE_NAME + " ("
+                            + "_id INTEGER PRIMARY KEY CHECK (_id = 1), "
+                            + StockMovementEntry.COLUMN_REASON + " INTEGER NOT NULL)");
+                    db.execSQL("INSERT INTO " + StockMovementEntry.STATE_TABLE_NAME + " (_id, "
+                            + StockMovementEntry.COLUMN_REASON + ") VALUES (1, "
+                            + StockMovementEntry.REASON_EDIT + ")");
+
+                    // The products that already exist start with their whole quantity
+                    seedStockMovements(db, StockMovementEntry.REASON_INITIAL);
+
+                    String columns = " (" + StockMovementEntry.COLUMN_PRODUCT_ID + ", "
+                            + StockMovementEntry.COLUMN_DELTA + ", " + StockMovementEntry.COLUMN_REASON + ", "
+                            + StockMovementEntry.COLUMN_CREATED_AT + ")";
+                    String remote = "(SELECT " + ChangeEntry.COLUMN_APPLYING_REMOTE + " FROM "
+                            + ChangeEntry.SYNC_STATE_TABLE_NAME + ")";
+                    db.execSQL("CREATE TRIGGER stock_movements_insert AFTER INSERT ON " + ProductEntry.TABLE_NAME
+                            + " WHEN new." + ProductEntry.COLUMN_PRODUCT_QUANTITY + " != 0"
+                            + " BEGIN INSERT INTO " + StockMovementEntry.TABLE_NAME + columns + " VALUES (new."
+                            + ProductEntry._ID + ", new." + ProductEntry.COLUMN_PRODUCT_QUANTITY
+                            + ", CASE WHEN " + remote + " THEN " + StockMovementEntry.REASON_SYNC
+                            + " ELSE " + StockMovementEntry.REASON_INITIAL + " END, " + SQL_NOW_MILLIS + "); END");
+                    db.execSQL("CREATE TRIGGER stock_movements_update AFTER UPDATE OF "
+                            + ProductEntry.COLUMN_PRODUCT_QUANTITY + " ON " + ProductEntry.TABLE_NAME
+                            + " WHEN new." + ProductEntry.COLUMN_PRODUCT_QUANTITY
+                            + " != old." + ProductEntry.COLUMN_PRODUCT_QUANTITY
+                            + " BEGIN INSERT INTO " + StockMovementEntry.TABLE_NAME + columns + " VALUES (new."
+                            + ProductEntry._ID + ", new." + ProductEntry.COLUMN_PRODUCT_QUANTITY
+                            + " - old." + ProductEntry.COLUMN_PRODUCT_QUANTITY
+                            + ", CASE WHEN " + remote + " THEN " + StockMovementEntry.REASON_SYNC
+                            + " ELSE (SELECT " + StockMovementEntry.COLUMN_REASON + " FROM "
+                            + StockMovementEntry.STATE_TABLE_NAME + ") END, " + SQL_NOW_MILLIS + "); END");
+                }
+            },
+            // Version 12: when the name, price and supplier of each product last changed, which
+            // decides whether a remote change of the column is applied. The journal can't tell,
+            // as its rows are dropped as soon as the server has them. Local changes are stamped
+            // later than every change the product has seen, and journaled with that time.
+            new Migration(12) {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    String[] timeColumns = {ProductEntry.COLUMN_NAME_CHANGED_AT,
+                            ProductEntry.COLUMN_PRICE_CHANGED_AT, ProductEntry.COLUMN_SUPPLIER_CHANGED_AT};
+                    String[] changeColumns = {ChangeEntry.COLUMN_PRODUCT_NAME,
+                            ChangeEntry.COLUMN_PRODUCT_PRICE, ChangeEntry.COLUMN_SUPPLIER_NAME};
+                    for (int i = 0; i < timeColumns.length; i++) {
+                        db.execSQL("ALTER TABLE " + ProductEntry.TABLE_NAME + " ADD COLUMN "
+                                + timeColumns[i] + " INTEGER NOT NULL DEFAULT 0");
+                        // Changes that haven't been pushed yet keep their time, the others are
+                        // older than anything the server can send
+                        db.execSQL("UPDATE " + ProductEntry.TABLE_NAME + " SET " + timeColumns[i]
+                                + " = IFNULL((SELECT MAX(c." + ChangeEntry.COLUMN_CHANGED_AT + ") FROM "
+                                + ChangeEntry.TABLE_NAME + " c WHERE c." + ChangeEntry.COLUMN_SYNC_ID + " = "
+                                + ProductEntry.TABLE_NAME + "." + ProductEntry.COLUMN_SYNC_ID + " AND c."
+                                + changeColumns[i] + " IS NOT NULL), 0)");
+                    }
+                    // The journal is no longer searched by product
+                    db.execSQL("DROP INDEX product_changes_sync_id_idx");
+
+                    String columns = " (" + ChangeEntry.COLUMN_SYNC_ID + ", " + ChangeEntry.COLUMN_OPERATION + ", "
+                            + ChangeEntry.COLUMN_PRODUCT_NAME + ", " + ChangeEntry.COLUMN_PRODUCT_PRICE + ", "
+                            + ChangeEntry.COLUMN_QUANTITY_DELTA + ", " + ChangeEntry.COLUMN_SUPPLIER_NAME + ", "
+                            + ChangeEntry.COLUMN_SUPPLIER_PHONE + ", " + ChangeEntry.COLUMN_CHANGED_AT + ")";
+                    String local = " WHEN (SELECT " + ChangeEntry.COLUMN_APPLYING_REMOTE + " FROM "
+                            + ChangeEntry.SYNC_STATE_TABLE_NAME + ") = 0";
+
+                    db.execSQL("DROP TRIGGER product_changes_insert");
+                    db.execSQL("CREATE TRIGGER product_changes_insert AFTER INSERT ON " + ProductEntry.TABLE_NAME
+                            + local + " BEGIN UPDATE " + ProductEntry.TABLE_NAME + " SET "
+                            + ProductEntry.COLUMN_SYNC_ID + " = IFNULL(" + ProductEntry.COLUMN_SYNC_ID + ", "
+                            + SQL_NEW_SYNC_ID + "), " + ProductEntry.COLUMN_NAME_CHANGED_AT + " = " + SQL_NOW_MILLIS
+                            + ", " + ProductEntry.COLUMN_PRICE_CHANGED_AT + " = " + SQL_NOW_MILLIS
+                            + ", " + ProductEntry.COLUMN_SUPPLIER_CHANGED_AT + " = " + SQL_NOW_MILLIS
+                            + " WHERE " + ProductEntry._ID + " = new." + ProductEntry._ID + "; "
+                            + "INSERT INTO " + ChangeEntry.TABLE_NAME + columns + " SELECT p."
+                            + ProductEntry.COLUMN_SYNC_ID + ", " + ChangeEntry.OPERATION_INSERT
+                            + ", p." + ProductEntry.COLUMN_PRODUCT_NAME + ", p." + ProductEntry.COLUMN_PRODUCT_PRICE
+                            + ", p." + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", s." + SupplierEntry.COLUMN_SUPPLIER_NAME
+                            + ", s." + SupplierEntry.COLUMN_SUPPLIER_PHONE + ", " + SQL_NOW_MILLIS
+                            + " FROM " + ProductEntry.TABLE_NAME + " p JOIN " + SupplierEntry.TABLE_NAME
+                            + " s ON s." + SupplierEntry._ID + " = p." + ProductEntry.COLUMN_SUPPLIER_ID
+                            + " WHERE p." + ProductEntry._ID + " = new." + ProductEntry._ID + "; END");
+
+                    // Updating the times doesn't fire the trigger again, they aren't among its columns
+                    String time = changeTime(SQL_NOW_MILLIS, "old");
+                    db.execSQL("DROP TRIGGER product_changes_update");
+                    db.execSQL("CREATE TRIGGER product_changes_update AFTER UPDATE OF "
+                            + ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_PRODUCT_PRICE + ", "
+                            + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", " + ProductEntry.COLUMN_SUPPLIER_ID
+                            + " ON " + ProductEntry.TABLE_NAME + local
+                            + " AND (" + changed(ProductEntry.COLUMN_PRODUCT_NAME)
+                            + " OR " + changed(ProductEntry.COLUMN_PRODUCT_PRICE)
+                            + " OR " + changed(ProductEntry.COLUMN_PRODUCT_QUANTITY)
+                            + " OR " + changed(ProductEntry.COLUMN_SUPPLIER_ID) + ")"
+                            + " BEGIN UPDATE " + ProductEntry.TABLE_NAME + " SET "
+                            + stamp(ProductEntry.COLUMN_PRODUCT_NAME, ProductEntry.COLUMN_NAME_CHANGED_AT, time) + ", "
+                            + stamp(ProductEntry.COLUMN_PRODUCT_PRICE, ProductEntry.COLUMN_PRICE_CHANGED_AT, time) + ", "
+                            + stamp(ProductEntry.COLUMN_SUPPLIER_ID, ProductEntry.COLUMN_SUPPLIER_CHANGED_AT, time)
+                            + " WHERE " + ProductEntry._ID + " = new." + ProductEntry._ID + "; "
+                            + "INSERT INTO " + ChangeEntry.TABLE_NAME + columns + " SELECT new."
+                            + ProductEntry.COLUMN_SYNC_ID + ", " + ChangeEntry.OPERATION_UPDATE
+                            + ", " + ifChanged(ProductEntry.COLUMN_PRODUCT_NAME, "new." + ProductEntry.COLUMN_PRODUCT_NAME)
+                            + ", " + ifChanged(ProductEntry.COLUMN_PRODUCT_PRICE, "new." + ProductEntry.COLUMN_PRODUCT_PRICE)
+                            + ", new." + ProductEntry.COLUMN_PRODUCT_QUANTITY + " - old." + ProductEntry.COLUMN_PRODUCT_QUANTITY
+                            + ", " + ifChanged(ProductEntry.COLUMN_SUPPLIER_ID, "s." + SupplierEntry.COLUMN_SUPPLIER_NAME)
+                            + ", " + ifChanged(ProductEntry.COLUMN_SUPPLIER_ID, "s." + SupplierEntry.COLUMN_SUPPLIER_PHONE)
+                            + ", " + time + " FROM " + SupplierEntry.TABLE_NAME + " s WHERE s."
+                            + SupplierEntry._ID + " = new." + ProductEntry.COLUMN_SUPPLIER_ID + "; END");
+
+                    // Journaled before the times move on, so both use the same time
+                    String supplierTime = changeTime(SQL_NOW_MILLIS, ProductEntry.TABLE_NAME);
+                    String supplierProducts = " WHERE " + ProductEntry.COLUMN_SUPPLIER_ID + " = new."
+                            + SupplierEntry._ID + " AND " + ProductEntry.COLUMN_DELETED + " = 0";
+                    db.execSQL("DROP TRIGGER supplier_changes_update");
+                    db.execSQL("CREATE TRIGGER supplier_changes_update AFTER UPDATE OF "
+                            + SupplierEntry.COLUMN_SUPPLIER_NAME + ", " + SupplierEntry.COLUMN_SUPPLIER_PHONE
+                            + " ON " + SupplierEntry.TABLE_NAME + local
+                            + " BEGIN INSERT INTO " + ChangeEntry.TABLE_NAME + columns + " SELECT "
+                            + ProductEntry.COLUMN_SYNC_ID + ", " + ChangeEntry.OPERATION_UPDATE + ", NULL, NULL, 0, new."
+                            + SupplierEntry.COLUMN_SUPPLIER_NAME + ", new." + SupplierEntry.COLUMN_SUPPLIER_PHONE + ", "
+                            + supplierTime + " FROM " + ProductEntry.TABLE_NAME + supplierProducts + "; "
+                            + "UPDATE " + ProductEntry.TABLE_NAME + " SET " + ProductEntry.COLUMN_SUPPLIER_CHANGED_AT
+                            + " = " + supplierTime + supplierProducts + "; END");
+                }
+
+                /**
+                 * Trigger condition that is true if the column was changed by the update.
+                 */
+                private String changed(String column) {
+                    return "new." + column + " IS NOT old." + column;
+                }
+
+                /**
+                 * Trigger expression for a value that is journaled only if the column changed.
+                 */
+                private String ifChanged(String column, String value) {
+                    return "CASE WHEN " + changed(column) + " THEN " + value + " END";
+                }
+
+                /**
+                 * Trigger assignment that moves the time of a column on if the update changed it.
+                 */
+                private String stamp(String column, String timeColumn, String time) {
+                    return timeColumn + " = CASE WHEN " + changed(column) + " THEN " + time
+                            + " ELSE " + timeColumn + " END";
+                }
+            },
+    };
+
+    /**
+     * SQL expression for a new random sync ID, 32 hex digits
+     */
+    static final String SQL_NEW_SYNC_ID = "lower(hex(randomblob(16)))";
+
+    /**
+     * SQL expression for the current time in milliseconds since the epoch
+     */
+    private static final String SQL_NOW_MILLIS = "CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER)";
+
+    /**
+     * SQL expression for the time of a new local change of a product: now, unless the product
+     * has already seen a change at that time or later, then just after the latest one. A local
+     * change is made on top of those, so it must win over them even when the clocks of the
+     * devices differ.
+     *
+     * @param now SQL expression for the current time
+     * @param row the product before the change, such as "old" in a trigger
+     */
+    static String changeTime(String now, String row) {
+        return "MAX(" + now + ", " + row + "." + ProductEntry.COLUMN_NAME_CHANGED_AT + " + 1, "
+                + row + "." + ProductEntry.COLUMN_PRICE_CHANGED_AT + " + 1, "
+                + row + "." + ProductEntry.COLUMN_SUPPLIER_CHANGED_AT + " + 1)";
+    }
+
+    /**
+     * Trigger statement that adds the counters row of the product's supplier if needed.
+     */
+    private static String ensureStatsRow(String row) {
+        return "INSERT OR IGNORE INTO " + InventoryStatsEntry.TABLE_NAME
+                + " (" + InventoryStatsEntry.COLUMN_SCOPE_ID + ") VALUES ("
+                + row + "." + ProductEntry.COLUMN_SUPPLIER_ID + "); ";
+    }
+
+    /**
+     * Trigger statement that adds a product to, or removes it from, the counters of
+     * the catalog and of its supplier.
+     *
+     * @param row  "new" or "old"
+     * @param sign "+" to add the product, "-" to remove it
+     */
+    private static String addStats(String row, String sign) {
+        return "UPDATE " + InventoryStatsEntry.TABLE_NAME + " SET "
+                + InventoryStatsEntry.COLUMN_PRODUCT_COUNT + " = "
+                + InventoryStatsEntry.COLUMN_PRODUCT_COUNT + " " + sign + " 1, "
+                + InventoryStatsEntry.COLUMN_TOTAL_QUANTITY + " = " + InventoryStatsEntry.COLUMN_TOTAL_QUANTITY
+                + " " + sign + " " + row + "." + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", "
+                + InventoryStatsEntry.COLUMN_STOCK_VALUE + " = " + InventoryStatsEntry.COLUMN_STOCK_VALUE
+                + " " + sign + " " + row + "." + ProductEntry.COLUMN_PRODUCT_PRICE
+                + " * " + row + "." + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", "
+                + InventoryStatsEntry.COLUMN_OUT_OF_STOCK_COUNT + " = "
+                + InventoryStatsEntry.COLUMN_OUT_OF_STOCK_COUNT
+                + " " + sign + " (" + row + "." + ProductEntry.COLUMN_PRODUCT_QUANTITY + " = 0)"
+                + " WHERE " + InventoryStatsEntry.COLUMN_SCOPE_ID + " IN (" + InventoryStatsEntry.SCOPE_ALL
+                + ", " + row + "." + ProductEntry.COLUMN_SUPPLIER_ID + ");";
+    }
+
+    /**
+     * Fill the empty counters table from the products table. The catalog row exists even when
+     * it's empty. Also used to recompute the counters after a bulk load, see
+     * {@link ProductDbHelper#bulkLoad(ProductDbHelper.BulkLoader)}.
+     */
+    static void seedInventoryStats(SQLiteDatabase db) {
+        String totals = "COUNT(*), IFNULL(SUM(" + ProductEntry.COLUMN_PRODUCT_QUANTITY + "), 0), "
+                + "IFNULL(SUM(" + ProductEntry.COLUMN_PRODUCT_PRICE + " * "
+                + ProductEntry.COLUMN_PRODUCT_QUANTITY + "), 0), "
+                + "IFNULL(SUM(" + ProductEntry.COLUMN_PRODUCT_QUANTITY + " = 0), 0)";
+        String columns = " (" + InventoryStatsEntry.COLUMN_SCOPE_ID + ", "
+                + InventoryStatsEntry.COLUMN_PRODUCT_COUNT + ", "
+                + InventoryStatsEntry.COLUMN_TOTAL_QUANTITY + ", "
+                + InventoryStatsEntry.COLUMN_STOCK_VALUE + ", "
+                + InventoryStatsEntry.COLUMN_OUT_OF_STOCK_COUNT + ")";
+        db.execSQL("INSERT INTO " + InventoryStatsEntry.TABLE_NAME + columns
+                + " SELECT " + InventoryStatsEntry.SCOPE_ALL + ", " + totals
+                + " FROM " + ProductEntry.TABLE_NAME);
+        db.execSQL("INSERT INTO " + InventoryStatsEntry.TABLE_NAME + columns
+                + " SELECT " + ProductEntry.COLUMN_SUPPLIER_ID + ", " + totals
+                + " FROM " + ProductEntry.TABLE_NAME + " GROUP BY " + ProductEntry.COLUMN_SUPPLIER_ID);
+    }
+
+    /**
+     * Add a movement of the whole quantity of every product that has stock, with the given
+     * reason, to the empty movements table. Also used to start the ledger over after a bulk load,
+     * see {@link ProductDbHelper#bulkLoad(ProductDbHelper.BulkLoader)}.
+     */
+    static void seedStockMovements(SQLiteDatabase db, int reason) {
+        db.execSQL("INSERT INTO " + StockMovementEntry.TABLE_NAME + " ("
+                + StockMovementEntry.COLUMN_PRODUCT_ID + ", " + StockMovementEntry.COLUMN_DELTA + ", "
+                + StockMovementEntry.COLUMN_REASON + ", " + StockMovementEntry.COLUMN_CREATED_AT + ")"
+                + " SELECT " + ProductEntry._ID + ", " + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", "
+                + reason + ", " + SQL_NOW_MILLIS + " FROM " + ProductEntry.TABLE_NAME
+                + " WHERE " + ProductEntry.COLUMN_PRODUCT_QUANTITY + " != 0"
+                + " ORDER BY " + ProductEntry._ID);
+    }
+
+    /**
+     * Recreate a table with new column definitions, which is how SQLite changes the type or
+     * constraints of a column. The rows are copied over, and the indexes and triggers on the table
+     * are recreated from their original SQL, as is the AUTOINCREMENT counter so IDs of deleted
+     * rows are never reused.
+     *
+     * @param columnDefinitions column definitions of the new table, without parentheses
+     * @param columns           columns to copy, in the order they are selected
+     * @param selectColumns     expressions selecting the values of {@code columns} from the old table
+     */
+    private static void rebuildTable(SQLiteDatabase db, String table, String columnDefinitions,
+                                     String columns, String selectColumns) {
+        String newTable = table + "_new";
+
+        // Remember the indexes and triggers, which are dropped together with the old table
+        List<String> schema = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT sql FROM sqlite_master WHERE tbl_name = ?"
+                + " AND type IN ('index', 'trigger') AND sql IS NOT NULL", new String[]{table});
+        try {
+            while (cursor.moveToNext()) {
+                schema.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        long sequence = DatabaseUtils.longForQuery(db,
+                "SELECT IFNULL(MAX(seq), 0) FROM sqlite_sequence WHERE name = ?", new String[]{table});
+
+        db.execSQL("CREATE TABLE " + newTable + " (" + columnDefinitions + ")");
+        db.execSQL("INSERT INTO " + newTable + " (" + columns + ") SELECT " + selectColumns + " FROM " + table);
+        db.execSQL("DROP TABLE " + table);
+        db.execSQL("ALTER TABLE " + newTable + " RENAME TO " + table);
+
+        for (String sql : schema) {
+            db.execSQL(sql);
+        }
+        db.execSQL("DELETE FROM sqlite_sequence WHERE name = ?", new Object[]{table});
+        db.execSQL("INSERT INTO sqlite_sequence (name, seq) SELECT ?, MAX(?, IFNULL(MAX("
+                        + BaseColumns._ID + "), 0)) FROM " + table,
+                new Object[]{table, sequence});
+    }
+
+    // To prevent someone from accidentally instantiating this class,
+    // give it an empty constructor.
+    private ProductMigrations() {
+    }
+
+    /**
+     * @return the version of the newest migration, which is the current schema version
+     */
+    public static int getLatestVersion() {
+        return MIGRATIONS[MIGRATIONS.length - 1].getVersion();
+    }
+
+    /**
+     * Return the migrations needed to move a database from {@code oldVersion} to
+     * {@code newVersion}, in the order they must be applied.
+     */
+    public static List<Migration> getMigrations(int oldVersion, int newVersion) {
+        List<Migration> migrations = new ArrayList<>();
+        int expectedVersion = oldVersion + 1;
+        for (Migration migration : MIGRATIONS) {
+            int version = migration.getVersion();
+            if (version > oldVersion && version <= newVersion) {
+                if (version != expectedVersion) {
+                    throw new IllegalStateException("Missing migration to version " + expectedVersion);
+                }
+                migrations.add(migration);
+                expectedVersion++;
+            }
+        }
+        if (expectedVersion != newVersion + 1) {
+            throw new IllegalStateException("No migration path from version " + oldVersion
+                    + " to " + newVersion);
+        }
+        return migrations;
+    }
+}
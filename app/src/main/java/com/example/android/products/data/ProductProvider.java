@@ -1,18 +1,43 @@
 package com.example.android.products.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.os.Parcelable;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
-import android.widget.Toast;
+import android.util.SparseArray;
 
-import com.example.android.products.EditorActivity;
+import com.example.android.products.data.ProductContract.ChangeEntry;
+import com.example.android.products.data.ProductContract.InventoryStatsEntry;
 import com.example.android.products.data.ProductContract.ProductEntry;
+import com.example.android.products.data.ProductContract.StockMovementEntry;
+import com.example.android.products.data.ProductContract.SupplierEntry;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * {@link ContentProvider} for BookInventory app.
@@ -30,6 +55,70 @@ public class ProductProvider extends ContentProvider {
      * URI matcher code for the content URI for a single product in the products table
      */
     private static final int PRODUCT_ID = 101;
+    /**
+     * URI matcher code for the content URI for full-text search over products
+     */
+    private static final int PRODUCT_SEARCH = 102;
+    /**
+     * URI matcher code for the content URI for totals over all products
+     */
+    private static final int PRODUCT_SUMMARY = 103;
+    /**
+     * URI matcher code for the content URI for products that are low on stock
+     */
+    private static final int PRODUCT_LOW_STOCK = 104;
+    /**
+     * URI matcher code for the content URI for the catalog as a CSV file
+     */
+    private static final int PRODUCT_CSV = 105;
+    /**
+     * URI matcher code for the content URI for the catalog list rows
+     */
+    private static final int PRODUCT_ROWS = 106;
+    /**
+     * URI matcher code for the content URI for the suppliers table
+     */
+    private static final int SUPPLIERS = 200;
+    /**
+     * URI matcher code for the content URI for a single supplier
+     */
+    private static final int SUPPLIER_ID = 201;
+    /**
+     * URI matcher code for the content URI for the products of a single supplier
+     */
+    private static final int SUPPLIER_PRODUCTS = 202;
+    /**
+     * URI matcher code for the content URI for totals per supplier
+     */
+    private static final int SUPPLIER_SUMMARY = 203;
+    /**
+     * URI matcher code for the content URI for the inventory counters of every scope
+     */
+    private static final int INVENTORY_STATS = 300;
+    /**
+     * URI matcher code for the content URI for the inventory counters of a single scope
+     */
+    private static final int INVENTORY_STATS_SCOPE = 301;
+    /**
+     * URI matcher code for the content URI for the change journal
+     */
+    private static final int CHANGES = 400;
+    /**
+     * URI matcher code for the content URI for the stock movements of a single product
+     */
+    private static final int PRODUCT_MOVEMENTS = 500;
+    /**
+     * Maximum number of search matches returned when the URI doesn't set a limit
+     */
+    private static final String DEFAULT_SEARCH_LIMIT = "100";
+    /**
+     * Maximum number of products kept in {@link #mCache}
+     */
+    private static final int CACHE_SIZE = 200;
+    /**
+     * Value of PRAGMA auto_vacuum that keeps free pages until PRAGMA incremental_vacuum
+     */
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return for the root URI.
@@ -37,22 +126,185 @@ public class ProductProvider extends ContentProvider {
      */
     private static final UriMatcher sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
 
+    /**
+     * Name of the URI pattern of every match code, for {@link ProviderMetrics}
+     */
+    private static final SparseArray<String> sMatchNames = new SparseArray<>();
+
     // Static initializer. This is run the first time anything is called from this class.
     static {
         // The calls to addURI() go here, for all of the content URI patterns that the provider
         // should recognize. All paths added to the UriMatcher have a corresponding code to return
         // when a match is found.
 
-        // 2 content URIs to URI matcher
-        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY, ProductContract.PATH_PRODUCTS, PRODUCTS);
-        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY, ProductContract.PATH_PRODUCTS + "/#", PRODUCT_ID);
+        // 15 content URIs to URI matcher
+        addUri(ProductContract.PATH_PRODUCTS, PRODUCTS);
+        addUri(ProductContract.PATH_PRODUCTS + "/#", PRODUCT_ID);
+        addUri(ProductContract.PATH_PRODUCTS + "/" + ProductContract.PATH_SEARCH, PRODUCT_SEARCH);
+        addUri(ProductContract.PATH_PRODUCTS + "/" + ProductContract.PATH_SUMMARY, PRODUCT_SUMMARY);
+        addUri(ProductContract.PATH_PRODUCTS + "/" + ProductContract.PATH_LOW_STOCK, PRODUCT_LOW_STOCK);
+        addUri(ProductContract.PATH_PRODUCTS + "/" + ProductContract.PATH_CSV, PRODUCT_CSV);
+        addUri(ProductContract.PATH_PRODUCTS + "/" + ProductContract.PATH_ROWS, PRODUCT_ROWS);
+        addUri(ProductContract.PATH_SUPPLIERS, SUPPLIERS);
+        addUri(ProductContract.PATH_SUPPLIERS + "/#", SUPPLIER_ID);
+        addUri(ProductContract.PATH_SUPPLIERS + "/#/" + ProductContract.PATH_PRODUCTS, SUPPLIER_PRODUCTS);
+        addUri(ProductContract.PATH_SUPPLIERS + "/" + ProductContract.PATH_SUMMARY, SUPPLIER_SUMMARY);
+        addUri(ProductContract.PATH_INVENTORY_STATS, INVENTORY_STATS);
+        addUri(ProductContract.PATH_INVENTORY_STATS + "/#", INVENTORY_STATS_SCOPE);
+        addUri(ProductContract.PATH_CHANGES, CHANGES);
+        addUri(ProductContract.PATH_PRODUCTS + "/#/" + ProductContract.PATH_MOVEMENTS, PRODUCT_MOVEMENTS);
+    }
+
+    /**
+     * Add a content URI pattern to the matcher, named after its path.
+     */
+    private static void addUri(String path, int code) {
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY, path, code);
+        sMatchNames.put(code, path);
+    }
+
+    /**
+     * @return the URI pattern of a match code, to name metrics after
+     */
+    private static String getMatchName(int match) {
+        return sMatchNames.get(match, "unmatched");
     }
 
+    /**
+     * Select a single product by ID, unless it was deleted.
+     */
+    private static final String SELECT_LIVE_PRODUCT = ProductEntry._ID + " = ? AND "
+            + ProductEntry.COLUMN_DELETED + " = 0";
+
+    /**
+     * Purge a chunk of deleted products. The subquery walks the table in ID order, so each chunk
+     * continues where the last one stopped.
+     */
+    private static final String SQL_PURGE_DELETED = "DELETE FROM " + ProductEntry.TABLE_NAME
+            + " WHERE " + ProductEntry._ID + " IN (SELECT " + ProductEntry._ID + " FROM "
+            + ProductEntry.TABLE_NAME + " WHERE " + ProductEntry.COLUMN_DELETED + " != 0 LIMIT ?)";
+
+    /**
+     * Live catalog list rows with typed columns: the integer ID and quantity, and the name cut to
+     * {@link ProductEntry#DISPLAY_NAME_LENGTH} characters, so every row is small and bounded.
+     */
+    private static final String SQL_CATALOG_ROWS = "SELECT " + ProductEntry._ID
+            + ", substr(" + ProductEntry.COLUMN_PRODUCT_NAME + ", 1, " + ProductEntry.DISPLAY_NAME_LENGTH
+            + ") AS " + ProductEntry.COLUMN_DISPLAY_NAME + ", " + ProductEntry.COLUMN_PRODUCT_QUANTITY
+            + " FROM " + ProductEntry.TABLE_NAME + " WHERE " + ProductEntry.COLUMN_DELETED + " = 0";
+
+    /**
+     * Name of the product whose ID is the argument, as a scalar subquery
+     */
+    private static final String SQL_NAME_OF_ROW = "(SELECT " + ProductEntry.COLUMN_PRODUCT_NAME
+            + " FROM " + ProductEntry.TABLE_NAME + " WHERE " + ProductEntry._ID + " = ?)";
+
+    /**
+     * ID of the newest stock movement, taken before a rollup adds its movements
+     */
+    private static final String SQL_LAST_MOVEMENT = "SELECT IFNULL(MAX(" + StockMovementEntry._ID
+            + "), 0) FROM " + StockMovementEntry.TABLE_NAME;
+
+    /**
+     * ID of the last of the next products in ID order, or null if there are none
+     */
+    private static final String SQL_ROLLUP_CHUNK_END = "SELECT MAX(" + ProductEntry._ID + ") FROM (SELECT "
+            + ProductEntry._ID + " FROM " + ProductEntry.TABLE_NAME + " WHERE " + ProductEntry._ID
+            + " > ? ORDER BY " + ProductEntry._ID + " LIMIT ?)";
+
+    /**
+     * Movements of the products in an ID range made before a time, bound as the lower ID
+     * (exclusive), the upper ID and the time. A range scan of stock_movements_product_idx.
+     */
+    private static final String SELECT_OLD_MOVEMENTS = StockMovementEntry.COLUMN_PRODUCT_ID + " > ? AND "
+            + StockMovementEntry.COLUMN_PRODUCT_ID + " <= ? AND " + StockMovementEntry.COLUMN_CREATED_AT + " < ?";
+
+    /**
+     * Add one rollup movement for every product in the range with more than one old movement,
+     * dated like the newest movement it stands for. A product that was already rolled up with
+     * the same cutoff has a single old movement left, so it is skipped.
+     */
+    private static final String SQL_INSERT_ROLLUPS = "INSERT INTO " + StockMovementEntry.TABLE_NAME + " ("
+            + StockMovementEntry.COLUMN_PRODUCT_ID + ", " + StockMovementEntry.COLUMN_DELTA + ", "
+            + StockMovementEntry.COLUMN_REASON + ", " + StockMovementEntry.COLUMN_CREATED_AT + ") SELECT "
+            + StockMovementEntry.COLUMN_PRODUCT_ID + ", SUM(" + StockMovementEntry.COLUMN_DELTA + "), "
+            + StockMovementEntry.REASON_ROLLUP + ", MAX(" + StockMovementEntry.COLUMN_CREATED_AT + ") FROM "
+            + StockMovementEntry.TABLE_NAME + " WHERE " + SELECT_OLD_MOVEMENTS
+            + " GROUP BY " + StockMovementEntry.COLUMN_PRODUCT_ID + " HAVING COUNT(*) > 1";
+
+    /**
+     * Delete the old movements that a rollup now stands for: those of the products that just
+     * got a rollup movement, which is newer than the ID bound last.
+     */
+    private static final String SQL_DELETE_ROLLED_UP = "DELETE FROM " + StockMovementEntry.TABLE_NAME
+            + " WHERE " + SELECT_OLD_MOVEMENTS + " AND " + StockMovementEntry._ID + " <= ? AND "
+            + StockMovementEntry.COLUMN_PRODUCT_ID + " IN (SELECT " + StockMovementEntry.COLUMN_PRODUCT_ID
+            + " FROM " + StockMovementEntry.TABLE_NAME + " WHERE " + StockMovementEntry._ID + " > ?)";
+
+    /**
+     * Value of the stock on hand in cents. Price and quantity are both INTEGER columns, so the
+     * sum is computed exactly without any floating point.
+     */
+    private static final String SQL_STOCK_VALUE = "SELECT IFNULL(SUM("
+            + ProductEntry.COLUMN_PRODUCT_PRICE + " * " + ProductEntry.COLUMN_PRODUCT_QUANTITY + "), 0)"
+            + " FROM " + ProductEntry.TABLE_NAME + " WHERE " + ProductEntry.COLUMN_DELETED + " = 0";
+
+    /**
+     * Totals over all products in a single row. The low-stock count takes the threshold as its
+     * argument and is answered from the quantity index.
+     */
+    private static final String SQL_PRODUCT_SUMMARY = "SELECT COUNT(*) AS " + ProductEntry.COLUMN_PRODUCT_COUNT
+            + ", IFNULL(SUM(" + ProductEntry.COLUMN_PRODUCT_QUANTITY + "), 0) AS " + ProductEntry.COLUMN_TOTAL_QUANTITY
+            + ", IFNULL(SUM(" + ProductEntry.COLUMN_PRODUCT_PRICE + " * " + ProductEntry.COLUMN_PRODUCT_QUANTITY
+            + "), 0) AS " + ProductEntry.COLUMN_STOCK_VALUE
+            + ", (SELECT COUNT(*) FROM " + ProductEntry.TABLE_NAME + " WHERE " + ProductEntry.COLUMN_PRODUCT_QUANTITY
+            + " <= ? AND " + ProductEntry.COLUMN_DELETED + " = 0) AS " + ProductEntry.COLUMN_LOW_STOCK_COUNT
+            + " FROM " + ProductEntry.TABLE_NAME + " WHERE " + ProductEntry.COLUMN_DELETED + " = 0";
+
+    /**
+     * Totals per supplier, one row per supplier including those without products. The grouping
+     * reads supplier ID, quantity, price and the deleted flag from the covering
+     * products_supplier_stock_idx index instead of the table.
+     */
+    private static final String SQL_SUPPLIER_SUMMARY = "SELECT s." + SupplierEntry._ID + " AS " + SupplierEntry._ID
+            + ", s." + SupplierEntry.COLUMN_SUPPLIER_NAME + " AS " + SupplierEntry.COLUMN_SUPPLIER_NAME
+            + ", COUNT(p." + ProductEntry._ID + ") AS " + ProductEntry.COLUMN_PRODUCT_COUNT
+            + ", IFNULL(SUM(p." + ProductEntry.COLUMN_PRODUCT_QUANTITY + "), 0) AS " + ProductEntry.COLUMN_TOTAL_QUANTITY
+            + ", IFNULL(SUM(p." + ProductEntry.COLUMN_PRODUCT_PRICE + " * p." + ProductEntry.COLUMN_PRODUCT_QUANTITY
+            + "), 0) AS " + ProductEntry.COLUMN_STOCK_VALUE
+            + " FROM " + SupplierEntry.TABLE_NAME + " s LEFT JOIN " + ProductEntry.TABLE_NAME + " p"
+            + " ON p." + ProductEntry.COLUMN_SUPPLIER_ID + " = s." + SupplierEntry._ID
+            + " AND p." + ProductEntry.COLUMN_DELETED + " = 0"
+            + " GROUP BY s." + SupplierEntry._ID;
+
     /**
      * Database helper object
      */
     private ProductDbHelper mDbHelper;
 
+    /**
+     * Change notifications deferred while the current thread is inside
+     * {@link #applyBatch(ArrayList)}. They are sent once the batch has committed and dropped if it
+     * rolls back, so observers never requery in the middle of a batch or see uncommitted data.
+     */
+    private final ThreadLocal<Set<Uri>> mPendingNotifications = new ThreadLocal<>();
+
+    /**
+     * Recently queried single products. Records are dropped by {@link #notifyChange(Uri)}, which
+     * every write goes through once it has committed.
+     */
+    private final ProductCache mCache = new ProductCache(CACHE_SIZE);
+
+    /**
+     * Latency and row counts of every operation, by URI pattern
+     */
+    private final ProviderMetrics mMetrics = ProviderMetrics.getInstance();
+
+    /**
+     * Compiled statements of the single-product operations, one set per thread
+     */
+    private final ProductStatements.Cache mStatements = new ProductStatements.Cache();
+
     /**
      * Initialize the provider and the database helper object.
      */
@@ -61,22 +313,148 @@ public class ProductProvider extends ContentProvider {
         // ProductDbHelper object to gain access to the products database.
         // Make sure the variable is a global variable, so it can be referenced from other
         // ContentProvider methods.
-        mDbHelper = new ProductDbHelper(getContext());
+        // Its cursors report their window fills to the metrics.
+        mDbHelper = new ProductDbHelper(getContext(), ProductDbHelper.DATABASE_NAME,
+                ProductDbHelper.Tuning.DEFAULT, mMetrics.getCursorFactory());
         return true;
     }
 
     /**
-     * Perform the query for the given URI. Use the given projection, selection, selection arguments, and sort order.
+     * Close the database. Only called when the provider is created outside the system, such as
+     * against a scratch database in tests and benchmarks.
+     */
+    @Override
+    public void shutdown() {
+        // The statements hold on to the database until they are closed
+        mStatements.close();
+        mDbHelper.close();
+    }
+
+    /**
+     * @return the compiled statements of the current thread
+     */
+    private ProductStatements getStatements() {
+        return mStatements.get(mDbHelper.getWritableDatabase());
+    }
+
+    /**
+     * Time the query and count the rows it returns. Rows of database cursors are counted by
+     * {@link MeteredCursor} when the cursor is first filled, which happens after this returns.
      */
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        String match = getMatchName(sUriMatcher.match(uri));
+        long start = System.nanoTime();
+        long rows = 0;
+        mMetrics.setCursorMatch(match);
+        try {
+            Cursor cursor = performQuery(uri, projection, selection, selectionArgs, sortOrder);
+            // Cursors from the cache already hold their rows
+            if (cursor != null && !(cursor instanceof MeteredCursor)) {
+                rows = cursor.getCount();
+            }
+            return cursor;
+        } finally {
+            mMetrics.setCursorMatch(null);
+            mMetrics.record("query " + match, System.nanoTime() - start, rows);
+        }
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues contentValues) {
+        long start = System.nanoTime();
+        Uri result = null;
+        try {
+            result = performInsert(uri, contentValues);
+            return result;
+        } finally {
+            recordWrite("insert", uri, start, result != null ? 1 : 0);
+        }
+    }
+
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        long start = System.nanoTime();
+        int rows = 0;
+        try {
+            rows = performBulkInsert(uri, values);
+            return rows;
+        } finally {
+            recordWrite("bulk_insert", uri, start, rows);
+        }
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
+        long start = System.nanoTime();
+        int rows = 0;
+        try {
+            rows = performUpdate(uri, contentValues, selection, selectionArgs);
+            return rows;
+        } finally {
+            recordWrite("update", uri, start, rows);
+        }
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        long start = System.nanoTime();
+        int rows = 0;
+        try {
+            rows = performDelete(uri, selection, selectionArgs);
+            return rows;
+        } finally {
+            recordWrite("delete", uri, start, rows);
+        }
+    }
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        long start = System.nanoTime();
+        try {
+            return performCall(method, arg, extras);
+        } finally {
+            mMetrics.record("call " + method, System.nanoTime() - start, 0);
+        }
+    }
+
+    /**
+     * Record a write and the number of rows it changed. Failed writes are recorded with no rows.
+     */
+    private void recordWrite(String operation, Uri uri, long start, long rows) {
+        mMetrics.record(operation + " " + getMatchName(sUriMatcher.match(uri)),
+                System.nanoTime() - start, rows);
+    }
+
+    /**
+     * Print the metrics, for
+     * {@code adb shell dumpsys activity provider com.example.android.products/.data.ProductProvider}.
+     * Pass {@code --reset} to drop the samples after printing them.
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        mMetrics.dump(writer);
+        if (args != null && Arrays.asList(args).contains("--reset")) {
+            mMetrics.reset();
+            writer.println("Metrics reset");
+        }
+    }
+
+    /**
+     * Perform the query for the given URI. Use the given projection, selection, selection arguments, and sort order.
+     */
+    private Cursor performQuery(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                                String sortOrder) {
         // Get readable database
         SQLiteDatabase database = mDbHelper.getReadableDatabase();
 
         // This cursor will hold the result of the query
         Cursor cursor;
 
+        // URI whose changes the cursor is refreshed for
+        Uri notificationUri = uri;
+
         // Figure out if the URI matcher can match the URI to a specific code
         int match = sUriMatcher.match(uri);
         switch (match) {
@@ -85,8 +463,13 @@ public class ProductProvider extends ContentProvider {
                 // projection, selection, selection arguments, and sort order. The cursor
                 // could contain multiple rows of the products table.
                 // Perform database query on products table
-                cursor = database.query(ProductEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                String limit = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_LIMIT);
+                if (limit != null) {
+                    cursor = queryPage(database, uri, projection, selection, selectionArgs, limit);
+                } else {
+                    cursor = database.query(ProductEntry.VIEW_NAME, projection, selection, selectionArgs,
+                            null, null, sortOrder);
+                }
                 break;
             case PRODUCT_ID:
                 // For the PRODUCT_ID code, extract out the ID from the URI.
@@ -97,12 +480,109 @@ public class ProductProvider extends ContentProvider {
                 // For every "?" in the selection, we need to have an element in the selection
                 // arguments that will fill in the "?". Since we have 1 question mark in the
                 // selection, we have 1 String in the selection arguments' String array.
-                selection = ProductEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-
+                //
                 // This will perform a query on the pets table where the _id equals 3 to return a
-                // Cursor containing that row of the table.
-                cursor = database.query(ProductEntry.TABLE_NAME, projection, selection, selectionArgs,
+                // Cursor containing that row of the table, unless the product is cached. The
+                // selection is only built on a miss, so cache hits allocate nothing for it.
+                long productId = ContentUris.parseId(uri);
+                cursor = queryProduct(database, productId, projection);
+                if (cursor == null) {
+                    selection = ProductEntry._ID + "=?";
+                    selectionArgs = new String[]{String.valueOf(productId)};
+                    cursor = database.query(ProductEntry.VIEW_NAME, projection, selection, selectionArgs,
+                            null, null, sortOrder);
+                }
+                break;
+            case PRODUCT_SEARCH:
+                cursor = searchProducts(database, uri, projection, selection, selectionArgs);
+                break;
+            case PRODUCT_SUMMARY:
+                cursor = queryAggregate(database, SQL_PRODUCT_SUMMARY,
+                        new String[]{String.valueOf(getLowStockThreshold(uri))},
+                        projection, selection, selectionArgs, sortOrder);
+                // Totals change with any product, including single product updates
+                notificationUri = ProductEntry.CONTENT_URI;
+                break;
+            case PRODUCT_LOW_STOCK:
+                // A range scan of the quantity index
+                selection = DatabaseUtils.concatenateWhere(selection,
+                        ProductEntry.COLUMN_PRODUCT_QUANTITY + " <= ?");
+                selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                        new String[]{String.valueOf(getLowStockThreshold(uri))});
+                if (sortOrder == null) {
+                    sortOrder = ProductEntry.COLUMN_PRODUCT_QUANTITY + ", " + ProductEntry.COLUMN_PRODUCT_NAME
+                            + ", " + ProductEntry._ID;
+                }
+                cursor = database.query(ProductEntry.VIEW_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder, getLimit(uri));
+                notificationUri = ProductEntry.CONTENT_URI;
+                break;
+            case PRODUCT_ROWS:
+                cursor = queryRows(database, uri, projection, selection, selectionArgs, sortOrder);
+                // Any product change can move, add or remove a row
+                notificationUri = ProductEntry.CONTENT_URI;
+                break;
+            case SUPPLIERS:
+                cursor = database.query(SupplierEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                break;
+            case SUPPLIER_SUMMARY:
+                if (sortOrder == null) {
+                    sortOrder = SupplierEntry.COLUMN_SUPPLIER_NAME;
+                }
+                cursor = queryAggregate(database, SQL_SUPPLIER_SUMMARY, null,
+                        projection, selection, selectionArgs, sortOrder);
+                // Totals change with products as well as suppliers
+                notificationUri = ProductContract.BASE_CONTENT_URI;
+                break;
+            case INVENTORY_STATS:
+                cursor = database.query(InventoryStatsEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                notificationUri = ProductContract.BASE_CONTENT_URI;
+                break;
+            case INVENTORY_STATS_SCOPE:
+                // A primary key lookup of counters that triggers keep up to date
+                selection = InventoryStatsEntry.COLUMN_SCOPE_ID + "=?";
+                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+                cursor = database.query(InventoryStatsEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                notificationUri = ProductContract.BASE_CONTENT_URI;
+                break;
+            case SUPPLIER_ID:
+                selection = SupplierEntry._ID + "=?";
+                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+                cursor = database.query(SupplierEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                break;
+            case CHANGES:
+                // Read in batches, in the order the changes were made
+                if (sortOrder == null) {
+                    sortOrder = ChangeEntry._ID;
+                }
+                cursor = database.query(ChangeEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder, getLimit(uri));
+                // Any product change is journaled
+                notificationUri = ProductContract.BASE_CONTENT_URI;
+                break;
+            case PRODUCT_MOVEMENTS:
+                // The product ID is the second path segment, e.g. products/3/movements. Newest
+                // first, which stock_movements_product_idx returns in order.
+                selection = DatabaseUtils.concatenateWhere(selection, StockMovementEntry.COLUMN_PRODUCT_ID + "=?");
+                selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                        new String[]{uri.getPathSegments().get(1)});
+                if (sortOrder == null) {
+                    sortOrder = StockMovementEntry.COLUMN_CREATED_AT + " DESC, " + StockMovementEntry._ID + " DESC";
+                }
+                cursor = database.query(StockMovementEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder, getLimit(uri));
+                // The notifications of the product are sent to its item URI, which covers this one
+                break;
+            case SUPPLIER_PRODUCTS:
+                // The supplier ID is the second path segment, e.g. suppliers/2/products
+                selection = DatabaseUtils.concatenateWhere(selection, ProductEntry.COLUMN_SUPPLIER_ID + "=?");
+                selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                        new String[]{uri.getPathSegments().get(1)});
+                cursor = database.query(ProductEntry.VIEW_NAME, projection, selection, selectionArgs,
                         null, null, sortOrder);
                 break;
             default:
@@ -111,191 +591,1141 @@ public class ProductProvider extends ContentProvider {
         // Set notification URI on the Cursor,
         // so we know what content URI the Cursor was created for.
         // If the data at this URI changes, then we know we need to update the Cursor.
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        cursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
 
         // Return the cursor
         return cursor;
     }
 
     /**
-     * Insert new data into the provider with the given ContentValues.
+     * Open the catalog as a CSV file. The file is a pipe that a background thread fills row by row
+     * from a cursor as the caller reads it, so no copy of the catalog is ever held in memory.
      */
     @Override
-    public Uri insert(Uri uri, ContentValues contentValues) {
-        final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case PRODUCTS:
-                return insertProduct(uri, contentValues);
-            default:
-                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        if (sUriMatcher.match(uri) != PRODUCT_CSV) {
+            throw new FileNotFoundException("No file for " + uri);
+        }
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Only reading is supported for " + uri);
         }
+        return openPipeHelper(uri, ProductCsv.MIME_TYPE, null, null, new PipeDataWriter<Void>() {
+            @Override
+            public void writeDataToPipe(ParcelFileDescriptor output, Uri uri, String mimeType,
+                                        Bundle opts, Void args) {
+                long startTime = SystemClock.elapsedRealtime();
+                final SQLiteDatabase database = mDbHelper.getReadableDatabase();
+                FileOutputStream out = new FileOutputStream(output.getFileDescriptor());
+                try {
+                    long rows = ProductCsv.exportCsv(new ProductCsv.PageSource() {
+                        @Override
+                        public Cursor queryPage(long afterId, int limit) {
+                            // Every page starts from the primary key, so it only reads its own
+                            // rows, unlike a single cursor that has to step past the rows of
+                            // every window before it again when it refills
+                            return database.query(ProductEntry.VIEW_NAME, ProductCsv.PAGE_COLUMNS,
+                                    ProductEntry._ID + " > ?", new String[]{String.valueOf(afterId)},
+                                    null, null, ProductEntry._ID, String.valueOf(limit));
+                        }
+                    }, out, new ProductCsv.ProgressListener() {
+                        @Override
+                        public void onProgress(long rows, long elapsedMillis) {
+                            Log.v(LOG_TAG, "exportCsv: " + rows + " rows in " + elapsedMillis + " ms");
+                        }
+                    });
+                    logThroughput("exportCsv", (int) rows, startTime);
+                } catch (IOException e) {
+                    // Usually the reader closed the pipe before the end
+                    Log.w(LOG_TAG, "CSV export stopped", e);
+                } finally {
+                    try {
+                        out.close();
+                    } catch (IOException e) {
+                        Log.w(LOG_TAG, "Failed to close CSV export", e);
+                    }
+                }
+            }
+        });
     }
 
     /**
-     * Insert a product into the database with the given content values. Return the new content URI
-     * for that specific row in the database.
+     * Run an aggregate query, whose rows are computed inside SQLite, and apply the caller's
+     * projection, selection and sort order to its result.
+     *
+     * @param sql  the aggregate query
+     * @param args arguments of the aggregate query, bound before the selection arguments
      */
-    private Uri insertProduct(Uri uri, ContentValues values) {
-        // Insert a new pet into the pets database table with the given ContentValues
-
-        // Get writeable database
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
-
-        // Insert the new pet with the given values
-        long id = database.insert(ProductEntry.TABLE_NAME, null, values);
+    private static Cursor queryAggregate(SQLiteDatabase database, String sql, String[] args,
+                                         String[] projection, String selection, String[] selectionArgs,
+                                         String sortOrder) {
+        return database.query("(" + sql + ")", projection, selection,
+                DatabaseUtils.appendSelectionArgs(args, selectionArgs), null, null, sortOrder);
+    }
 
-        // If the ID is -1, then the insertion failed. Log an error and return null.
-        if (id == -1) {
-            Log.e(LOG_TAG, "Failed to insert row for " + uri);
-            return null;
+    /**
+     * Return the low-stock threshold given by the URI, or the default threshold.
+     */
+    private static int getLowStockThreshold(Uri uri) {
+        String threshold = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_THRESHOLD);
+        if (threshold == null) {
+            return ProductEntry.DEFAULT_LOW_STOCK_THRESHOLD;
         }
-
-        // Notify all listeners that the data has changed for the pet content URI
-        getContext().getContentResolver().notifyChange(uri, null);
-
-        // Once we know the ID of the new row in the table,
-        // return the new URI with the ID appended to the end of it
-        return ContentUris.withAppendedId(uri, id);
+        if (!TextUtils.isDigitsOnly(threshold) || threshold.length() == 0 || threshold.length() > 9) {
+            throw new IllegalArgumentException("Invalid low stock threshold in " + uri);
+        }
+        return Integer.parseInt(threshold);
     }
 
     /**
-     * Updates the data at the given selection and selection arguments, with the new ContentValues.
+     * Return the row limit given by the URI, or null for no limit.
      */
-    @Override
-    public int update(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
-        final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case PRODUCTS:
-                return updateProduct(uri, contentValues, selection, selectionArgs);
-            case PRODUCT_ID:
-                // For the PRODUCT_ID code, extract out the ID from the URI,
-                // so we know which row to update. Selection will be "_id=?" and selection
-                // arguments will be a String array containing the actual ID.
-                selection = ProductEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                return updateProduct(uri, contentValues, selection, selectionArgs);
-            default:
-                throw new IllegalArgumentException("Update is not supported for " + uri);
+    private static String getLimit(Uri uri) {
+        String limit = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_LIMIT);
+        // Reject anything but a plain row count, since the value ends up in the SQL
+        if (limit != null && (!TextUtils.isDigitsOnly(limit) || limit.length() == 0)) {
+            throw new IllegalArgumentException("Invalid limit in " + uri);
         }
+        return limit;
     }
 
     /**
-     * Update products in the database with the given content values. Apply the changes to the rows
-     * specified in the selection and selection arguments (which could be 0 or 1 or more products).
-     * Return the number of rows that were successfully updated.
+     * Query a single product through {@link #mCache}, reading and caching its record on a miss.
+     * Return null if the projection asks for columns that aren't cached.
      */
-    private int updateProduct(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        boolean emptyFields = false;
-        // Update the selected products in the products database table with the given ContentValues
-        // If the {@link ProductEntry#COLUMN_PRODUCT_NAME} key is present,
-        // check that the name value is not null.
-        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_NAME)) {
-            String name = values.getAsString(ProductEntry.COLUMN_PRODUCT_NAME);
-            if (TextUtils.isEmpty(name)) {
-                emptyFields = true;
-            }
+    private Cursor queryProduct(SQLiteDatabase database, long id, String[] projection) {
+        int[] positions = ProductCache.mapProjection(projection);
+        if (positions == null) {
+            return null;
         }
 
-        // If the {@link ProductEntry#COLUMN_PRODUCT_PRICE} key is present,
-        // check that the name value is not null.
-        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_PRICE)) {
-            String price = values.getAsString(ProductEntry.COLUMN_PRODUCT_PRICE);
-            if (TextUtils.isEmpty(price)) {
-                emptyFields = true;
+        Object[] record = mCache.get(id);
+        if (record == null) {
+            int generation = mCache.getGeneration();
+            record = ProductCache.load(database, id);
+            // Inside a batch the record may include writes that are later rolled back
+            if (record != null && mPendingNotifications.get() == null) {
+                mCache.put(id, record, generation);
             }
         }
+        return ProductCache.toCursor(record, projection, positions);
+    }
 
-        // If the {@link ProductEntry#COLUMN_PRODUCT_QUANTITY} key is present,
-        // check that the name value is not null and positive.
-        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_QUANTITY)) {
-            String quantity = values.getAsString(ProductEntry.COLUMN_PRODUCT_QUANTITY);
-            if (TextUtils.isEmpty(quantity)) {
-                emptyFields = true;
-            }
+    /**
+     * Query one keyset-paginated page of products. Instead of skipping rows with an OFFSET, the
+     * page starts right after the (name, ID) or ID of the last row of the previous page, so every
+     * page is a bounded index range scan no matter how deep into the table it is.
+     */
+    private Cursor queryPage(SQLiteDatabase database, Uri uri, String[] projection, String selection,
+                             String[] selectionArgs, String limit) {
+        // Reject anything but a plain row count, since the value ends up in the SQL
+        if (!TextUtils.isDigitsOnly(limit) || limit.length() == 0) {
+            throw new IllegalArgumentException("Invalid page limit in " + uri);
         }
 
-        // If the {@link ProductEntry#COLUMN_SUPPLIER_NAME} key is present,
-        // check that the name value is not null.
-        if (values.containsKey(ProductEntry.COLUMN_SUPPLIER_NAME)) {
-            String supplierName = values.getAsString(ProductEntry.COLUMN_SUPPLIER_NAME);
-            if (TextUtils.isEmpty(supplierName)) {
-                emptyFields = true;
+        String afterName = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_AFTER_NAME);
+        String afterId = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_AFTER_ID);
+        String sortOrder;
+
+        if (afterName != null) {
+            if (afterId == null) {
+                throw new IllegalArgumentException("Paging by name also requires an ID in " + uri);
             }
+            // Rows that sort after (afterName, afterId)
+            selection = DatabaseUtils.concatenateWhere(selection,
+                    ProductEntry.COLUMN_PRODUCT_NAME + " > ? OR (" + ProductEntry.COLUMN_PRODUCT_NAME
+                            + " = ? AND " + ProductEntry._ID + " > ?)");
+            selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                    new String[]{afterName, afterName, afterId});
+            sortOrder = ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry._ID;
+        } else if (afterId != null) {
+            selection = DatabaseUtils.concatenateWhere(selection, ProductEntry._ID + " > ?");
+            selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs, new String[]{afterId});
+            sortOrder = ProductEntry._ID;
+        } else {
+            // First page of the name ordering
+            sortOrder = ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry._ID;
         }
 
-        // If the {@link ProductEntry#COLUMN_SUPPLIER_PHONE} key is present,
-        // check that the name value is not null.
-        if (values.containsKey(ProductEntry.COLUMN_SUPPlIER_PHONE)) {
-            String supplierPhone = values.getAsString(ProductEntry.COLUMN_SUPPlIER_PHONE);
-            if (TextUtils.isEmpty(supplierPhone)) {
-                emptyFields = true;
+        return database.query(ProductEntry.VIEW_NAME, projection, selection, selectionArgs,
+                null, null, sortOrder, limit);
+    }
+
+    /**
+     * Query catalog list rows in name order. Everything is read from the covering
+     * products_catalog_row_idx index, which holds the deleted flag, name, ID and quantity, so the
+     * table itself is never touched. A page continues after the (name, ID) of the row given by
+     * {@link ProductEntry#QUERY_PARAMETER_AFTER_ID}, whose full name is looked up by ID, since the
+     * caller only has its display name. If that row was purged in the meantime, the page is empty.
+     * A page before the row given by {@link ProductEntry#QUERY_PARAMETER_BEFORE_ID} is the same
+     * range scan run backwards, so its rows come in reverse order.
+     */
+    private static Cursor queryRows(SQLiteDatabase database, Uri uri, String[] projection, String selection,
+                                    String[] selectionArgs, String sortOrder) {
+        String limit = getLimit(uri);
+        String afterId = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_AFTER_ID);
+        String beforeId = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_BEFORE_ID);
+
+        StringBuilder sql = new StringBuilder(SQL_CATALOG_ROWS);
+        String[] args = null;
+        String direction = "";
+        if (afterId != null || beforeId != null) {
+            String rowId = afterId != null ? afterId : beforeId;
+            if (!TextUtils.isDigitsOnly(rowId) || rowId.length() == 0) {
+                throw new IllegalArgumentException("Invalid row ID in " + uri);
+            }
+            // The name bound is a range on the index, the ID only breaks ties between equal names
+            String from = afterId != null ? " >" : " <";
+            sql.append(" AND ").append(ProductEntry.COLUMN_PRODUCT_NAME).append(from).append("= ").append(SQL_NAME_OF_ROW)
+                    .append(" AND (").append(ProductEntry.COLUMN_PRODUCT_NAME).append(from).append(' ').append(SQL_NAME_OF_ROW)
+                    .append(" OR ").append(ProductEntry._ID).append(from).append(" ?)");
+            args = new String[]{rowId, rowId, rowId};
+            if (afterId == null) {
+                direction = " DESC";
             }
         }
+        sql.append(" ORDER BY ").append(ProductEntry.COLUMN_PRODUCT_NAME).append(direction)
+                .append(", ").append(ProductEntry._ID).append(direction);
+        if (limit != null) {
+            sql.append(" LIMIT ").append(limit);
+        }
+        return queryAggregate(database, sql.toString(), args, projection, selection, selectionArgs, sortOrder);
+    }
 
-        // Return the number of rows that were affected
-        // If there are no values to update, then don't try to update the database
-        if (values.size() == 0) {
-            return 0;
+    /**
+     * Search product and supplier names through the full-text index. Every word of the query is
+     * matched as a prefix. Products whose name starts with the first word come first, then other
+     * name matches, then products that only match on the supplier.
+     */
+    private Cursor searchProducts(SQLiteDatabase database, Uri uri, String[] projection,
+                                  String selection, String[] selectionArgs) {
+        String limit = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_LIMIT);
+        if (limit == null) {
+            limit = DEFAULT_SEARCH_LIMIT;
+        } else if (!TextUtils.isDigitsOnly(limit) || limit.length() == 0) {
+            throw new IllegalArgumentException("Invalid search limit in " + uri);
         }
 
+        // Keep only letters and digits, so user input can't form FTS query syntax
+        String query = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_QUERY);
+        String[] words = query == null ? new String[0] : query.trim().split("[^\\p{L}\\p{N}]+");
+        StringBuilder match = new StringBuilder();
+        for (String word : words) {
+            if (word.length() > 0) {
+                match.append(match.length() > 0 ? " " : "").append(word).append('*');
+            }
+        }
+        if (match.length() == 0) {
+            // Nothing to search for, so return an empty cursor with the requested columns
+            return database.query(ProductEntry.VIEW_NAME, projection, "0", null,
+                    null, null, null);
+        }
+        String firstWord = match.substring(0, match.indexOf("*"));
 
-        if (emptyFields) {
-            Toast.makeText(getContext(), "Please make sure all fields are filled.", Toast.LENGTH_LONG).show();
-        } else {
-            // Otherwise, get writeable database to update the data
-            SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        selection = DatabaseUtils.concatenateWhere(selection, ProductEntry._ID + " IN (SELECT docid FROM "
+                + ProductEntry.FTS_TABLE_NAME + " WHERE " + ProductEntry.FTS_TABLE_NAME + " MATCH ?)");
+        selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs, new String[]{match.toString()});
 
-            // Perform the update on the database and get the number of rows affected
-            int rowsUpdated = database.update(ProductEntry.TABLE_NAME, values, selection, selectionArgs);
+        // Rank with literals rather than arguments, since arguments bind in order of appearance
+        String sortOrder = "CASE WHEN " + ProductEntry.COLUMN_PRODUCT_NAME + " LIKE "
+                + DatabaseUtils.sqlEscapeString(firstWord + "%")
+                + " THEN 0 WHEN " + ProductEntry._ID + " IN (SELECT docid FROM " + ProductEntry.FTS_TABLE_NAME
+                + " WHERE " + ProductEntry.COLUMN_PRODUCT_NAME + " MATCH "
+                + DatabaseUtils.sqlEscapeString(match.toString()) + ") THEN 1 ELSE 2 END, "
+                + ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry._ID;
 
-            // If 1 or more rows were updated, then notify all listeners that the data at the
-            // given URI has changed
-            if (rowsUpdated != 0) {
-                getContext().getContentResolver().notifyChange(uri, null);
-            }
+        return database.query(ProductEntry.VIEW_NAME, projection, selection, selectionArgs,
+                null, null, sortOrder, limit);
+    }
 
-            // Return the number of rows updated
-            return rowsUpdated;
+    /**
+     * Insert new data into the provider with the given ContentValues.
+     */
+    private Uri performInsert(Uri uri, ContentValues contentValues) {
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
+            case PRODUCTS:
+                return insertProduct(uri, contentValues);
+            case SUPPLIERS:
+                return insertSupplier(contentValues);
+            default:
+                throw new IllegalArgumentException("Insertion is not supported for " + uri);
         }
-        return 0;
     }
 
     /**
-     * Delete the data at the given selection and selection arguments.
+     * Insert a product into the database with the given content values. Return the new content URI
+     * for that specific row in the database. Throws {@link InvalidProductException} if the values
+     * fail validation.
      */
-    @Override
-    public int delete(Uri uri, String selection, String[] selectionArgs) {
+    private Uri insertProduct(Uri uri, ContentValues values) {
+        // Reject the product if any of the values is missing or invalid
+        int error = ProductValidator.validateInsert(values);
+        if (error != ProductValidator.VALID) {
+            throw new InvalidProductException(error);
+        }
+
         // Get writeable database
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
-        // Track the number of rows that were deleted
-        int rowsDeleted;
+        // Link the product to its supplier and insert it together, so a failed insert doesn't
+        // leave a new supplier behind
+        long id;
+        ProductStatements statements = getStatements();
+        SupplierIds supplierIds = new SupplierIds(statements);
+        database.beginTransaction();
+        try {
+            values = supplierIds.resolve(values);
 
-        final int match = sUriMatcher.match(uri);
+            // Insert the new pet with the given values, through the compiled statement unless
+            // the values hold columns it doesn't bind
+            if (ProductStatements.canInsert(values)) {
+                id = statements.insertProduct(values);
+            } else {
+                id = database.insert(ProductEntry.TABLE_NAME, null, values);
+            }
+            if (id != -1) {
+                database.setTransactionSuccessful();
+            }
+        } finally {
+            database.endTransaction();
+        }
+
+        // If the ID is -1, then the insertion failed. Log an error and return null.
+        if (id == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+
+        // A new row can land on any page of the catalog, so notify listeners of the whole table
+        notifyChange(ProductEntry.CONTENT_URI);
+        if (supplierIds.hasInserted()) {
+            notifyChange(SupplierEntry.CONTENT_URI);
+        }
+
+        // Once we know the ID of the new row in the table,
+        // return the new URI with the ID appended to the end of it
+        return ContentUris.withAppendedId(uri, id);
+    }
+
+    /**
+     * Insert a supplier, or find the existing supplier with the same name and phone number.
+     * Return the content URI of the supplier.
+     */
+    private Uri insertSupplier(ContentValues values) {
+        String name = values.getAsString(SupplierEntry.COLUMN_SUPPLIER_NAME);
+        String phone = values.getAsString(SupplierEntry.COLUMN_SUPPLIER_PHONE);
+        if (TextUtils.isEmpty(name)) {
+            throw new InvalidProductException(ProductValidator.ERROR_SUPPLIER_REQUIRED);
+        }
+        if (TextUtils.isEmpty(phone)) {
+            throw new InvalidProductException(ProductValidator.ERROR_PHONE_REQUIRED);
+        }
+
+        SupplierIds supplierIds = new SupplierIds(getStatements());
+        long id = supplierIds.getOrInsert(name, phone);
+
+        if (supplierIds.hasInserted()) {
+            notifyChange(SupplierEntry.CONTENT_URI);
+        }
+        return ContentUris.withAppendedId(SupplierEntry.CONTENT_URI, id);
+    }
+
+    /**
+     * Insert all of the given rows inside a single database transaction, reusing the compiled
+     * insert statement, and send a single change notification once the batch has committed.
+     * Return the number of rows inserted.
+     */
+    private int performBulkInsert(Uri uri, ContentValues[] values) {
+        final int match = sUriMatcher.match(uri);
+        if (match != PRODUCTS) {
+            throw new IllegalArgumentException("Bulk insertion is not supported for " + uri);
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        long startTime = SystemClock.elapsedRealtime();
+        int rowsInserted = 0;
+
+        ProductStatements statements = getStatements();
+        SupplierIds supplierIds = new SupplierIds(statements);
+        database.beginTransaction();
+        try {
+            for (ContentValues row : values) {
+                // An invalid row rolls back the whole batch
+                int error = ProductValidator.validateInsert(row);
+                if (error != ProductValidator.VALID) {
+                    throw new InvalidProductException(error);
+                }
+                row = supplierIds.resolve(row);
+
+                if (statements.insertProduct(row) != -1) {
+                    rowsInserted++;
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        logThroughput("bulkInsert", rowsInserted, startTime);
+
+        // The caller notifies once after its last batch. New rows can't make cached products
+        // stale, so the cache is left alone too.
+        if ("false".equals(uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_NOTIFY))) {
+            return rowsInserted;
+        }
+
+        // One notification for the whole batch instead of one per row
+        if (rowsInserted != 0) {
+            notifyChange(ProductEntry.CONTENT_URI);
+        }
+        if (supplierIds.hasInserted()) {
+            notifyChange(SupplierEntry.CONTENT_URI);
+        }
+        return rowsInserted;
+    }
+
+    /**
+     * Apply all of the given operations inside a single database transaction. Either every
+     * operation is applied or none are. Change notifications are deferred until the commit and
+     * coalesced, so each affected URI is notified once.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        long startTime = SystemClock.elapsedRealtime();
+        ContentProviderResult[] results;
+
+        Set<Uri> pending = new LinkedHashSet<>();
+        mPendingNotifications.set(pending);
+        database.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            mPendingNotifications.remove();
+        }
+
+        logThroughput("applyBatch", operations.size(), startTime);
+
+        // The batch committed, so send the notifications collected while applying it
+        boolean allProducts = pending.contains(ProductEntry.CONTENT_URI);
+        for (Uri uri : pending) {
+            // A notification for the table also reaches observers of every single product
+            if (!allProducts || sUriMatcher.match(uri) != PRODUCT_ID) {
+                notifyChange(uri);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Handle the provider-specific methods declared in {@link ProductEntry}.
+     */
+    private Bundle performCall(String method, String arg, Bundle extras) {
+        if (ProductEntry.METHOD_SELL.equals(method)) {
+            int[] amounts = extras != null ? extras.getIntArray(ProductEntry.EXTRA_AMOUNTS) : null;
+            if (amounts == null) {
+                amounts = new int[]{extras != null ? extras.getInt(ProductEntry.EXTRA_AMOUNT, 1) : 1};
+            } else if (amounts.length == 0) {
+                throw new IllegalArgumentException("No amounts to sell");
+            }
+            int[] deltas = new int[amounts.length];
+            for (int i = 0; i < amounts.length; i++) {
+                if (amounts[i] <= 0) {
+                    throw new IllegalArgumentException("Sell amount must be positive: " + amounts[i]);
+                }
+                deltas[i] = -amounts[i];
+            }
+            return adjustQuantity(Long.parseLong(arg), deltas, StockMovementEntry.REASON_SALE);
+        }
+        if (ProductEntry.METHOD_ADJUST_QUANTITY.equals(method)) {
+            int[] deltas = extras != null ? extras.getIntArray(ProductEntry.EXTRA_DELTAS) : null;
+            if (deltas == null) {
+                deltas = new int[]{extras != null ? extras.getInt(ProductEntry.EXTRA_DELTA, 0) : 0};
+            } else if (deltas.length == 0) {
+                throw new IllegalArgumentException("No deltas to apply");
+            }
+            return adjustQuantity(Long.parseLong(arg), deltas, StockMovementEntry.REASON_ADJUSTMENT);
+        }
+        if (ProductEntry.METHOD_STOCK_VALUE.equals(method)) {
+            return stockValue(arg);
+        }
+        if (ProductEntry.METHOD_CACHE_STATS.equals(method)) {
+            return mCache.getStats();
+        }
+        if (ProductEntry.METHOD_METRICS.equals(method)) {
+            return mMetrics.toBundle();
+        }
+        if (ProductEntry.METHOD_RESET_METRICS.equals(method)) {
+            mMetrics.reset();
+            return null;
+        }
+        if (ProductEntry.METHOD_WRITE_SNAPSHOT.equals(method)) {
+            return writeSnapshot(getFileDescriptor(extras),
+                    extras.getBoolean(ProductEntry.EXTRA_COMPRESS, false));
+        }
+        if (ProductEntry.METHOD_RESTORE_SNAPSHOT.equals(method)) {
+            return restoreSnapshot(getFileDescriptor(extras));
+        }
+        if (ProductEntry.METHOD_PURGE_DELETED.equals(method)) {
+            return purgeDeleted(getCallLimit(extras));
+        }
+        if (ProductEntry.METHOD_VACUUM.equals(method)) {
+            return vacuum(getCallLimit(extras));
+        }
+        if (StockMovementEntry.METHOD_ROLLUP_MOVEMENTS.equals(method)) {
+            long before = extras != null ? extras.getLong(StockMovementEntry.EXTRA_BEFORE, 0) : 0;
+            if (before <= 0) {
+                before = System.currentTimeMillis() - StockMovementEntry.DEFAULT_ROLLUP_AGE_MILLIS;
+            }
+            return rollupMovements(arg != null ? Long.parseLong(arg) : 0, getCallLimit(extras), before);
+        }
+        if (ChangeEntry.METHOD_SYNC_STATE.equals(method)) {
+            return syncState();
+        }
+        if (ChangeEntry.METHOD_ACKNOWLEDGE_CHANGES.equals(method)) {
+            acknowledgeChanges(Long.parseLong(arg));
+            return null;
+        }
+        if (ChangeEntry.METHOD_APPLY_REMOTE_CHANGES.equals(method)) {
+            return applyRemoteChanges(extras);
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Return the {@link ProductEntry#EXTRA_LIMIT} of a compaction call.
+     */
+    private static int getCallLimit(Bundle extras) {
+        int limit = extras != null ? extras.getInt(ProductEntry.EXTRA_LIMIT, 0) : 0;
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Limit must be positive: " + limit);
+        }
+        return limit;
+    }
+
+    /**
+     * Delete up to {@code limit} tombstoned products for good, in a transaction of its own so
+     * other writers only wait for one chunk. The products already disappeared from every query
+     * when they were deleted, so nobody is notified. Return a bundle with the number purged.
+     */
+    private Bundle purgeDeleted(int limit) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        long startTime = SystemClock.elapsedRealtime();
+        int purged;
+
+        SQLiteStatement purge = database.compileStatement(SQL_PURGE_DELETED);
+        database.beginTransaction();
+        try {
+            purge.bindLong(1, limit);
+            purged = purge.executeUpdateDelete();
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            purge.close();
+        }
+        logThroughput("purgeDeleted", purged, startTime);
+
+        Bundle result = new Bundle();
+        result.putLong(ProductEntry.EXTRA_ROW_COUNT, purged);
+        return result;
+    }
+
+    /**
+     * Fold the movements made before {@code before} into one rollup movement per product, for up
+     * to {@code limit} products after {@code afterId}, in a transaction of its own so other
+     * writers only wait for one chunk. The sum of the movements of every product stays the same,
+     * so nobody is notified. Return a bundle with the last product of the chunk, or 0 if there
+     * were none, and the number of movements removed.
+     */
+    private Bundle rollupMovements(long afterId, int limit, long before) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        long startTime = SystemClock.elapsedRealtime();
+        long lastId = 0;
+        int removed = 0;
+
+        database.beginTransaction();
+        try {
+            String end = DatabaseUtils.stringForQuery(database, SQL_ROLLUP_CHUNK_END,
+                    new String[]{String.valueOf(afterId), String.valueOf(limit)});
+            if (end != null) {
+                lastId = Long.parseLong(end);
+                long lastMovement = DatabaseUtils.longForQuery(database, SQL_LAST_MOVEMENT, null);
+
+                SQLiteStatement insert = database.compileStatement(SQL_INSERT_ROLLUPS);
+                SQLiteStatement delete = database.compileStatement(SQL_DELETE_ROLLED_UP);
+                try {
+                    insert.bindLong(1, afterId);
+                    insert.bindLong(2, lastId);
+                    insert.bindLong(3, before);
+                    int rollups = insert.executeUpdateDelete();
+
+                    delete.bindLong(1, afterId);
+                    delete.bindLong(2, lastId);
+                    delete.bindLong(3, before);
+                    delete.bindLong(4, lastMovement);
+                    delete.bindLong(5, lastMovement);
+                    removed = delete.executeUpdateDelete() - rollups;
+                } finally {
+                    insert.close();
+                    delete.close();
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        logThroughput("rollupMovements", removed, startTime);
+
+        Bundle result = new Bundle();
+        result.putLong(StockMovementEntry.EXTRA_LAST_PRODUCT_ID, lastId);
+        result.putLong(StockMovementEntry.EXTRA_MOVEMENT_COUNT, removed);
+        return result;
+    }
+
+    /**
+     * Return up to {@code limit} free pages to the file system with an incremental vacuum. New
+     * databases have incremental vacuum from the start, see {@link ProductDbHelper}. A database
+     * created before compaction existed has auto_vacuum off, and switching it on takes a full
+     * VACUUM that rewrites the file once, which also frees every page. Must not be called inside
+     * a transaction. Return a bundle with the number of pages still free.
+     */
+    private Bundle vacuum(int limit) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        long startTime = SystemClock.elapsedRealtime();
+
+        if (DatabaseUtils.longForQuery(database, "PRAGMA auto_vacuum", null) != AUTO_VACUUM_INCREMENTAL) {
+            database.execSQL("PRAGMA auto_vacuum = " + AUTO_VACUUM_INCREMENTAL);
+            database.execSQL("VACUUM");
+            Log.i(LOG_TAG, "vacuum: enabled incremental vacuum in "
+                    + (SystemClock.elapsedRealtime() - startTime) + " ms");
+        } else {
+            // The pragma frees one page per (empty) result row, so it has to be stepped through
+            // to the end. execSQL() would only take the first step.
+            Cursor cursor = database.rawQuery("PRAGMA incremental_vacuum(" + limit + ")", null);
+            try {
+                while (cursor.moveToNext()) {
+                    // Nothing to read
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        long freePages = DatabaseUtils.longForQuery(database, "PRAGMA freelist_count", null);
+        Log.i(LOG_TAG, "vacuum: " + freePages + " pages still free after "
+                + (SystemClock.elapsedRealtime() - startTime) + " ms");
+
+        Bundle result = new Bundle();
+        result.putLong(ProductEntry.EXTRA_PAGE_COUNT, freePages);
+        return result;
+    }
+
+    /**
+     * Return a bundle with the device ID and the progress of the sync in both directions.
+     */
+    private Bundle syncState() {
+        Cursor cursor = mDbHelper.getReadableDatabase().query(ChangeEntry.SYNC_STATE_TABLE_NAME,
+                new String[]{ChangeEntry.COLUMN_DEVICE_ID, ChangeEntry.COLUMN_LAST_PUSHED,
+                        ChangeEntry.COLUMN_LAST_PULLED}, null, null, null, null, null);
+        try {
+            cursor.moveToFirst();
+            Bundle result = new Bundle();
+            result.putString(ChangeEntry.EXTRA_DEVICE_ID, cursor.getString(0));
+            result.putLong(ChangeEntry.EXTRA_LAST_PUSHED, cursor.getLong(1));
+            result.putLong(ChangeEntry.EXTRA_LAST_PULLED, cursor.getLong(2));
+            return result;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Record that the server has received every change up to the given sequence number, and
+     * drop those changes from the journal. Sequence numbers are never reused, so later changes
+     * still number on from there. Remote changes are resolved against the change times kept on
+     * the products, so dropping the journal rows loses nothing they need.
+     */
+    private void acknowledgeChanges(long sequence) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        database.beginTransaction();
+        try {
+            database.execSQL("UPDATE " + ChangeEntry.SYNC_STATE_TABLE_NAME + " SET "
+                    + ChangeEntry.COLUMN_LAST_PUSHED + " = MAX(" + ChangeEntry.COLUMN_LAST_PUSHED + ", ?)",
+                    new Object[]{sequence});
+            database.delete(ChangeEntry.TABLE_NAME, ChangeEntry._ID + " <= ?",
+                    new String[]{String.valueOf(sequence)});
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Apply a batch of changes made on other devices, and record the server version they bring
+     * the catalog to, in one transaction so a batch is never applied twice. The changes are not
+     * journaled. Return a bundle with the number of changes that had an effect.
+     */
+    private Bundle applyRemoteChanges(Bundle extras) {
+        Parcelable[] changes = extras != null ? extras.getParcelableArray(ChangeEntry.EXTRA_CHANGES) : null;
+        long version = extras != null ? extras.getLong(ChangeEntry.EXTRA_LAST_PULLED, -1) : -1;
+        if (changes == null || version < 0) {
+            throw new IllegalArgumentException("Remote changes require changes and a version");
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        long startTime = SystemClock.elapsedRealtime();
+        int applied = 0;
+
+        SupplierIds supplierIds = new SupplierIds(getStatements());
+        RemoteChanges remoteChanges = new RemoteChanges(database, supplierIds);
+        database.beginTransaction();
+        try {
+            ContentValues state = new ContentValues();
+            state.put(ChangeEntry.COLUMN_APPLYING_REMOTE, 1);
+            database.update(ChangeEntry.SYNC_STATE_TABLE_NAME, state, null, null);
+
+            for (Parcelable change : changes) {
+                if (remoteChanges.apply((ContentValues) change)) {
+                    applied++;
+                }
+            }
+
+            state.put(ChangeEntry.COLUMN_APPLYING_REMOTE, 0);
+            state.put(ChangeEntry.COLUMN_LAST_PULLED, version);
+            database.update(ChangeEntry.SYNC_STATE_TABLE_NAME, state, null, null);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            remoteChanges.close();
+        }
+
+        logThroughput("applyRemoteChanges", applied, startTime);
+        if (applied != 0) {
+            notifyChange(ProductEntry.CONTENT_URI);
+            // Remote deletes leave tombstones too
+            ProductCompaction.schedule(getContext());
+        }
+        if (supplierIds.hasInserted()) {
+            notifyChange(SupplierEntry.CONTENT_URI);
+        }
+
+        Bundle result = new Bundle();
+        result.putInt(ChangeEntry.EXTRA_CHANGE_COUNT, applied);
+        return result;
+    }
+
+    /**
+     * Return the {@link ProductEntry#EXTRA_FILE_DESCRIPTOR} of a snapshot call.
+     */
+    private static ParcelFileDescriptor getFileDescriptor(Bundle extras) {
+        ParcelFileDescriptor fd = extras != null
+                ? (ParcelFileDescriptor) extras.getParcelable(ProductEntry.EXTRA_FILE_DESCRIPTOR) : null;
+        if (fd == null) {
+            throw new IllegalArgumentException("Snapshot requires a file descriptor");
+        }
+        return fd;
+    }
+
+    /**
+     * Write a snapshot of the catalog to the file and return a bundle with the number of
+     * products written. The file descriptor stays open, it belongs to the caller.
+     */
+    private Bundle writeSnapshot(ParcelFileDescriptor fd, boolean compress) {
+        long startTime = SystemClock.elapsedRealtime();
+        FileOutputStream out = new FileOutputStream(fd.getFileDescriptor());
+        long rows;
+        try {
+            rows = ProductSnapshot.write(mDbHelper.getWritableDatabase(), out.getChannel(), compress);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to write snapshot", e);
+        }
+        logThroughput("writeSnapshot", (int) rows, startTime);
+
+        Bundle result = new Bundle();
+        result.putLong(ProductEntry.EXTRA_ROW_COUNT, rows);
+        return result;
+    }
+
+    /**
+     * Replace the catalog with the snapshot in the file and return a bundle with the number of
+     * products restored. Nothing changes if the snapshot is not valid.
+     */
+    private Bundle restoreSnapshot(ParcelFileDescriptor fd) {
+        long startTime = SystemClock.elapsedRealtime();
+        FileInputStream in = new FileInputStream(fd.getFileDescriptor());
+        long rows;
+        try {
+            rows = ProductSnapshot.restore(mDbHelper, in.getChannel());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Failed to restore snapshot", e);
+        }
+        logThroughput("restoreSnapshot", (int) rows, startTime);
+
+        // Every product and supplier may have changed
+        notifyChange(ProductEntry.CONTENT_URI);
+        notifyChange(SupplierEntry.CONTENT_URI);
+
+        Bundle result = new Bundle();
+        result.putLong(ProductEntry.EXTRA_ROW_COUNT, rows);
+        return result;
+    }
+
+    /**
+     * Return a bundle with the value of the stock on hand in cents, for a single supplier or for
+     * all products if the supplier is null.
+     */
+    private Bundle stockValue(String supplier) {
+        SQLiteDatabase database = mDbHelper.getReadableDatabase();
+        long valueCents;
+        if (supplier == null) {
+            valueCents = DatabaseUtils.longForQuery(database, SQL_STOCK_VALUE, null);
+        } else {
+            valueCents = DatabaseUtils.longForQuery(database,
+                    SQL_STOCK_VALUE + " AND " + ProductEntry.COLUMN_SUPPLIER_ID + " IN (SELECT "
+                            + SupplierEntry._ID + " FROM " + SupplierEntry.TABLE_NAME
+                            + " WHERE " + SupplierEntry.COLUMN_SUPPLIER_NAME + " = ?)",
+                    new String[]{supplier});
+        }
+
+        Bundle result = new Bundle();
+        result.putLong(ProductEntry.EXTRA_VALUE_CENTS, valueCents);
+        return result;
+    }
+
+    /**
+     * Change the quantity of a product by each of the given deltas in turn, each with a single
+     * conditional UPDATE, so concurrent sales and restocks cannot overwrite each other and the
+     * quantity never goes below zero. A delta that would is skipped without affecting the others,
+     * so the outcome is the same as passing the deltas one call at a time. The stock movements
+     * the triggers add are recorded with the given reason, which is set for the transaction only.
+     * Return a bundle with the quantity after each delta, or -1 where there was not enough stock,
+     * and the quantity after the last one.
+     */
+    private Bundle adjustQuantity(long id, int[] deltas, int reason) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        long[] quantities = new long[deltas.length];
+        boolean changed = false;
+
+        ProductStatements statements = getStatements();
+        database.beginTransaction();
+        try {
+            statements.setMovementReason(reason);
+            for (int i = 0; i < deltas.length; i++) {
+                if (statements.adjustQuantity(id, deltas[i]) == 1) {
+                    quantities[i] = statements.queryQuantity(id);
+                    changed |= deltas[i] != 0;
+                } else {
+                    quantities[i] = -1;
+                }
+            }
+            // Every other quantity change is an edit. If anything above failed, the rollback
+            // restores it instead.
+            statements.setMovementReason(StockMovementEntry.REASON_EDIT);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        if (changed) {
+            notifyChange(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id));
+        }
+
+        Bundle result = new Bundle();
+        result.putLongArray(ProductEntry.EXTRA_QUANTITIES, quantities);
+        result.putLong(ProductEntry.EXTRA_QUANTITY, quantities[quantities.length - 1]);
+        return result;
+    }
+
+    /**
+     * Log how many rows per second a batch operation achieved, so batched writes can be compared
+     * against the per-row insert path.
+     */
+    private static void logThroughput(String operation, int rows, long startTime) {
+        long elapsed = SystemClock.elapsedRealtime() - startTime;
+        long rowsPerSecond = elapsed > 0 ? rows * 1000L / elapsed : rows * 1000L;
+        Log.i(LOG_TAG, operation + ": " + rows + " rows in " + elapsed + " ms (" + rowsPerSecond + " rows/s)");
+    }
+
+    /**
+     * Notify observers that the data at the given URI has changed. Use the item URI when a single
+     * product changed, so observers of other products and pages don't requery, and
+     * {@link ProductEntry#CONTENT_URI} when several rows or the order of the rows changed. If the
+     * current thread is applying a batch, the notification is deferred until it commits.
+     * <p>
+     * Cached products are dropped here too, after the change has committed, so a concurrent query
+     * can't cache the data from before the change.
+     */
+    private void notifyChange(Uri uri) {
+        Set<Uri> pending = mPendingNotifications.get();
+        if (pending != null) {
+            pending.add(uri);
+            return;
+        }
+        int match = sUriMatcher.match(uri);
+        if (match == PRODUCT_ID) {
+            mCache.remove(ContentUris.parseId(uri));
+        } else {
+            mCache.clear();
+        }
+        mMetrics.count("notify " + getMatchName(match));
+        getContext().getContentResolver().notifyChange(uri, null);
+    }
+
+    /**
+     * Updates the data at the given selection and selection arguments, with the new ContentValues.
+     */
+    private int performUpdate(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
+            case PRODUCTS:
+                return updateProduct(ProductEntry.CONTENT_URI, contentValues,
+                        selectProductsFromView(selection), selectionArgs, -1);
+            case PRODUCT_ID:
+                // For the PRODUCT_ID code, extract out the ID from the URI,
+                // so we know which row to update. Selection will be "_id=?", unless the product
+                // was deleted, and selection arguments will be a String array containing the actual ID.
+                long id = ContentUris.parseId(uri);
+                selection = SELECT_LIVE_PRODUCT;
+                selectionArgs = new String[]{String.valueOf(id)};
+
+                // Only a renamed product moves within the catalog, which is sorted by name.
+                // Any other edit only needs to reach observers of this one product.
+                Uri notifyUri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id);
+                if (contentValues.containsKey(ProductEntry.COLUMN_PRODUCT_NAME) && !TextUtils.equals(
+                        getStatements().queryName(id), contentValues.getAsString(ProductEntry.COLUMN_PRODUCT_NAME))) {
+                    notifyUri = ProductEntry.CONTENT_URI;
+                }
+                return updateProduct(notifyUri, contentValues, selection, selectionArgs, id);
+            case SUPPLIERS:
+                return updateSupplier(contentValues, selection, selectionArgs);
+            case SUPPLIER_ID:
+                selection = SupplierEntry._ID + "=?";
+                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+                return updateSupplier(contentValues, selection, selectionArgs);
+            default:
+                throw new IllegalArgumentException("Update is not supported for " + uri);
+        }
+    }
+
+    /**
+     * Update products in the database with the given content values. Apply the changes to the rows
+     * specified in the selection and selection arguments (which could be 0 or 1 or more products).
+     * Return the number of rows that were successfully updated, and notify observers of
+     * {@code uri} if any were. Throws {@link InvalidProductException} if the values fail validation.
+     * <p>
+     * A new supplier name or phone number moves the products to the matching supplier. When a
+     * single product is updated ({@code productId} is not -1), either one can be given on its own
+     * and the other is kept; otherwise they must be given together.
+     */
+    private int updateProduct(Uri uri, ContentValues values, String selection, String[] selectionArgs,
+                              long productId) {
+        // Reject the update if any of the given values is invalid
+        int error = ProductValidator.validateUpdate(values);
+        if (error != ProductValidator.VALID) {
+            throw new InvalidProductException(error);
+        }
+
+        // Return the number of rows that were affected
+        // If there are no values to update, then don't try to update the database
+        if (values.size() == 0) {
+            return 0;
+        }
+
+        // Otherwise, get writeable database to update the data
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        ProductStatements statements = getStatements();
+
+        // Setting the quantity of one product is the most common edit, and a single statement
+        // that needs neither a transaction nor the supplier
+        if (productId != -1 && values.size() == 1
+                && values.containsKey(ProductEntry.COLUMN_PRODUCT_QUANTITY)) {
+            int rowsUpdated = statements.updateQuantity(productId,
+                    values.getAsInteger(ProductEntry.COLUMN_PRODUCT_QUANTITY));
+            if (rowsUpdated != 0) {
+                notifyChange(uri);
+            }
+            return rowsUpdated;
+        }
+
+        // Perform the update on the database and get the number of rows affected
+        int rowsUpdated;
+        SupplierIds supplierIds = new SupplierIds(statements);
+        database.beginTransaction();
+        try {
+            if (productId != -1) {
+                values = completeSupplier(database, values, productId);
+            }
+            values = supplierIds.resolve(values);
+            rowsUpdated = database.update(ProductEntry.TABLE_NAME, values, selection, selectionArgs);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        // If 1 or more rows were updated, then notify all listeners that the data at the
+        // given URI has changed
+        if (rowsUpdated != 0) {
+            notifyChange(uri);
+        }
+        if (supplierIds.hasInserted()) {
+            notifyChange(SupplierEntry.CONTENT_URI);
+        }
+
+        // Return the number of rows updated
+        return rowsUpdated;
+    }
+
+    /**
+     * If the values change only the supplier name or only the phone number of a product, add the
+     * current value of the other one, so the product can be linked to the right supplier.
+     */
+    private static ContentValues completeSupplier(SQLiteDatabase database, ContentValues values,
+                                                  long productId) {
+        boolean hasName = values.containsKey(ProductEntry.COLUMN_SUPPLIER_NAME);
+        boolean hasPhone = values.containsKey(ProductEntry.COLUMN_SUPPlIER_PHONE);
+        if (hasName == hasPhone) {
+            return values;
+        }
+
+        Cursor cursor = database.query(ProductEntry.VIEW_NAME,
+                new String[]{ProductEntry.COLUMN_SUPPLIER_NAME, ProductEntry.COLUMN_SUPPlIER_PHONE},
+                ProductEntry._ID + "=?", new String[]{String.valueOf(productId)}, null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return values;
+            }
+            ContentValues completed = new ContentValues(values);
+            if (hasName) {
+                completed.put(ProductEntry.COLUMN_SUPPlIER_PHONE, cursor.getString(1));
+            } else {
+                completed.put(ProductEntry.COLUMN_SUPPLIER_NAME, cursor.getString(0));
+            }
+            return completed;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Update the suppliers matching the selection. Every product of an updated supplier changes
+     * with it, so observers of both suppliers and products are notified.
+     */
+    private int updateSupplier(ContentValues values, String selection, String[] selectionArgs) {
+        if (values.containsKey(SupplierEntry.COLUMN_SUPPLIER_NAME)
+                && TextUtils.isEmpty(values.getAsString(SupplierEntry.COLUMN_SUPPLIER_NAME))) {
+            throw new InvalidProductException(ProductValidator.ERROR_SUPPLIER_REQUIRED);
+        }
+        if (values.containsKey(SupplierEntry.COLUMN_SUPPLIER_PHONE)
+                && TextUtils.isEmpty(values.getAsString(SupplierEntry.COLUMN_SUPPLIER_PHONE))) {
+            throw new InvalidProductException(ProductValidator.ERROR_PHONE_REQUIRED);
+        }
+        if (values.size() == 0) {
+            return 0;
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int rowsUpdated = database.update(SupplierEntry.TABLE_NAME, values, selection, selectionArgs);
+        if (rowsUpdated != 0) {
+            notifyChange(SupplierEntry.CONTENT_URI);
+            notifyChange(ProductEntry.CONTENT_URI);
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Narrow a selection over the columns of {@link ProductEntry#VIEW_NAME}, such as the supplier
+     * name, to the matching rows of the products table, so it can be used to update or delete.
+     * Like the view, the result never selects deleted products.
+     */
+    private static String selectProductsFromView(String selection) {
+        if (TextUtils.isEmpty(selection)) {
+            return ProductEntry.COLUMN_DELETED + " = 0";
+        }
+        return ProductEntry._ID + " IN (SELECT " + ProductEntry._ID + " FROM " + ProductEntry.VIEW_NAME
+                + " WHERE " + selection + ")";
+    }
+
+    /**
+     * Delete the data at the given selection and selection arguments.
+     */
+    private int performDelete(Uri uri, String selection, String[] selectionArgs) {
+        // Get writeable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        // Track the number of rows that were deleted, and which URI to notify about it
+        int rowsDeleted;
+        Uri notifyUri;
+
+        // Products are only marked as deleted here, which touches a single column instead of
+        // every index and trigger of the table. The compaction job purges them later.
+        final int match = sUriMatcher.match(uri);
         switch (match) {
             case PRODUCTS:
                 // Delete all rows that match the selection and selection args
-                rowsDeleted = database.delete(ProductEntry.TABLE_NAME, selection, selectionArgs);
+                ContentValues tombstone = new ContentValues();
+                tombstone.put(ProductEntry.COLUMN_DELETED, 1);
+                rowsDeleted = database.update(ProductEntry.TABLE_NAME, tombstone,
+                        selectProductsFromView(selection), selectionArgs);
+                notifyUri = ProductEntry.CONTENT_URI;
                 break;
             case PRODUCT_ID:
                 // Delete a single row given by the ID in the URI
-                selection = ProductEntry._ID + "=?";
+                long id = ContentUris.parseId(uri);
+                rowsDeleted = getStatements().deleteProduct(id);
+                notifyUri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id);
+                break;
+            case SUPPLIERS:
+                // Fails with a constraint error if any of the suppliers still has products
+                rowsDeleted = deleteSuppliers(database, selection, selectionArgs);
+                notifyUri = SupplierEntry.CONTENT_URI;
+                break;
+            case SUPPLIER_ID:
+                selection = SupplierEntry._ID + "=?";
                 selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                rowsDeleted = database.delete(ProductEntry.TABLE_NAME, selection, selectionArgs);
+                rowsDeleted = deleteSuppliers(database, selection, selectionArgs);
+                notifyUri = SupplierEntry.CONTENT_URI;
                 break;
             default:
                 throw new IllegalArgumentException("Deletion is not supported for " + uri);
         }
-        // If 1 or more rows were deleted, then notify all listeners that the data at the
-        // given URI has changed
+        // If 1 or more rows were deleted, then notify all listeners of the deleted product,
+        // or of the whole table if several products may have been deleted
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(notifyUri);
+            if (match == PRODUCTS || match == PRODUCT_ID) {
+                ProductCompaction.schedule(getContext());
+            }
         }
 
         // Return the number of rows deleted
         return rowsDeleted;
     }
 
+    /**
+     * Delete the suppliers matching the selection. Their deleted products still refer to them,
+     * so those are purged first in the same transaction.
+     */
+    private static int deleteSuppliers(SQLiteDatabase database, String selection, String[] selectionArgs) {
+        String suppliers = "SELECT " + SupplierEntry._ID + " FROM " + SupplierEntry.TABLE_NAME;
+        if (!TextUtils.isEmpty(selection)) {
+            suppliers += " WHERE " + selection;
+        }
+
+        database.beginTransaction();
+        try {
+            database.delete(ProductEntry.TABLE_NAME, ProductEntry.COLUMN_DELETED + " != 0 AND "
+                    + ProductEntry.COLUMN_SUPPLIER_ID + " IN (" + suppliers + ")", selectionArgs);
+            int rowsDeleted = database.delete(SupplierEntry.TABLE_NAME, selection, selectionArgs);
+            database.setTransactionSuccessful();
+            return rowsDeleted;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
     /**
      * Returns the MIME type of data for the content URI.
      */
@@ -307,8 +1737,236 @@ public class ProductProvider extends ContentProvider {
                 return ProductEntry.CONTENT_LIST_TYPE;
             case PRODUCT_ID:
                 return ProductEntry.CONTENT_ITEM_TYPE;
+            case PRODUCT_SEARCH:
+                return ProductEntry.CONTENT_LIST_TYPE;
+            case SUPPLIERS:
+                return SupplierEntry.CONTENT_LIST_TYPE;
+            case SUPPLIER_ID:
+                return SupplierEntry.CONTENT_ITEM_TYPE;
+            case SUPPLIER_PRODUCTS:
+                return ProductEntry.CONTENT_LIST_TYPE;
+            case PRODUCT_SUMMARY:
+                return ProductEntry.CONTENT_ITEM_TYPE;
+            case PRODUCT_LOW_STOCK:
+                return ProductEntry.CONTENT_LIST_TYPE;
+            case PRODUCT_ROWS:
+                return ProductEntry.CONTENT_LIST_TYPE;
+            case PRODUCT_CSV:
+                return ProductCsv.MIME_TYPE;
+            case SUPPLIER_SUMMARY:
+                return SupplierEntry.CONTENT_LIST_TYPE;
+            case INVENTORY_STATS:
+                return InventoryStatsEntry.CONTENT_LIST_TYPE;
+            case INVENTORY_STATS_SCOPE:
+                return InventoryStatsEntry.CONTENT_ITEM_TYPE;
+            case CHANGES:
+                return ChangeEntry.CONTENT_LIST_TYPE;
+            case PRODUCT_MOVEMENTS:
+                return StockMovementEntry.CONTENT_LIST_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
     }
+
+    /**
+     * Applies remote changes, see {@link ChangeEntry#METHOD_APPLY_REMOTE_CHANGES}. Quantity deltas
+     * are added to the local quantity as they are, so every device ends up with the same sum
+     * whatever order the deltas arrive in, even if that is below zero when several devices sold
+     * the last units. Other columns follow the last writer: a remote value is applied if it's at
+     * least as new as the last change of the column here, whether that was made here or came
+     * from another device. The server only takes a column that is newer than the one it has, so
+     * a remote value as new as a local change was accepted before it, and the local change will
+     * lose there too. Deletes win over concurrent updates.
+     */
+    private static final class RemoteChanges {
+
+        private static final String[] PRODUCT_COLUMNS = {
+                ProductEntry._ID,
+                ProductEntry.COLUMN_DELETED,
+                ProductEntry.COLUMN_NAME_CHANGED_AT,
+                ProductEntry.COLUMN_PRICE_CHANGED_AT,
+                ProductEntry.COLUMN_SUPPLIER_CHANGED_AT};
+
+        private final SQLiteDatabase mDatabase;
+        private final SupplierIds mSupplierIds;
+        private final SQLiteStatement mAddQuantity;
+
+        RemoteChanges(SQLiteDatabase database, SupplierIds supplierIds) {
+            mDatabase = database;
+            mSupplierIds = supplierIds;
+            mAddQuantity = database.compileStatement("UPDATE " + ProductEntry.TABLE_NAME + " SET "
+                    + ProductEntry.COLUMN_PRODUCT_QUANTITY + " = " + ProductEntry.COLUMN_PRODUCT_QUANTITY
+                    + " + ? WHERE " + ProductEntry._ID + " = ?");
+        }
+
+        /**
+         * Apply a single change. Return false if it had nothing to change, such as an update
+         * of a product that was deleted here.
+         */
+        boolean apply(ContentValues change) {
+            String syncId = change.getAsString(ChangeEntry.COLUMN_SYNC_ID);
+            Integer operation = change.getAsInteger(ChangeEntry.COLUMN_OPERATION);
+            if (syncId == null || operation == null) {
+                throw new IllegalArgumentException("Remote change without sync ID or operation");
+            }
+
+            // A tombstone still holds the sync ID. A product that isn't here has never changed.
+            long id = -1;
+            long nameChangedAt = 0;
+            long priceChangedAt = 0;
+            long supplierChangedAt = 0;
+            Cursor product = mDatabase.query(ProductEntry.TABLE_NAME, PRODUCT_COLUMNS,
+                    ProductEntry.COLUMN_SYNC_ID + "=?", new String[]{syncId}, null, null, null);
+            try {
+                if (product.moveToFirst()) {
+                    if (product.getInt(1) != 0) {
+                        // Deleted here and waiting to be purged, and the delete wins
+                        return false;
+                    }
+                    id = product.getLong(0);
+                    nameChangedAt = product.getLong(2);
+                    priceChangedAt = product.getLong(3);
+                    supplierChangedAt = product.getLong(4);
+                }
+            } finally {
+                product.close();
+            }
+
+            if (operation == ChangeEntry.OPERATION_DELETE) {
+                if (id == -1) {
+                    return false;
+                }
+                ContentValues tombstone = new ContentValues();
+                tombstone.put(ProductEntry.COLUMN_DELETED, 1);
+                return mDatabase.update(ProductEntry.TABLE_NAME, tombstone, ProductEntry._ID + "=?",
+                        new String[]{String.valueOf(id)}) == 1;
+            }
+
+            Long changedAt = change.getAsLong(ChangeEntry.COLUMN_CHANGED_AT);
+            long remoteTime = changedAt != null ? changedAt : 0;
+            ContentValues values = new ContentValues();
+            String name = change.getAsString(ChangeEntry.COLUMN_PRODUCT_NAME);
+            if (name != null && remoteTime >= nameChangedAt) {
+                values.put(ProductEntry.COLUMN_PRODUCT_NAME, name);
+                values.put(ProductEntry.COLUMN_NAME_CHANGED_AT, remoteTime);
+            }
+            Long price = change.getAsLong(ChangeEntry.COLUMN_PRODUCT_PRICE);
+            if (price != null && remoteTime >= priceChangedAt) {
+                values.put(ProductEntry.COLUMN_PRODUCT_PRICE, price);
+                values.put(ProductEntry.COLUMN_PRICE_CHANGED_AT, remoteTime);
+            }
+            String supplier = change.getAsString(ChangeEntry.COLUMN_SUPPLIER_NAME);
+            String phone = change.getAsString(ChangeEntry.COLUMN_SUPPLIER_PHONE);
+            if (supplier != null && phone != null && remoteTime >= supplierChangedAt) {
+                values.put(ProductEntry.COLUMN_SUPPLIER_ID, mSupplierIds.getOrInsert(supplier, phone));
+                values.put(ProductEntry.COLUMN_SUPPLIER_CHANGED_AT, remoteTime);
+            }
+            Long delta = change.getAsLong(ChangeEntry.COLUMN_QUANTITY_DELTA);
+            long quantityDelta = delta != null ? delta : 0;
+
+            if (id == -1) {
+                if (operation != ChangeEntry.OPERATION_INSERT) {
+                    // Deleted here, and the delete wins
+                    return false;
+                }
+                values.put(ProductEntry.COLUMN_SYNC_ID, syncId);
+                values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, Math.max(0, quantityDelta));
+                int error = ProductValidator.validateInsert(values);
+                if (error != ProductValidator.VALID) {
+                    throw new InvalidProductException(error);
+                }
+                mDatabase.insertOrThrow(ProductEntry.TABLE_NAME, null, values);
+                return true;
+            }
+
+            int error = ProductValidator.validateUpdate(values);
+            if (error != ProductValidator.VALID) {
+                throw new InvalidProductException(error);
+            }
+            boolean changed = false;
+            if (values.size() > 0) {
+                changed = mDatabase.update(ProductEntry.TABLE_NAME, values, ProductEntry._ID + "=?",
+                        new String[]{String.valueOf(id)}) == 1;
+            }
+            // An insert of a product that's already here only carries its initial quantity
+            if (quantityDelta != 0 && operation == ChangeEntry.OPERATION_UPDATE) {
+                mAddQuantity.bindLong(1, quantityDelta);
+                mAddQuantity.bindLong(2, id);
+                changed |= mAddQuantity.executeUpdateDelete() == 1;
+            }
+            return changed;
+        }
+
+        void close() {
+            mAddQuantity.close();
+        }
+    }
+
+    /**
+     * Links product values to suppliers. Values that name a supplier by name and phone number are
+     * rewritten to refer to its {@link ProductEntry#COLUMN_SUPPLIER_ID}, adding the supplier if it
+     * doesn't exist yet. IDs are remembered, so a batch looks up each supplier only once.
+     */
+    private static final class SupplierIds {
+
+        private final ProductStatements mStatements;
+        private final Map<String, Long> mIds = new HashMap<>();
+        private boolean mInserted;
+
+        SupplierIds(ProductStatements statements) {
+            mStatements = statements;
+        }
+
+        /**
+         * Return the values with the supplier name and phone number replaced by the supplier ID,
+         * or the values themselves if they don't name a supplier.
+         */
+        ContentValues resolve(ContentValues values) {
+            boolean hasName = values.containsKey(ProductEntry.COLUMN_SUPPLIER_NAME);
+            boolean hasPhone = values.containsKey(ProductEntry.COLUMN_SUPPlIER_PHONE);
+            if (!hasName && !hasPhone) {
+                return values;
+            }
+            if (hasName != hasPhone) {
+                throw new IllegalArgumentException("Supplier name and phone number must be written together");
+            }
+
+            ContentValues resolved = new ContentValues(values);
+            long id = getOrInsert(values.getAsString(ProductEntry.COLUMN_SUPPLIER_NAME),
+                    values.getAsString(ProductEntry.COLUMN_SUPPlIER_PHONE));
+            resolved.remove(ProductEntry.COLUMN_SUPPLIER_NAME);
+            resolved.remove(ProductEntry.COLUMN_SUPPlIER_PHONE);
+            resolved.put(ProductEntry.COLUMN_SUPPLIER_ID, id);
+            return resolved;
+        }
+
+        /**
+         * Return the ID of the supplier with the given name and phone number, adding it if needed.
+         */
+        long getOrInsert(String name, String phone) {
+            String key = name + '\n' + phone;
+            Long id = mIds.get(key);
+            if (id != null) {
+                return id;
+            }
+
+            id = mStatements.querySupplier(name, phone);
+            if (id == -1) {
+                if (mStatements.insertSupplier(name, phone) != -1) {
+                    mInserted = true;
+                }
+                // Another writer may have added the supplier in the meantime
+                id = mStatements.querySupplier(name, phone);
+            }
+            mIds.put(key, id);
+            return id;
+        }
+
+        /**
+         * @return true if any supplier was added
+         */
+        boolean hasInserted() {
+            return mInserted;
+        }
+    }
 }
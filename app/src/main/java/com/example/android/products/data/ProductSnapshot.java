@@ -0,0 +1,577 @@
+package com.example.android.products.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.products.data.ProductContract.ProductEntry;
+import com.example.android.products.data.ProductContract.SupplierEntry;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compact binary copy of the catalog, the suppliers and products tables, that restores much
+ * faster than replaying inserts: rows are written straight into the tables through
+ * {@link ProductDbHelper#bulkLoad(ProductDbHelper.BulkLoader)}, and the indexes are built once
+ * at the end.
+ * <p>
+ * A snapshot is a fixed-size header followed by the payload, which is optionally deflated:
+ * <pre>
+ * header   magic "PSNP", format version (short), flags (short), schema version (int),
+ *          supplier count (int), product count (long), payload length (long),
+ *          stored length (long), CRC32 of the payload (int)
+ * payload  supplier records, then product records, each prefixed with its length (int)
+ * supplier _id (long), name (string), phone (string)
+ * product  _id (long), name (string), price in cents (long), quantity (long), supplier_id (long),
+ *          sync_id (string, since version 2)
+ * string   UTF-8 length (int), UTF-8 bytes, or length -1 for null
+ * </pre>
+ * All numbers are big-endian. The lengths and checksum are filled into the header once the
+ * payload has been written, so a snapshot is written to a seekable {@link FileChannel} rather
+ * than a stream. Deleted products that haven't been purged yet are left out.
+ */
+public final class ProductSnapshot {
+
+    /**
+     * Version of the file format, increased whenever the layout of the records changes
+     */
+    public static final int FORMAT_VERSION = 2;
+
+    /**
+     * Oldest format version that can still be restored
+     */
+    private static final int MIN_FORMAT_VERSION = 1;
+
+    /**
+     * First bytes of every snapshot, "PSNP"
+     */
+    private static final int MAGIC = 0x50534E50;
+
+    /**
+     * Flag set when the payload is deflated
+     */
+    private static final int FLAG_DEFLATE = 1;
+
+    /**
+     * Size of the header, in bytes
+     */
+    private static final int HEADER_SIZE = 44;
+
+    /**
+     * Size of the channel and payload buffers, in bytes
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Largest record accepted on restore, so a corrupt length can't exhaust memory
+     */
+    private static final int MAX_RECORD_SIZE = 1024 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // To prevent someone from accidentally instantiating this class,
+    // give it an empty constructor.
+    private ProductSnapshot() {
+    }
+
+    /**
+     * Write a snapshot of the catalog at the current position of the channel. Both tables are
+     * read in one transaction, so the snapshot is consistent; writers wait until it's done.
+     *
+     * @param compress whether to deflate the payload, which makes the file several times smaller
+     *                 at the cost of a slower write and restore
+     * @return the number of products written
+     */
+    public static long write(SQLiteDatabase db, FileChannel channel, boolean compress) throws IOException {
+        long start = channel.position();
+        channel.position(start + HEADER_SIZE);
+
+        PayloadWriter writer = new PayloadWriter(channel, compress);
+        int supplierCount = 0;
+        long productCount = 0;
+        try {
+            db.beginTransactionNonExclusive();
+            try {
+                Cursor cursor = db.query(SupplierEntry.TABLE_NAME, new String[]{
+                                SupplierEntry._ID,
+                                SupplierEntry.COLUMN_SUPPLIER_NAME,
+                                SupplierEntry.COLUMN_SUPPLIER_PHONE},
+                        null, null, null, null, SupplierEntry._ID);
+                try {
+                    while (cursor.moveToNext()) {
+                        writer.beginRecord();
+                        writer.putLong(cursor.getLong(0));
+                        writer.putString(cursor.getString(1));
+                        writer.putString(cursor.getString(2));
+                        writer.endRecord();
+                        supplierCount++;
+                    }
+                } finally {
+                    cursor.close();
+                }
+
+                cursor = db.query(ProductEntry.TABLE_NAME, new String[]{
+                                ProductEntry._ID,
+                                ProductEntry.COLUMN_PRODUCT_NAME,
+                                ProductEntry.COLUMN_PRODUCT_PRICE,
+                                ProductEntry.COLUMN_PRODUCT_QUANTITY,
+                                ProductEntry.COLUMN_SUPPLIER_ID,
+                                ProductEntry.COLUMN_SYNC_ID},
+                        ProductEntry.COLUMN_DELETED + " = 0", null, null, null, ProductEntry._ID);
+                try {
+                    while (cursor.moveToNext()) {
+                        writer.beginRecord();
+                        writer.putLong(cursor.getLong(0));
+                        writer.putString(cursor.getString(1));
+                        writer.putLong(cursor.getLong(2));
+                        writer.putLong(cursor.getLong(3));
+                        writer.putLong(cursor.getLong(4));
+                        writer.putString(cursor.getString(5));
+                        writer.endRecord();
+                        productCount++;
+                    }
+                } finally {
+                    cursor.close();
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            writer.finish();
+        } finally {
+            writer.close();
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putShort((short) FORMAT_VERSION);
+        header.putShort((short) (compress ? FLAG_DEFLATE : 0));
+        header.putInt(db.getVersion());
+        header.putInt(supplierCount);
+        header.putLong(productCount);
+        header.putLong(writer.mPayloadLength);
+        header.putLong(writer.mStoredLength);
+        header.putInt((int) writer.mCrc.getValue());
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header, start + header.position());
+        }
+
+        // Drop whatever an older, longer file had after the snapshot
+        long end = start + HEADER_SIZE + writer.mStoredLength;
+        if (channel.size() > end) {
+            channel.truncate(end);
+        }
+        channel.position(end);
+        return productCount;
+    }
+
+    /**
+     * Replace the whole catalog with the snapshot at the current position of the channel. The
+     * snapshot is checked while it's loaded, and if it's truncated or corrupt nothing is changed.
+     *
+     * @return the number of products restored
+     * @throws IOException if the snapshot can't be read or is not valid
+     */
+    public static long restore(ProductDbHelper dbHelper, final FileChannel channel) throws IOException {
+        final Header header = Header.read(channel);
+        dbHelper.bulkLoad(new ProductDbHelper.BulkLoader() {
+            @Override
+            public void load(SQLiteDatabase db) throws IOException {
+                PayloadReader reader = new PayloadReader(channel, header);
+                SQLiteStatement insertSupplier = db.compileStatement("INSERT INTO "
+                        + SupplierEntry.TABLE_NAME + " (" + SupplierEntry._ID + ", "
+                        + SupplierEntry.COLUMN_SUPPLIER_NAME + ", " + SupplierEntry.COLUMN_SUPPLIER_PHONE
+                        + ") VALUES (?, ?, ?)");
+                SQLiteStatement insertProduct = db.compileStatement("INSERT INTO "
+                        + ProductEntry.TABLE_NAME + " (" + ProductEntry._ID + ", "
+                        + ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_PRODUCT_PRICE + ", "
+                        + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", " + ProductEntry.COLUMN_SUPPLIER_ID + ", "
+                        + ProductEntry.COLUMN_SYNC_ID + ") VALUES (?, ?, ?, ?, ?, ?)");
+                try {
+                    for (int i = 0; i < header.mSupplierCount; i++) {
+                        reader.nextRecord();
+                        insertSupplier.bindLong(1, reader.readLong());
+                        insertSupplier.bindString(2, reader.readString());
+                        insertSupplier.bindString(3, reader.readString());
+                        insertSupplier.executeInsert();
+                    }
+                    for (long i = 0; i < header.mProductCount; i++) {
+                        reader.nextRecord();
+                        insertProduct.bindLong(1, reader.readLong());
+                        insertProduct.bindString(2, reader.readString());
+                        insertProduct.bindLong(3, reader.readLong());
+                        insertProduct.bindLong(4, reader.readLong());
+                        insertProduct.bindLong(5, reader.readLong());
+                        // Products of older snapshots get a sync ID once they are loaded
+                        String syncId = header.mFormatVersion >= 2 ? reader.readString() : null;
+                        if (syncId != null) {
+                            insertProduct.bindString(6, syncId);
+                        } else {
+                            insertProduct.bindNull(6);
+                        }
+                        insertProduct.executeInsert();
+                    }
+                    reader.finish();
+                } finally {
+                    insertSupplier.close();
+                    insertProduct.close();
+                    reader.close();
+                }
+            }
+        });
+        return header.mProductCount;
+    }
+
+    /**
+     * The header of a snapshot being restored.
+     */
+    private static final class Header {
+
+        int mFormatVersion;
+        int mFlags;
+        int mSupplierCount;
+        long mProductCount;
+        long mPayloadLength;
+        long mStoredLength;
+        int mCrc;
+
+        /**
+         * Read and check the header at the current position of the channel.
+         */
+        static Header read(FileChannel channel) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new EOFException("Snapshot header is truncated");
+                }
+            }
+            buffer.flip();
+
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a product snapshot");
+            }
+            Header header = new Header();
+            header.mFormatVersion = buffer.getShort();
+            if (header.mFormatVersion < MIN_FORMAT_VERSION || header.mFormatVersion > FORMAT_VERSION) {
+                throw new IOException("Unsupported snapshot format version " + header.mFormatVersion);
+            }
+            header.mFlags = buffer.getShort();
+            if ((header.mFlags & ~FLAG_DEFLATE) != 0) {
+                throw new IOException("Unsupported snapshot flags " + header.mFlags);
+            }
+            // The schema version is informational, the records only hold columns every version has
+            buffer.getInt();
+            header.mSupplierCount = buffer.getInt();
+            header.mProductCount = buffer.getLong();
+            header.mPayloadLength = buffer.getLong();
+            header.mStoredLength = buffer.getLong();
+            header.mCrc = buffer.getInt();
+            if (header.mSupplierCount < 0 || header.mProductCount < 0
+                    || header.mPayloadLength < 0 || header.mStoredLength < 0) {
+                throw new IOException("Corrupt snapshot header");
+            }
+            return header;
+        }
+    }
+
+    /**
+     * Encodes records into the payload, checksums them and writes them to the channel through a
+     * fixed-size buffer, deflating them on the way if asked to.
+     */
+    private static final class PayloadWriter {
+
+        private final FileChannel mChannel;
+        private final Deflater mDeflater;
+        private final CRC32 mCrc = new CRC32();
+        private final ByteBuffer mOut = ByteBuffer.allocate(BUFFER_SIZE);
+        private final byte[] mDeflated;
+
+        /**
+         * The record being encoded, grown when a record doesn't fit
+         */
+        private ByteBuffer mRecord = ByteBuffer.allocate(256);
+
+        /**
+         * Bytes of payload before and after deflating
+         */
+        long mPayloadLength;
+        long mStoredLength;
+
+        PayloadWriter(FileChannel channel, boolean compress) {
+            mChannel = channel;
+            // Snapshots are about restoring fast, so favour speed over size
+            mDeflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+            mDeflated = compress ? new byte[BUFFER_SIZE] : null;
+        }
+
+        void beginRecord() {
+            mRecord.clear();
+            // Room for the length, filled in by endRecord()
+            mRecord.position(4);
+        }
+
+        void putLong(long value) {
+            ensureCapacity(8);
+            mRecord.putLong(value);
+        }
+
+        void putString(String value) {
+            if (value == null) {
+                ensureCapacity(4);
+                mRecord.putInt(-1);
+                return;
+            }
+            byte[] bytes = value.getBytes(UTF_8);
+            ensureCapacity(4 + bytes.length);
+            mRecord.putInt(bytes.length);
+            mRecord.put(bytes);
+        }
+
+        void endRecord() throws IOException {
+            int length = mRecord.position();
+            mRecord.putInt(0, length - 4);
+            write(mRecord.array(), length);
+        }
+
+        /**
+         * Deflate whatever is still buffered and write out the last of the payload.
+         */
+        void finish() throws IOException {
+            if (mDeflater != null) {
+                mDeflater.finish();
+                while (!mDeflater.finished()) {
+                    store(mDeflated, mDeflater.deflate(mDeflated));
+                }
+            }
+            flush();
+        }
+
+        void close() {
+            if (mDeflater != null) {
+                mDeflater.end();
+            }
+        }
+
+        private void ensureCapacity(int bytes) {
+            if (mRecord.remaining() < bytes) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(mRecord.capacity() * 2,
+                        mRecord.position() + bytes));
+                mRecord.flip();
+                larger.put(mRecord);
+                mRecord = larger;
+            }
+        }
+
+        private void write(byte[] bytes, int length) throws IOException {
+            mCrc.update(bytes, 0, length);
+            mPayloadLength += length;
+            if (mDeflater == null) {
+                store(bytes, length);
+                return;
+            }
+            mDeflater.setInput(bytes, 0, length);
+            while (!mDeflater.needsInput()) {
+                store(mDeflated, mDeflater.deflate(mDeflated));
+            }
+        }
+
+        private void store(byte[] bytes, int length) throws IOException {
+            int offset = 0;
+            while (offset < length) {
+                int count = Math.min(length - offset, mOut.remaining());
+                mOut.put(bytes, offset, count);
+                offset += count;
+                if (!mOut.hasRemaining()) {
+                    flush();
+                }
+            }
+        }
+
+        private void flush() throws IOException {
+            mOut.flip();
+            mStoredLength += mOut.remaining();
+            while (mOut.hasRemaining()) {
+                mChannel.write(mOut);
+            }
+            mOut.clear();
+        }
+    }
+
+    /**
+     * Reads the payload back record by record through fixed-size buffers, inflating it if
+     * needed, and checks its length and checksum.
+     */
+    private static final class PayloadReader {
+
+        private final FileChannel mChannel;
+        private final Header mHeader;
+        private final Inflater mInflater;
+        private final CRC32 mCrc = new CRC32();
+        private final ByteBuffer mIn;
+
+        /**
+         * Payload bytes read but not consumed yet, in read mode. Grown for records that don't fit.
+         */
+        private ByteBuffer mPayload = ByteBuffer.allocate(BUFFER_SIZE);
+
+        /**
+         * Position in {@link #mPayload} where the current record ends
+         */
+        private int mRecordEnd;
+
+        private long mStoredRemaining;
+        private long mPayloadRead;
+
+        PayloadReader(FileChannel channel, Header header) {
+            mChannel = channel;
+            mHeader = header;
+            mStoredRemaining = header.mStoredLength;
+            boolean deflated = (header.mFlags & FLAG_DEFLATE) != 0;
+            mInflater = deflated ? new Inflater() : null;
+            mIn = deflated ? ByteBuffer.allocate(BUFFER_SIZE) : null;
+            mPayload.flip();
+        }
+
+        /**
+         * Move to the next record, reading it completely into the payload buffer.
+         */
+        void nextRecord() throws IOException {
+            mPayload.position(mRecordEnd);
+            ensure(4);
+            int length = mPayload.getInt(mPayload.position());
+            if (length < 0 || length > MAX_RECORD_SIZE) {
+                throw new IOException("Corrupt snapshot record length " + length);
+            }
+            ensure(4 + length);
+            mCrc.update(mPayload.array(), mPayload.position(), 4 + length);
+            mPayloadRead += 4 + length;
+            mPayload.position(mPayload.position() + 4);
+            mRecordEnd = mPayload.position() + length;
+        }
+
+        long readLong() throws IOException {
+            checkRecord(8);
+            return mPayload.getLong();
+        }
+
+        String readString() throws IOException {
+            checkRecord(4);
+            int length = mPayload.getInt();
+            if (length == -1) {
+                return null;
+            }
+            checkRecord(length);
+            String value = new String(mPayload.array(), mPayload.position(), length, UTF_8);
+            mPayload.position(mPayload.position() + length);
+            return value;
+        }
+
+        /**
+         * Check that the whole payload was read and that it matches the header.
+         */
+        void finish() throws IOException {
+            mPayload.position(mRecordEnd);
+            // The inflater may not have reached the end of the stream yet, but must find no more data
+            if (mInflater != null && fill(ByteBuffer.allocate(1)) > 0) {
+                throw new IOException("Unexpected data after the last snapshot record");
+            }
+            if (mPayload.hasRemaining() || mStoredRemaining > 0
+                    || (mInflater != null && !mInflater.finished())) {
+                throw new IOException("Unexpected data after the last snapshot record");
+            }
+            if (mPayloadRead != mHeader.mPayloadLength || (int) mCrc.getValue() != mHeader.mCrc) {
+                throw new IOException("Snapshot checksum mismatch");
+            }
+        }
+
+        void close() {
+            if (mInflater != null) {
+                mInflater.end();
+            }
+        }
+
+        private void checkRecord(int bytes) throws IOException {
+            if (bytes < 0 || mRecordEnd - mPayload.position() < bytes) {
+                throw new IOException("Corrupt snapshot record");
+            }
+        }
+
+        /**
+         * Make sure at least the given number of bytes are buffered.
+         */
+        private void ensure(int bytes) throws IOException {
+            while (mPayload.remaining() < bytes) {
+                if (mPayload.capacity() < bytes) {
+                    ByteBuffer larger = ByteBuffer.allocate(Math.max(mPayload.capacity() * 2, bytes));
+                    larger.put(mPayload);
+                    larger.flip();
+                    mPayload = larger;
+                }
+                mPayload.compact();
+                int read = fill(mPayload);
+                mPayload.flip();
+                if (read <= 0) {
+                    throw new EOFException("Snapshot is truncated");
+                }
+            }
+        }
+
+        /**
+         * Read more of the payload into the buffer, which is in write mode.
+         *
+         * @return the number of bytes read, or -1 at the end of the payload
+         */
+        private int fill(ByteBuffer buffer) throws IOException {
+            if (mInflater == null) {
+                int count = (int) Math.min(buffer.remaining(), mStoredRemaining);
+                if (count == 0) {
+                    return -1;
+                }
+                int limit = buffer.limit();
+                buffer.limit(buffer.position() + count);
+                int read = mChannel.read(buffer);
+                buffer.limit(limit);
+                if (read > 0) {
+                    mStoredRemaining -= read;
+                }
+                return read;
+            }
+
+            int inflated = 0;
+            while (inflated == 0) {
+                if (mInflater.finished()) {
+                    return -1;
+                }
+                if (mInflater.needsInput()) {
+                    mIn.clear();
+                    mIn.limit((int) Math.min(mIn.capacity(), mStoredRemaining));
+                    int read = mIn.hasRemaining() ? mChannel.read(mIn) : -1;
+                    if (read <= 0) {
+                        return -1;
+                    }
+                    mStoredRemaining -= read;
+                    mInflater.setInput(mIn.array(), 0, read);
+                }
+                try {
+                    inflated = mInflater.inflate(buffer.array(), buffer.position(), buffer.remaining());
+                } catch (DataFormatException e) {
+                    throw new IOException("Corrupt snapshot payload", e);
+                }
+                if (mInflater.needsDictionary()) {
+                    throw new IOException("Corrupt snapshot payload");
+                }
+                buffer.position(buffer.position() + inflated);
+            }
+            return inflated;
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package com.example.android.products.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.products.data.ProductContract.ProductEntry;
+import com.example.android.products.data.ProductContract.StockMovementEntry;
+import com.example.android.products.data.ProductContract.SupplierEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compiled statements for the hot single-product operations of {@link ProductProvider}, compiled
+ * the first time they are needed and reused for every call after that. Going through
+ * {@link SQLiteDatabase#update} or {@link SQLiteDatabase#insert} builds the SQL from the
+ * {@link ContentValues} on each call, and compiling a statement checks a connection out of the
+ * pool just to prepare it; a cached statement only binds its arguments and runs.
+ * <p>
+ * A statement keeps its bound arguments until it runs, so it can't be shared by threads. Every
+ * thread gets its own set from {@link Cache}, which is effectively one set per connection, since
+ * each thread uses its own connection of the pool.
+ */
+final class ProductStatements {
+
+    /**
+     * Columns of a new product, in the order {@link #insertProduct(ContentValues)} binds them
+     */
+    static final String[] INSERT_COLUMNS = {
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductEntry.COLUMN_SUPPLIER_ID};
+
+    private static final String SQL_INSERT_PRODUCT = buildInsertSql();
+
+    /**
+     * Mark a single product as deleted, unless it already is.
+     */
+    private static final String SQL_DELETE_PRODUCT = "UPDATE " + ProductEntry.TABLE_NAME
+            + " SET " + ProductEntry.COLUMN_DELETED + " = 1"
+            + " WHERE " + ProductEntry._ID + " = ? AND " + ProductEntry.COLUMN_DELETED + " = 0";
+
+    /**
+     * Set the quantity of a single product, unless it was deleted.
+     */
+    private static final String SQL_UPDATE_QUANTITY = "UPDATE " + ProductEntry.TABLE_NAME
+            + " SET " + ProductEntry.COLUMN_PRODUCT_QUANTITY + " = ?"
+            + " WHERE " + ProductEntry._ID + " = ? AND " + ProductEntry.COLUMN_DELETED + " = 0";
+
+    /**
+     * Add a (possibly negative) delta to the quantity of a single product, but only if the
+     * quantity doesn't drop below zero.
+     */
+    private static final String SQL_ADJUST_QUANTITY = "UPDATE " + ProductEntry.TABLE_NAME
+            + " SET " + ProductEntry.COLUMN_PRODUCT_QUANTITY + " = " + ProductEntry.COLUMN_PRODUCT_QUANTITY + " + ?"
+            + " WHERE " + ProductEntry._ID + " = ? AND " + ProductEntry.COLUMN_DELETED + " = 0 AND "
+            + ProductEntry.COLUMN_PRODUCT_QUANTITY + " + ? >= 0";
+
+    private static final String SQL_QUANTITY = "SELECT " + ProductEntry.COLUMN_PRODUCT_QUANTITY
+            + " FROM " + ProductEntry.TABLE_NAME + " WHERE " + ProductEntry._ID + " = ?";
+
+    private static final String SQL_NAME = "SELECT " + ProductEntry.COLUMN_PRODUCT_NAME
+            + " FROM " + ProductEntry.TABLE_NAME + " WHERE " + ProductEntry._ID + " = ?";
+
+    /**
+     * Set the reason the triggers record for the next quantity updates.
+     */
+    private static final String SQL_SET_MOVEMENT_REASON = "UPDATE " + StockMovementEntry.STATE_TABLE_NAME
+            + " SET " + StockMovementEntry.COLUMN_REASON + " = ?";
+
+    private static final String SQL_SELECT_SUPPLIER = "SELECT " + SupplierEntry._ID
+            + " FROM " + SupplierEntry.TABLE_NAME + " WHERE "
+            + SupplierEntry.COLUMN_SUPPLIER_NAME + " = ? AND " + SupplierEntry.COLUMN_SUPPLIER_PHONE + " = ?";
+
+    /**
+     * Add a supplier. Ignored rather than failing if another writer added it in the meantime.
+     */
+    private static final String SQL_INSERT_SUPPLIER = "INSERT OR IGNORE INTO " + SupplierEntry.TABLE_NAME
+            + " (" + SupplierEntry.COLUMN_SUPPLIER_NAME + ", " + SupplierEntry.COLUMN_SUPPLIER_PHONE
+            + ") VALUES (?, ?)";
+
+    private final SQLiteDatabase mDatabase;
+    private SQLiteStatement mInsertProduct;
+    private SQLiteStatement mDeleteProduct;
+    private SQLiteStatement mUpdateQuantity;
+    private SQLiteStatement mAdjustQuantity;
+    private SQLiteStatement mQuantity;
+    private SQLiteStatement mName;
+    private SQLiteStatement mSetMovementReason;
+    private SQLiteStatement mSelectSupplier;
+    private SQLiteStatement mInsertSupplier;
+
+    /**
+     * Set by {@link Cache#close()} from another thread
+     */
+    private volatile boolean mClosed;
+
+    private ProductStatements(SQLiteDatabase database) {
+        mDatabase = database;
+    }
+
+    /**
+     * Return whether the given values can be inserted with {@link #insertProduct(ContentValues)},
+     * which is when they only hold {@link #INSERT_COLUMNS}.
+     */
+    static boolean canInsert(ContentValues values) {
+        int known = 0;
+        for (String column : INSERT_COLUMNS) {
+            if (values.containsKey(column)) {
+                known++;
+            }
+        }
+        return known == values.size();
+    }
+
+    /**
+     * Insert a product whose supplier was already resolved to its ID. Columns missing from the
+     * values are inserted as null. Return the ID of the new row, or -1 if it failed.
+     */
+    long insertProduct(ContentValues values) {
+        if (mInsertProduct == null) {
+            mInsertProduct = mDatabase.compileStatement(SQL_INSERT_PRODUCT);
+        }
+        for (int i = 0; i < INSERT_COLUMNS.length; i++) {
+            // Bind indexes are 1-based
+            DatabaseUtils.bindObjectToProgram(mInsertProduct, i + 1, values.get(INSERT_COLUMNS[i]));
+        }
+        return mInsertProduct.executeInsert();
+    }
+
+    /**
+     * Mark a single product as deleted. Return the number of rows changed.
+     */
+    int deleteProduct(long id) {
+        if (mDeleteProduct == null) {
+            mDeleteProduct = mDatabase.compileStatement(SQL_DELETE_PRODUCT);
+        }
+        mDeleteProduct.bindLong(1, id);
+        return mDeleteProduct.executeUpdateDelete();
+    }
+
+    /**
+     * Set the quantity of a single product. Return the number of rows changed.
+     */
+    int updateQuantity(long id, long quantity) {
+        if (mUpdateQuantity == null) {
+            mUpdateQuantity = mDatabase.compileStatement(SQL_UPDATE_QUANTITY);
+        }
+        mUpdateQuantity.bindLong(1, quantity);
+        mUpdateQuantity.bindLong(2, id);
+        return mUpdateQuantity.executeUpdateDelete();
+    }
+
+    /**
+     * Add a delta to the quantity of a single product, unless that would make it negative.
+     * Return the number of rows changed.
+     */
+    int adjustQuantity(long id, long delta) {
+        if (mAdjustQuantity == null) {
+            mAdjustQuantity = mDatabase.compileStatement(SQL_ADJUST_QUANTITY);
+        }
+        mAdjustQuantity.bindLong(1, delta);
+        mAdjustQuantity.bindLong(2, id);
+        mAdjustQuantity.bindLong(3, delta);
+        return mAdjustQuantity.executeUpdateDelete();
+    }
+
+    /**
+     * Return the quantity of a single product.
+     *
+     * @throws SQLiteDoneException if the product doesn't exist
+     */
+    long queryQuantity(long id) {
+        if (mQuantity == null) {
+            mQuantity = mDatabase.compileStatement(SQL_QUANTITY);
+        }
+        mQuantity.bindLong(1, id);
+        return mQuantity.simpleQueryForLong();
+    }
+
+    /**
+     * Return the name of a single product, or null if it doesn't exist.
+     */
+    String queryName(long id) {
+        if (mName == null) {
+            mName = mDatabase.compileStatement(SQL_NAME);
+        }
+        mName.bindLong(1, id);
+        try {
+            return mName.simpleQueryForString();
+        } catch (SQLiteDoneException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Set the {@link StockMovementEntry#COLUMN_REASON} of the movements recorded for the quantity
+     * updates that follow. Only call it inside a transaction, and set it back to
+     * {@link StockMovementEntry#REASON_EDIT} before it ends.
+     */
+    void setMovementReason(int reason) {
+        if (mSetMovementReason == null) {
+            mSetMovementReason = mDatabase.compileStatement(SQL_SET_MOVEMENT_REASON);
+        }
+        mSetMovementReason.bindLong(1, reason);
+        mSetMovementReason.executeUpdateDelete();
+    }
+
+    /**
+     * Return the ID of the supplier with the given name and phone number, or -1 if there is none.
+     */
+    long querySupplier(String name, String phone) {
+        if (mSelectSupplier == null) {
+            mSelectSupplier = mDatabase.compileStatement(SQL_SELECT_SUPPLIER);
+        }
+        mSelectSupplier.bindString(1, name);
+        mSelectSupplier.bindString(2, phone);
+        try {
+            return mSelectSupplier.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Add a supplier. Return its row ID, or -1 if a supplier with the same name and phone
+     * number already exists.
+     */
+    long insertSupplier(String name, String phone) {
+        if (mInsertSupplier == null) {
+            mInsertSupplier = mDatabase.compileStatement(SQL_INSERT_SUPPLIER);
+        }
+        mInsertSupplier.bindString(1, name);
+        mInsertSupplier.bindString(2, phone);
+        return mInsertSupplier.executeInsert();
+    }
+
+    private void close() {
+        mClosed = true;
+        SQLiteStatement[] statements = {mInsertProduct, mDeleteProduct, mUpdateQuantity,
+                mAdjustQuantity, mQuantity, mName, mSetMovementReason, mSelectSupplier, mInsertSupplier};
+        for (SQLiteStatement statement : statements) {
+            if (statement != null) {
+                statement.close();
+            }
+        }
+    }
+
+    private static String buildInsertSql() {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(ProductEntry.TABLE_NAME).append(" (");
+        StringBuilder placeholders = new StringBuilder();
+        for (int i = 0; i < INSERT_COLUMNS.length; i++) {
+            if (i > 0) {
+                sql.append(", ");
+                placeholders.append(", ");
+            }
+            sql.append(INSERT_COLUMNS[i]);
+            placeholders.append('?');
+        }
+        return sql.append(") VALUES (").append(placeholders).append(')').toString();
+    }
+
+    /**
+     * The statements of every thread. Statements hold a reference to their database, which stays
+     * open until they are closed, so {@link #close()} must be called before closing it.
+     */
+    static final class Cache {
+
+        private final ThreadLocal<ProductStatements> mStatements = new ThreadLocal<>();
+
+        /**
+         * Every set handed out, so they can be closed together. Guarded by itself.
+         */
+        private final List<ProductStatements> mAll = new ArrayList<>();
+
+        /**
+         * Return the statements of the current thread for the given database.
+         */
+        ProductStatements get(SQLiteDatabase database) {
+            ProductStatements statements = mStatements.get();
+            if (statements != null && !statements.mClosed && statements.mDatabase == database) {
+                return statements;
+            }
+            synchronized (mAll) {
+                // The database was reopened, so the old statements refer to the closed one
+                if (statements != null && !statements.mClosed) {
+                    statements.close();
+                    mAll.remove(statements);
+                }
+                statements = new ProductStatements(database);
+                mAll.add(statements);
+            }
+            mStatements.set(statements);
+            return statements;
+        }
+
+        /**
+         * Close the statements of all threads. Threads compile new ones the next time they ask.
+         */
+        void close() {
+            synchronized (mAll) {
+                for (ProductStatements statements : mAll) {
+                    statements.close();
+                }
+                mAll.clear();
+            }
+        }
+    }
+}
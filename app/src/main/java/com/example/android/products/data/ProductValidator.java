@@ -0,0 +1,117 @@
+package com.example.android.products.data;
+
+import android.content.ContentValues;
+import android.text.TextUtils;
+
+import com.example.android.products.data.ProductContract.ProductEntry;
+
+/**
+ * Validates product {@link ContentValues} before they are written. Validation is pure and has no
+ * side effects, so the provider can run it on any thread and callers can run the same checks up
+ * front to show their own error messages.
+ */
+public final class ProductValidator {
+
+    /**
+     * The values are valid.
+     */
+    public static final int VALID = 0;
+
+    /**
+     * The product name is missing or empty.
+     */
+    public static final int ERROR_NAME_REQUIRED = 1;
+
+    /**
+     * The price is missing, not a whole number of cents, or negative.
+     */
+    public static final int ERROR_INVALID_PRICE = 2;
+
+    /**
+     * The quantity is missing, not a whole number, or negative.
+     */
+    public static final int ERROR_INVALID_QUANTITY = 3;
+
+    /**
+     * The supplier name is missing or empty, or the supplier ID is invalid.
+     */
+    public static final int ERROR_SUPPLIER_REQUIRED = 4;
+
+    /**
+     * The supplier phone number is missing or empty.
+     */
+    public static final int ERROR_PHONE_REQUIRED = 5;
+
+    // To prevent someone from accidentally instantiating this class,
+    // give it an empty constructor.
+    private ProductValidator() {
+    }
+
+    /**
+     * Validate the values for a new product. Every column is required, except that the supplier
+     * can be given either by ID or by name and phone number.
+     *
+     * @return {@link #VALID} or the first error found
+     */
+    public static int validateInsert(ContentValues values) {
+        return validate(values, true);
+    }
+
+    /**
+     * Validate the values for an update. Only the columns that are present are checked.
+     *
+     * @return {@link #VALID} or the first error found
+     */
+    public static int validateUpdate(ContentValues values) {
+        return validate(values, false);
+    }
+
+    private static int validate(ContentValues values, boolean requireAll) {
+        if (requireAll || values.containsKey(ProductEntry.COLUMN_PRODUCT_NAME)) {
+            if (TextUtils.isEmpty(values.getAsString(ProductEntry.COLUMN_PRODUCT_NAME))) {
+                return ERROR_NAME_REQUIRED;
+            }
+        }
+
+        if (requireAll || values.containsKey(ProductEntry.COLUMN_PRODUCT_PRICE)) {
+            // Prices are whole cents. getAsLong() would silently truncate a Float or Double, so
+            // reject those before it gets the chance.
+            Object value = values.get(ProductEntry.COLUMN_PRODUCT_PRICE);
+            Long price = value instanceof Float || value instanceof Double
+                    ? null : values.getAsLong(ProductEntry.COLUMN_PRODUCT_PRICE);
+            if (price == null || price < 0) {
+                return ERROR_INVALID_PRICE;
+            }
+        }
+
+        if (requireAll || values.containsKey(ProductEntry.COLUMN_PRODUCT_QUANTITY)) {
+            Integer quantity = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+            if (quantity == null || quantity < 0) {
+                return ERROR_INVALID_QUANTITY;
+            }
+        }
+
+        // A product can name its supplier by ID instead of by name and phone number
+        boolean requireSupplier = requireAll && !values.containsKey(ProductEntry.COLUMN_SUPPLIER_ID);
+        if (values.containsKey(ProductEntry.COLUMN_SUPPLIER_ID)) {
+            Long supplierId = values.getAsLong(ProductEntry.COLUMN_SUPPLIER_ID);
+            if (supplierId == null || supplierId <= 0) {
+                return ERROR_SUPPLIER_REQUIRED;
+            }
+        }
+
+        if (requireSupplier || values.containsKey(ProductEntry.COLUMN_SUPPLIER_NAME)) {
+            if (TextUtils.isEmpty(values.getAsString(ProductEntry.COLUMN_SUPPLIER_NAME))) {
+                return ERROR_SUPPLIER_REQUIRED;
+            }
+        }
+
+        if (requireSupplier || values.containsKey(ProductEntry.COLUMN_SUPPlIER_PHONE)) {
+            if (TextUtils.isEmpty(values.getAsString(ProductEntry.COLUMN_SUPPlIER_PHONE))) {
+                return ERROR_PHONE_REQUIRED;
+            }
+        }
+
+        return VALID;
+    }
+}
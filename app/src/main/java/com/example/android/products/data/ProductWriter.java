@@ -0,0 +1,370 @@
+package com.example.android.products.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.android.products.data.ProductContract.ProductEntry;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs product writes off the main thread on a single writer thread, in the order they were
+ * submitted. Results are delivered to a {@link Callback} on the main thread.
+ * <p>
+ * Back-to-back writes to the same product that haven't started yet are coalesced: updates are
+ * merged into one update, and quantity changes are sent in one provider call that applies them
+ * in order in one transaction. Sales are only coalesced with sales and adjustments with
+ * adjustments, so the stock movements keep the reason of each. Only the last queued write is ever
+ * coalesced into, so writes never
+ * run ahead of ones submitted before them. Every caller still gets its callback: updates with the
+ * result of the combined write, and quantity changes with the quantity right after their own
+ * change.
+ */
+public final class ProductWriter {
+
+    public static final String LOG_TAG = ProductWriter.class.getSimpleName();
+
+    /**
+     * Receives the result of a write on the main thread.
+     *
+     * @param <T> type of the result
+     */
+    public interface Callback<T> {
+        /**
+         * @param result the result of the write, or null if it failed
+         */
+        void onComplete(T result);
+    }
+
+    private static ProductWriter sInstance;
+
+    private final ContentResolver mContentResolver;
+    private final Executor mExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Guards {@link #mLastQueued} and the callbacks and values of queued writes
+     */
+    private final Object mLock = new Object();
+
+    /**
+     * The most recently queued write if it hasn't started yet, the only one later writes can be
+     * coalesced into. Guarded by {@link #mLock}.
+     */
+    private PendingWrite<?> mLastQueued;
+
+    private ProductWriter(Context context) {
+        this(context.getContentResolver(), Executors.newSingleThreadExecutor());
+    }
+
+    /**
+     * Create a writer that runs its writes on the given executor, which must run them one at a
+     * time in order. Lets tests decide when queued writes start.
+     */
+    ProductWriter(ContentResolver contentResolver, Executor executor) {
+        mContentResolver = contentResolver;
+        mExecutor = executor;
+    }
+
+    /**
+     * @return the writer shared by the whole app, so all writes go through one queue
+     */
+    public static synchronized ProductWriter getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ProductWriter(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Insert a new product. The callback receives the URI of the new product.
+     */
+    public void insert(final ContentValues values, Callback<Uri> callback) {
+        PendingWrite<Uri> write = new PendingWrite<Uri>(null) {
+            @Override
+            Uri execute() {
+                return mContentResolver.insert(ProductEntry.CONTENT_URI, values);
+            }
+        };
+        write.mCallbacks.add(callback);
+        enqueue(write);
+    }
+
+    /**
+     * Update a single product. If an update of the same product is still queued, the new values
+     * are merged into it. The callback receives the number of rows updated.
+     */
+    public void update(final Uri uri, ContentValues values, Callback<Integer> callback) {
+        String key = "update:" + uri;
+        synchronized (mLock) {
+            if (mLastQueued != null && key.equals(mLastQueued.mKey)) {
+                // Later values win, like they would if both updates ran
+                UpdateWrite queued = (UpdateWrite) mLastQueued;
+                queued.mValues.putAll(values);
+                queued.mCallbacks.add(callback);
+                return;
+            }
+            UpdateWrite write = new UpdateWrite(key, uri, new ContentValues(values));
+            write.mCallbacks.add(callback);
+            enqueue(write);
+        }
+    }
+
+    /**
+     * Add a (possibly negative) delta to the quantity of a product. If an adjustment of the same
+     * product is still queued, the delta joins it, and is still accepted or rejected on its own.
+     * The callback receives the quantity right after this delta was applied, or -1 if there was
+     * not enough stock for it.
+     */
+    public void adjustQuantity(long id, int delta, Callback<Long> callback) {
+        changeQuantity("adjust:" + id, id, ProductEntry.METHOD_ADJUST_QUANTITY,
+                ProductEntry.EXTRA_DELTAS, delta, callback);
+    }
+
+    /**
+     * Sell the given number of units of a product, recorded in the stock movements as a sale.
+     * If a sale of the same product is still queued, this one joins it, but never an adjustment,
+     * so each keeps its reason. The callback receives the quantity right after this sale, or -1
+     * if there was not enough stock for it.
+     */
+    public void sell(long id, int amount, Callback<Long> callback) {
+        changeQuantity("sell:" + id, id, ProductEntry.METHOD_SELL, ProductEntry.EXTRA_AMOUNTS, amount, callback);
+    }
+
+    /**
+     * Queue a change of the quantity of a product, or add it to the same kind of change if that
+     * is still queued.
+     *
+     * @param method provider method that makes the changes
+     * @param extra  extra of the method that holds the values of the changes
+     */
+    private void changeQuantity(String key, long id, String method, String extra, int value,
+                                Callback<Long> callback) {
+        synchronized (mLock) {
+            if (mLastQueued != null && key.equals(mLastQueued.mKey)) {
+                QuantityWrite queued = (QuantityWrite) mLastQueued;
+                queued.mValues.add(value);
+                queued.mCallbacks.add(callback);
+                return;
+            }
+            QuantityWrite write = new QuantityWrite(key, id, method, extra);
+            write.mValues.add(value);
+            write.mCallbacks.add(callback);
+            enqueue(write);
+        }
+    }
+
+    /**
+     * Delete the products at the given URI. The callback receives the number of rows deleted.
+     */
+    public void delete(final Uri uri, Callback<Integer> callback) {
+        PendingWrite<Integer> write = new PendingWrite<Integer>(null) {
+            @Override
+            Integer execute() {
+                return mContentResolver.delete(uri, null, null);
+            }
+        };
+        write.mCallbacks.add(callback);
+        enqueue(write);
+    }
+
+    /**
+     * Import products from a CSV document, see {@link ProductCsv}. The import runs on the writer
+     * queue like any other write. Progress is reported to the listener on the main thread, and
+     * the callback receives the number of products imported.
+     */
+    public void importCsv(final Uri source, final ProductCsv.ProgressListener listener,
+                          Callback<Long> callback) {
+        PendingWrite<Long> write = new PendingWrite<Long>(null) {
+            @Override
+            Long execute() {
+                InputStream in = null;
+                try {
+                    in = mContentResolver.openInputStream(source);
+                    if (in == null) {
+                        Log.e(LOG_TAG, "Failed to open " + source);
+                        return null;
+                    }
+                    return ProductCsv.importCsv(mContentResolver, in, new ProductCsv.ProgressListener() {
+                        @Override
+                        public void onProgress(final long rows, final long elapsedMillis) {
+                            Log.i(LOG_TAG, "importCsv: " + rows + " rows in " + elapsedMillis + " ms");
+                            mMainHandler.post(new Runnable() {
+                                @Override
+                                public void run() {
+                                    listener.onProgress(rows, elapsedMillis);
+                                }
+                            });
+                        }
+                    });
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Failed to import " + source, e);
+                    return null;
+                } finally {
+                    if (in != null) {
+                        try {
+                            in.close();
+                        } catch (IOException e) {
+                            Log.w(LOG_TAG, "Failed to close " + source, e);
+                        }
+                    }
+                }
+            }
+        };
+        write.mCallbacks.add(callback);
+        enqueue(write);
+    }
+
+    /**
+     * Queue a write behind every write submitted before it. Later writes can only be coalesced
+     * into it until another write is queued.
+     */
+    private void enqueue(PendingWrite<?> write) {
+        synchronized (mLock) {
+            mLastQueued = write;
+            mExecutor.execute(write);
+        }
+    }
+
+    /**
+     * A queued write and the callbacks waiting for its result.
+     */
+    private abstract class PendingWrite<T> implements Runnable {
+
+        /**
+         * Coalescing key, or null if this write is never coalesced
+         */
+        final String mKey;
+
+        /**
+         * Callbacks to notify. Only modified while the write is {@link #mLastQueued}.
+         */
+        final List<Callback<T>> mCallbacks = new ArrayList<>();
+
+        PendingWrite(String key) {
+            mKey = key;
+        }
+
+        /**
+         * Perform the write on the writer thread.
+         */
+        abstract T execute();
+
+        @Override
+        public void run() {
+            // Once started, later writes to the same product are queued separately
+            synchronized (mLock) {
+                if (mLastQueued == this) {
+                    mLastQueued = null;
+                }
+            }
+
+            T result = null;
+            try {
+                result = execute();
+            } catch (RuntimeException e) {
+                Log.e(LOG_TAG, "Write failed", e);
+            }
+
+            final T finalResult = result;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < mCallbacks.size(); i++) {
+                        Callback<T> callback = mCallbacks.get(i);
+                        if (callback != null) {
+                            callback.onComplete(finalResult == null ? null : getResult(finalResult, i));
+                        }
+                    }
+                }
+            });
+        }
+
+        /**
+         * Return the result for the caller whose callback is at the given index. Every caller
+         * gets the result of the whole write unless the write keeps one result per caller.
+         */
+        T getResult(T result, int index) {
+            return result;
+        }
+    }
+
+    /**
+     * An update of a single product, whose values later updates can be merged into.
+     */
+    private class UpdateWrite extends PendingWrite<Integer> {
+
+        final Uri mUri;
+        final ContentValues mValues;
+
+        UpdateWrite(String key, Uri uri, ContentValues values) {
+            super(key);
+            mUri = uri;
+            mValues = values;
+        }
+
+        @Override
+        Integer execute() {
+            return mContentResolver.update(mUri, mValues, null, null);
+        }
+    }
+
+    /**
+     * Sales or adjustments of the quantity of a single product, which later ones of the same
+     * kind can join. They are applied in order, each with its own result in the same order as
+     * the callbacks.
+     */
+    private class QuantityWrite extends PendingWrite<Long> {
+
+        final long mId;
+        final String mMethod;
+        final String mExtra;
+        final List<Integer> mValues = new ArrayList<>();
+
+        /**
+         * Quantity right after each change, or -1 where the change failed. Written on the writer
+         * thread before the callbacks are posted.
+         */
+        private long[] mResults;
+
+        QuantityWrite(String key, long id, String method, String extra) {
+            super(key);
+            mId = id;
+            mMethod = method;
+            mExtra = extra;
+        }
+
+        @Override
+        Long execute() {
+            int[] values = new int[mValues.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = mValues.get(i);
+            }
+            Bundle extras = new Bundle();
+            extras.putIntArray(mExtra, values);
+            Bundle result = mContentResolver.call(ProductEntry.CONTENT_URI, mMethod, String.valueOf(mId), extras);
+            long[] quantities = result == null ? null : result.getLongArray(ProductEntry.EXTRA_QUANTITIES);
+            if (quantities == null) {
+                return null;
+            }
+            mResults = quantities;
+            return mResults[mResults.length - 1];
+        }
+
+        @Override
+        Long getResult(Long result, int index) {
+            return mResults[index];
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.example.android.products.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQuery;
+import android.os.Bundle;
+
+import com.example.android.products.data.ProductContract.ProductEntry;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Timers and counters for the hot paths of the data layer, cheap enough to stay on in
+ * production: recording a sample is a map lookup and a few additions under a lock. Metrics are
+ * named after the operation and the URI pattern, such as "query products/#", "fill products/#"
+ * for the cursor window fills of that query, or "notify products" for change notifications.
+ * <p>
+ * The metrics are shared by the whole process, so loaders can record into the same place as the
+ * provider. Read them with {@link ProductEntry#METHOD_METRICS} or from a device with
+ * <pre>
+ * adb shell dumpsys activity provider com.example.android.products/.data.ProductProvider
+ * </pre>
+ */
+public final class ProviderMetrics {
+
+    /**
+     * Upper bounds of the latency histogram buckets in microseconds. The last bucket holds
+     * everything slower.
+     */
+    private static final long[] BUCKET_BOUNDS_US = {
+            50, 100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000, 250000, 1000000};
+
+    private static ProviderMetrics sInstance;
+
+    /**
+     * Metrics by name, sorted so dumps group the operations together. Guarded by itself.
+     */
+    private final Map<String, Metric> mMetrics = new TreeMap<>();
+
+    /**
+     * Name of the provider URI pattern whose query is creating cursors on this thread, or null
+     * if the cursors are not metered
+     */
+    private final ThreadLocal<String> mCursorMatch = new ThreadLocal<>();
+
+    private final SQLiteDatabase.CursorFactory mCursorFactory = new SQLiteDatabase.CursorFactory() {
+        @Override
+        public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver driver, String editTable,
+                                SQLiteQuery query) {
+            String match = mCursorMatch.get();
+            if (match == null) {
+                return new SQLiteCursor(driver, editTable, query);
+            }
+            return new MeteredCursor(driver, editTable, query, ProviderMetrics.this, match);
+        }
+    };
+
+    private ProviderMetrics() {
+    }
+
+    /**
+     * @return the metrics of this process
+     */
+    public static synchronized ProviderMetrics getInstance() {
+        if (sInstance == null) {
+            sInstance = new ProviderMetrics();
+        }
+        return sInstance;
+    }
+
+    /**
+     * @return the factory to open the database with, so queries can return metered cursors
+     */
+    SQLiteDatabase.CursorFactory getCursorFactory() {
+        return mCursorFactory;
+    }
+
+    /**
+     * Meter the cursors created on this thread as results of the given URI pattern, until
+     * called again with null.
+     */
+    void setCursorMatch(String match) {
+        mCursorMatch.set(match);
+    }
+
+    /**
+     * Record a timed operation and the number of rows it returned or changed.
+     */
+    public void record(String name, long nanos, long rows) {
+        Metric metric = getMetric(name);
+        synchronized (metric) {
+            metric.add(nanos, rows);
+        }
+    }
+
+    /**
+     * Add rows to a timed operation without another sample, for results that are only counted
+     * after the operation returned.
+     */
+    void addRows(String name, long rows) {
+        Metric metric = getMetric(name);
+        synchronized (metric) {
+            metric.mRows += rows;
+        }
+    }
+
+    /**
+     * Count an event that isn't timed.
+     */
+    void count(String name) {
+        Metric metric = getMetric(name);
+        synchronized (metric) {
+            metric.mCount++;
+        }
+    }
+
+    /**
+     * Drop all samples, to measure from a known point.
+     */
+    public void reset() {
+        synchronized (mMetrics) {
+            mMetrics.clear();
+        }
+    }
+
+    private Metric getMetric(String name) {
+        synchronized (mMetrics) {
+            Metric metric = mMetrics.get(name);
+            if (metric == null) {
+                metric = new Metric();
+                mMetrics.put(name, metric);
+            }
+            return metric;
+        }
+    }
+
+    /**
+     * Return a bundle with one bundle per metric, keyed by name, in the format described by
+     * {@link ProductEntry#METHOD_METRICS}.
+     */
+    Bundle toBundle() {
+        Bundle result = new Bundle();
+        result.putLongArray(ProductEntry.EXTRA_METRIC_BUCKETS_US, BUCKET_BOUNDS_US);
+        for (Map.Entry<String, Metric> entry : snapshot().entrySet()) {
+            Metric metric = entry.getValue();
+            Bundle bundle = new Bundle();
+            bundle.putLong(ProductEntry.EXTRA_METRIC_COUNT, metric.mCount);
+            bundle.putLong(ProductEntry.EXTRA_METRIC_ROWS, metric.mRows);
+            if (metric.mSamples > 0) {
+                bundle.putLong(ProductEntry.EXTRA_METRIC_TOTAL_US, metric.mTotalNanos / 1000);
+                bundle.putLong(ProductEntry.EXTRA_METRIC_MAX_US, metric.mMaxNanos / 1000);
+                bundle.putLong(ProductEntry.EXTRA_METRIC_P50_US, metric.percentileMicros(50));
+                bundle.putLong(ProductEntry.EXTRA_METRIC_P90_US, metric.percentileMicros(90));
+                bundle.putLong(ProductEntry.EXTRA_METRIC_P99_US, metric.percentileMicros(99));
+                bundle.putLongArray(ProductEntry.EXTRA_METRIC_HISTOGRAM, metric.mBuckets);
+            }
+            result.putBundle(entry.getKey(), bundle);
+        }
+        return result;
+    }
+
+    /**
+     * Print one line per metric.
+     */
+    void dump(PrintWriter writer) {
+        writer.println("Provider metrics (latencies in us, percentiles are bucket upper bounds):");
+        for (Map.Entry<String, Metric> entry : snapshot().entrySet()) {
+            Metric metric = entry.getValue();
+            if (metric.mSamples == 0) {
+                writer.println(String.format(Locale.US, "  %-32s count=%d", entry.getKey(), metric.mCount));
+                continue;
+            }
+            writer.println(String.format(Locale.US,
+                    "  %-32s count=%d rows=%d mean=%d p50=%d p90=%d p99=%d max=%d",
+                    entry.getKey(), metric.mCount, metric.mRows,
+                    metric.mTotalNanos / metric.mSamples / 1000, metric.percentileMicros(50),
+                    metric.percentileMicros(90), metric.percentileMicros(99), metric.mMaxNanos / 1000));
+        }
+    }
+
+    /**
+     * Copy every metric, so they can be formatted without holding the locks.
+     */
+    private Map<String, Metric> snapshot() {
+        Map<String, Metric> copy = new TreeMap<>();
+        synchronized (mMetrics) {
+            copy.putAll(mMetrics);
+        }
+        for (Map.Entry<String, Metric> entry : copy.entrySet()) {
+            Metric metric = entry.getValue();
+            synchronized (metric) {
+                entry.setValue(metric.copy());
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Counts of a single metric. Guarded by itself.
+     */
+    private static final class Metric {
+
+        long mCount;
+        long mRows;
+        long mSamples;
+        long mTotalNanos;
+        long mMaxNanos;
+        long[] mBuckets = new long[BUCKET_BOUNDS_US.length + 1];
+
+        void add(long nanos, long rows) {
+            mCount++;
+            mRows += rows;
+            mSamples++;
+            mTotalNanos += nanos;
+            mMaxNanos = Math.max(mMaxNanos, nanos);
+            long micros = nanos / 1000;
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS_US.length && micros > BUCKET_BOUNDS_US[bucket]) {
+                bucket++;
+            }
+            mBuckets[bucket]++;
+        }
+
+        /**
+         * @return the upper bound of the bucket holding the given percentile, or the maximum
+         * if that is the last bucket
+         */
+        long percentileMicros(double percentile) {
+            long rank = (long) Math.ceil(percentile / 100.0 * mSamples);
+            long seen = 0;
+            for (int bucket = 0; bucket < BUCKET_BOUNDS_US.length; bucket++) {
+                seen += mBuckets[bucket];
+                if (seen >= rank) {
+                    return Math.min(BUCKET_BOUNDS_US[bucket], mMaxNanos / 1000);
+                }
+            }
+            return mMaxNanos / 1000;
+        }
+
+        Metric copy() {
+            Metric copy = new Metric();
+            copy.mCount = mCount;
+            copy.mRows = mRows;
+            copy.mSamples = mSamples;
+            copy.mTotalNanos = mTotalNanos;
+            copy.mMaxNanos = mMaxNanos;
+            copy.mBuckets = mBuckets.clone();
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.android.products.sync;
+
+import com.example.android.products.data.ProductContract.ChangeEntry;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-process {@link SyncServer} that keeps everything in memory, to run the {@link SyncEngine}
+ * against until the back office is reachable, and to test it with several devices in one
+ * process. It follows the same rules a real server must: pushes are idempotent per device,
+ * quantity deltas are always accepted, and other columns only when they are newer than the value
+ * the server has.
+ */
+public class FakeSyncServer implements SyncServer {
+
+    /**
+     * Accepted changes, the change at index i has version i + 1
+     */
+    private final List<ProductChange> mChanges = new ArrayList<>();
+
+    /**
+     * Device that pushed each change in {@link #mChanges}
+     */
+    private final List<String> mOrigins = new ArrayList<>();
+
+    /**
+     * Last sequence number stored per device
+     */
+    private final Map<String, Long> mAcknowledged = new HashMap<>();
+
+    /**
+     * What the server knows about each product, by sync ID
+     */
+    private final Map<String, ProductState> mProducts = new HashMap<>();
+
+    private boolean mOffline;
+
+    /**
+     * Make every request fail with an {@link IOException} until set back, to test retries.
+     */
+    public synchronized void setOffline(boolean offline) {
+        mOffline = offline;
+    }
+
+    /**
+     * @return the version of the newest change
+     */
+    public synchronized long getVersion() {
+        return mChanges.size();
+    }
+
+    @Override
+    public synchronized long push(String deviceId, List<ProductChange> changes) throws IOException {
+        checkOnline();
+        Long acknowledged = mAcknowledged.get(deviceId);
+        long last = acknowledged != null ? acknowledged : 0;
+        for (ProductChange change : changes) {
+            if (change.sequence <= last) {
+                continue;
+            }
+            ProductChange accepted = resolve(change);
+            if (accepted != null) {
+                mChanges.add(accepted.withSequence(mChanges.size() + 1));
+                mOrigins.add(deviceId);
+            }
+            last = change.sequence;
+        }
+        mAcknowledged.put(deviceId, last);
+        return last;
+    }
+
+    @Override
+    public synchronized Batch pull(String deviceId, long sinceVersion, int limit) throws IOException {
+        checkOnline();
+        List<ProductChange> changes = new ArrayList<>();
+        long version = sinceVersion;
+        while (version < mChanges.size() && changes.size() < limit) {
+            // Versions start at 1
+            int index = (int) version;
+            if (!mOrigins.get(index).equals(deviceId)) {
+                changes.add(mChanges.get(index));
+            }
+            version++;
+        }
+        return new Batch(changes, version, version < mChanges.size());
+    }
+
+    private void checkOnline() throws IOException {
+        if (mOffline) {
+            throw new IOException("Sync server is offline");
+        }
+    }
+
+    /**
+     * Resolve a pushed change against what the server knows, and return the part of it that
+     * other devices need to apply, or null if nothing is left.
+     */
+    private ProductChange resolve(ProductChange change) {
+        ProductState state = mProducts.get(change.syncId);
+        if (state == null) {
+            state = new ProductState();
+            mProducts.put(change.syncId, state);
+        }
+        if (state.deleted) {
+            return null;
+        }
+        if (change.operation == ChangeEntry.OPERATION_DELETE) {
+            state.deleted = true;
+            return change;
+        }
+
+        String name = null;
+        if (change.name != null && change.changedAt > state.nameChangedAt) {
+            name = change.name;
+            state.nameChangedAt = change.changedAt;
+        }
+        Long priceCents = null;
+        if (change.priceCents != null && change.changedAt > state.priceChangedAt) {
+            priceCents = change.priceCents;
+            state.priceChangedAt = change.changedAt;
+        }
+        String supplierName = null;
+        String supplierPhone = null;
+        if (change.supplierName != null && change.changedAt > state.supplierChangedAt) {
+            supplierName = change.supplierName;
+            supplierPhone = change.supplierPhone;
+            state.supplierChangedAt = change.changedAt;
+        }
+
+        if (change.operation == ChangeEntry.OPERATION_UPDATE && name == null && priceCents == null
+                && supplierName == null && change.quantityDelta == 0) {
+            return null;
+        }
+        return new ProductChange(change.sequence, change.syncId, change.operation, name, priceCents,
+                change.quantityDelta, supplierName, supplierPhone, change.changedAt);
+    }
+
+    /**
+     * When each column of a product last changed, and whether it was deleted.
+     */
+    private static final class ProductState {
+        long nameChangedAt;
+        long priceChangedAt;
+        long supplierChangedAt;
+        boolean deleted;
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.android.products.sync;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.products.data.ProductContract.ChangeEntry;
+
+/**
+ * A single change of a product, as journaled in {@link ChangeEntry} and exchanged with the
+ * {@link SyncServer}. Updates only carry the columns that changed.
+ */
+public final class ProductChange {
+
+    /**
+     * Journal sequence number of a local change, or server version of a pulled change
+     */
+    public final long sequence;
+
+    /**
+     * Identity of the product shared by all devices
+     */
+    public final String syncId;
+
+    /**
+     * One of the {@code ChangeEntry.OPERATION_*} values
+     */
+    public final int operation;
+
+    /**
+     * New name, or null if unchanged
+     */
+    public final String name;
+
+    /**
+     * New price in cents, or null if unchanged
+     */
+    public final Long priceCents;
+
+    /**
+     * Change of the quantity, the whole quantity for an insert
+     */
+    public final long quantityDelta;
+
+    /**
+     * New supplier name and phone number, or null if unchanged
+     */
+    public final String supplierName;
+    public final String supplierPhone;
+
+    /**
+     * When the change was made, in milliseconds since the epoch
+     */
+    public final long changedAt;
+
+    public ProductChange(long sequence, String syncId, int operation, String name, Long priceCents,
+                         long quantityDelta, String supplierName, String supplierPhone, long changedAt) {
+        this.sequence = sequence;
+        this.syncId = syncId;
+        this.operation = operation;
+        this.name = name;
+        this.priceCents = priceCents;
+        this.quantityDelta = quantityDelta;
+        this.supplierName = supplierName;
+        this.supplierPhone = supplierPhone;
+        this.changedAt = changedAt;
+    }
+
+    /**
+     * Read the change at the current position of a cursor over {@link ChangeEntry#CONTENT_URI}.
+     */
+    static ProductChange fromCursor(Cursor cursor) {
+        int priceIndex = cursor.getColumnIndexOrThrow(ChangeEntry.COLUMN_PRODUCT_PRICE);
+        return new ProductChange(
+                cursor.getLong(cursor.getColumnIndexOrThrow(ChangeEntry._ID)),
+                cursor.getString(cursor.getColumnIndexOrThrow(ChangeEntry.COLUMN_SYNC_ID)),
+                cursor.getInt(cursor.getColumnIndexOrThrow(ChangeEntry.COLUMN_OPERATION)),
+                cursor.getString(cursor.getColumnIndexOrThrow(ChangeEntry.COLUMN_PRODUCT_NAME)),
+                cursor.isNull(priceIndex) ? null : cursor.getLong(priceIndex),
+                cursor.getLong(cursor.getColumnIndexOrThrow(ChangeEntry.COLUMN_QUANTITY_DELTA)),
+                cursor.getString(cursor.getColumnIndexOrThrow(ChangeEntry.COLUMN_SUPPLIER_NAME)),
+                cursor.getString(cursor.getColumnIndexOrThrow(ChangeEntry.COLUMN_SUPPLIER_PHONE)),
+                cursor.getLong(cursor.getColumnIndexOrThrow(ChangeEntry.COLUMN_CHANGED_AT)));
+    }
+
+    /**
+     * @return the change as values for {@link ChangeEntry#METHOD_APPLY_REMOTE_CHANGES}
+     */
+    ContentValues toValues() {
+        ContentValues values = new ContentValues();
+        values.put(ChangeEntry.COLUMN_SYNC_ID, syncId);
+        values.put(ChangeEntry.COLUMN_OPERATION, operation);
+        values.put(ChangeEntry.COLUMN_PRODUCT_NAME, name);
+        values.put(ChangeEntry.COLUMN_PRODUCT_PRICE, priceCents);
+        values.put(ChangeEntry.COLUMN_QUANTITY_DELTA, quantityDelta);
+        values.put(ChangeEntry.COLUMN_SUPPLIER_NAME, supplierName);
+        values.put(ChangeEntry.COLUMN_SUPPLIER_PHONE, supplierPhone);
+        values.put(ChangeEntry.COLUMN_CHANGED_AT, changedAt);
+        return values;
+    }
+
+    /**
+     * @return a copy of the change with another sequence number
+     */
+    public ProductChange withSequence(long sequence) {
+        return new ProductChange(sequence, syncId, operation, name, priceCents, quantityDelta,
+                supplierName, supplierPhone, changedAt);
+    }
+
+    @Override
+    public String toString() {
+        return "ProductChange{" + sequence + ", " + syncId + ", operation " + operation + "}";
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.android.products.sync;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.android.products.data.ProductContract.ChangeEntry;
+import com.example.android.products.data.ProductContract.ProductEntry;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Syncs the catalog with a {@link SyncServer} in deltas: the changes journaled since the last
+ * change the server acknowledged are pushed, then the changes of other devices since the last
+ * version pulled are applied, in batches of {@link #BATCH_SIZE}. Progress is stored after every
+ * batch, so an interrupted sync picks up where it stopped and never sends or applies a change
+ * twice.
+ * <p>
+ * Syncing blocks on the server, so call {@link #sync()} from a background thread.
+ */
+public class SyncEngine {
+
+    public static final String LOG_TAG = SyncEngine.class.getSimpleName();
+
+    /**
+     * Number of changes sent or applied at a time
+     */
+    static final int BATCH_SIZE = 200;
+
+    /**
+     * Number of changes transferred by a sync.
+     */
+    public static final class Result {
+        public final int pushed;
+        public final int pulled;
+
+        Result(int pushed, int pulled) {
+            this.pushed = pushed;
+            this.pulled = pulled;
+        }
+    }
+
+    private final ContentResolver mContentResolver;
+    private final SyncServer mServer;
+
+    public SyncEngine(Context context, SyncServer server) {
+        mContentResolver = context.getContentResolver();
+        mServer = server;
+    }
+
+    /**
+     * Push local changes, then pull remote ones. Local changes go first, so the server resolves
+     * conflicts with them before this device applies what the others did.
+     *
+     * @throws IOException if the server can't be reached; the batches done so far are kept
+     */
+    public Result sync() throws IOException {
+        Bundle state = mContentResolver.call(ChangeEntry.CONTENT_URI, ChangeEntry.METHOD_SYNC_STATE, null, null);
+        String deviceId = state.getString(ChangeEntry.EXTRA_DEVICE_ID);
+        int pushed = push(deviceId, state.getLong(ChangeEntry.EXTRA_LAST_PUSHED));
+        int pulled = pull(deviceId, state.getLong(ChangeEntry.EXTRA_LAST_PULLED));
+        Log.i(LOG_TAG, "sync: pushed " + pushed + ", pulled " + pulled + " changes");
+        return new Result(pushed, pulled);
+    }
+
+    private int push(String deviceId, long lastPushed) throws IOException {
+        Uri uri = ChangeEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(ProductEntry.QUERY_PARAMETER_LIMIT, String.valueOf(BATCH_SIZE))
+                .build();
+        int pushed = 0;
+        while (true) {
+            List<ProductChange> changes = new ArrayList<>();
+            Cursor cursor = mContentResolver.query(uri, null, ChangeEntry._ID + " > ?",
+                    new String[]{String.valueOf(lastPushed)}, ChangeEntry._ID);
+            try {
+                while (cursor.moveToNext()) {
+                    changes.add(ProductChange.fromCursor(cursor));
+                }
+            } finally {
+                cursor.close();
+            }
+            if (changes.isEmpty()) {
+                return pushed;
+            }
+
+            long acknowledged = mServer.push(deviceId, changes);
+            if (acknowledged <= lastPushed) {
+                throw new IOException("Sync server stored none of the changes after " + lastPushed);
+            }
+            mContentResolver.call(ChangeEntry.CONTENT_URI, ChangeEntry.METHOD_ACKNOWLEDGE_CHANGES,
+                    String.valueOf(acknowledged), null);
+            for (ProductChange change : changes) {
+                if (change.sequence <= acknowledged) {
+                    pushed++;
+                }
+            }
+            lastPushed = acknowledged;
+        }
+    }
+
+    private int pull(String deviceId, long lastPulled) throws IOException {
+        int pulled = 0;
+        while (true) {
+            SyncServer.Batch batch = mServer.pull(deviceId, lastPulled, BATCH_SIZE);
+            if (batch.version == lastPulled) {
+                return pulled;
+            }
+
+            // Applied together with the new version, even if every change was this device's own
+            ContentValues[] changes = new ContentValues[batch.changes.size()];
+            for (int i = 0; i < changes.length; i++) {
+                changes[i] = batch.changes.get(i).toValues();
+            }
+            Bundle extras = new Bundle();
+            extras.putParcelableArray(ChangeEntry.EXTRA_CHANGES, changes);
+            extras.putLong(ChangeEntry.EXTRA_LAST_PULLED, batch.version);
+            mContentResolver.call(ChangeEntry.CONTENT_URI, ChangeEntry.METHOD_APPLY_REMOTE_CHANGES, null, extras);
+
+            pulled += changes.length;
+            lastPulled = batch.version;
+            if (!batch.hasMore) {
+                return pulled;
+            }
+        }
+    }
+}
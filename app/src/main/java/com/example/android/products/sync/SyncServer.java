@@ -0,0 +1,58 @@
+package com.example.android.products.sync;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The back office end of the sync. Every device pushes the changes it journaled and pulls the
+ * changes of the other devices, in batches. The server keeps one ordered stream of accepted
+ * changes, numbered by version, and resolves conflicts the same way devices do: quantity
+ * deltas all count, other columns follow the last writer. A change of a column is only accepted
+ * if it's newer than the one the server has, so between changes made at the same time the one
+ * that reached the server first wins. That's why a device applies a remote change that is as
+ * new as its own: the remote one got there first.
+ */
+public interface SyncServer {
+
+    /**
+     * Store changes of a device, in sequence order. Changes the server already has from the
+     * device, up to the sequence number it acknowledged before, are ignored, so a push whose
+     * answer was lost can be repeated safely.
+     *
+     * @return the sequence number of the last change of the device the server has stored
+     */
+    long push(String deviceId, List<ProductChange> changes) throws IOException;
+
+    /**
+     * Return the changes of other devices after the given version, at most {@code limit}.
+     */
+    Batch pull(String deviceId, long sinceVersion, int limit) throws IOException;
+
+    /**
+     * Changes returned by {@link #pull(String, long, int)}.
+     */
+    final class Batch {
+
+        /**
+         * Changes of other devices, numbered by server version
+         */
+        public final List<ProductChange> changes;
+
+        /**
+         * Version to pull from next time. Can move on without changes when the only changes
+         * were the device's own.
+         */
+        public final long version;
+
+        /**
+         * Whether there are more changes after {@link #version}
+         */
+        public final boolean hasMore;
+
+        public Batch(List<ProductChange> changes, long version, boolean hasMore) {
+            this.changes = changes;
+            this.version = version;
+            this.hasMore = hasMore;
+        }
+    }
+}